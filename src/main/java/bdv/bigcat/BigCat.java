@@ -4,14 +4,22 @@ import java.awt.Cursor;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JOptionPane;
 import javax.swing.WindowConstants;
 
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 import org.scijava.ui.behaviour.util.TriggerBehaviourBindings;
 
@@ -21,6 +29,7 @@ import bdv.bigcat.composite.Composite;
 import bdv.bigcat.composite.CompositeCopy;
 import bdv.bigcat.control.AnnotationsController;
 import bdv.bigcat.control.ConfirmSegmentController;
+import bdv.bigcat.control.GoToSegmentController;
 import bdv.bigcat.control.DrawProjectAndIntersectController;
 import bdv.bigcat.control.LabelBrushController;
 import bdv.bigcat.control.LabelFillController;
@@ -30,23 +39,32 @@ import bdv.bigcat.control.NeuronIdsToFileController;
 import bdv.bigcat.control.SelectionController;
 import bdv.bigcat.control.TranslateZController;
 import bdv.bigcat.label.PairLabelMultiSetLongIdPicker;
+import bdv.bigcat.label.DownsampledLabelCanvas;
+import bdv.bigcat.label.SparseLabelCanvas;
 import bdv.bigcat.ui.ARGBConvertedLabelPairSource;
 import bdv.bigcat.ui.Util;
 import bdv.bigcat.util.DirtyInterval;
 import bdv.img.SetCache;
 import bdv.img.h5.AbstractH5SetupImageLoader;
+import bdv.img.h5.BlockMaxIds;
 import bdv.img.h5.H5LabelMultisetSetupImageLoader;
+import bdv.img.h5.H5ReaderPool;
 import bdv.img.h5.H5UnsignedByteSetupImageLoader;
 import bdv.img.h5.H5Utils;
+import bdv.img.n5.N5Utils;
 import bdv.labels.labelset.Label;
 import bdv.labels.labelset.LabelMultisetType;
 import bdv.labels.labelset.VolatileLabelMultisetType;
+import bdv.util.IdService;
 import bdv.util.LocalIdService;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.neighborhood.DiamondShape;
-import net.imglib2.img.cell.CellImg;
-import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealViews;
@@ -72,6 +90,9 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 		@Option( names = { "--outfile", "-o" }, description = "Output file path" )
 		public String outFile;
 
+		@Option( names = { "--canvasfile" }, description = "HDF5 file or N5 container (a directory or a path ending with .n5) to load the canvas from and save it to (default: input file path for loading and output file path for saving)" )
+		public String canvasFile;
+
 		@Override
 		public Optional<Void> call()
 		{
@@ -88,13 +109,25 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 	final protected long[] maxRawDimensions = new long[ 3 ];
 
 	/**
-	 * canvas that gets modified by brush TODO this has to change into a virtual
-	 * container with temporary storage
+	 * writable handles of the input files, kept open such that read-only
+	 * handles of a {@link Parameters#readerPool per-thread reader pool} are
+	 * opened after them
+	 */
+	final protected ArrayList< IHDF5Reader > writableReaders = new ArrayList<>();
+
+	/**
+	 * canvas that gets modified by brush, cells are allocated on first write
 	 */
-	protected CellImg< LongType, ? > canvas = null;
+	protected SparseLabelCanvas canvas = null;
 
-	/** interval in which pixels were modified */
-	final protected DirtyInterval dirtyLabelsInterval = new DirtyInterval();
+	/** interval and canvas cells in which pixels were modified */
+	protected DirtyInterval dirtyLabelsInterval = new DirtyInterval();
+
+	/**
+	 * true if the canvas was loaded from the dataset it will be saved to,
+	 * such that saving only modified cells is sufficient
+	 */
+	protected boolean canvasInSync = false;
 
 	/** controllers */
 	protected LabelPersistenceController persistenceController;
@@ -167,13 +200,15 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 		System.out.println( "Opening raw from " + params.inFile );
 		/* Open writable because HDF5 forces this file to be read only forEVER!!! otherwise */
 		final IHDF5Reader reader = HDF5Factory.open( params.inFile );
+		writableReaders.add( reader );
+		final H5ReaderPool readers = readerPool( params, params.inFile, reader );
 
 		/* raw pixels */
 		Arrays.fill( maxRawDimensions, 0 );
 		for ( final String raw : params.raws )
 			if ( reader.exists( raw ) )
 			{
-				final H5UnsignedByteSetupImageLoader rawLoader = new H5UnsignedByteSetupImageLoader( reader, raw, setupId++, cellDimensions, cache );
+				final H5UnsignedByteSetupImageLoader rawLoader = new H5UnsignedByteSetupImageLoader( readers, raw, setupId++, cellDimensions, cache );
 				raws.add( rawLoader );
 				max( maxRawDimensions, Intervals.dimensionsAsLongArray( rawLoader.getVolatileImage( 0, 0 ) ) );
 			}
@@ -190,26 +225,81 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 	 */
 	protected void initCanvas( final P params ) throws IOException
 	{
-		System.out.println( "Opening canvas from " + params.inFile );
-		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFile );
+		final String canvasInFile = params.canvasFile == null ? params.inFile : params.canvasFile;
+		System.out.println( "Opening canvas from " + canvasInFile );
 
 		/* canvas (to which the brush paints) */
-		if ( reader.exists( params.canvas ) )
-			canvas = H5Utils.loadUnsignedLong( reader, params.canvas, cellDimensions );
-		else
+		canvas = loadCanvas( canvasInFile, params.canvas );
+		/* cell by cell saves require the same uint64 dataset */
+		canvasInSync =
+				canvas != null &&
+				new File( canvasInFile ).getAbsoluteFile().equals( new File( canvasOutFile( params ) ).getAbsoluteFile() ) &&
+				( !N5Utils.isN5( canvasInFile ) || new N5FSReader( canvasInFile ).getDatasetAttributes( params.canvas ).getDataType() == DataType.UINT64 );
+
+		if ( canvas == null )
 		{
 			final long[] canvasDimensions;
 			if ( params.labels.size() > 0 )
+			{
+				final IHDF5Reader reader = HDF5Factory.openForReading( params.inFile );
 				canvasDimensions = AbstractH5SetupImageLoader.readDimension( reader, params.labels.get( 0 ) );
+				reader.close();
+			}
 			else
 				canvasDimensions = maxRawDimensions;
 
-			canvas = new CellImgFactory< LongType >( cellDimensions ).create( canvasDimensions, new LongType() );
-			for ( final LongType t : canvas )
-				t.set( Label.TRANSPARENT );
+			canvas = new SparseLabelCanvas( canvasDimensions, cellDimensions );
 		}
+		dirtyLabelsInterval = new DirtyInterval( canvas.getCellGrid() );
+	}
 
-		reader.close();
+	/**
+	 * Assignments are saved to the output file, such that they are loaded and
+	 * their journal is replayed from there once they were saved.
+	 */
+	@Override
+	protected String getAssignmentFile( final P params )
+	{
+		return params.outFile;
+	}
+
+	/**
+	 * @return the HDF5 file or N5 container that the canvas is saved to
+	 */
+	static protected String canvasOutFile( final Parameters params )
+	{
+		return params.canvasFile == null ? params.outFile : params.canvasFile;
+	}
+
+	/**
+	 * Load a canvas from an HDF5 file or an N5 container, selected by
+	 * {@link N5Utils#isN5(String)}.
+	 *
+	 * @param path
+	 * @param dataset
+	 * @return the canvas or {@code null} if it does not exist
+	 * @throws IOException
+	 */
+	protected SparseLabelCanvas loadCanvas( final String path, final String dataset ) throws IOException
+	{
+		if ( !new File( path ).exists() )
+			return null;
+
+		if ( N5Utils.isN5( path ) )
+		{
+			final N5Reader n5 = new N5FSReader( path );
+			return n5.datasetExists( dataset ) ? N5Utils.loadSparseUnsignedLong( n5, dataset ) : null;
+		}
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( path );
+		try
+		{
+			return reader.exists( dataset ) ? H5Utils.loadSparseUnsignedLong( reader, dataset, cellDimensions ) : null;
+		}
+		finally
+		{
+			reader.close();
+		}
 	}
 
 	/**
@@ -224,13 +314,18 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 		System.out.println( "Opening labels from " + params.inFileLabels );
 		/* Open writable because HDF5 forces this file to be read only forEVER!!! otherwise */
 		final IHDF5Reader reader = HDF5Factory.open( params.inFileLabels );
+		writableReaders.add( reader );
+		final H5ReaderPool readers = readerPool( params, params.inFileLabels, reader );
 
 		/* labels */
-		for ( final String label : params.labels )
+		for ( int i = 0; i < params.labels.size(); ++i )
+		{
+			final String label = params.labels.get( i );
 			if ( reader.exists( label ) )
-				readLabels( reader, label );
-		else
+				readLabels( readers, openLabelScales( params, i ), label );
+			else
 				System.out.println( "no label dataset '" + label + "' found" );
+		}
 	}
 
 	/**
@@ -247,7 +342,9 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 	}
 
 	/**
-	 * Load max id from file or find max id in labels and canvas.
+	 * Load max id from file or find max id in labels and canvas.  The max id
+	 * is saved as <code>next_id</code> with the assignments, see
+	 * {@link LabelPersistenceController#saveNextId()}.
 	 *
 	 * @param params
 	 * @throws IOException
@@ -259,20 +356,98 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 		long maxId = 0;
 		final Long nextIdObject = H5Utils.loadAttribute( reader, "/", "next_id" );
 
+		reader.close();
+
 		if ( nextIdObject == null )
 		{
-			for ( final H5LabelMultisetSetupImageLoader labelLoader : labels )
-				maxId = maxId( labelLoader, maxId );
+			maxId = maxLabelsId( params );
 
-			if ( reader.exists( params.canvas ) )
-				maxId = maxId( canvas, maxId );
+			for ( final Cell< SparseLabelCanvas.LazyLongArray > cell : canvas.getMaterializedCells() )
+				for ( final long id : cell.getData().getCurrentStorageArray() )
+					if ( Label.regular( id ) && IdService.greaterThan( id, maxId ) )
+						maxId = id;
 		}
 		else
 			maxId = nextIdObject.longValue() - 1;
 
 		idService.invalidate( maxId );
+	}
 
-		reader.close();
+	/**
+	 * Find the max id in all label datasets.  Per block max ids are loaded
+	 * from {@link BlockMaxIds#datasetFor(String)} if available and missing
+	 * blocks are scanned in parallel.  The result is saved for the next time
+	 * only if the labels are read from the output file, otherwise the input
+	 * file is not modified.
+	 *
+	 * Depends on {@link #labels} being initialized.
+	 *
+	 * @param params
+	 * @return
+	 * @throws IOException
+	 */
+	protected long maxLabelsId( final P params ) throws IOException
+	{
+		long maxId = 0;
+		final boolean save = new File( params.inFileLabels ).getAbsoluteFile().equals( new File( params.outFile ).getAbsoluteFile() );
+		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFileLabels );
+		final ExecutorService exec = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final HashMap< String, CellGrid > scannedGrids = new HashMap<>();
+		final HashMap< String, long[] > scannedBlockMaxIds = new HashMap<>();
+		try
+		{
+			int i = 0;
+			for ( final String label : params.labels )
+			{
+				if ( !reader.exists( label ) )
+					continue;
+
+				final RandomAccessibleInterval< LabelMultisetType > labelImage = labels.get( i++ ).getImage( 0 );
+				final CellGrid grid = new CellGrid( Intervals.dimensionsAsLongArray( labelImage ), cellDimensions );
+				final String blockMaxIdsDataset = BlockMaxIds.datasetFor( label );
+
+				long[] blockMaxIds = BlockMaxIds.load( reader, blockMaxIdsDataset, grid );
+				if ( blockMaxIds == null )
+					blockMaxIds = BlockMaxIds.create( grid );
+
+				final long t0 = System.currentTimeMillis();
+				final int numScanned = BlockMaxIds.scan( labelImage, grid, blockMaxIds, exec );
+				if ( numScanned > 0 )
+				{
+					System.out.println( "Scanning " + numScanned + " blocks of " + label + " for max id took " + ( System.currentTimeMillis() - t0 ) + " ms" );
+					scannedGrids.put( blockMaxIdsDataset, grid );
+					scannedBlockMaxIds.put( blockMaxIdsDataset, blockMaxIds );
+				}
+
+				maxId = IdService.max( maxId, BlockMaxIds.maxId( blockMaxIds ) );
+			}
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			exec.shutdown();
+			reader.close();
+		}
+
+		if ( save && !scannedBlockMaxIds.isEmpty() )
+		{
+			try
+			{
+				final IHDF5Writer writer = HDF5Factory.open( params.outFile );
+				for ( final String dataset : scannedBlockMaxIds.keySet() )
+					BlockMaxIds.save( writer, dataset, scannedGrids.get( dataset ), scannedBlockMaxIds.get( dataset ) );
+				writer.close();
+			}
+			catch ( final Exception e )
+			{
+				System.out.println( "Could not save block max ids to " + params.outFile + ": " + e.getMessage() );
+			}
+		}
+
+		return maxId;
 	}
 
 	/**
@@ -385,13 +560,16 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 					completeSegments,
 					idService,
 					params.outFile,
+					canvasOutFile( params ),
 					params.canvas,
 					params.export,
 					cellDimensions,
 					params.assignment,
 					params.completeSegments,
+					canvasInSync,
 					config,
 					bdv.getViewerFrame().getKeybindings() );
+			persistenceController.attachJournal( assignmentJournalFile, assignmentJournalSequence );
 
 			/* TODO fix to deal with more than one label set */
 			final LabelFillController fillController = new LabelFillController(
@@ -434,6 +612,15 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 					config,
 					bdv.getViewerFrame().getKeybindings() );
 
+			final GoToSegmentController goToSegment = new GoToSegmentController(
+					bdv.getViewer(),
+					selectionController,
+					assignment,
+					labels.get( 0 ),
+					labels.get( 0 ).getMipmapTransforms()[ 0 ],
+					config,
+					bdv.getViewerFrame().getKeybindings() );
+
 			final NeuronIdsToFileController storeController = new NeuronIdsToFileController(
 					bdv.getViewer(),
 					canvas,
@@ -474,6 +661,7 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 					final boolean reallyClose = saveBeforeClosing( params );
 					if ( reallyClose )
 					{
+						persistenceController.waitForBackgroundSaves();
 						bdv.getViewerFrame().getViewerPanel().stop();
 						bdv.getViewerFrame().setVisible( false );
 						// TODO really shouldn't kill the whole jvm in case some
@@ -520,45 +708,73 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 	}
 
 	/**
-	 * Creates a label loader, a label canvas pair and the converted pair and
-	 * adds them to the respective lists.
+	 * Creates a label loader, a label canvas pair per mipmap level and the
+	 * converted pair and adds them to the respective lists.  Lower levels
+	 * pair the label pyramid with a {@link DownsampledLabelCanvas} that is
+	 * updated whenever {@link #dirtyLabelsInterval} is touched.
 	 *
-	 * Depends on {@link #canvas} and {@link #colorStream} being initialized.
+	 * Depends on {@link #canvas}, {@link #dirtyLabelsInterval} and
+	 * {@link #colorStream} being initialized.
 	 *
 	 * Modifies {@link #labels}, {@link #setupId},
 	 * {@link #convertedLabelCanvasPairs}.
 	 *
-	 * @param reader
+	 * @param readers
+	 * @param scaleReaders
+	 *            label multiset pyramid or {@code null}
 	 * @param labelDataset
 	 * @throws IOException
 	 */
 	@Override
+	@SuppressWarnings( "unchecked" )
 	protected void readLabels(
-			final IHDF5Reader reader,
+			final H5ReaderPool readers,
+			final H5ReaderPool scaleReaders,
 			final String labelDataset ) throws IOException
 	{
 		/* labels */
 		final H5LabelMultisetSetupImageLoader labelLoader =
 				new H5LabelMultisetSetupImageLoader(
-						reader,
-						null,
+						readers,
+						scaleReaders,
 						labelDataset,
 						setupId++,
 						cellDimensions,
 						cache );
 
 		/* pair labels */
-		final RandomAccessiblePair< VolatileLabelMultisetType, LongType > labelCanvasPair =
+		final double[][] resolutions = labelLoader.getMipmapResolutions();
+		final int numLevels = resolutions.length;
+		final RandomAccessiblePair< VolatileLabelMultisetType, LongType >[] labelCanvasPairs = new RandomAccessiblePair[ numLevels ];
+		final Interval[] intervals = new Interval[ numLevels ];
+		labelCanvasPairs[ 0 ] =
 				new RandomAccessiblePair<>(
 						labelLoader.getVolatileImage( 0, 0 ),
 						canvas );
+		intervals[ 0 ] = canvas; // as Interval, used just for the size
+		for ( int level = 1; level < numLevels; ++level )
+		{
+			final int[] factors = new int[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				factors[ d ] = ( int ) Math.round( resolutions[ level ][ d ] / resolutions[ 0 ][ d ] );
+
+			final DownsampledLabelCanvas downsampledCanvas = new DownsampledLabelCanvas( canvas, factors, cellDimensions );
+			dirtyLabelsInterval.addListener( downsampledCanvas );
+
+			final RandomAccessibleInterval< VolatileLabelMultisetType > levelLabels = labelLoader.getVolatileImage( 0, level );
+			labelCanvasPairs[ level ] =
+					new RandomAccessiblePair<>(
+							levelLabels,
+							Views.extendValue( downsampledCanvas, new LongType( Label.TRANSPARENT ) ) );
+			intervals[ level ] = levelLabels;
+		}
 
 		/* converted pair */
 		final ARGBConvertedLabelPairSource convertedLabelCanvasPair =
 				new ARGBConvertedLabelPairSource(
 						setupId++,
-						labelCanvasPair,
-						canvas, // as Interval, used just for the size
+						labelCanvasPairs,
+						intervals,
 						labelLoader.getMipmapTransforms(),
 						colorStream );
 
@@ -594,6 +810,8 @@ public class BigCat< P extends BigCat.Parameters > extends BigCatViewer< P >
 			persistenceController.saveCompleteSegmentsAssignment();
 			persistenceController.savePaintedLabels();
 		}
+		else if ( reallyClose )
+			persistenceController.discardUnsavedAssignments();
 		return reallyClose;
 	}
 }
@@ -27,8 +27,10 @@ import bdv.img.SetCache;
 import bdv.img.dvid.LabelblkMultisetSetupImageLoader;
 import bdv.img.dvid.Uint8blkImageLoader;
 import bdv.labels.labelset.LabelMultisetType;
+import bdv.util.DiskBlockCache;
 import bdv.util.LocalIdService;
 import bdv.util.dvid.DatasetKeyValue;
+import bdv.util.dvid.Node;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
 import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.numeric.ARGBType;
@@ -46,6 +48,15 @@ public class BigCatDvidViewer extends BigCatViewer< BigCatDvidViewer.Parameters
 		@Option( names = { "--uuid" }, description = "UUID" )
 		public String uuid = "";
 
+		@Option( names = { "--cache-dir" }, description = "directory of the persistent block cache, no disk cache if empty" )
+		public String cacheDir = "";
+
+		@Option( names = { "--cache-size" }, description = "size of the persistent block cache in MB, default 4096" )
+		public long cacheSize = 4096;
+
+		@Option( names = { "--invalidate-cache" }, description = "drop cached blocks of the node, blocks of nodes that are not locked are never cached" )
+		public boolean invalidateCache = false;
+
 		public Parameters()
 		{
 			raws = Arrays.asList( new String[] { "grayscale" } );
@@ -60,6 +71,9 @@ public class BigCatDvidViewer extends BigCatViewer< BigCatDvidViewer.Parameters
 	/** loaded segments */
 	final protected ArrayList< LabelblkMultisetSetupImageLoader > labels = new ArrayList<>();
 
+	/** persistent block cache, may be null */
+	protected DiskBlockCache diskCache = null;
+
 	public static void main( final String[] args ) throws Exception
 	{
 		final Parameters params = new Parameters();
@@ -77,6 +91,23 @@ public class BigCatDvidViewer extends BigCatViewer< BigCatDvidViewer.Parameters
 	}
 
 
+	/**
+	 * @param params
+	 * @return whether the node is locked, false if that cannot be determined
+	 */
+	static protected boolean isLocked( final Parameters params )
+	{
+		try
+		{
+			return Node.isLocked( params.url, params.uuid );
+		}
+		catch ( final Exception e )
+		{
+			System.out.println( "Failed checking if node " + params.uuid + " is locked: " + e.getMessage() );
+			return false;
+		}
+	}
+
 	/**
 	 * Load raw data and labels and initialize canvas
 	 *
@@ -88,13 +119,29 @@ public class BigCatDvidViewer extends BigCatViewer< BigCatDvidViewer.Parameters
 	{
 		System.out.println( "Opening raw from " + params.url );
 
+		if ( !params.cacheDir.isEmpty() )
+		{
+			diskCache = new DiskBlockCache( params.cacheDir, params.cacheSize << 20 );
+			final boolean locked = isLocked( params );
+			if ( params.invalidateCache || !locked )
+				diskCache.invalidate( DiskBlockCache.dvidNodeKey( params.url, params.uuid ) );
+
+			/* blocks of a node that is not locked can change at any time */
+			if ( !locked )
+			{
+				System.out.println( "Node " + params.uuid + " is not locked, not using the block cache." );
+				diskCache = null;
+			}
+		}
+
 		/* raw pixels */
 		for ( final String raw : params.raws )
 		{
 			final Uint8blkImageLoader rawLoader = new Uint8blkImageLoader(
 					params.url,
 					params.uuid,
-					raw);
+					raw,
+					diskCache );
 
 			raws.add( rawLoader );
 		}
@@ -162,7 +209,8 @@ public class BigCatDvidViewer extends BigCatViewer< BigCatDvidViewer.Parameters
 						label,
 						resolutions,
 //						new DatasetKeyValue[]{ datasetKeyValue } );
-						new DatasetKeyValue[ 0 ] );
+						new DatasetKeyValue[ 0 ],
+						diskCache );
 
 				/* converted labels */
 				final ARGBConvertedLabelsSource convertedLabelsSource =
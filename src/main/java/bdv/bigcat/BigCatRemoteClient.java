@@ -202,13 +202,16 @@ public class BigCatRemoteClient extends BigCat< BigCatRemoteClient.Parameters >
 					completeSegments,
 					idService,
 					params.inFile,
+					params.canvasFile == null ? params.inFile : params.canvasFile,
 					params.canvas,
 					params.export,
 					cellDimensions,
 					params.assignment,
 					params.completeSegments,
+					canvasInSync,
 					config,
 					bdv.getViewerFrame().getKeybindings() );
+			persistenceController.attachJournal( assignmentJournalFile, assignmentJournalSequence );
 
 			/* TODO fix to deal with more than one label set */
 			final LabelFillController fillController = new LabelFillController(
@@ -269,6 +272,7 @@ public class BigCatRemoteClient extends BigCat< BigCatRemoteClient.Parameters >
 				public void windowClosing( final WindowEvent we )
 				{
 					saveBeforeClosing( params );
+					persistenceController.waitForBackgroundSaves();
 					System.exit( 0 );
 				}
 			} );
@@ -22,6 +22,7 @@ import bdv.bigcat.control.MergeController;
 import bdv.bigcat.control.SelectionController;
 import bdv.bigcat.control.TranslateZController;
 import bdv.bigcat.label.FragmentSegmentAssignment;
+import bdv.bigcat.label.FragmentSegmentJournal;
 import bdv.bigcat.label.LabelMultiSetIdPicker;
 import bdv.bigcat.label.SegmentAssignment;
 import bdv.bigcat.ui.ARGBConvertedLabelsSource;
@@ -31,6 +32,7 @@ import bdv.bigcat.ui.Util;
 import bdv.img.SetCache;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.h5.H5LabelMultisetSetupImageLoader;
+import bdv.img.h5.H5ReaderPool;
 import bdv.img.h5.H5UnsignedByteSetupImageLoader;
 import bdv.img.h5.H5Utils;
 import bdv.labels.labelset.Label;
@@ -66,6 +68,12 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 		@Option( names = { "--label", "-l" }, description = "label datasets" )
 		public List< String > labels = new ArrayList<>();
 
+		@Option( names = { "--labelscales", "-s" }, description = "label multiset pyramid files (as written by DownscaleToHdf5), one per label dataset" )
+		public List< String > labelScales = new ArrayList<>();
+
+		@Option( names = { "--readerpool", "-p" }, description = "open one read-only HDF5 handle per fetcher thread" )
+		public boolean readerPool = false;
+
 		@Option( names = { "--assignment", "-a" }, description = "fragment segment assignment table" )
 		public String assignment = "/fragment_segment_lut";
 
@@ -97,6 +105,16 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 	/** fragment to segment assignment */
 	protected FragmentSegmentAssignment assignment;
 
+	/**
+	 * journal that {@link #assignment} was replayed from and the sequence of
+	 * its last replayed entry, a persistence controller continues it if it
+	 * belongs to {@link #getAssignmentFile(Parameters)}, null if the journal
+	 * could not be read
+	 */
+	protected File assignmentJournalFile;
+
+	protected long assignmentJournalSequence;
+
 	/** complete segments */
 	protected SegmentAssignment completeSegments;
 
@@ -169,13 +187,14 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 	{
 		System.out.println( "Opening raw from " + params.inFile );
 		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFile );
+		final H5ReaderPool readers = readerPool( params, params.inFile, reader );
 
 		/* raw pixels */
 		for ( final String raw : params.raws )
 		{
 			if ( reader.exists( raw ) )
 			{
-				final H5UnsignedByteSetupImageLoader rawLoader = new H5UnsignedByteSetupImageLoader( reader, raw, setupId++, cellDimensions, cache );
+				final H5UnsignedByteSetupImageLoader rawLoader = new H5UnsignedByteSetupImageLoader( readers, raw, setupId++, cellDimensions, cache );
 				raws.add( rawLoader );
 			}
 			else
@@ -213,7 +232,31 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 	}
 
 	/**
-	 * Initialize assignments.
+	 * @return the HDF5 file that the fragment-segment assignment is saved to,
+	 *         its journal is next to it
+	 */
+	protected String getAssignmentFile( final P params )
+	{
+		return params.inFile;
+	}
+
+	/**
+	 * @return the snapshot of the fragment-segment assignment in a file, or
+	 *         null if there is none
+	 */
+	static protected String findAssignmentSnapshot( final IHDF5Reader reader, final String dataset )
+	{
+		if ( reader.exists( dataset ) )
+			return dataset;
+		final String newSnapshot = FragmentSegmentJournal.getNewSnapshotDataset( dataset );
+		return reader.exists( newSnapshot ) ? newSnapshot : null;
+	}
+
+	/**
+	 * Initialize assignments.  The fragment-segment assignment is loaded
+	 * from {@link #getAssignmentFile(Parameters)} if it was saved there
+	 * before, otherwise from the input file.  The journal of the file that
+	 * the assignment was loaded from is replayed.
 	 *
 	 * @param params
 	 */
@@ -223,10 +266,45 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 
 		/* fragment segment assignment */
 		assignment = new FragmentSegmentAssignment( idService );
-		final TLongLongHashMap lut = H5Utils.loadLongLongLut( reader, params.assignment, 1024 );
+		String assignmentFile = params.inFile;
+		IHDF5Reader assignmentReader = reader;
+		final File savedFile = new File( getAssignmentFile( params ) );
+		if ( !savedFile.getAbsoluteFile().equals( new File( params.inFile ).getAbsoluteFile() ) && savedFile.exists() )
+		{
+			final IHDF5Reader savedReader = HDF5Factory.openForReading( savedFile.getPath() );
+			if ( findAssignmentSnapshot( savedReader, params.assignment ) != null )
+			{
+				assignmentFile = savedFile.getPath();
+				assignmentReader = savedReader;
+			}
+			else
+				savedReader.close();
+		}
+
+		final String snapshot = findAssignmentSnapshot( assignmentReader, params.assignment );
+		final TLongLongHashMap lut = snapshot == null ? null : H5Utils.loadLongLongLut( assignmentReader, snapshot, 1024 );
 		if ( lut != null )
 			assignment.initLut( lut );
 
+		/* modifications since the snapshot */
+		final Long journalSequence = lut == null ? null : H5Utils.loadAttribute( assignmentReader, snapshot, "journal_sequence" );
+		if ( assignmentReader != reader )
+			assignmentReader.close();
+		assignmentJournalFile = FragmentSegmentJournal.getFile( assignmentFile, params.assignment );
+		assignmentJournalSequence = journalSequence == null ? 0 : journalSequence;
+		try
+		{
+			assignmentJournalSequence = FragmentSegmentJournal.replay(
+					assignmentJournalFile,
+					assignmentJournalSequence,
+					assignment );
+		}
+		catch ( final IOException e )
+		{
+			System.out.println( "Could not read fragment-segment journal: " + e.getMessage() );
+			assignmentJournalFile = null;
+		}
+
 		/* complete fragments */
 		completeSegments = new SegmentAssignment();
 		final TLongHashSet set = completeSegments.getAssignedSegments();
@@ -249,13 +327,50 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 	{
 		System.out.println( "Opening labels from " + params.inFileLabels );
 		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFileLabels );
+		final H5ReaderPool readers = readerPool( params, params.inFileLabels, reader );
 
 		/* labels */
-		for ( final String label : params.labels )
+		for ( int i = 0; i < params.labels.size(); ++i )
+		{
+			final String label = params.labels.get( i );
 			if ( reader.exists( label ) )
-				readLabels( reader, label );
-		else
+				readLabels( readers, openLabelScales( params, i ), label );
+			else
 				System.out.println( "no label dataset '" + label + "' found" );
+		}
+	}
+
+	/**
+	 * Readers for cache array loaders, one read-only handle per fetcher
+	 * thread if {@link Parameters#readerPool} is set, {@code reader}
+	 * otherwise.  Handles that write to {@code path} must be opened before
+	 * the fetcher threads open theirs, and stay open.
+	 *
+	 * @param params
+	 * @param path
+	 * @param reader
+	 *            already opened reader for {@code path}
+	 * @return
+	 */
+	static protected H5ReaderPool readerPool( final Parameters params, final String path, final IHDF5Reader reader )
+	{
+		return params.readerPool ? H5ReaderPool.perThread( path ) : H5ReaderPool.shared( reader );
+	}
+
+	/**
+	 * Open the label multiset pyramid of the i-th label dataset.
+	 *
+	 * @param params
+	 * @param i
+	 * @return readers for the pyramid or {@code null} if there is none
+	 */
+	static protected H5ReaderPool openLabelScales( final Parameters params, final int i )
+	{
+		if ( i >= params.labelScales.size() )
+			return null;
+		final String path = params.labelScales.get( i );
+		System.out.println( "Opening label scales from " + path );
+		return params.readerPool ? H5ReaderPool.perThread( path ) : H5ReaderPool.shared( HDF5Factory.openForReading( path ) );
 	}
 
 	/**
@@ -381,19 +496,22 @@ public class BigCatViewer< P extends BigCatViewer.Parameters >
 	 *
 	 * Modifies {@link #labels}, {@link #setupId}, {@link #convertedLabels}.
 	 *
-	 * @param reader
+	 * @param readers
+	 * @param scaleReaders
+	 *            label multiset pyramid or {@code null}
 	 * @param labelDataset
 	 * @throws IOException
 	 */
 	protected void readLabels(
-			final IHDF5Reader reader,
+			final H5ReaderPool readers,
+			final H5ReaderPool scaleReaders,
 			final String labelDataset ) throws IOException
 	{
 		/* labels */
 		final H5LabelMultisetSetupImageLoader labelLoader =
 				new H5LabelMultisetSetupImageLoader(
-						reader,
-						null,
+						readers,
+						scaleReaders,
 						labelDataset,
 						setupId++,
 						cellDimensions,
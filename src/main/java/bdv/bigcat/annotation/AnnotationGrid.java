@@ -0,0 +1,487 @@
+package bdv.bigcat.annotation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+/**
+ * Dynamic spatial index of annotations in 3D.
+ *
+ * Annotations are hashed into the cubic cells of a regular grid.  Insert,
+ * move and remove are O(1), there is no rebuild.  Clipping with a convex
+ * polytope visits only the cells in its bounding box, classifies whole cells
+ * against the hyperplanes and tests single annotations only in cells that
+ * intersect the boundary.  k-nearest neighbor
+ * queries search rings of cells of increasing radius around the query point.
+ *
+ * The index keeps its own copy of the positions.  Annotations that are moved
+ * have to be updated through {@link #move(Annotation)}.
+ */
+public class AnnotationGrid {
+
+	final static public double DEFAULT_CELL_SIZE = 64;
+
+	/* 21 bits per coordinate */
+	final static private long MASK = ( 1L << 21 ) - 1;
+
+	/* cell coordinates are in [-LIMIT, LIMIT) */
+	final static private long LIMIT = 1L << 20;
+
+	final static private double EPSILON = 1e-9;
+
+	static private class Entry {
+
+		final Annotation annotation;
+		final double[] position = new double[ 3 ];
+		long key;
+		int index;
+
+		Entry( final Annotation annotation ) {
+			this.annotation = annotation;
+		}
+	}
+
+	/**
+	 * Annotation and squared distance, ordered by decreasing distance.
+	 */
+	static private class Candidate implements Comparable< Candidate > {
+
+		final Annotation annotation;
+		final double distance;
+
+		Candidate( final Annotation annotation, final double distance ) {
+			this.annotation = annotation;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo( final Candidate other ) {
+			return Double.compare( other.distance, distance );
+		}
+	}
+
+	public AnnotationGrid( final double cellSize ) {
+
+		this.cellSize = cellSize;
+	}
+
+	public AnnotationGrid() {
+
+		this( DEFAULT_CELL_SIZE );
+	}
+
+	static private long key( final long x, final long y, final long z ) {
+
+		return ( ( x & MASK ) << 42 ) | ( ( y & MASK ) << 21 ) | ( z & MASK );
+	}
+
+	/* sign extend the 21 bit coordinates */
+	static private long x( final long key ) {
+		return ( key << 1 ) >> 43;
+	}
+	static private long y( final long key ) {
+		return ( key << 22 ) >> 43;
+	}
+	static private long z( final long key ) {
+		return ( key << 43 ) >> 43;
+	}
+
+	private long cell( final double position ) {
+
+		return ( long ) Math.floor( position / cellSize );
+	}
+
+	private long key( final double[] position ) {
+
+		return key( cell( position[ 0 ] ), cell( position[ 1 ] ), cell( position[ 2 ] ) );
+	}
+
+	public synchronized int size() {
+
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+
+		entries.clear();
+		cells.clear();
+	}
+
+	public synchronized void add( final Annotation annotation ) {
+
+		Entry entry = entries.get( annotation );
+		if ( entry == null ) {
+			entry = new Entry( annotation );
+			entries.put( annotation, entry );
+		} else
+			removeFromCell( entry );
+		insertIntoCell( entry );
+	}
+
+	public synchronized void remove( final Annotation annotation ) {
+
+		final Entry entry = entries.remove( annotation );
+		if ( entry != null )
+			removeFromCell( entry );
+	}
+
+	/**
+	 * Update the position of an annotation.
+	 *
+	 * @param annotation
+	 */
+	public synchronized void move( final Annotation annotation ) {
+
+		final Entry entry = entries.get( annotation );
+		if ( entry == null )
+			return;
+		annotation.getPosition().localize( entry.position );
+		final long key = key( entry.position );
+		if ( key != entry.key ) {
+			removeFromCell( entry );
+			insertIntoCell( entry );
+		}
+	}
+
+	/**
+	 * Update the positions of all annotations.
+	 */
+	public synchronized void moveAll() {
+
+		for ( final Annotation annotation : new ArrayList<>( entries.keySet() ) )
+			move( annotation );
+	}
+
+	private void insertIntoCell( final Entry entry ) {
+
+		entry.annotation.getPosition().localize( entry.position );
+		entry.key = key( entry.position );
+		ArrayList< Entry > cell = cells.get( entry.key );
+		if ( cell == null ) {
+			cell = new ArrayList< Entry >( 4 );
+			cells.put( entry.key, cell );
+		}
+		entry.index = cell.size();
+		cell.add( entry );
+	}
+
+	private void removeFromCell( final Entry entry ) {
+
+		final ArrayList< Entry > cell = cells.get( entry.key );
+		final Entry last = cell.remove( cell.size() - 1 );
+		if ( last != entry ) {
+			cell.set( entry.index, last );
+			last.index = entry.index;
+		}
+		if ( cell.isEmpty() )
+			cells.remove( entry.key );
+	}
+
+	/**
+	 * Only the cells inside the bounding box of the polytope are visited,
+	 * either by looking them up or, if the box spans more cells than are
+	 * occupied, by skipping occupied cells outside of the box.
+	 *
+	 * @param polytope
+	 * @return all annotations inside polytope
+	 */
+	public synchronized List< Annotation > clip( final ConvexPolytope polytope ) {
+
+		final Collection< ? extends HyperPlane > planes = polytope.getHyperplanes();
+		final List< Annotation > inside = new ArrayList< Annotation >();
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+
+		final double[][] box = boundingBox( planes );
+		final long[] cellMin = { -LIMIT, -LIMIT, -LIMIT };
+		final long[] cellMax = { LIMIT - 1, LIMIT - 1, LIMIT - 1 };
+		if ( box != null ) {
+			double numCells = 1;
+			for ( int d = 0; d < 3; ++d ) {
+				if ( box[ 0 ][ d ] > box[ 1 ][ d ] )
+					return inside;
+				cellMin[ d ] = Math.max( cellMin[ d ], cell( box[ 0 ][ d ] ) );
+				cellMax[ d ] = Math.min( cellMax[ d ], cell( box[ 1 ][ d ] ) );
+				if ( cellMin[ d ] > cellMax[ d ] )
+					return inside;
+				numCells *= cellMax[ d ] - cellMin[ d ] + 1;
+			}
+
+			if ( numCells <= cells.size() ) {
+				for ( long z = cellMin[ 2 ]; z <= cellMax[ 2 ]; ++z )
+					for ( long y = cellMin[ 1 ]; y <= cellMax[ 1 ]; ++y )
+						for ( long x = cellMin[ 0 ]; x <= cellMax[ 0 ]; ++x ) {
+							final ArrayList< Entry > cell = cells.get( key( x, y, z ) );
+							if ( cell != null )
+								clip( x, y, z, cell, planes, min, max, inside );
+						}
+				return inside;
+			}
+		}
+
+		for ( final TLongObjectIterator< ArrayList< Entry > > it = cells.iterator(); it.hasNext(); ) {
+			it.advance();
+			final long key = it.key();
+			final long x = x( key );
+			final long y = y( key );
+			final long z = z( key );
+			if (
+					x < cellMin[ 0 ] || x > cellMax[ 0 ] ||
+					y < cellMin[ 1 ] || y > cellMax[ 1 ] ||
+					z < cellMin[ 2 ] || z > cellMax[ 2 ] )
+				continue;
+			clip( x, y, z, it.value(), planes, min, max, inside );
+		}
+		return inside;
+	}
+
+	private void clip(
+			final long x,
+			final long y,
+			final long z,
+			final ArrayList< Entry > cell,
+			final Collection< ? extends HyperPlane > planes,
+			final double[] min,
+			final double[] max,
+			final List< Annotation > inside ) {
+
+		min[ 0 ] = x * cellSize;
+		min[ 1 ] = y * cellSize;
+		min[ 2 ] = z * cellSize;
+		for ( int d = 0; d < 3; ++d )
+			max[ d ] = min[ d ] + cellSize;
+
+		final int classification = classify( min, max, planes );
+		if ( classification < 0 )
+			return;
+		final boolean contained = classification > 0;
+
+		for ( final Entry entry : cell )
+			if ( contained || isInside( entry.position, planes ) )
+				inside.add( entry.annotation );
+	}
+
+	/**
+	 * Bounding box of a convex polytope, computed from its vertices, i.e.
+	 * the intersections of three planes that are inside of all others.  The
+	 * tolerances are such that the box is rather too large than too small.
+	 *
+	 * @param planes
+	 * @return { min, max }, with min &gt; max if the polytope is empty, or
+	 *         null if the polytope is unbounded
+	 */
+	static double[][] boundingBox( final Collection< ? extends HyperPlane > planes ) {
+
+		final int n = planes.size();
+		final double[][] normals = new double[ n ][];
+		final double[] distances = new double[ n ];
+		final double[] norms = new double[ n ];
+		int i = 0;
+		for ( final HyperPlane plane : planes ) {
+			normals[ i ] = plane.getNormal();
+			distances[ i ] = plane.getDistance();
+			norms[ i ] = Math.sqrt( dot( normals[ i ], normals[ i ] ) );
+			++i;
+		}
+
+		/* unbounded if a direction has no plane facing against it, such
+		 * directions are along intersections of two planes */
+		final double[] direction = new double[ 3 ];
+		boolean independent = false;
+		for ( i = 0; i < n; ++i )
+			for ( int j = i + 1; j < n; ++j ) {
+				cross( normals[ i ], normals[ j ], direction );
+				final double length = Math.sqrt( dot( direction, direction ) );
+				if ( length <= EPSILON * norms[ i ] * norms[ j ] )
+					continue;
+				independent = true;
+				boolean forward = true;
+				boolean backward = true;
+				for ( int k = 0; k < n; ++k ) {
+					final double projection = dot( normals[ k ], direction );
+					final double tolerance = EPSILON * norms[ k ] * length;
+					forward &= projection > -tolerance;
+					backward &= projection < tolerance;
+				}
+				if ( forward || backward )
+					return null;
+			}
+		if ( !independent )
+			return null;
+
+		final double[][] box = {
+				{ Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY },
+				{ Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY } };
+		final double[] jk = new double[ 3 ];
+		final double[] ki = new double[ 3 ];
+		final double[] ij = new double[ 3 ];
+		final double[] vertex = new double[ 3 ];
+		for ( i = 0; i < n; ++i )
+			for ( int j = i + 1; j < n; ++j )
+				for ( int k = j + 1; k < n; ++k ) {
+					cross( normals[ j ], normals[ k ], jk );
+					final double det = dot( normals[ i ], jk );
+					if ( Math.abs( det ) <= EPSILON * norms[ i ] * norms[ j ] * norms[ k ] )
+						continue;
+					cross( normals[ k ], normals[ i ], ki );
+					cross( normals[ i ], normals[ j ], ij );
+					double extent = 0;
+					for ( int d = 0; d < 3; ++d ) {
+						vertex[ d ] = ( distances[ i ] * jk[ d ] + distances[ j ] * ki[ d ] + distances[ k ] * ij[ d ] ) / det;
+						extent = Math.max( extent, Math.abs( vertex[ d ] ) );
+					}
+
+					boolean feasible = true;
+					for ( int l = 0; l < n && feasible; ++l )
+						feasible = dot( normals[ l ], vertex ) >= distances[ l ] - EPSILON * ( Math.abs( distances[ l ] ) + norms[ l ] * extent + 1 );
+					if ( !feasible )
+						continue;
+
+					final double margin = EPSILON * ( extent + 1 );
+					for ( int d = 0; d < 3; ++d ) {
+						box[ 0 ][ d ] = Math.min( box[ 0 ][ d ], vertex[ d ] - margin );
+						box[ 1 ][ d ] = Math.max( box[ 1 ][ d ], vertex[ d ] + margin );
+					}
+				}
+		return box;
+	}
+
+	static private double dot( final double[] a, final double[] b ) {
+
+		return a[ 0 ] * b[ 0 ] + a[ 1 ] * b[ 1 ] + a[ 2 ] * b[ 2 ];
+	}
+
+	static private void cross( final double[] a, final double[] b, final double[] c ) {
+
+		c[ 0 ] = a[ 1 ] * b[ 2 ] - a[ 2 ] * b[ 1 ];
+		c[ 1 ] = a[ 2 ] * b[ 0 ] - a[ 0 ] * b[ 2 ];
+		c[ 2 ] = a[ 0 ] * b[ 1 ] - a[ 1 ] * b[ 0 ];
+	}
+
+	/**
+	 * Classify an axis aligned box against a convex polytope.
+	 *
+	 * @param min
+	 * @param max
+	 * @param planes
+	 * @return -1 if the box is outside, 1 if it is inside, 0 if it intersects
+	 *         the boundary
+	 */
+	static int classify( final double[] min, final double[] max, final Collection< ? extends HyperPlane > planes ) {
+
+		boolean contained = true;
+		for ( final HyperPlane plane : planes ) {
+			final double[] normal = plane.getNormal();
+			double lower = 0;
+			double upper = 0;
+			for ( int d = 0; d < 3; ++d ) {
+				if ( normal[ d ] >= 0 ) {
+					lower += normal[ d ] * min[ d ];
+					upper += normal[ d ] * max[ d ];
+				} else {
+					lower += normal[ d ] * max[ d ];
+					upper += normal[ d ] * min[ d ];
+				}
+			}
+			if ( upper < plane.getDistance() )
+				return -1;
+			if ( lower < plane.getDistance() )
+				contained = false;
+		}
+		return contained ? 1 : 0;
+	}
+
+	static private boolean isInside( final double[] position, final Collection< ? extends HyperPlane > planes ) {
+
+		for ( final HyperPlane plane : planes ) {
+			final double[] normal = plane.getNormal();
+			if ( normal[ 0 ] * position[ 0 ] + normal[ 1 ] * position[ 1 ] + normal[ 2 ] * position[ 2 ] < plane.getDistance() )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Find the k nearest annotations to a point.
+	 *
+	 * @param pos
+	 * @param k
+	 * @return List of k nearest annotations, sorted by distance.
+	 */
+	public synchronized List< Annotation > kNearest( final RealLocalizable pos, final int k ) {
+
+		if ( k <= 0 || entries.isEmpty() )
+			return new ArrayList< Annotation >();
+
+		final double[] q = new double[ 3 ];
+		pos.localize( q );
+		final long cx = cell( q[ 0 ] );
+		final long cy = cell( q[ 1 ] );
+		final long cz = cell( q[ 2 ] );
+
+		final PriorityQueue< Candidate > nearest = new PriorityQueue< Candidate >( k + 1 );
+		for ( long r = 0;; ++r ) {
+
+			/* the rings cover more cells than there are, test all */
+			final long side = 2 * r + 1;
+			if ( side * side * side > cells.size() ) {
+				nearest.clear();
+				for ( final Entry entry : entries.values() )
+					offer( nearest, entry, q, k );
+				break;
+			}
+
+			for ( long dz = -r; dz <= r; ++dz )
+				for ( long dy = -r; dy <= r; ++dy )
+					for ( long dx = -r; dx <= r; ++dx ) {
+						if ( Math.abs( dx ) != r && Math.abs( dy ) != r && Math.abs( dz ) != r )
+							continue;
+						final ArrayList< Entry > cell = cells.get( key( cx + dx, cy + dy, cz + dz ) );
+						if ( cell != null )
+							for ( final Entry entry : cell )
+								offer( nearest, entry, q, k );
+					}
+
+			/* everything outside of the rings is at least r cells away */
+			final double reach = r * cellSize;
+			if ( nearest.size() == k && nearest.peek().distance <= reach * reach )
+				break;
+		}
+
+		final List< Annotation > sorted = new ArrayList< Annotation >( nearest.size() );
+		while ( !nearest.isEmpty() )
+			sorted.add( nearest.poll().annotation );
+		Collections.reverse( sorted );
+		return sorted;
+	}
+
+	static private void offer( final PriorityQueue< Candidate > nearest, final Entry entry, final double[] q, final int k ) {
+
+		double distance = 0;
+		for ( int d = 0; d < 3; ++d ) {
+			final double diff = entry.position[ d ] - q[ d ];
+			distance += diff * diff;
+		}
+		if ( nearest.size() < k )
+			nearest.add( new Candidate( entry.annotation, distance ) );
+		else if ( distance < nearest.peek().distance ) {
+			nearest.poll();
+			nearest.add( new Candidate( entry.annotation, distance ) );
+		}
+	}
+
+	final private double cellSize;
+
+	final private HashMap< Annotation, Entry > entries = new HashMap< Annotation, Entry >();
+
+	final private TLongObjectHashMap< ArrayList< Entry > > cells = new TLongObjectHashMap< ArrayList< Entry > >();
+}
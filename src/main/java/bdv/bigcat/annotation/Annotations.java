@@ -1,119 +1,204 @@
 package bdv.bigcat.annotation;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.imglib2.KDTree;
-import net.imglib2.KDTreeNode;
+import javax.swing.SwingUtilities;
+
+import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
-import net.imglib2.algorithm.kdtree.ClipConvexPolytopeKDTree;
 import net.imglib2.algorithm.kdtree.ConvexPolytope;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 
 /**
- * Set of annotations and query functions.
+ * Set of annotations and query functions. Spatial queries use an
+ * {@link AnnotationGrid} that is updated with every edit.  Annotations may
+ * be added from a {@link Loader} thread, all access to the annotations and
+ * the grid is synchronized on this set.
  *  
  * @author Jan Funke <jfunke@iri.upc.edu>
  */
 public class Annotations {
 	
 	public Annotations() {
+		this(AnnotationGrid.DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize Size of the cells of the spatial index, should be in
+	 * the order of the typical distance between annotations.
+	 */
+	public Annotations(double cellSize) {
 		this.annotations = new HashMap< Long, Annotation >();
+		this.grid = new AnnotationGrid(cellSize);
 		this.listeners = new LinkedList<Annotations.AnnotationsListener>();
 	}
 	
-	public void add(Annotation annotation) {
+	public synchronized void add(Annotation annotation) {
 	
-		annotations.put(annotation.getId(), annotation);
-		kdTreeDirty = true;
+		final Annotation previous = annotations.put(annotation.getId(), annotation);
+		if (previous != null && previous != annotation)
+			grid.remove(previous);
+		grid.add(annotation);
 		for (AnnotationsListener l : listeners)
 			l.onAnnotationAdded(annotation);
 	}	
 	
-	public void remove(Annotation annotation) {
+	/**
+	 * Add several annotations at once, e.g. a block loaded from a store.
+	 * Listeners are notified once on the event dispatch thread, about the
+	 * annotations that were not removed or replaced until then.
+	 * @param annotations
+	 */
+	public void addAll(Collection< ? extends Annotation > annotations) {
+
+		final List< Annotation > added = new ArrayList< Annotation >(annotations);
+		synchronized (this) {
+			for (Annotation annotation : added) {
+				final Annotation previous = this.annotations.put(annotation.getId(), annotation);
+				if (previous != null && previous != annotation)
+					grid.remove(previous);
+				grid.add(annotation);
+			}
+		}
+		if (SwingUtilities.isEventDispatchThread())
+			notifyAdded(added);
+		else
+			SwingUtilities.invokeLater(() -> notifyAdded(added));
+	}
+
+	private synchronized void notifyAdded(List< Annotation > added) {
+
+		added.removeIf(a -> annotations.get(a.getId()) != a);
+		if (added.isEmpty())
+			return;
+		for (AnnotationsListener l : listeners)
+			l.onAnnotationsAdded(added);
+	}
+
+	public synchronized void remove(Annotation annotation) {
 		
 		annotations.remove(annotation.getId());
-		kdTreeDirty = true;
+		grid.remove(annotation);
 		for (AnnotationsListener l : listeners)
 			l.onAnnotationRemoved(annotation);
 	}
 	
-	public Collection< Annotation > getAnnotations() {
+	/**
+	 * @return a copy of all annotations that are loaded, see {@link Loader}
+	 */
+	public synchronized Collection< Annotation > getAnnotations() {
 		
-		return annotations.values();
+		return new ArrayList< Annotation >(annotations.values());
 	}
 	
+	/**
+	 * @param polytope
+	 * @return all loaded annotations inside polytope, annotations that the
+	 * {@link Loader} loads in the background are announced to the listeners
+	 */
 	public List< Annotation > getLocalAnnotations(ConvexPolytope polytope) {
 
-		List< Annotation > localAnnotations = new LinkedList< Annotation >();
-		if (annotations.size() == 0)
-			return localAnnotations;
-	
-		if (kdTreeDirty)
-			updateKdTree();
-	
-		final ClipConvexPolytopeKDTree< Annotation > clip = new ClipConvexPolytopeKDTree< Annotation >( kdTree );
-		clip.clip( polytope );
-		
-		for (KDTreeNode< Annotation > node : clip.getInsideNodes())
-			localAnnotations.add(node.get());
-			
-		return localAnnotations;
+		if (loader != null)
+			loader.load(this, polytope);
+		synchronized (this) {
+			return grid.clip(polytope);
+		}
 	}
 	
 	/**
-	 * Find the k nearest annotations to a point.
+	 * Find the k nearest annotations to a point among those that are loaded,
+	 * annotations that the {@link Loader} loads in the background are
+	 * announced to the listeners.
 	 * @param pos
 	 * @param k
 	 * @return List of k nearest annotations, sorted by distance.
 	 */
 	public List< Annotation > getKNearest(RealPoint pos, int k) {
 
-		List< Annotation > nearest = new LinkedList< Annotation >();
+		if (loader != null)
+			loader.load(this, pos, k);
+		synchronized (this) {
+			return grid.kNearest(pos, k);
+		}
+	}
 
-		if (annotations.size() == 0)
-			return nearest;
-	
-		if (kdTreeDirty)
-			updateKdTree();
+	/**
+	 * Find the k nearest annotations to a point among those that are
+	 * loaded, e.g. for a {@link Loader} to decide whether it has to load
+	 * more.
+	 * @param pos
+	 * @param k
+	 * @return List of k nearest annotations, sorted by distance.
+	 */
+	public synchronized List< Annotation > getLoadedKNearest(RealLocalizable pos, int k) {
 
-		KNearestNeighborSearchOnKDTree< Annotation > search = new KNearestNeighborSearchOnKDTree< Annotation >(kdTree, k);
-		search.search(pos);
-		
-		for (int i = 0; i < k && search.getSampler(i) != null; i++)
-			nearest.add(search.getSampler(i).get());
-		
-		return nearest;
+		return grid.kNearest(pos, k);
 	}
 
-	public Annotation getById(long id) {
+	public synchronized Annotation getById(long id) {
 
 		return annotations.get(id);
 	}
 	
-	public void markDirty() {
-		
-		kdTreeDirty = true;
+	/**
+	 * Move an annotation and update the spatial index.
+	 * @param annotation
+	 * @param pos
+	 */
+	public synchronized void move(Annotation annotation, RealPoint pos) {
+
+		annotation.setPosition(pos);
+		grid.move(annotation);
 	}
-	
-	private void updateKdTree() {
-	
-		List< RealPoint > positions = new LinkedList< RealPoint >();
-		List< Annotation > annotations = new LinkedList< Annotation >();
-		for (Annotation a : this.annotations.values()) {
-			positions.add(a.getPosition());
-			annotations.add(a);
-		}
-		kdTree = new KDTree< Annotation >( annotations, positions );
-		kdTreeDirty = false;
+
+	/**
+	 * Update the spatial index after positions of annotations have been
+	 * changed without {@link #move(Annotation, RealPoint)}. This is linear in
+	 * the number of annotations, prefer {@link #move(Annotation, RealPoint)}.
+	 */
+	public synchronized void markDirty() {
+		
+		grid.moveAll();
 	}
 
 	public interface AnnotationsListener {
 		
 		public void onAnnotationAdded(Annotation a);
 		public void onAnnotationRemoved(Annotation a);
+
+		default public void onAnnotationsAdded(Collection< ? extends Annotation > annotations) {
+			for (Annotation a : annotations)
+				onAnnotationAdded(a);
+		}
+	}
+
+	/**
+	 * Loads annotations lazily, e.g. the blocks of a chunked store that
+	 * intersect the visible region.
+	 */
+	public interface Loader {
+
+		/**
+		 * Request all annotations inside polytope.  This is called for
+		 * every repaint and should not block, annotations that are loaded
+		 * later are added with {@link Annotations#addAll(Collection)}.
+		 */
+		public void load(Annotations annotations, ConvexPolytope polytope);
+
+		/**
+		 * Request the k nearest annotations to pos.  This should not block
+		 * either, annotations that are loaded later are added with
+		 * {@link Annotations#addAll(Collection)}.
+		 */
+		public void load(Annotations annotations, RealLocalizable pos, int k);
+	}
+
+	public void setLoader(Loader loader) {
+
+		this.loader = loader;
 	}
 
 	public void addAnnotationsListener(AnnotationsListener listener) {
@@ -123,12 +208,12 @@ public class Annotations {
 
 	public void removeAnnotationsListener(AnnotationsListener listener) {
 
-		listeners.add(listener);
+		listeners.remove(listener);
 	}
 	
 	private HashMap< Long, Annotation > annotations;
-	private KDTree< Annotation > kdTree;
-	private boolean kdTreeDirty = true;
+	private AnnotationGrid grid;
+	private Loader loader = null;
 	
 	private List<AnnotationsListener> listeners;
 }
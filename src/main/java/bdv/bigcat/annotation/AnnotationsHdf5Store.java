@@ -1,6 +1,15 @@
 package bdv.bigcat.annotation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import bdv.util.IdService;
 import ch.systemsx.cisd.base.mdarray.MDFloatArray;
@@ -8,15 +17,58 @@ import ch.systemsx.cisd.base.mdarray.MDLongArray;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongLongHashMap;
 import ncsa.hdf.hdf5lib.exceptions.HDF5SymbolTableException;
+import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
-
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+/**
+ * Stores annotations in an HDF5 file.
+ *
+ * Since file format 0.3, annotations are stored in blocks of a regular grid
+ * under "&lt;groupname&gt;/blocks/&lt;x&gt;_&lt;y&gt;_&lt;z&gt;".  Blocks are
+ * read lazily in the background when they become visible, and only blocks
+ * that changed are written.  Files in formats 0.0 to 0.2 are imported completely and
+ * converted on the next write.
+ */
 public class AnnotationsHdf5Store implements AnnotationsStore {
 
+	final static public String FILE_FORMAT = "0.3";
+
+	final static public float DEFAULT_BLOCK_SIZE = 512;
+
 	private String filename;
 	private String groupname;
 	private double fileFormat;
 
+	// block size in (x,y,z)
+	private float[] blockSize = {DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_SIZE};
+
+	// blocks in the file and their positions in the block grid
+	final private HashMap<String, long[]> blocks = new HashMap<String, long[]>();
+
+	// loaded blocks and a fingerprint of their contents when read or written
+	final private HashMap<String, Long> loaded = new HashMap<String, Long>();
+
+	// blocks that are queued for loading in the background
+	final private HashSet<String> queued = new HashSet<String>();
+
+	// reads and writes the file, one request at a time
+	final private ExecutorService loadExecutor = Executors.newSingleThreadExecutor(
+			r -> {
+				final Thread thread = new Thread(r, "load annotation blocks");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	// partners of loaded synaptic sites that are in blocks not loaded yet
+	final private TLongLongHashMap pendingPartners = new TLongLongHashMap();
+
+	private long maxId = 0;
+
 	final private IdService idService;
 
 	// annotations offset in (x,y,z)
@@ -57,6 +109,20 @@ public class AnnotationsHdf5Store implements AnnotationsStore {
 			offset[2] = data[0];
 		}
 
+		if (fileFormat >= 0.3 && reader.exists(groupname + "/blocks")) {
+			final String blocksGroup = groupname + "/blocks";
+			if (reader.hasAttribute(blocksGroup, "block_size")) {
+				final float[] data = reader.getFloatArrayAttribute(blocksGroup, "block_size");
+				blockSize[0] = data[2];
+				blockSize[1] = data[1];
+				blockSize[2] = data[0];
+			}
+			if (reader.hasAttribute(blocksGroup, "max_id"))
+				maxId = reader.uint64().getAttr(blocksGroup, "max_id");
+			for (final String block : reader.object().getGroupMembers(blocksGroup))
+				blocks.put(block, blockPosition(block));
+		}
+
 		reader.close();
 
 		System.out.println("AnnotationsHdf5Store: detected file format " + fileFormat);
@@ -77,11 +143,40 @@ public class AnnotationsHdf5Store implements AnnotationsStore {
 		}
 	}
 
+	/**
+	 * Create a new HDF5 store with the given block size in (x,y,z) for files
+	 * that are not chunked yet.
+	 * @param filename
+	 * @param groupname
+	 * @param blockSize
+	 */
+	public AnnotationsHdf5Store(final String filename, final String groupname, final IdService idService, final float[] blockSize) {
+
+		this(filename, groupname, idService);
+		if (fileFormat < 0.3)
+			this.blockSize = blockSize.clone();
+	}
+
+	/**
+	 * Read annotations.  For chunked files, this returns an empty set of
+	 * annotations that loads blocks on demand.
+	 */
 	@Override
 	public Annotations read() throws Exception {
 
 		final Annotations annotations = new Annotations();
 
+		if (fileFormat >= 0.3) {
+
+			if (fileFormat > Double.parseDouble(FILE_FORMAT))
+				throw new Exception("unsupported file format: " + fileFormat + ". Is your bigcat up-to-date?");
+
+			// TODO synchronize this if executed in parallel to other id activity
+			idService.invalidate(maxId);
+			annotations.setLoader(new BlockLoader());
+			return annotations;
+		}
+
 		final IHDF5Reader reader = HDF5Factory.openForReading(filename);
 		final AnnotationFactory factory = new AnnotationFactory();
 
@@ -220,104 +315,423 @@ public class AnnotationsHdf5Store implements AnnotationsStore {
 		}
 	}
 
-	@Override
-	public void write(final Annotations annotations) {
+	/**
+	 * Contents of one block as stored in the file, annotations sorted by id.
+	 */
+	private class Block extends AnnotationVisitor {
 
-		final IHDF5Writer writer = HDF5Factory.open(filename);
+		final float[][] locations;
+		final long[] ids;
+		final String[] types;
+		final ArrayList<String> comments = new ArrayList<String>();
+		final TLongArrayList commentTargets = new TLongArrayList();
+		final TLongArrayList partners = new TLongArrayList();
+
+		private int index = 0;
+		private long fingerprint = 0xcbf29ce484222325L;
+
+		Block(final List<Annotation> annotations) {
+
+			final Annotation[] sorted = annotations.toArray(new Annotation[annotations.size()]);
+			Arrays.sort(sorted, (a, b) -> Long.compare(a.getId(), b.getId()));
+			locations = new float[sorted.length][3];
+			ids = new long[sorted.length];
+			types = new String[sorted.length];
+			for (final Annotation a : sorted) {
+				a.accept(this);
+				index++;
+			}
+		}
 
-		final int numAnnotations = annotations.getAnnotations().size();
+		private void hash(final long value) {
 
-		class Counter extends AnnotationVisitor {
+			fingerprint = (fingerprint ^ value) * 0x100000001b3L;
+		}
 
-			public int numComments = 0;
-			public int numPartners = 0;
+		@Override
+		public void visit(final Annotation annotation) {
 
-			@Override
-			public void visit(final Annotation annotation) {
-				if (annotation.getComment() != null && !annotation.getComment().isEmpty())
-					numComments++;
+			// We store locations as (z,y,x). The internal coordinates
+			// are (x,y,z) and need to be inverted.
+			for (int i = 0; i < 3; i++) {
+				locations[index][i] = annotation.getPosition().getFloatPosition(2 - i) - offset[2 - i];
+				hash(Float.floatToIntBits(locations[index][i]));
 			}
-
-			@Override
-			public void visit(final Synapse synapse) {
+			ids[index] = annotation.getId();
+			hash(ids[index]);
+			if (annotation.getComment() != null && !annotation.getComment().isEmpty()) {
+				comments.add(annotation.getComment());
+				commentTargets.add(annotation.getId());
+				hash(annotation.getComment().hashCode());
 			}
+		}
 
-			@Override
-			public void visit(final PreSynapticSite preSynapticSite) {
-				if (preSynapticSite.getPartner() != null)
-					numPartners++;
-			}
+		private void visitPartner(final Annotation site, final Annotation partner) {
 
-			@Override
-			public void visit(final PostSynapticSite postSynapticSite) {
-			}
+			final long partnerId;
+			if (partner != null)
+				partnerId = partner.getId();
+			else if (pendingPartners.containsKey(site.getId()))
+				partnerId = pendingPartners.get(site.getId());
+			else
+				return;
+			partners.add(site.getId());
+			partners.add(partnerId);
+			hash(partnerId);
 		}
 
-		final Counter counter = new Counter();
-		for (final Annotation a : annotations.getAnnotations())
-			a.accept(counter);
+		@Override
+		public void visit(final Synapse synapse) {
+			types[index] = "synapse";
+			hash(1);
+		}
 
-		class AnnotationsCrawler extends AnnotationVisitor {
+		@Override
+		public void visit(final PreSynapticSite preSynapticSite) {
+			types[index] = "presynaptic_site";
+			hash(2);
+			visitPartner(preSynapticSite, preSynapticSite.getPartner());
+		}
 
-			float[][] locations = new float[numAnnotations][3];
-			long[] ids = new long[numAnnotations];
-			String[] types = new String[numAnnotations];
-			String[] comments = new String[counter.numComments];
-			long[] commentTargets = new long[counter.numComments];
-			long[][] partners  = new long[counter.numPartners][2];
+		@Override
+		public void visit(final PostSynapticSite postSynapticSite) {
+			types[index] = "postsynaptic_site";
+			hash(3);
+			visitPartner(postSynapticSite, postSynapticSite.getPartner());
+		}
+
+		void write(final IHDF5Writer writer, final String path) {
+
+			writer.createGroup(path);
+			writer.float32().writeMatrix(path + "/locations", locations);
+			writer.uint64().writeArray(path + "/ids", ids);
+			writer.string().writeArray(path + "/types", types);
+			if (comments.size() > 0) {
+				writer.string().writeArray(path + "/comments", comments.toArray(new String[comments.size()]));
+				writer.uint64().writeArray(path + "/comment_targets", commentTargets.toArray());
+			}
+			if (partners.size() > 0) {
+				final long[][] pairs = new long[partners.size() / 2][];
+				for (int i = 0; i < pairs.length; i++)
+					pairs[i] = new long[] { partners.get(2 * i), partners.get(2 * i + 1) };
+				writer.uint64().writeMatrix(path + "/partners", pairs);
+			}
+		}
+	}
+
+	/**
+	 * Loads the blocks that intersect the visible region and the blocks
+	 * around a query point for nearest neighbor searches in the background.
+	 */
+	private class BlockLoader implements Annotations.Loader {
+
+		@Override
+		public void load(final Annotations annotations, final ConvexPolytope polytope) {
+
+			final Collection<? extends HyperPlane> planes = polytope.getHyperplanes();
+			final double[] min = new double[3];
+			final double[] max = new double[3];
+			final List<String> missing = new ArrayList<String>();
+			synchronized (AnnotationsHdf5Store.this) {
+				if (loaded.size() >= blocks.size())
+					return;
+				for (final Map.Entry<String, long[]> entry : blocks.entrySet()) {
+					final String block = entry.getKey();
+					if (loaded.containsKey(block) || queued.contains(block))
+						continue;
+					final long[] position = entry.getValue();
+					for (int d = 0; d < 3; d++) {
+						min[d] = position[d] * blockSize[d];
+						max[d] = min[d] + blockSize[d];
+					}
+					if (AnnotationGrid.classify(min, max, planes) >= 0)
+						missing.add(block);
+				}
+				if (missing.isEmpty())
+					return;
+				queued.addAll(missing);
+			}
 
-			private int annotationIndex = 0;
-			private int typeIndex = 0;
-			private int commentIndex = 0;
-			private int partnerIndex = 0;
+			/* listeners of annotations are notified when the blocks are added */
+			loadExecutor.submit(() -> {
+				try {
+					loadBlocks(annotations, missing);
+				} catch (final Exception e) {
+					System.out.println("AnnotationsHdf5Store: failed loading blocks " + missing + ": " + e.getMessage());
+				} finally {
+					synchronized (AnnotationsHdf5Store.this) {
+						queued.removeAll(missing);
+					}
+				}
+			});
+		}
 
-			private void fillPosition(final float[] data, final Annotation a) {
+		@Override
+		public void load(final Annotations annotations, final RealLocalizable pos, final int k) {
 
-				// We store locations as (z,y,x). The internal coordinates
-				// are (x,y,z) and need to be inverted.
-				for (int i = 0; i < 3; i++)
-					data[i] = a.getPosition().getFloatPosition(2 - i) - offset[2 - i];
+			synchronized (AnnotationsHdf5Store.this) {
+				if (loaded.size() >= blocks.size())
+					return;
 			}
 
-			@Override
-			public void visit(final Annotation annotation) {
-				fillPosition(locations[annotationIndex], annotation);
-				ids[annotationIndex] = annotation.getId();
-				if (annotation.getComment() != null && !annotation.getComment().isEmpty()) {
-					comments[commentIndex] = annotation.getComment();
-					commentTargets[commentIndex] = annotation.getId();
-					commentIndex++;
+			final RealPoint q = new RealPoint(pos);
+			loadExecutor.submit(() -> {
+				try {
+					loadNearest(annotations, q, k);
+				} catch (final Exception e) {
+					System.out.println("AnnotationsHdf5Store: failed loading blocks around " + q + ": " + e.getMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Load rings of blocks of increasing radius around pos until the k-th
+	 * nearest annotation is closer than all blocks that are not loaded.  Must
+	 * only be called on {@link #loadExecutor}.
+	 */
+	private void loadNearest(final Annotations annotations, final RealLocalizable pos, final int k) {
+
+		final double[] q = new double[3];
+		pos.localize(q);
+		final long[] center = new long[3];
+		for (int d = 0; d < 3; d++)
+			center[d] = (long)Math.floor(q[d] / blockSize[d]);
+
+		for (long r = 0;; r++) {
+			final List<String> missing = new ArrayList<String>();
+			final long side = 2 * r + 1;
+			final boolean all;
+			synchronized (this) {
+				if (loaded.size() >= blocks.size())
+					return;
+
+				/* the rings cover more blocks than there are, load all */
+				all = side * side * side > blocks.size();
+				if (all) {
+					for (final String block : blocks.keySet())
+						if (!loaded.containsKey(block))
+							missing.add(block);
+				} else {
+					for (long z = -r; z <= r; z++)
+						for (long y = -r; y <= r; y++)
+							for (long x = -r; x <= r; x++) {
+								if (Math.abs(x) != r && Math.abs(y) != r && Math.abs(z) != r)
+									continue;
+								final String block = blockName(center[0] + x, center[1] + y, center[2] + z);
+								if (blocks.containsKey(block) && !loaded.containsKey(block))
+									missing.add(block);
+							}
 				}
-				annotationIndex++;
 			}
+			loadBlocks(annotations, missing);
+			if (all)
+				return;
+
+			/* all blocks that are not loaded are at least reach away */
+			double reach = Double.POSITIVE_INFINITY;
+			for (int d = 0; d < 3; d++)
+				reach = Math.min(reach, Math.min(
+						q[d] - (center[d] - r) * blockSize[d],
+						(center[d] + r + 1) * blockSize[d] - q[d]));
+
+			final List<Annotation> nearest = annotations.getLoadedKNearest(pos, k);
+			if (nearest.size() == k) {
+				final RealPoint p = nearest.get(k - 1).getPosition();
+				double distance = 0;
+				for (int d = 0; d < 3; d++)
+					distance += (p.getDoublePosition(d) - q[d]) * (p.getDoublePosition(d) - q[d]);
+				if (distance <= reach * reach)
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Wait until all blocks that are loaded in the background are loaded.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void awaitLoading() throws InterruptedException, ExecutionException {
 
-			@Override
-			public void visit(final Synapse synapse) {
-				types[typeIndex] = "synapse";
-				typeIndex++;
+		loadExecutor.submit(() -> {}).get();
+	}
+
+	static private String blockName(final long x, final long y, final long z) {
+
+		return x + "_" + y + "_" + z;
+	}
+
+	static private long[] blockPosition(final String block) {
+
+		final String[] parts = block.split("_");
+		return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+	}
+
+	private String blockName(final Annotation annotation) {
+
+		final RealPoint p = annotation.getPosition();
+		return blockName(
+				(long)Math.floor(p.getDoublePosition(0) / blockSize[0]),
+				(long)Math.floor(p.getDoublePosition(1) / blockSize[1]),
+				(long)Math.floor(p.getDoublePosition(2) / blockSize[2]));
+	}
+
+	private String blockPath(final String block) {
+
+		return groupname + "/blocks/" + block;
+	}
+
+	private HashMap<String, List<Annotation>> groupByBlock(final Annotations annotations) {
+
+		final HashMap<String, List<Annotation>> byBlock = new HashMap<String, List<Annotation>>();
+		synchronized (annotations) {
+			for (final Annotation a : annotations.getAnnotations())
+				byBlock.computeIfAbsent(blockName(a), block -> new ArrayList<Annotation>()).add(a);
+		}
+		return byBlock;
+	}
+
+	/**
+	 * Read the requested blocks that are not loaded yet and add their
+	 * annotations.  The file is read without holding the lock of this store,
+	 * such that queries for loaded blocks do not wait for the disk.  Must
+	 * only be called on {@link #loadExecutor}, such that no block is read
+	 * twice.
+	 */
+	private void loadBlocks(final Annotations annotations, final List<String> requested) {
+
+		/* blocks may have been loaded since they were requested */
+		final List<String> names = new ArrayList<String>();
+		synchronized (this) {
+			for (final String block : requested)
+				if (!loaded.containsKey(block))
+					names.add(block);
+		}
+		if (names.isEmpty())
+			return;
+
+		final IHDF5Reader reader = HDF5Factory.openForReading(filename);
+		final AnnotationFactory factory = new AnnotationFactory();
+		final ArrayList<Annotation> added = new ArrayList<Annotation>();
+		final TLongArrayList partners = new TLongArrayList();
+		for (final String block : names) {
+			final String path = blockPath(block);
+			final float[][] locations = reader.float32().readMatrix(path + "/locations");
+			final long[] ids = reader.uint64().readArray(path + "/ids");
+			final String[] types = reader.string().readArray(path + "/types");
+
+			final HashMap<Long, String> comments = new HashMap<Long, String>();
+			if (reader.exists(path + "/comments")) {
+				final String[] commentList = reader.string().readArray(path + "/comments");
+				final long[] commentTargets = reader.uint64().readArray(path + "/comment_targets");
+				for (int i = 0; i < commentList.length; i++)
+					comments.put(commentTargets[i], commentList[i]);
 			}
 
-			@Override
-			public void visit(final PreSynapticSite preSynapticSite) {
-				if (preSynapticSite.getPartner() != null) {
-					partners[partnerIndex][0] = preSynapticSite.getId();
-					partners[partnerIndex][1] = preSynapticSite.getPartner().getId();
-					partnerIndex++;
+			if (reader.exists(path + "/partners"))
+				for (final long[] pair : reader.uint64().readMatrix(path + "/partners"))
+					partners.add(pair);
+
+			for (int i = 0; i < ids.length; i++) {
+				final RealPoint pos = new RealPoint(3);
+				pos.setPosition(new float[] {
+					locations[i][2] + offset[0],
+					locations[i][1] + offset[1],
+					locations[i][0] + offset[2] });
+				final String comment = (comments.containsKey(ids[i]) ? comments.get(ids[i]) : "");
+				try {
+					added.add(factory.create(ids[i], pos, comment, types[i]));
+				} catch (final Exception e) {
+					System.out.println("AnnotationsHdf5Store: skipping annotation " + ids[i] + " in block " + block + ": " + e.getMessage());
 				}
-				types[typeIndex] = "presynaptic_site";
-				typeIndex++;
 			}
+		}
+		reader.close();
 
-			@Override
-			public void visit(final PostSynapticSite postSynapticSite) {
-				types[typeIndex] = "postsynaptic_site";
-				typeIndex++;
+		final HashMap<String, List<Annotation>> byBlock = new HashMap<String, List<Annotation>>();
+		for (final Annotation a : added)
+			byBlock.computeIfAbsent(blockName(a), block -> new ArrayList<Annotation>()).add(a);
+
+		annotations.addAll(added);
+		synchronized (this) {
+			for (int i = 0; i < partners.size(); i += 2)
+				link(annotations, partners.get(i), partners.get(i + 1));
+			for (final String block : names) {
+				final List<Annotation> blockAnnotations = byBlock.get(block);
+				loaded.put(block, blockAnnotations == null ? 0 : new Block(blockAnnotations).fingerprint);
 			}
 		}
+	}
 
-		final AnnotationsCrawler crawler = new AnnotationsCrawler();
-		for (final Annotation a : annotations.getAnnotations())
-			a.accept(crawler);
+	/**
+	 * Link a synaptic site to its partner, or remember the partner until
+	 * the block that contains it is loaded.  Must be called holding the lock
+	 * of this store.
+	 */
+	private void link(final Annotations annotations, final long id, final long partnerId) {
+
+		final Annotation site = annotations.getById(id);
+		final Annotation partner = annotations.getById(partnerId);
+		if (site == null)
+			return;
+		if (partner == null) {
+			pendingPartners.put(id, partnerId);
+			return;
+		}
+		if (site instanceof PreSynapticSite && partner instanceof PostSynapticSite) {
+			((PreSynapticSite)site).setPartner((PostSynapticSite)partner);
+			((PostSynapticSite)partner).setPartner((PreSynapticSite)site);
+		} else if (site instanceof PostSynapticSite && partner instanceof PreSynapticSite) {
+			((PostSynapticSite)site).setPartner((PreSynapticSite)partner);
+			((PreSynapticSite)partner).setPartner((PostSynapticSite)site);
+		}
+		pendingPartners.remove(id);
+		pendingPartners.remove(partnerId);
+	}
+
+	/**
+	 * Write all blocks whose annotations changed since they were read or
+	 * written last. Blocks that have not been loaded are not touched. Files
+	 * in a format prior to 0.3 are converted.  The file is written on the
+	 * thread that loads blocks, such that it is never read and written at
+	 * the same time.
+	 */
+	@Override
+	public void write(final Annotations annotations) {
+
+		try {
+			loadExecutor.submit(() -> writeBlocks(annotations)).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private void writeBlocks(final Annotations annotations) {
+
+		// annotations that were moved or added into blocks that are not loaded yet
+		final List<String> missing = new ArrayList<String>();
+		synchronized (this) {
+			for (final String block : groupByBlock(annotations).keySet())
+				if (blocks.containsKey(block) && !loaded.containsKey(block))
+					missing.add(block);
+		}
+		loadBlocks(annotations, missing);
+
+		synchronized (this) {
+			writeBlocks(groupByBlock(annotations));
+		}
+	}
+
+	private void writeBlocks(final HashMap<String, List<Annotation>> byBlock) {
+
+		final IHDF5Writer writer = HDF5Factory.open(filename);
 
 		// TODO: following calls are deprecated, but what to use instead?
 		try {
@@ -326,42 +740,68 @@ public class AnnotationsHdf5Store implements AnnotationsStore {
 			// already existed
 		}
 		try {
-			writer.createGroup(groupname + "/comments");
+			writer.createGroup(groupname + "/blocks");
 		} catch (final HDF5SymbolTableException e) {
 			// already existed
 		}
-		try {
-			writer.createGroup(groupname + "/presynaptic_site");
-		} catch (final HDF5SymbolTableException e) {
-			// already existed
+
+		int numWritten = 0;
+		int numDeleted = 0;
+
+		// blocks that became empty
+		for (final String block : new ArrayList<String>(loaded.keySet())) {
+			if (byBlock.containsKey(block))
+				continue;
+			if (blocks.remove(block) != null) {
+				writer.delete(blockPath(block));
+				numDeleted++;
+			}
+			loaded.remove(block);
 		}
 
-		writer.string().setAttr("/", "file_format", "0.2");
+		for (final Map.Entry<String, List<Annotation>> entry : byBlock.entrySet()) {
+			final String block = entry.getKey();
+			final Block data = new Block(entry.getValue());
+			final Long fingerprint = loaded.get(block);
+			if (blocks.containsKey(block) && fingerprint != null && fingerprint == data.fingerprint)
+				continue;
+			if (blocks.containsKey(block))
+				writer.delete(blockPath(block));
+			data.write(writer, blockPath(block));
+			blocks.put(block, blockPosition(block));
+			loaded.put(block, data.fingerprint);
+			maxId = IdService.max(maxId, IdService.max(data.ids));
+			numWritten++;
+		}
+
+		writer.string().setAttr("/", "file_format", FILE_FORMAT);
+		final float[] blockSizeData = { blockSize[2], blockSize[1], blockSize[0] };
+		writer.setFloatArrayAttribute(groupname + "/blocks", "block_size", blockSizeData);
+		writer.uint64().setAttr(groupname + "/blocks", "max_id", maxId);
 
 		if (writer.hasAttribute(groupname, "offset")) {
 			final float[] data = { offset[2], offset[1], offset[0] };
 			writer.setFloatArrayAttribute(groupname, "offset", data);
 		}
 
-		writer.float32().writeMatrix(groupname + "/locations", crawler.locations);
-		writer.uint64().writeArray(groupname + "/ids", crawler.ids);
-		writer.string().writeArray(groupname + "/types", crawler.types);
-
-		writer.string().writeArray(groupname + "/comments/comments", crawler.comments);
-		writer.uint64().writeArray(groupname + "/comments/target_ids", crawler.commentTargets);
-
-		writer.uint64().writeMatrix(groupname + "/presynaptic_site/partners", crawler.partners);
-
-		// delete old datasets and groups
+		// delete datasets of the imported format
 		if (fileFormat == 0.0) {
 
 			for (final String type : new String[]{"synapse", "presynaptic_site", "postsynaptic_site" })
 				for (final String ds : new String[]{"locations", "ids", "comments" })
 					deleteDataset(writer, type + "_" + ds);
 			deleteDataset(writer, "pre_post_partners");
+
+		} else if (fileFormat < 0.3) {
+
+			for (final String ds : new String[]{"locations", "ids", "types", "comments", "presynaptic_site" })
+				deleteDataset(writer, ds);
 		}
+		fileFormat = Double.parseDouble(FILE_FORMAT);
 
 		writer.close();
+
+		System.out.println("AnnotationsHdf5Store: wrote " + numWritten + " blocks, deleted " + numDeleted + ", " + (byBlock.size() - numWritten) + " unchanged");
 	}
 
 	private void deleteDataset(final IHDF5Writer writer, final String name) {
@@ -17,6 +17,7 @@
 package bdv.bigcat.control;
 
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -48,7 +49,6 @@ import bdv.bigcat.label.FragmentSegmentAssignment;
 import bdv.bigcat.label.IdPicker;
 import bdv.labels.labelset.Label;
 import bdv.viewer.ViewerPanel;
-import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -126,6 +126,23 @@ public class AgglomerationClientController
 		public String getType() { return "merge-and-separate"; }
 	}
 
+	/**
+	 * Ask the solver for a {@link FragmentSegmentLutFrame#SNAPSHOT} of its
+	 * lookup, sent on connect and whenever a delta was missed.
+	 */
+	static private class RequestLut implements Action
+	{
+		final public long version;
+
+		public RequestLut( final long version )
+		{
+			this.version = version;
+		}
+
+		@Override
+		public String getType() { return "request-lut"; }
+	}
+
 	static private class ActionSerializer implements JsonSerializer< Action >
 	{
 		@Override
@@ -159,23 +176,60 @@ public class AgglomerationClientController
 		}
 	}
 
+	/**
+	 * Receives {@link FragmentSegmentLutFrame}s from the solver and applies
+	 * them to the assignment.  JSON messages of the previous protocol are
+	 * still accepted as snapshots.
+	 */
 	protected class SocketListener extends Thread
 	{
-		final void handleMessage( final String json )
+		/* version of the last applied frame, -1 while waiting for a snapshot */
+		private long version = -1;
+
+		final void handleMessage( final byte[] message )
 		{
-			final FragmentSegmentLutMessage lutMsg = gson.fromJson( json, FragmentSegmentLutMessage.class );
+			if ( !FragmentSegmentLutFrame.isFrame( message ) )
+			{
+				handleMessage( new String( message, StandardCharsets.UTF_8 ) );
+				return;
+			}
 
-			System.out.println( "Message received" );
-			System.out.println( gson.toJson( lutMsg ) );
+			final FragmentSegmentLutFrame frame = FragmentSegmentLutFrame.decode( message );
+			if ( frame.type == FragmentSegmentLutFrame.SNAPSHOT )
+			{
+				assignment.initLut( frame.fragments, frame.segments );
+				version = frame.version;
+				System.out.println( "Received fragment-segment-lut snapshot " + version + " with " + frame.size() + " entries" );
+			}
+			else if ( version >= 0 && frame.version == version + 1 )
+			{
+				assignment.applyDelta( frame.fragments, frame.segments );
+				version = frame.version;
+			}
+			else
+			{
+				/* wait for the requested snapshot */
+				if ( version >= 0 )
+				{
+					System.out.println( "Missed fragment-segment-lut delta " + ( version + 1 ) + ", requesting snapshot" );
+					requestLut( version );
+					version = -1;
+				}
+				return;
+			}
+			viewer.requestRepaint();
+		}
 
-			final TLongLongHashMap lut = new TLongLongHashMap();
+		final void handleMessage( final String json )
+		{
+			final FragmentSegmentLutMessage lutMsg = gson.fromJson( json, FragmentSegmentLutMessage.class );
 			final long[] fragments = lutMsg.data.fragments;
 			final long[] segments = lutMsg.data.segments;
 			final int n = Math.min( fragments.length, segments.length );
-			for ( int i = 0; i < n; ++i )
-				lut.put( fragments[ i ], segments[ i ] );
 
-			assignment.initLut( lut );
+			System.out.println( "Received fragment-segment-lut message with " + n + " entries" );
+
+			assignment.initLut( Arrays.copyOf( fragments, n ), Arrays.copyOf( segments, n ) );
 			viewer.requestRepaint();
 		}
 
@@ -184,12 +238,25 @@ public class AgglomerationClientController
 		{
 			while ( !isInterrupted() )
 			{
-				final String json = socket.recvStr();
-				handleMessage( json );
+				final byte[] message = socket.recv();
+				if ( message != null )
+					handleMessage( message );
 			}
 		}
 	}
 
+	/**
+	 * Request a snapshot of the solver's lookup.
+	 *
+	 * @param version
+	 *            of the current lookup, -1 if there is none
+	 */
+	protected void requestLut( final long version )
+	{
+		final RequestLut action = new RequestLut( version );
+		while ( !socket.send( gson.toJson( action, Action.class ) ) );
+	}
+
 	public BehaviourMap getBehaviourMap()
 	{
 		return behaviourMap;
@@ -245,6 +312,9 @@ public class AgglomerationClientController
 
 		socketListener = new SocketListener();
 		socketListener.start();
+
+		/* handshake */
+		requestLut( -1 );
 	}
 
 	////////////////
@@ -20,6 +20,7 @@ import java.awt.Cursor;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.Collection;
 import java.util.List;
 
 import javax.swing.ActionMap;
@@ -109,6 +110,21 @@ public class AnnotationsController implements WindowListener, Selection.Selectio
 		this.overlay = new AnnotationsOverlay(viewer.getViewer(), annotations, this);
 		this.overlay.setVisible(true);
 
+		// annotations that the store loaded in the background become visible
+		this.annotations.addAnnotationsListener(new Annotations.AnnotationsListener() {
+
+			@Override
+			public void onAnnotationAdded(final Annotation a) {}
+
+			@Override
+			public void onAnnotationRemoved(final Annotation a) {}
+
+			@Override
+			public void onAnnotationsAdded(final Collection<? extends Annotation> added) {
+				AnnotationsController.this.viewer.requestRepaint();
+			}
+		});
+
 		inputAdder = config.inputTriggerAdder(inputTriggerMap, "bigcat");
 		ksKeyStrokeAdder = keyProperties.keyStrokeAdder(ksInputMap, "bigcat");
 
@@ -368,15 +384,12 @@ public class AnnotationsController implements WindowListener, Selection.Selectio
 
 			final RealPoint pos = new RealPoint(3);
 			viewer.displayToGlobalCoordinates(x, y, pos);
-			annotation.setPosition(pos);
+			annotations.move(annotation, pos);
 			viewer.requestRepaint();
 		}
 
 		@Override
-		public void end(final int x, final int y) {
-
-			annotations.markDirty();
-		}
+		public void end(final int x, final int y) {}
 
 		private Annotation annotation;
 	}
@@ -0,0 +1,119 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package bdv.bigcat.control;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Binary ZeroMQ frame that carries a fragment &gt; segment lookup or changes
+ * of it from the solver to the {@link AgglomerationClientController}.
+ *
+ * All values are little endian:
+ * <pre>
+ * int32  magic    'L' 'U' 'T' '1'
+ * int32  type     0 = snapshot, 1 = delta
+ * int64  version  of the lookup after this frame was applied
+ * int64  n        number of entries
+ * int64  fragments[ n ]
+ * int64  segments[ n ]
+ * </pre>
+ *
+ * A snapshot replaces the lookup, a delta reassigns the listed fragments.
+ * Deltas are numbered consecutively, a delta with version v applies to the
+ * lookup with version v - 1 only.
+ */
+public class FragmentSegmentLutFrame
+{
+	final static public int MAGIC = 'L' | 'U' << 8 | 'T' << 16 | '1' << 24;
+
+	final static public int SNAPSHOT = 0;
+
+	final static public int DELTA = 1;
+
+	final static public int HEADER_SIZE = 24;
+
+	final public int type;
+
+	final public long version;
+
+	final public long[] fragments;
+
+	final public long[] segments;
+
+	public FragmentSegmentLutFrame( final int type, final long version, final long[] fragments, final long[] segments )
+	{
+		assert fragments.length == segments.length : "fragments and segments must be of same length";
+
+		this.type = type;
+		this.version = version;
+		this.fragments = fragments;
+		this.segments = segments;
+	}
+
+	/**
+	 * @return true if the message starts like a {@link FragmentSegmentLutFrame}
+	 */
+	static public boolean isFrame( final byte[] message )
+	{
+		return message.length >= HEADER_SIZE &&
+				ByteBuffer.wrap( message ).order( ByteOrder.LITTLE_ENDIAN ).getInt( 0 ) == MAGIC;
+	}
+
+	static public FragmentSegmentLutFrame decode( final byte[] message )
+	{
+		if ( !isFrame( message ) )
+			throw new IllegalArgumentException( "Not a fragment-segment-lut frame." );
+
+		final ByteBuffer buffer = ByteBuffer.wrap( message ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.getInt();
+		final int type = buffer.getInt();
+		final long version = buffer.getLong();
+		final long n = buffer.getLong();
+		if ( type != SNAPSHOT && type != DELTA )
+			throw new IllegalArgumentException( "Unknown frame type " + type + "." );
+		if ( n < 0 || n != ( message.length - HEADER_SIZE ) / 16 || ( message.length - HEADER_SIZE ) % 16 != 0 )
+			throw new IllegalArgumentException( "Frame of " + message.length + " bytes cannot hold " + n + " entries." );
+
+		final long[] fragments = new long[ ( int ) n ];
+		final long[] segments = new long[ ( int ) n ];
+		final LongBuffer longs = buffer.asLongBuffer();
+		longs.get( fragments );
+		longs.get( segments );
+
+		return new FragmentSegmentLutFrame( type, version, fragments, segments );
+	}
+
+	public byte[] encode()
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + 16 * fragments.length ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putInt( MAGIC );
+		buffer.putInt( type );
+		buffer.putLong( version );
+		buffer.putLong( fragments.length );
+		final LongBuffer longs = buffer.asLongBuffer();
+		longs.put( fragments );
+		longs.put( segments );
+		return buffer.array();
+	}
+
+	public int size()
+	{
+		return fragments.length;
+	}
+}
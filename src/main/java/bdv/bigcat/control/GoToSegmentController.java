@@ -0,0 +1,144 @@
+package bdv.bigcat.control;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.ActionMap;
+import javax.swing.InputMap;
+
+import org.scijava.ui.behaviour.KeyStrokeAdder;
+import org.scijava.ui.behaviour.io.InputTriggerConfig;
+import org.scijava.ui.behaviour.util.AbstractNamedAction;
+import org.scijava.ui.behaviour.util.InputActionBindings;
+
+import bdv.bigcat.label.FragmentSegmentAssignment;
+import bdv.img.h5.H5LabelMultisetSetupImageLoader;
+import bdv.img.h5.LabelBlockIndex;
+import bdv.viewer.ViewerPanel;
+import net.imglib2.FinalInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Center the viewer on the segment of the active fragment.  The bounding
+ * box of the segment is looked up in the {@link LabelBlockIndex} of the
+ * label source, so no label blocks are read.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class GoToSegmentController
+{
+	final protected ViewerPanel viewer;
+	final protected SelectionController selectionController;
+	final protected FragmentSegmentAssignment assignment;
+	final protected H5LabelMultisetSetupImageLoader labelLoader;
+	final protected AffineTransform3D labelTransform;
+
+	// for keystroke actions
+	private final ActionMap ksActionMap = new ActionMap();
+	private final InputMap ksInputMap = new InputMap();
+	private final KeyStrokeAdder ksKeyStrokeAdder;
+
+	public GoToSegmentController(
+			final ViewerPanel viewer,
+			final SelectionController selectionController,
+			final FragmentSegmentAssignment assignment,
+			final H5LabelMultisetSetupImageLoader labelLoader,
+			final AffineTransform3D labelTransform,
+			final InputTriggerConfig config,
+			final InputActionBindings inputActionBindings )
+	{
+		this.viewer = viewer;
+		this.selectionController = selectionController;
+		this.assignment = assignment;
+		this.labelLoader = labelLoader;
+		this.labelTransform = labelTransform;
+		ksKeyStrokeAdder = config.keyStrokeAdder( ksInputMap, "go to segment" );
+
+		new GoToSegment( "go to segment", "shift G" ).register();
+
+		inputActionBindings.addActionMap( "go to segment", ksActionMap );
+		inputActionBindings.addInputMap( "go to segment", ksInputMap );
+	}
+
+	/**
+	 * Center the viewer on a position in global coordinates.
+	 *
+	 * @param position
+	 */
+	public void goTo( final RealPoint position )
+	{
+		synchronized ( viewer )
+		{
+			final RealPoint currentCenter = new RealPoint( 3 );
+			viewer.displayToGlobalCoordinates( viewer.getWidth() / 2, viewer.getHeight() / 2, currentCenter );
+
+			final AffineTransform3D translate = new AffineTransform3D();
+			translate.translate(
+					currentCenter.getDoublePosition( 0 ) - position.getDoublePosition( 0 ),
+					currentCenter.getDoublePosition( 1 ) - position.getDoublePosition( 1 ),
+					currentCenter.getDoublePosition( 2 ) - position.getDoublePosition( 2 ) );
+
+			final AffineTransform3D viewerTransform = new AffineTransform3D();
+			viewer.getState().getViewerTransform( viewerTransform );
+			viewer.setCurrentViewerTransform( viewerTransform.concatenate( translate ) );
+		}
+		viewer.requestRepaint();
+	}
+
+	private abstract class SelfRegisteringAction extends AbstractNamedAction
+	{
+		private final String[] defaultTriggers;
+
+		public SelfRegisteringAction( final String name, final String ... defaultTriggers )
+		{
+			super( name );
+			this.defaultTriggers = defaultTriggers;
+		}
+
+		public void register()
+		{
+			put( ksActionMap );
+			ksKeyStrokeAdder.put( name(), defaultTriggers );
+		}
+	}
+
+	private class GoToSegment extends SelfRegisteringAction
+	{
+		public GoToSegment( final String name, final String ... defaultTriggers )
+		{
+			super( name, defaultTriggers );
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+			final LabelBlockIndex index = labelLoader.getLabelBlockIndex();
+			if ( index == null )
+			{
+				viewer.showMessage( "no label block index" );
+				return;
+			}
+
+			final long activeFragmentId = selectionController.getActiveFragmentId();
+			final long activeSegmentId = assignment.getSegment( activeFragmentId );
+			long[] fragments = assignment.getFragments( activeSegmentId );
+			if ( fragments == null )
+				fragments = new long[]{ activeFragmentId };
+
+			final FinalInterval boundingBox = index.getBoundingBox( fragments );
+			if ( boundingBox == null )
+			{
+				viewer.showMessage( "segment " + activeSegmentId + " not found" );
+				return;
+			}
+
+			final double[] center = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				center[ d ] = 0.5 * ( boundingBox.min( d ) + boundingBox.max( d ) );
+			labelTransform.apply( center, center );
+
+			goTo( new RealPoint( center ) );
+			viewer.showMessage( "segment " + activeSegmentId );
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package bdv.bigcat.control;
 
 import java.awt.Cursor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.lang.math.NumberUtils;
 import org.scijava.ui.behaviour.Behaviour;
@@ -10,6 +12,7 @@ import org.scijava.ui.behaviour.InputTriggerAdder;
 import org.scijava.ui.behaviour.InputTriggerMap;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 
+import bdv.bigcat.label.BlockParallelFloodFill;
 import bdv.bigcat.label.FragmentSegmentAssignment;
 import bdv.bigcat.label.IdPicker;
 import bdv.bigcat.util.DirtyInterval;
@@ -31,6 +34,8 @@ import net.imglib2.algorithm.fill.FloodFill;
 import net.imglib2.algorithm.fill.TypeWriter;
 import net.imglib2.algorithm.neighborhood.DiamondShape;
 import net.imglib2.algorithm.neighborhood.Shape;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineRandomAccessible;
@@ -42,6 +47,7 @@ import net.imglib2.type.BooleanType;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
@@ -96,6 +102,24 @@ public class LabelFillController
 
 	private final double minLabelScale;
 
+	final static private int[] DEFAULT_FILL_BLOCK_SIZE = { 64, 64, 64 };
+
+	/* minimum time between progress messages in ms */
+	final static private long PROGRESS_INTERVAL = 500;
+
+	/* blocks of the parallel fill, the cells of the canvas if available */
+	final protected CellGrid fillGrid;
+
+	final protected ExecutorService fillExecutor = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			r -> {
+				final Thread thread = new Thread( r, "flood fill" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+
+	private volatile BlockParallelFloodFill< ?, ? > currentFill = null;
+
 	public LabelFillController(
 			final ViewerPanel viewer,
 			final RandomAccessibleInterval< LabelMultisetType > labels,
@@ -123,7 +147,13 @@ public class LabelFillController
 
 		minLabelScale = NumberUtils.min( new double[] { Affine3DHelpers.extractScale( labelTransform, 0 ), Affine3DHelpers.extractScale( labelTransform, 1 ), Affine3DHelpers.extractScale( labelTransform, 2 ) } );
 
+		if ( paintedLabels instanceof AbstractCellImg )
+			fillGrid = ( ( AbstractCellImg< ?, ?, ?, ? > )paintedLabels ).getCellGrid();
+		else
+			fillGrid = new CellGrid( Intervals.dimensionsAsLongArray( paintedLabels ), DEFAULT_FILL_BLOCK_SIZE );
+
 		new Fill( "fill", "M button1" ).register();
+		new CancelFill( "cancel fill", "ESCAPE" ).register();
 		new Fill2D( "fill 2D", "shift M button1" ).register();
 	}
 
@@ -173,43 +203,80 @@ public class LabelFillController
 		{
 			synchronized ( viewer )
 			{
+				if ( currentFill != null && !currentFill.isDone() )
+				{
+					viewer.showMessage( "Fill in progress, cancel with ESCAPE." );
+					return;
+				}
 				if ( idPicker.getIdAtDisplayCoordinate( x, y ) == Label.OUTSIDE )
 					return;
-				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.WAIT_CURSOR ) );
 				setCoordinates( x, y );
-				System.out.println( "Filling " + labelLocation + " with " + selectionController.getActiveFragmentId() );
+				final long fillId = selectionController.getActiveFragmentId();
+				System.out.println( "Filling " + labelLocation + " with " + fillId );
 
 				final Point p = new Point( Math.round( labelLocation.getDoublePosition( 0 ) ), Math.round( labelLocation.getDoublePosition( 1 ) ), Math.round( labelLocation.getDoublePosition( 2 ) ) );
 
-				final AccessBoxRandomAccessible< LongType > accessTrackingExtendedPaintedLabels =
-						new AccessBoxRandomAccessible<>(
-							Views.extendValue(
-									paintedLabels,
-									new LongType( Label.TRANSPARENT ) ) );
-
-				final RandomAccess< LongType > paintAccess = accessTrackingExtendedPaintedLabels.randomAccess();
+				final RandomAccess< LongType > paintAccess = Views.extendValue( paintedLabels, new LongType( Label.TRANSPARENT ) ).randomAccess();
 				paintAccess.setPosition( p );
 				final long seedPaint = paintAccess.get().getIntegerLong();
 				final long seedFragmentLabel = getBiggestLabel( labels, p );
 
 				final long t0 = System.currentTimeMillis();
-				FloodFill.fill(
-						Views.extendValue( labels, new LabelMultisetType() ),
-						accessTrackingExtendedPaintedLabels,
-						p,
+				final long[] lastMessage = { t0 };
+				final BlockParallelFloodFill< LabelMultisetType, LongType > fill = new BlockParallelFloodFill<>(
+						labels,
+						paintedLabels,
+						fillGrid,
 						new LabelMultisetType(),
-						new LongType( selectionController.getActiveFragmentId() ),
-						new DiamondShape( 1 ),
-						new SegmentAndPaintFilter1( seedPaint, seedFragmentLabel, assignment ) );
+						new LongType( fillId ),
+						new SegmentAndPaintFilter1( seedPaint, seedFragmentLabel, assignment ),
+						fillExecutor,
+						( block, numFilled ) -> {
+							dirtyLabelsInterval.touch( block );
+							final long t = System.currentTimeMillis();
+							synchronized ( lastMessage )
+							{
+								if ( t - lastMessage[ 0 ] < PROGRESS_INTERVAL )
+									return;
+								lastMessage[ 0 ] = t;
+							}
+							viewer.showMessage( "Filling... " + numFilled + " voxels" );
+							viewer.requestRepaint();
+						} );
+				currentFill = fill;
+
+				fill.start( p ).whenComplete( ( numFilled, e ) -> {
+					final long t1 = System.currentTimeMillis();
+					if ( e != null )
+					{
+						e.printStackTrace();
+						viewer.showMessage( "Filling failed: " + e.getMessage() );
+					}
+					else if ( fill.isCancelled() )
+						viewer.showMessage( "Filling cancelled after " + numFilled + " voxels." );
+					else
+						viewer.showMessage( "Filled " + numFilled + " voxels." );
+					System.out.println( "Filling " + numFilled + " voxels took " + ( t1 - t0 ) + " ms" );
+					System.out.println( "  modified box: " + Util.printInterval( dirtyLabelsInterval.getDirtyInterval() ) );
+					viewer.requestRepaint();
+				} );
+			}
+		}
+	}
 
-				dirtyLabelsInterval.touch( accessTrackingExtendedPaintedLabels.createAccessInterval() );
+	private class CancelFill extends SelfRegisteringBehaviour implements ClickBehaviour
+	{
+		public CancelFill( final String name, final String... defaultTriggers )
+		{
+			super( name, defaultTriggers );
+		}
 
-				final long t1 = System.currentTimeMillis();
-				System.out.println( "Filling took " + ( t1 - t0 ) + " ms" );
-				System.out.println( "  modified box: " + Util.printInterval( dirtyLabelsInterval.getDirtyInterval() ) );
-				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.DEFAULT_CURSOR ) );
-				viewer.requestRepaint();
-			}
+		@Override
+		public void click( final int x, final int y )
+		{
+			final BlockParallelFloodFill< ?, ? > fill = currentFill;
+			if ( fill != null && !fill.isDone() )
+				fill.cancel();
 		}
 	}
 
@@ -226,6 +293,11 @@ public class LabelFillController
 		{
 			synchronized ( viewer )
 			{
+				if ( currentFill != null && !currentFill.isDone() )
+				{
+					viewer.showMessage( "Fill in progress, cancel with ESCAPE." );
+					return;
+				}
 				if ( idPicker.getIdAtDisplayCoordinate( x, y ) == Label.OUTSIDE )
 					return;
 				final AffineTransform3D transform = new AffineTransform3D();
@@ -3,23 +3,44 @@ package bdv.bigcat.control;
 import java.awt.Cursor;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.ActionMap;
 import javax.swing.InputMap;
 
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
 import org.scijava.ui.behaviour.KeyStrokeAdder;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 import org.scijava.ui.behaviour.util.AbstractNamedAction;
 import org.scijava.ui.behaviour.util.InputActionBindings;
 
 import bdv.bigcat.label.FragmentSegmentAssignment;
+import bdv.bigcat.label.FragmentSegmentJournal;
 import bdv.bigcat.label.SegmentAssignment;
+import bdv.bigcat.label.SparseLabelCanvas;
 import bdv.bigcat.util.DirtyInterval;
 import bdv.img.h5.H5Utils;
+import bdv.img.h5.PaintedCells;
+import bdv.img.n5.N5Utils;
 import bdv.labels.labelset.LabelMultisetType;
 import bdv.util.IdService;
 import bdv.viewer.ViewerPanel;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.numeric.integer.LongType;
 
 /**
@@ -41,12 +62,69 @@ public class LabelPersistenceController
 	final protected IdService idService;
 
 	final protected String h5Path;
+
+	/**
+	 * HDF5 file or N5 container of the painted labels, usually
+	 * {@link #h5Path}
+	 */
+	final protected String paintedLabelsPath;
 	final protected String paintedLabelsDataset;
 	final protected String mergedLabelsDataset;
 	final protected int[] labelsCellDimensions;
 	final protected String assignmentDataset;
 	final protected String completeSegmentsDataset;
 
+	/**
+	 * true if the painted labels dataset in {@link #paintedLabelsPath} contains all
+	 * cells that are not marked dirty, i.e. saving only dirty cells is
+	 * sufficient
+	 */
+	protected boolean paintedLabelsInSync;
+
+	/**
+	 * Flush interval of the fragment-segment journal in seconds, i.e. the
+	 * modifications that a crash can lose at most.
+	 */
+	final static public long JOURNAL_FLUSH_INTERVAL = 10;
+
+	/**
+	 * Minimum size of the fragment-segment journal in bytes before it is
+	 * compacted into a new snapshot.  Journals are compacted only when they
+	 * are larger than the snapshot.
+	 */
+	final static public long MIN_JOURNAL_COMPACTION_SIZE = 1 << 20;
+
+	/** journal of {@link #assignment} next to {@link #assignmentDataset} */
+	final protected File journalFile;
+
+	/**
+	 * sequence of the last journal entry that was saved explicitly,
+	 * entries after it are recovered after a crash but discarded by
+	 * {@link #discardUnsavedAssignments()}
+	 */
+	protected long savedJournalSequence;
+
+	/** flushes the journal periodically */
+	final protected ScheduledThreadPoolExecutor journalExecutor = new ScheduledThreadPoolExecutor(
+			1,
+			r -> {
+				final Thread thread = new Thread( r, "flush fragment segment journal" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+
+	/**
+	 * executes all writes to {@link #h5Path} and {@link #paintedLabelsPath},
+	 * one at a time in the order in which they were requested
+	 */
+	final protected ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(
+			1,
+			1,
+			10,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue< Runnable >(),
+			r -> new Thread( r, "save labels" ) );
+
 	// for keystroke actions
 	private final ActionMap ksActionMap = new ActionMap();
 	private final InputMap ksInputMap = new InputMap();
@@ -70,6 +148,110 @@ public class LabelPersistenceController
 			final String completeSegmentsDataset,
 			final InputTriggerConfig config,
 			final InputActionBindings inputActionBindings )
+	{
+		this(
+				viewer,
+				labelMultisetSource,
+				labelSource,
+				labelResolution,
+				labelOffset,
+				dirtyLabelSourceInterval,
+				assignment,
+				completeFragments,
+				idService,
+				h5Path,
+				paintedLabelsDataset,
+				mergedLabelsDataset,
+				labelsH5CellDimensions,
+				assignmentDataset,
+				completeSegmentsDataset,
+				false,
+				config,
+				inputActionBindings );
+	}
+
+	/**
+	 * @param paintedLabelsInSync
+	 *            true if {@code paintedLabelsDataset} in {@code h5Path}
+	 *            already contains {@code labelSource}, i.e. the painted
+	 *            labels were loaded from there.  Otherwise, the first save
+	 *            writes the complete painted labels and only later saves
+	 *            are restricted to dirty cells.
+	 */
+	public LabelPersistenceController(
+			final ViewerPanel viewer,
+			final RandomAccessibleInterval< LabelMultisetType > labelMultisetSource,
+			final RandomAccessibleInterval< LongType > labelSource,
+			final double[] labelResolution,
+			final double[] labelOffset,
+			final DirtyInterval dirtyLabelSourceInterval,
+			final FragmentSegmentAssignment assignment,
+			final SegmentAssignment completeFragments,
+			final IdService idService,
+			final String h5Path,
+			final String paintedLabelsDataset,
+			final String mergedLabelsDataset,
+			final int[] labelsH5CellDimensions,
+			final String assignmentDataset,
+			final String completeSegmentsDataset,
+			final boolean paintedLabelsInSync,
+			final InputTriggerConfig config,
+			final InputActionBindings inputActionBindings )
+	{
+		this(
+				viewer,
+				labelMultisetSource,
+				labelSource,
+				labelResolution,
+				labelOffset,
+				dirtyLabelSourceInterval,
+				assignment,
+				completeFragments,
+				idService,
+				h5Path,
+				h5Path,
+				paintedLabelsDataset,
+				mergedLabelsDataset,
+				labelsH5CellDimensions,
+				assignmentDataset,
+				completeSegmentsDataset,
+				paintedLabelsInSync,
+				config,
+				inputActionBindings );
+	}
+
+	/**
+	 * @param paintedLabelsPath
+	 *            HDF5 file or N5 container of the painted labels, selected
+	 *            by {@link N5Utils#isN5(String)}
+	 * @param paintedLabelsInSync
+	 *            true if {@code paintedLabelsDataset} in
+	 *            {@code paintedLabelsPath} already contains
+	 *            {@code labelSource}, i.e. the painted labels were loaded
+	 *            from there.  Otherwise, the first save writes the complete
+	 *            painted labels and only later saves are restricted to dirty
+	 *            cells.
+	 */
+	public LabelPersistenceController(
+			final ViewerPanel viewer,
+			final RandomAccessibleInterval< LabelMultisetType > labelMultisetSource,
+			final RandomAccessibleInterval< LongType > labelSource,
+			final double[] labelResolution,
+			final double[] labelOffset,
+			final DirtyInterval dirtyLabelSourceInterval,
+			final FragmentSegmentAssignment assignment,
+			final SegmentAssignment completeFragments,
+			final IdService idService,
+			final String h5Path,
+			final String paintedLabelsPath,
+			final String paintedLabelsDataset,
+			final String mergedLabelsDataset,
+			final int[] labelsH5CellDimensions,
+			final String assignmentDataset,
+			final String completeSegmentsDataset,
+			final boolean paintedLabelsInSync,
+			final InputTriggerConfig config,
+			final InputActionBindings inputActionBindings )
 	{
 		this.viewer = viewer;
 		this.labelMultisetSource = labelMultisetSource;
@@ -81,11 +263,21 @@ public class LabelPersistenceController
 		this.completeSegments = completeFragments;
 		this.idService = idService;
 		this.h5Path = h5Path;
+		this.paintedLabelsPath = paintedLabelsPath;
 		this.paintedLabelsDataset = paintedLabelsDataset;
 		this.mergedLabelsDataset = mergedLabelsDataset;
 		this.labelsCellDimensions = labelsH5CellDimensions;
 		this.assignmentDataset = assignmentDataset;
 		this.completeSegmentsDataset = completeSegmentsDataset;
+		this.paintedLabelsInSync = paintedLabelsInSync;
+		saveExecutor.allowCoreThreadTimeOut( true );
+
+		journalFile = FragmentSegmentJournal.getFile( h5Path, assignmentDataset );
+		journalExecutor.scheduleWithFixedDelay(
+				this::flushJournal,
+				JOURNAL_FLUSH_INTERVAL,
+				JOURNAL_FLUSH_INTERVAL,
+				TimeUnit.SECONDS );
 		ksKeyStrokeAdder = config.keyStrokeAdder( ksInputMap, "persistence" );
 
 		new SaveAssignmentsAndPaintedLabels( "save fragment segment assignment and painted labels", "ctrl S" ).register();
@@ -113,46 +305,518 @@ public class LabelPersistenceController
 		}
 	}
 
+	/**
+	 * Painted labels to be saved, copied such that painting can continue
+	 * while they are written.
+	 */
+	static protected class PaintedLabelsSnapshot
+	{
+		/** the painted labels or a copy of the cells to be saved */
+		final public RandomAccessibleInterval< LongType > labels;
+
+		/** cells to be saved or {@code null} to save all painted labels */
+		final public long[] cells;
+
+		/** all painted cells or {@code null} if unknown */
+		final public long[] paintedCells;
+
+		public PaintedLabelsSnapshot(
+				final RandomAccessibleInterval< LongType > labels,
+				final long[] cells,
+				final long[] paintedCells )
+		{
+			this.labels = labels;
+			this.cells = cells;
+			this.paintedCells = paintedCells;
+		}
+	}
+
+	/**
+	 * Run a write on {@link #saveExecutor} and wait until it is complete.
+	 * Must not be called from {@link #saveExecutor}.
+	 *
+	 * @param write
+	 */
+	protected void write( final Runnable write )
+	{
+		try
+		{
+			saveExecutor.submit( write ).get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+			throw new RuntimeException( e.getCause() );
+		}
+	}
+
 	public void saveNextId()
+	{
+		final long nextId = idService.next();
+		write( () -> writeNextId( nextId ) );
+	}
+
+	protected void writeNextId( final long nextId )
 	{
 		System.out.println( "Saving next id " + h5Path + ":/next_id" );
 		H5Utils.saveUint64Attribute(
-				idService.next(),
+				nextId,
 				h5Path,
 				"/",
 				"next_id" );
 	}
 
+	/**
+	 * Record the modifications of {@link #assignment} in {@link #journalFile}.
+	 * The journal is continued only if the assignment was loaded from the
+	 * snapshot in {@link #h5Path} and replayed from {@link #journalFile},
+	 * otherwise the first save writes a new snapshot and starts a new
+	 * journal.
+	 *
+	 * @param loadedJournalFile
+	 *            the journal that the assignment was replayed from, null if
+	 *            it is unknown
+	 * @param sequence
+	 *            the sequence of the last replayed entry
+	 */
+	public void attachJournal( final File loadedJournalFile, final long sequence )
+	{
+		if ( loadedJournalFile == null || !loadedJournalFile.getAbsoluteFile().equals( journalFile.getAbsoluteFile() ) )
+			return;
+
+		write( () -> {
+			try
+			{
+				final FragmentSegmentJournal journal = FragmentSegmentJournal.open( journalFile, sequence );
+				assignment.setJournal( journal );
+				savedJournalSequence = sequence;
+			}
+			catch ( final IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		} );
+	}
+
+	/**
+	 * @return the journal of {@link #assignment} if it continues the journal
+	 *         of the saved assignment, null otherwise
+	 */
+	protected FragmentSegmentJournal getJournal()
+	{
+		final FragmentSegmentJournal journal = assignment.getJournal();
+		if ( journal != null && journal.getFile().getAbsoluteFile().equals( journalFile.getAbsoluteFile() ) )
+			return journal;
+		return null;
+	}
+
+	/**
+	 * Save the fragment-segment assignment.  Only the modifications since the
+	 * last save are appended to the journal.  The journal is compacted into a
+	 * new snapshot in the background once it became larger than the
+	 * snapshot or the lookup was replaced.  If the assignment was not loaded
+	 * from {@link #h5Path}, a snapshot is written and a new journal is
+	 * started.
+	 */
 	public void saveFragmentSegmentAssignment()
+	{
+		write( this::writeFragmentSegmentAssignment );
+	}
+
+	protected void writeFragmentSegmentAssignment()
+	{
+		final FragmentSegmentJournal journal = getJournal();
+		if ( journal == null )
+		{
+			saveFragmentSegmentSnapshot();
+			return;
+		}
+
+		System.out.println( "Saving " + ( journal.getSequence() - savedJournalSequence ) + " fragment-segment assignment modifications into " + journalFile );
+		try
+		{
+			final long snapshotSize = 16L * assignment.size();
+			final TLongLongHashMap lut;
+			synchronized ( assignment )
+			{
+				savedJournalSequence = journal.flush();
+				if ( journal.needsSnapshot() || journalFile.length() > Math.max( MIN_JOURNAL_COMPACTION_SIZE, snapshotSize ) )
+					lut = assignment.getLut();
+				else
+					lut = null;
+			}
+
+			if ( lut != null )
+			{
+				final long sequence = savedJournalSequence;
+				saveExecutor.submit( () -> {
+					try
+					{
+						compactJournal( journal, lut, sequence );
+					}
+					catch ( final Exception e )
+					{
+						e.printStackTrace();
+					}
+				} );
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * Write a snapshot of the fragment-segment assignment and start a new
+	 * journal.  The snapshot continues the numbering of an existing journal
+	 * such that its outdated entries are ignored.
+	 */
+	protected void saveFragmentSegmentSnapshot()
+	{
+		try
+		{
+			long sequence = 0;
+			final List< FragmentSegmentJournal.Entry > entries = FragmentSegmentJournal.read( journalFile );
+			if ( entries.size() > 0 )
+				sequence = entries.get( entries.size() - 1 ).sequence;
+
+			final FragmentSegmentJournal journal = new FragmentSegmentJournal( journalFile, sequence );
+			final TLongLongHashMap lut;
+			synchronized ( assignment )
+			{
+				lut = assignment.getLut();
+				assignment.setJournal( journal );
+			}
+			savedJournalSequence = sequence;
+			compactJournal( journal, lut, sequence );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * Write a snapshot of the fragment-segment assignment that contains all
+	 * journal entries up to sequence and drop them from the journal.  The
+	 * snapshot and its sequence are written into a new dataset that replaces
+	 * the old snapshot only when complete, such that a crash leaves either
+	 * the old or the new snapshot with its matching sequence.
+	 */
+	protected void compactJournal( final FragmentSegmentJournal journal, final TLongLongHashMap lut, final long sequence ) throws IOException
 	{
 		System.out.println( "Saving fragment-segment assignments " + h5Path + ":" + assignmentDataset );
-		H5Utils.saveLongLongLut(
-				assignment.getLut(),
-				h5Path,
-				assignmentDataset,
-				1024 );
+		final String newDataset = FragmentSegmentJournal.getNewSnapshotDataset( assignmentDataset );
+		final IHDF5Writer writer = HDF5Factory.open( h5Path );
+		try
+		{
+			if ( writer.exists( newDataset ) )
+				writer.delete( newDataset );
+			H5Utils.saveLongLongLut( lut, writer, newDataset, 1024 );
+			H5Utils.saveUint64Attribute( sequence, writer, newDataset, "journal_sequence" );
+			if ( writer.exists( assignmentDataset ) )
+				writer.delete( assignmentDataset );
+			writer.object().move( newDataset, assignmentDataset );
+		}
+		finally
+		{
+			writer.close();
+		}
+		journal.dropUntil( sequence );
+	}
+
+	/**
+	 * Append the modifications of the fragment-segment assignment to the
+	 * journal without marking them as saved, such that they can be recovered
+	 * after a crash.
+	 */
+	protected void flushJournal()
+	{
+		final FragmentSegmentJournal journal = getJournal();
+		if ( journal != null && journal.getNumPendingEntries() > 0 )
+		{
+			try
+			{
+				journal.flush();
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Drop the modifications of the fragment-segment assignment since the
+	 * last save from the journal, e.g. when closing without saving.
+	 */
+	public void discardUnsavedAssignments()
+	{
+		final FragmentSegmentJournal journal = getJournal();
+		if ( journal != null )
+		{
+			try
+			{
+				journal.rollback( savedJournalSequence );
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
 	}
 
 	public void saveCompleteSegmentsAssignment()
+	{
+		final TLongHashSet segments = new TLongHashSet( completeSegments.getAssignedSegments() );
+		write( () -> writeCompleteSegmentsAssignment( segments ) );
+	}
+
+	protected void writeCompleteSegmentsAssignment( final TLongHashSet segments )
 	{
 		System.out.println( "Saving complete segments " + h5Path + ":" + completeSegmentsDataset );
 		H5Utils.saveLongCollection(
-				completeSegments.getAssignedSegments(),
+				segments,
 				h5Path,
 				completeSegmentsDataset,
 				1024 );
 	}
 
+	/**
+	 * Save the {@link PaintedCells} index of the painted labels such that
+	 * loading them reads only painted cells.  The index is written before
+	 * the cells such that it lists at least all cells that were saved.  If
+	 * the painted cells are unknown, an existing index would be outdated
+	 * and is removed.
+	 *
+	 * @param file
+	 * @param snapshot
+	 */
+	protected void savePaintedCells( final File file, final PaintedLabelsSnapshot snapshot )
+	{
+		final String dataset = PaintedCells.datasetFor( paintedLabelsDataset );
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			if ( snapshot.paintedCells != null )
+				PaintedCells.save( writer, dataset, ( ( SparseLabelCanvas ) labelSource ).getCellGrid(), snapshot.paintedCells );
+			else if ( writer.exists( dataset ) )
+				writer.delete( dataset );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Take the painted labels to be saved.  If the painted labels dataset is
+	 * in sync with the painted labels except for the cells marked dirty in
+	 * {@link #dirtyLabelSourceInterval}, only those cells are saved.
+	 * Otherwise, all painted labels are saved.  Painted labels in a
+	 * {@link SparseLabelCanvas} with the cell grid of
+	 * {@link #dirtyLabelSourceInterval} are copied such that they can be
+	 * written while painting continues, other painted labels are written
+	 * as they are.
+	 *
+	 * @return
+	 */
+	synchronized protected PaintedLabelsSnapshot snapshotPaintedLabels()
+	{
+		final CellGrid grid = dirtyLabelSourceInterval.getCellGrid();
+		final SparseLabelCanvas canvas =
+				labelSource instanceof SparseLabelCanvas && grid != null && equalGrids( grid, ( ( SparseLabelCanvas ) labelSource ).getCellGrid() ) ?
+						( SparseLabelCanvas ) labelSource :
+						null;
+		final long[] paintedCells = labelSource instanceof SparseLabelCanvas ? ( ( SparseLabelCanvas ) labelSource ).getMaterializedCellIndices() : null;
+
+		if ( paintedLabelsInSync && grid != null )
+		{
+			final long[] dirtyCells = dirtyLabelSourceInterval.takeDirtyCells();
+			return new PaintedLabelsSnapshot( canvas == null ? labelSource : canvas.copyCells( dirtyCells ), dirtyCells, paintedCells );
+		}
+		else
+		{
+			if ( grid != null )
+				dirtyLabelSourceInterval.takeDirtyCells();
+			/* all later saves are ordered after this one */
+			paintedLabelsInSync = true;
+			return new PaintedLabelsSnapshot( canvas == null ? labelSource : canvas.copyCells( paintedCells ), null, paintedCells );
+		}
+	}
+
+	static private boolean equalGrids( final CellGrid a, final CellGrid b )
+	{
+		if ( a.numDimensions() != b.numDimensions() )
+			return false;
+		for ( int d = 0; d < a.numDimensions(); ++d )
+			if ( a.imgDimension( d ) != b.imgDimension( d ) || a.cellDimension( d ) != b.cellDimension( d ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Save painted labels, see {@link #snapshotPaintedLabels()}.
+	 */
 	public void savePaintedLabels()
 	{
-		System.out.println( "Saving painted labels into " + h5Path + ":" + paintedLabelsDataset );
+		final PaintedLabelsSnapshot snapshot = snapshotPaintedLabels();
+		write( () -> writePaintedLabels( snapshot ) );
+	}
 
-		final File file = new File( h5Path );
-		H5Utils.saveUnsignedLong(
-				labelSource,
-				file,
-				paintedLabelsDataset,
-				labelsCellDimensions );
+	/**
+	 * Write a snapshot of painted labels into the HDF5 file or N5 container
+	 * {@link #paintedLabelsPath}.  If writing modified cells fails, they are
+	 * marked dirty again such that the next save retries them.
+	 *
+	 * @param snapshot
+	 */
+	protected void writePaintedLabels( final PaintedLabelsSnapshot snapshot )
+	{
+		if ( N5Utils.isN5( paintedLabelsPath ) )
+			writeN5PaintedLabels( snapshot );
+		else
+			writeH5PaintedLabels( snapshot );
+	}
+
+	/**
+	 * Write a snapshot of painted labels into the N5 container
+	 * {@link #paintedLabelsPath}.  N5 blocks are independent files, blocks
+	 * that do not exist are {@link bdv.labels.labelset.Label#TRANSPARENT},
+	 * so a complete save writes only painted cells if they are known and
+	 * no {@link PaintedCells} index is necessary.
+	 *
+	 * @param snapshot
+	 */
+	protected void writeN5PaintedLabels( final PaintedLabelsSnapshot snapshot )
+	{
+		try
+		{
+			final N5Writer n5 = new N5FSWriter( paintedLabelsPath );
+			if ( snapshot.cells != null )
+			{
+				System.out.println( "Saving " + snapshot.cells.length + " modified blocks of painted labels into " + paintedLabelsPath + ":" + paintedLabelsDataset );
+				try
+				{
+					N5Utils.saveUnsignedLongCells(
+							snapshot.labels,
+							dirtyLabelSourceInterval.getCellGrid(),
+							snapshot.cells,
+							n5,
+							paintedLabelsDataset );
+				}
+				catch ( final IOException | RuntimeException e )
+				{
+					dirtyLabelSourceInterval.touchCells( snapshot.cells );
+					throw e;
+				}
+			}
+			else
+			{
+				System.out.println( "Saving painted labels into " + paintedLabelsPath + ":" + paintedLabelsDataset );
+				try
+				{
+					if ( n5.datasetExists( paintedLabelsDataset ) )
+						n5.remove( paintedLabelsDataset );
+					if ( snapshot.paintedCells == null )
+						N5Utils.saveUnsignedLong(
+								snapshot.labels,
+								n5,
+								paintedLabelsDataset,
+								labelsCellDimensions,
+								new GzipCompression() );
+					else
+					{
+						final CellGrid grid = ( ( SparseLabelCanvas ) labelSource ).getCellGrid();
+						final int[] blockSize = new int[ grid.numDimensions() ];
+						grid.cellDimensions( blockSize );
+						N5Utils.createUnsignedLong(
+								n5,
+								paintedLabelsDataset,
+								grid.getImgDimensions(),
+								blockSize,
+								new GzipCompression() );
+						N5Utils.saveUnsignedLongCells(
+								snapshot.labels,
+								grid,
+								snapshot.paintedCells,
+								n5,
+								paintedLabelsDataset );
+					}
+				}
+				catch ( final IOException | RuntimeException e )
+				{
+					synchronized ( this )
+					{
+						paintedLabelsInSync = false;
+					}
+					throw e;
+				}
+			}
+			n5.setAttribute( paintedLabelsDataset, "resolution", labelResolution );
+			n5.setAttribute( paintedLabelsDataset, "offset", labelOffset );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * Write a snapshot of painted labels into the HDF5 file
+	 * {@link #paintedLabelsPath}.
+	 *
+	 * @param snapshot
+	 */
+	protected void writeH5PaintedLabels( final PaintedLabelsSnapshot snapshot )
+	{
+		final File file = new File( paintedLabelsPath );
+		savePaintedCells( file, snapshot );
+		if ( snapshot.cells != null )
+		{
+			System.out.println( "Saving " + snapshot.cells.length + " modified blocks of painted labels into " + paintedLabelsPath + ":" + paintedLabelsDataset );
+			try
+			{
+				H5Utils.saveUnsignedLongCells(
+						snapshot.labels,
+						dirtyLabelSourceInterval.getCellGrid(),
+						snapshot.cells,
+						file,
+						paintedLabelsDataset );
+			}
+			catch ( final RuntimeException e )
+			{
+				dirtyLabelSourceInterval.touchCells( snapshot.cells );
+				throw e;
+			}
+		}
+		else
+		{
+			System.out.println( "Saving painted labels into " + paintedLabelsPath + ":" + paintedLabelsDataset );
+			try
+			{
+				H5Utils.saveUnsignedLong(
+						snapshot.labels,
+						file,
+						paintedLabelsDataset,
+						labelsCellDimensions );
+			}
+			catch ( final RuntimeException e )
+			{
+				synchronized ( this )
+				{
+					paintedLabelsInSync = false;
+				}
+				throw e;
+			}
+		}
 		H5Utils.saveDoubleArrayAttribute(
 				new double[]{labelResolution[2], labelResolution[1], labelResolution[0]},
 				file,
@@ -165,7 +829,83 @@ public class LabelPersistenceController
 				"offset");
 	}
 
+	/**
+	 * Save painted labels on a background thread.  Saves are executed one at
+	 * a time in the order in which they were requested.
+	 *
+	 * @param onSuccess
+	 *            run after the painted labels were saved
+	 * @return
+	 */
+	public Future< ? > savePaintedLabelsInBackground( final Runnable onSuccess )
+	{
+		final PaintedLabelsSnapshot snapshot = snapshotPaintedLabels();
+		return saveExecutor.submit( () -> {
+			try
+			{
+				writePaintedLabels( snapshot );
+				onSuccess.run();
+			}
+			catch ( final RuntimeException e )
+			{
+				e.printStackTrace();
+				viewer.showMessage( "Saving painted labels failed: " + e.getMessage() );
+			}
+		} );
+	}
+
+	/**
+	 * Save the next id, the fragment-segment and complete segments
+	 * assignments, and painted labels on a background thread.  Everything
+	 * that can still change is copied on the calling thread.
+	 *
+	 * @param onSuccess
+	 *            run after everything was saved
+	 * @return
+	 */
+	public Future< ? > saveAllInBackground( final Runnable onSuccess )
+	{
+		final long nextId = idService.next();
+		final TLongHashSet segments = new TLongHashSet( completeSegments.getAssignedSegments() );
+		final PaintedLabelsSnapshot snapshot = snapshotPaintedLabels();
+		return saveExecutor.submit( () -> {
+			try
+			{
+				writeNextId( nextId );
+				writeFragmentSegmentAssignment();
+				writeCompleteSegmentsAssignment( segments );
+				writePaintedLabels( snapshot );
+				onSuccess.run();
+			}
+			catch ( final RuntimeException e )
+			{
+				e.printStackTrace();
+				viewer.showMessage( "Saving failed: " + e.getMessage() );
+			}
+		} );
+	}
+
+	/**
+	 * Wait until all pending background saves are complete.
+	 */
+	public void waitForBackgroundSaves()
+	{
+		try
+		{
+			saveExecutor.submit( () -> {} ).get();
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+		}
+	}
+
 	public void saveMergedLabels()
+	{
+		write( this::writeMergedLabels );
+	}
+
+	protected void writeMergedLabels()
 	{
 		System.out.println( "Saving merged labels into " + h5Path + ":" + mergedLabelsDataset  );
 
@@ -190,6 +930,11 @@ public class LabelPersistenceController
 	}
 
 	public void saveAssignedMergedLabels()
+	{
+		write( this::writeAssignedMergedLabels );
+	}
+
+	protected void writeAssignedMergedLabels()
 	{
 		System.out.println( "Saving assigned merged labels into " + h5Path + ":" + mergedLabelsDataset  );
 
@@ -248,10 +993,9 @@ public class LabelPersistenceController
 				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.WAIT_CURSOR ) );
 				saveNextId();
 				saveFragmentSegmentAssignment();
-				savePaintedLabels();
 				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.DEFAULT_CURSOR ) );
 			}
-			viewer.showMessage( "Saved fragment-segment assignments and painted labels." );
+			savePaintedLabelsInBackground( () -> viewer.showMessage( "Saved fragment-segment assignments and painted labels." ) );
 		}
 	}
 
@@ -267,14 +1011,8 @@ public class LabelPersistenceController
 		{
 			synchronized ( viewer )
 			{
-				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.WAIT_CURSOR ) );
-				saveNextId();
-				saveFragmentSegmentAssignment();
-				saveCompleteSegmentsAssignment();
-				savePaintedLabels();
-				viewer.setCursor( Cursor.getPredefinedCursor( Cursor.DEFAULT_CURSOR ) );
+				saveAllInBackground( () -> viewer.showMessage( "Saved assignments and painted labels." ) );
 			}
-			viewer.showMessage( "Saved assignments and painted labels." );
 		}
 	}
 
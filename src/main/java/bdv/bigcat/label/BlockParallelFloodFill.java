@@ -0,0 +1,465 @@
+package bdv.bigcat.label;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fill.Filter;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.Type;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.RandomAccessiblePair;
+
+/**
+ * Flood fill that runs block-parallel on an {@link ExecutorService}.  The
+ * target is partitioned into the cells of a {@link CellGrid}, typically the
+ * cells of the painting canvas.  Each block is filled by one task at a
+ * time, pixels that leave a block are handed over as seeds to the
+ * neighboring block which is then queued for filling.  Since pixels are
+ * only ever read and written by the task that owns their block, no locking
+ * is required on the target.
+ *
+ * Semantics are those of {@link net.imglib2.algorithm.fill.FloodFill} with
+ * a {@link net.imglib2.algorithm.neighborhood.DiamondShape} of radius 1: the
+ * seed is always written, neighbors are written if the filter
+ * accepts the pair (source, target) with the reference pair (seedLabel,
+ * fillLabel).  Pixels outside the target interval are never filled.  The
+ * filter must be safe to be called from multiple threads.
+ *
+ * The fill runs in the background, the {@link Listener} is notified whenever
+ * a block task completes, such that results can be displayed
+ * progressively.  A running fill can be {@link #cancel() cancelled}, pixels
+ * that were filled until then stay filled.
+ *
+ * @param <T>
+ *            source type
+ * @param <U>
+ *            target type
+ */
+public class BlockParallelFloodFill< T, U extends Type< U > >
+{
+	public interface Listener
+	{
+		/**
+		 * Called after pixels within {@code block} have been filled.  May be
+		 * called concurrently from multiple threads.
+		 *
+		 * @param block
+		 *            interval of the block that was modified
+		 * @param numFilled
+		 *            total number of pixels filled so far
+		 */
+		public void blockFilled( final Interval block, final long numFilled );
+	}
+
+	/* how many pixels to fill between checks for cancellation */
+	final static private int CANCEL_CHECK_INTERVAL = 4096;
+
+	static private class Block
+	{
+		final long index;
+
+		final long[] min;
+
+		final long[] max;
+
+		/* pending seeds as flat indices into the target */
+		TLongArrayList seeds = new TLongArrayList();
+
+		boolean scheduled = false;
+
+		Block( final long index, final long[] min, final long[] max )
+		{
+			this.index = index;
+			this.min = min;
+			this.max = max;
+		}
+	}
+
+	final private RandomAccessibleInterval< T > source;
+
+	final private RandomAccessibleInterval< U > target;
+
+	final private CellGrid grid;
+
+	final private Filter< Pair< T, U >, Pair< T, U > > filter;
+
+	final private Pair< T, U > reference;
+
+	final private U fillLabel;
+
+	final private ExecutorService exec;
+
+	final private Listener listener;
+
+	final private int n;
+
+	final private long[] offset;
+
+	final private long[] dimensions;
+
+	/* strides of the flat pixel index */
+	final private long[] strides;
+
+	/* strides of the flat block index */
+	final private long[] gridStrides;
+
+	final private TLongObjectHashMap< Block > blocks = new TLongObjectHashMap<>();
+
+	final private AtomicInteger numPendingTasks = new AtomicInteger();
+
+	final private AtomicLong numFilled = new AtomicLong();
+
+	final private CompletableFuture< Long > result = new CompletableFuture<>();
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param source
+	 * @param target
+	 *            must have the same dimensions as {@code grid}, its min is
+	 *            the min of the first block
+	 * @param grid
+	 *            block grid, usually the cell grid of {@code target}
+	 * @param seedLabel
+	 * @param fillLabel
+	 * @param filter
+	 * @param exec
+	 * @param listener
+	 */
+	public BlockParallelFloodFill(
+			final RandomAccessibleInterval< T > source,
+			final RandomAccessibleInterval< U > target,
+			final CellGrid grid,
+			final T seedLabel,
+			final U fillLabel,
+			final Filter< Pair< T, U >, Pair< T, U > > filter,
+			final ExecutorService exec,
+			final Listener listener )
+	{
+		this.source = source;
+		this.target = target;
+		this.grid = grid;
+		this.fillLabel = fillLabel;
+		this.reference = new ValuePair<>( seedLabel, fillLabel );
+		this.filter = filter;
+		this.exec = exec;
+		this.listener = listener;
+
+		n = target.numDimensions();
+		offset = new long[ n ];
+		target.min( offset );
+		dimensions = new long[ n ];
+		target.dimensions( dimensions );
+
+		strides = new long[ n ];
+		gridStrides = new long[ n ];
+		final long[] gridDimensions = grid.getGridDimensions();
+		strides[ 0 ] = 1;
+		gridStrides[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+		{
+			strides[ d ] = strides[ d - 1 ] * dimensions[ d - 1 ];
+			gridStrides[ d ] = gridStrides[ d - 1 ] * gridDimensions[ d - 1 ];
+		}
+	}
+
+	/**
+	 * Write the seed and start filling in the background.
+	 *
+	 * @param seed
+	 * @return future that completes with the number of filled pixels when
+	 *         the fill is complete or cancelled
+	 */
+	public CompletableFuture< Long > start( final Localizable seed )
+	{
+		final long[] position = new long[ n ];
+		seed.localize( position );
+		for ( int d = 0; d < n; ++d )
+			position[ d ] -= offset[ d ];
+
+		if ( !contains( position ) )
+		{
+			result.complete( 0L );
+			return result;
+		}
+
+		final RandomAccessiblePair< T, U >.RandomAccess access = new RandomAccessiblePair<>( source, target ).randomAccess();
+		setPosition( access, position );
+		access.get().getB().set( fillLabel );
+		numFilled.incrementAndGet();
+
+		/* keep the fill open until all neighbors are queued */
+		numPendingTasks.incrementAndGet();
+		try
+		{
+			for ( int d = 0; d < n; ++d )
+			{
+				for ( int step = -1; step <= 1; step += 2 )
+				{
+					position[ d ] += step;
+					if ( contains( position ) )
+						addSeed( blockIndex( position ), flatIndex( position ) );
+					position[ d ] -= step;
+				}
+			}
+		}
+		finally
+		{
+			taskDone();
+		}
+		return result;
+	}
+
+	/**
+	 * Stop filling.  Pixels that were filled before stay filled.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	public boolean isDone()
+	{
+		return result.isDone();
+	}
+
+	/**
+	 * @return number of pixels filled so far
+	 */
+	public long getNumFilled()
+	{
+		return numFilled.get();
+	}
+
+	private void taskDone()
+	{
+		if ( numPendingTasks.decrementAndGet() == 0 )
+			result.complete( numFilled.get() );
+	}
+
+	private void addSeed( final long blockIndex, final long seed )
+	{
+		final TLongArrayList seeds = new TLongArrayList( 1 );
+		seeds.add( seed );
+		addSeeds( blockIndex, seeds );
+	}
+
+	/**
+	 * Hand over seeds to a block and queue the block if it is not queued or
+	 * being filled already.
+	 */
+	private void addSeeds( final long blockIndex, final TLongArrayList seeds )
+	{
+		final Block block;
+		synchronized ( blocks )
+		{
+			Block b = blocks.get( blockIndex );
+			if ( b == null )
+			{
+				final long[] min = new long[ n ];
+				final int[] blockDimensions = new int[ n ];
+				grid.getCellDimensions( blockIndex, min, blockDimensions );
+				final long[] max = new long[ n ];
+				for ( int d = 0; d < n; ++d )
+					max[ d ] = min[ d ] + blockDimensions[ d ] - 1;
+				b = new Block( blockIndex, min, max );
+				blocks.put( blockIndex, b );
+			}
+			b.seeds.addAll( seeds );
+			if ( b.scheduled )
+				return;
+			b.scheduled = true;
+			block = b;
+		}
+
+		numPendingTasks.incrementAndGet();
+		try
+		{
+			exec.execute( () -> run( block ) );
+		}
+		catch ( final RuntimeException e )
+		{
+			taskDone();
+			throw e;
+		}
+	}
+
+	private void run( final Block block )
+	{
+		try
+		{
+			while ( true )
+			{
+				final TLongArrayList seeds;
+				synchronized ( blocks )
+				{
+					seeds = block.seeds;
+					if ( seeds.isEmpty() || cancelled )
+					{
+						block.scheduled = false;
+						return;
+					}
+					block.seeds = new TLongArrayList();
+				}
+
+				final TLongObjectHashMap< TLongArrayList > outgoing = new TLongObjectHashMap<>();
+				final long numFilledInBlock = fill( block, seeds, outgoing );
+
+				for ( final TLongObjectIterator< TLongArrayList > it = outgoing.iterator(); it.hasNext(); )
+				{
+					it.advance();
+					addSeeds( it.key(), it.value() );
+				}
+
+				if ( numFilledInBlock > 0 && listener != null )
+				{
+					final long[] min = block.min.clone();
+					final long[] max = block.max.clone();
+					for ( int d = 0; d < n; ++d )
+					{
+						min[ d ] += offset[ d ];
+						max[ d ] += offset[ d ];
+					}
+					listener.blockFilled( new FinalInterval( min, max ), numFilled.get() );
+				}
+			}
+		}
+		catch ( final Throwable e )
+		{
+			cancelled = true;
+			result.completeExceptionally( e );
+		}
+		finally
+		{
+			taskDone();
+		}
+	}
+
+	/**
+	 * Fill within a block starting from seeds that were handed over from
+	 * neighboring blocks.
+	 *
+	 * @return number of filled pixels
+	 */
+	private long fill( final Block block, final TLongArrayList seeds, final TLongObjectHashMap< TLongArrayList > outgoing )
+	{
+		final RandomAccessiblePair< T, U >.RandomAccess access = new RandomAccessiblePair<>( source, target ).randomAccess();
+		final long[] position = new long[ n ];
+		final TLongArrayList queue = new TLongArrayList();
+		long count = 0;
+
+		/* seeds were not yet tested, queued pixels were filled already */
+		for ( int i = 0; i < seeds.size(); ++i )
+		{
+			final long seed = seeds.getQuick( i );
+			position( seed, position );
+			if ( accept( access, position ) )
+			{
+				access.get().getB().set( fillLabel );
+				queue.add( seed );
+				++count;
+			}
+		}
+
+		while ( !queue.isEmpty() )
+		{
+			if ( count % CANCEL_CHECK_INTERVAL == 0 && cancelled )
+				break;
+
+			final long index = queue.removeAt( queue.size() - 1 );
+			position( index, position );
+			for ( int d = 0; d < n; ++d )
+			{
+				for ( int step = -1; step <= 1; step += 2 )
+				{
+					final long p = position[ d ] + step;
+					if ( p < 0 || p >= dimensions[ d ] )
+						continue;
+					position[ d ] = p;
+					final long neighbor = index + step * strides[ d ];
+					if ( p < block.min[ d ] || p > block.max[ d ] )
+					{
+						final long neighborBlock = block.index + step * gridStrides[ d ];
+						TLongArrayList list = outgoing.get( neighborBlock );
+						if ( list == null )
+						{
+							list = new TLongArrayList();
+							outgoing.put( neighborBlock, list );
+						}
+						list.add( neighbor );
+					}
+					else if ( accept( access, position ) )
+					{
+						access.get().getB().set( fillLabel );
+						queue.add( neighbor );
+						++count;
+					}
+					position[ d ] -= step;
+				}
+			}
+		}
+
+		numFilled.addAndGet( count );
+		return count;
+	}
+
+	private boolean accept( final RandomAccessiblePair< T, U >.RandomAccess access, final long[] position )
+	{
+		setPosition( access, position );
+		return filter.accept( access.get(), reference );
+	}
+
+	private void setPosition( final RandomAccessiblePair< T, U >.RandomAccess access, final long[] position )
+	{
+		for ( int d = 0; d < n; ++d )
+			access.setPosition( position[ d ] + offset[ d ], d );
+	}
+
+	private boolean contains( final long[] position )
+	{
+		for ( int d = 0; d < n; ++d )
+			if ( position[ d ] < 0 || position[ d ] >= dimensions[ d ] )
+				return false;
+		return true;
+	}
+
+	private long flatIndex( final long[] position )
+	{
+		long index = 0;
+		for ( int d = 0; d < n; ++d )
+			index += position[ d ] * strides[ d ];
+		return index;
+	}
+
+	private void position( long index, final long[] position )
+	{
+		for ( int d = n - 1; d >= 0; --d )
+		{
+			position[ d ] = index / strides[ d ];
+			index -= position[ d ] * strides[ d ];
+		}
+	}
+
+	private long blockIndex( final long[] position )
+	{
+		long index = 0;
+		for ( int d = 0; d < n; ++d )
+			index += position[ d ] / grid.cellDimension( d ) * gridStrides[ d ];
+		return index;
+	}
+}
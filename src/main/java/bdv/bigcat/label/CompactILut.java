@@ -0,0 +1,480 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package bdv.bigcat.label;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import bdv.labels.labelset.Label;
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Immutable segment &gt; [fragments] lookup in compressed sparse row layout.
+ * Segment ids are sorted, the fragments of the i-th segment are
+ * <code>fragments[ offsets[ i ] ... offsets[ i + 1 ] - 1 ]</code>.  There is
+ * no object per segment, the lookup takes 12 bytes per segment (an 8 byte
+ * id and a 4 byte offset) and 8 bytes per fragment.
+ *
+ * Modifications are expressed as {@link Fragments}, persistent lists of
+ * fragments that can be concatenated in constant time, that exclude removed
+ * fragments in time proportional to the number of removed fragments, and
+ * refer to the fragments of a {@link CompactILut} without copying them.
+ */
+public class CompactILut
+{
+	/**
+	 * Immutable list of fragments.
+	 */
+	static public abstract class Fragments
+	{
+		final protected int size;
+
+		protected Fragments( final int size )
+		{
+			this.size = size;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Visit all fragments, iteratively such that deeply nested
+		 * concatenations do not overflow the stack.
+		 */
+		public void forEach( final LongConsumer consumer )
+		{
+			final ArrayDeque< Frame > stack = new ArrayDeque< Frame >();
+			stack.push( new Frame( this, null ) );
+			while ( !stack.isEmpty() )
+			{
+				final Slice slice = nextSlice( stack );
+				if ( slice == null )
+					continue;
+
+				final Filter filter = stack.pop().filter;
+				for ( int i = slice.offset; i < slice.offset + slice.size; ++i )
+				{
+					final long fragmentId = slice.data[ i ];
+					if ( filter == null || !filter.contains( fragmentId ) )
+						consumer.accept( fragmentId );
+				}
+			}
+		}
+
+		public long[] toArray()
+		{
+			final long[] array = new long[ size ];
+			copyTo( array, 0 );
+			return array;
+		}
+
+		/**
+		 * Copy all fragments into target starting at offset.
+		 */
+		public void copyTo( final long[] target, final int offset )
+		{
+			final ArrayDeque< Frame > stack = new ArrayDeque< Frame >();
+			stack.push( new Frame( this, null ) );
+			int i = offset;
+			while ( !stack.isEmpty() )
+			{
+				final Slice slice = nextSlice( stack );
+				if ( slice == null )
+					continue;
+
+				final Filter filter = stack.pop().filter;
+				if ( filter == null )
+				{
+					System.arraycopy( slice.data, slice.offset, target, i, slice.size );
+					i += slice.size;
+				}
+				else
+				{
+					for ( int j = slice.offset; j < slice.offset + slice.size; ++j )
+						if ( !filter.contains( slice.data[ j ] ) )
+							target[ i++ ] = slice.data[ j ];
+				}
+			}
+		}
+
+		/**
+		 * Expand the top of the stack.
+		 *
+		 * @return the {@link Slice} on top of the stack, or null if the top
+		 *         was replaced by its children
+		 */
+		static private Slice nextSlice( final ArrayDeque< Frame > stack )
+		{
+			final Frame frame = stack.peek();
+			final Fragments fragments = frame.fragments;
+			if ( fragments instanceof Slice )
+				return ( Slice ) fragments;
+
+			stack.pop();
+			if ( fragments instanceof Concatenation )
+			{
+				stack.push( new Frame( ( ( Concatenation ) fragments ).second, frame.filter ) );
+				stack.push( new Frame( ( ( Concatenation ) fragments ).first, frame.filter ) );
+			}
+			else
+			{
+				final Difference difference = ( Difference ) fragments;
+				stack.push( new Frame( difference.fragments, new Filter( difference.removed, frame.filter ) ) );
+			}
+			return null;
+		}
+
+		/**
+		 * @return the fragments of both lists, null lists are empty
+		 */
+		static public Fragments concatenate( final Fragments first, final Fragments second )
+		{
+			if ( first == null || first.size == 0 )
+				return second == null ? EMPTY : second;
+			if ( second == null || second.size == 0 )
+				return first;
+			return new Concatenation( first, second );
+		}
+
+		/**
+		 * @param fragments
+		 * @param removed
+		 *            fragments contained in fragments, the set must not be
+		 *            modified afterwards
+		 * @return fragments without removed, computed lazily
+		 */
+		static public Fragments remove( final Fragments fragments, final TLongHashSet removed )
+		{
+			if ( removed.isEmpty() )
+				return fragments;
+			if ( removed.size() == fragments.size )
+				return EMPTY;
+			return new Difference( fragments, removed );
+		}
+
+		/**
+		 * Wrap an array without copying it.  The array must not be modified
+		 * afterwards.
+		 */
+		static public Fragments wrap( final long... fragments )
+		{
+			return new Slice( fragments, 0, fragments.length );
+		}
+	}
+
+	static private class Slice extends Fragments
+	{
+		final private long[] data;
+
+		final private int offset;
+
+		private Slice( final long[] data, final int offset, final int size )
+		{
+			super( size );
+			this.data = data;
+			this.offset = offset;
+		}
+	}
+
+	static private class Concatenation extends Fragments
+	{
+		final private Fragments first;
+
+		final private Fragments second;
+
+		private Concatenation( final Fragments first, final Fragments second )
+		{
+			super( first.size + second.size );
+			this.first = first;
+			this.second = second;
+		}
+	}
+
+	static private class Difference extends Fragments
+	{
+		final private Fragments fragments;
+
+		final private TLongHashSet removed;
+
+		private Difference( final Fragments fragments, final TLongHashSet removed )
+		{
+			super( fragments.size - removed.size() );
+			this.fragments = fragments;
+			this.removed = removed;
+		}
+	}
+
+	/**
+	 * Removed fragments of all enclosing {@link Difference}s.
+	 */
+	static private class Filter
+	{
+		final private TLongHashSet removed;
+
+		final private Filter next;
+
+		private Filter( final TLongHashSet removed, final Filter next )
+		{
+			this.removed = removed;
+			this.next = next;
+		}
+
+		private boolean contains( final long fragmentId )
+		{
+			for ( Filter filter = this; filter != null; filter = filter.next )
+				if ( filter.removed.contains( fragmentId ) )
+					return true;
+			return false;
+		}
+	}
+
+	static private class Frame
+	{
+		final private Fragments fragments;
+
+		final private Filter filter;
+
+		private Frame( final Fragments fragments, final Filter filter )
+		{
+			this.fragments = fragments;
+			this.filter = filter;
+		}
+	}
+
+	final static public Fragments EMPTY = Fragments.wrap();
+
+	final private long[] segmentIds;
+
+	final private int[] offsets;
+
+	final private long[] fragments;
+
+	private CompactILut( final long[] segmentIds, final int[] offsets, final long[] fragments )
+	{
+		this.segmentIds = segmentIds;
+		this.offsets = offsets;
+		this.fragments = fragments;
+	}
+
+	public CompactILut()
+	{
+		this( new long[ 0 ], new int[ 1 ], new long[ 0 ] );
+	}
+
+	/**
+	 * Generate the inverse of a fragment &gt; segment lookup in two passes
+	 * over the lookup.
+	 *
+	 * @param lut
+	 */
+	static public CompactILut fromLut( final TLongLongHashMap lut )
+	{
+		final TLongIntHashMap counts = new TLongIntHashMap( lut.size(), 0.5f, Label.TRANSPARENT, 0 );
+		for ( final TLongLongIterator it = lut.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			counts.adjustOrPutValue( it.value(), 1, 1 );
+		}
+
+		final long[] segmentIds = counts.keys();
+		Arrays.sort( segmentIds );
+		final int[] offsets = new int[ segmentIds.length + 1 ];
+		for ( int i = 0; i < segmentIds.length; ++i )
+		{
+			offsets[ i + 1 ] = offsets[ i ] + counts.get( segmentIds[ i ] );
+			/* reuse as write position */
+			counts.put( segmentIds[ i ], offsets[ i ] );
+		}
+
+		final long[] fragments = new long[ offsets[ segmentIds.length ] ];
+		for ( final TLongLongIterator it = lut.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			final int position = counts.adjustOrPutValue( it.value(), 1, 0 ) - 1;
+			fragments[ position ] = it.key();
+		}
+
+		return new CompactILut( segmentIds, offsets, fragments );
+	}
+
+	/**
+	 * Apply modifications to a {@link CompactILut}.
+	 *
+	 * @param ilut
+	 * @param delta
+	 *            segments that were modified, segments mapped to removed are
+	 *            removed
+	 * @param removed
+	 *            marker for removed segments
+	 * @return
+	 */
+	static public CompactILut compact(
+			final CompactILut ilut,
+			final TLongObjectHashMap< Fragments > delta,
+			final Fragments removed )
+	{
+		int numSegments = 0;
+		long numFragments = 0;
+		for ( int i = 0; i < ilut.size(); ++i )
+		{
+			if ( !delta.containsKey( ilut.segmentIds[ i ] ) )
+			{
+				++numSegments;
+				numFragments += ilut.offsets[ i + 1 ] - ilut.offsets[ i ];
+			}
+		}
+		for ( final TLongObjectIterator< Fragments > it = delta.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() != removed && it.value().size() > 0 )
+			{
+				++numSegments;
+				numFragments += it.value().size();
+			}
+		}
+		if ( numFragments > Integer.MAX_VALUE - 8 )
+			throw new IllegalStateException( "Too many fragments: " + numFragments );
+
+		final long[] segmentIds = new long[ numSegments ];
+		int k = 0;
+		for ( int i = 0; i < ilut.size(); ++i )
+			if ( !delta.containsKey( ilut.segmentIds[ i ] ) )
+				segmentIds[ k++ ] = ilut.segmentIds[ i ];
+		for ( final TLongObjectIterator< Fragments > it = delta.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() != removed && it.value().size() > 0 )
+				segmentIds[ k++ ] = it.key();
+		}
+		Arrays.sort( segmentIds );
+
+		final int[] offsets = new int[ numSegments + 1 ];
+		final long[] fragments = new long[ ( int ) numFragments ];
+		for ( int i = 0; i < numSegments; ++i )
+		{
+			final Fragments modified = delta.get( segmentIds[ i ] );
+			if ( modified == null )
+			{
+				final int j = ilut.indexOf( segmentIds[ i ] );
+				final int size = ilut.offsets[ j + 1 ] - ilut.offsets[ j ];
+				System.arraycopy( ilut.fragments, ilut.offsets[ j ], fragments, offsets[ i ], size );
+				offsets[ i + 1 ] = offsets[ i ] + size;
+			}
+			else
+			{
+				modified.copyTo( fragments, offsets[ i ] );
+				offsets[ i + 1 ] = offsets[ i ] + modified.size();
+			}
+		}
+
+		return new CompactILut( segmentIds, offsets, fragments );
+	}
+
+	private int indexOf( final long segmentId )
+	{
+		return Arrays.binarySearch( segmentIds, segmentId );
+	}
+
+	/**
+	 * @return the fragments of a segment without copying them or null if the
+	 *         segment does not exist
+	 */
+	public Fragments getFragments( final long segmentId )
+	{
+		final int i = indexOf( segmentId );
+		return i < 0 ? null : new Slice( fragments, offsets[ i ], offsets[ i + 1 ] - offsets[ i ] );
+	}
+
+	/**
+	 * @return a copy of the fragments of a segment or null if the segment
+	 *         does not exist
+	 */
+	public long[] get( final long segmentId )
+	{
+		final int i = indexOf( segmentId );
+		return i < 0 ? null : Arrays.copyOfRange( fragments, offsets[ i ], offsets[ i + 1 ] );
+	}
+
+	public boolean containsKey( final long segmentId )
+	{
+		return indexOf( segmentId ) >= 0;
+	}
+
+	/**
+	 * @return number of segments
+	 */
+	public int size()
+	{
+		return segmentIds.length;
+	}
+
+	public int getNumFragments()
+	{
+		return fragments.length;
+	}
+
+	/**
+	 * @return the id of the i-th segment in ascending order
+	 */
+	public long getSegmentId( final int i )
+	{
+		return segmentIds[ i ];
+	}
+
+	/**
+	 * @return a copy of the fragments of the i-th segment
+	 */
+	public long[] getFragmentsAt( final int i )
+	{
+		return Arrays.copyOfRange( fragments, offsets[ i ], offsets[ i + 1 ] );
+	}
+
+	/**
+	 * @return approximate memory consumption in bytes
+	 */
+	public long getMemoryBytes()
+	{
+		return 3 * 16 + 8L * segmentIds.length + 4L * offsets.length + 8L * fragments.length;
+	}
+
+	/**
+	 * @return average memory consumption per segment in bytes
+	 */
+	public double getMemoryBytesPerSegment()
+	{
+		return segmentIds.length == 0 ? 0 : ( double ) getMemoryBytes() / segmentIds.length;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(
+				"%d segments, %d fragments, %d bytes (%.1f bytes per segment)",
+				size(),
+				getNumFragments(),
+				getMemoryBytes(),
+				getMemoryBytesPerSegment() );
+	}
+}
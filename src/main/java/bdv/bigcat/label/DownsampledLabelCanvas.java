@@ -0,0 +1,336 @@
+package bdv.bigcat.label;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bdv.bigcat.util.DirtyInterval;
+import bdv.labels.labelset.Label;
+import net.imglib2.Interval;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Downsampled view of a 3D {@link SparseLabelCanvas} for rendering at lower
+ * mipmap levels.  Pixel (x,y,z) covers the canvas pixels
+ * [x*f<sub>x</sub>, (x+1)*f<sub>x</sub>) &times; ... and holds the most
+ * frequent value in that footprint, {@link Label#TRANSPARENT} included,
+ * painted labels win ties.
+ *
+ * Cells are computed on first access from the materialized canvas cells
+ * only, footprints without paint stay unallocated, and only cells that have
+ * been accessed are stored.  As a {@link DirtyInterval.Listener}, the canvas
+ * marks the cells that cover a touched interval as stale, stale cells are
+ * recomputed the next time they are accessed, i.e. on the next repaint.  A
+ * recomputed cell replaces the stale one when it is complete, readers never
+ * see a partially computed cell.
+ */
+public class DownsampledLabelCanvas
+		extends LazyCellImg< LongType, SparseLabelCanvas.LazyLongArray >
+		implements DirtyInterval.Listener
+{
+	static private class Cells implements Get< Cell< SparseLabelCanvas.LazyLongArray > >
+	{
+		final private SparseLabelCanvas canvas;
+
+		final private long[] canvasDimensions;
+
+		final private int[] factors;
+
+		final private CellGrid grid;
+
+		/**
+		 * A computed cell and the value of {@link #version} before it was
+		 * computed.
+		 */
+		static private class Computed
+		{
+			final Cell< SparseLabelCanvas.LazyLongArray > cell;
+
+			final long version;
+
+			Computed( final Cell< SparseLabelCanvas.LazyLongArray > cell, final long version )
+			{
+				this.cell = cell;
+				this.version = version;
+			}
+		}
+
+		/* cells that have been accessed, keyed by index */
+		final private ConcurrentHashMap< Long, Computed > cells = new ConcurrentHashMap<>();
+
+		/* version of the last touch of a cell, keyed by index */
+		final private ConcurrentHashMap< Long, Long > touched = new ConcurrentHashMap<>();
+
+		final private AtomicLong version = new AtomicLong();
+
+		public Cells( final SparseLabelCanvas canvas, final int[] factors, final CellGrid grid )
+		{
+			this.canvas = canvas;
+			this.canvasDimensions = Intervals.dimensionsAsLongArray( canvas );
+			this.factors = factors;
+			this.grid = grid;
+		}
+
+		@Override
+		public Cell< SparseLabelCanvas.LazyLongArray > get( final long index )
+		{
+			final Computed computed = cells.get( index );
+			final Long touchVersion = touched.get( index );
+			if ( computed != null && ( touchVersion == null || touchVersion <= computed.version ) )
+				return computed.cell;
+
+			/*
+			 * Touches after this read the canvas after the computation has
+			 * started and will have a larger version, i.e. they are not lost.
+			 * Concurrent computations of the same cell are harmless, the most
+			 * recent one is kept.
+			 */
+			final long computeVersion = version.get();
+			final long[] cellMin = new long[ 3 ];
+			final int[] cellDims = new int[ 3 ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final int numEntities = ( int ) Intervals.numElements( cellDims );
+			final long[] values = compute( cellMin, cellDims, numEntities );
+			final SparseLabelCanvas.LazyLongArray access;
+			if ( values == null )
+				access = new SparseLabelCanvas.LazyLongArray( numEntities );
+			else
+			{
+				access = new SparseLabelCanvas.LazyLongArray( numEntities, () -> values );
+				access.materialize();
+			}
+			final Computed recomputed = cells.merge(
+					index,
+					new Computed( new Cell<>( cellDims, cellMin, access ), computeVersion ),
+					( a, b ) -> a.version >= b.version ? a : b );
+
+			if ( touchVersion != null && touchVersion <= computeVersion )
+				touched.remove( index, touchVersion );
+
+			return recomputed.cell;
+		}
+
+		/**
+		 * Mark all cells that cover {@code interval} in canvas coordinates as
+		 * stale.
+		 */
+		public void invalidate( final Interval interval )
+		{
+			final long[] gridDimensions = grid.getGridDimensions();
+			final long[] cellMin = new long[ 3 ];
+			final long[] cellMax = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				final long min = Math.max( 0, interval.min( d ) );
+				final long max = Math.min( canvasDimensions[ d ] - 1, interval.max( d ) );
+				if ( min > max )
+					return;
+				cellMin[ d ] = min / factors[ d ] / grid.cellDimension( d );
+				cellMax[ d ] = max / factors[ d ] / grid.cellDimension( d );
+			}
+
+			final Long touchVersion = version.incrementAndGet();
+			for ( long z = cellMin[ 2 ]; z <= cellMax[ 2 ]; ++z )
+				for ( long y = cellMin[ 1 ]; y <= cellMax[ 1 ]; ++y )
+					for ( long x = cellMin[ 0 ]; x <= cellMax[ 0 ]; ++x )
+						touched.put( ( z * gridDimensions[ 1 ] + y ) * gridDimensions[ 0 ] + x, touchVersion );
+		}
+
+		/**
+		 * Compute the values of a cell.
+		 *
+		 * @return the values or null if the cell is not painted
+		 */
+		private long[] compute( final long[] min, final int[] dims, final int numEntities )
+		{
+
+			/* footprint in canvas coordinates */
+			final long[] footprintMin = new long[ 3 ];
+			final long[] footprintMax = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				footprintMin[ d ] = min[ d ] * factors[ d ];
+				footprintMax[ d ] = Math.min( ( min[ d ] + dims[ d ] ) * factors[ d ], canvasDimensions[ d ] ) - 1;
+			}
+
+			/* materialized canvas cells that cover the footprint */
+			final CellGrid canvasGrid = canvas.getCellGrid();
+			final long[] canvasGridDimensions = canvasGrid.getGridDimensions();
+			final int[] canvasCellDims = new int[ 3 ];
+			final long[] sourceCellMin = new long[ 3 ];
+			final int[] numSourceCells = new int[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				canvasCellDims[ d ] = canvasGrid.cellDimension( d );
+				sourceCellMin[ d ] = footprintMin[ d ] / canvasCellDims[ d ];
+				numSourceCells[ d ] = ( int ) ( footprintMax[ d ] / canvasCellDims[ d ] - sourceCellMin[ d ] + 1 );
+			}
+			final long[][] sources = new long[ numSourceCells[ 0 ] * numSourceCells[ 1 ] * numSourceCells[ 2 ] ][];
+			boolean painted = false;
+			for ( int z = 0, s = 0; z < numSourceCells[ 2 ]; ++z )
+				for ( int y = 0; y < numSourceCells[ 1 ]; ++y )
+					for ( int x = 0; x < numSourceCells[ 0 ]; ++x, ++s )
+					{
+						final long index =
+								( ( sourceCellMin[ 2 ] + z ) * canvasGridDimensions[ 1 ] + sourceCellMin[ 1 ] + y ) * canvasGridDimensions[ 0 ] + sourceCellMin[ 0 ] + x;
+						final Cell< SparseLabelCanvas.LazyLongArray > source = canvas.getMaterializedCell( index );
+						if ( source != null )
+						{
+							sources[ s ] = source.getData().getCurrentStorageArray();
+							painted = true;
+						}
+					}
+
+			if ( !painted )
+				return null;
+
+			/*
+			 * Collect the painted labels of the footprints of one row of
+			 * target pixels at a time into a reused buffer, sort them per
+			 * target pixel and pick the most frequent.
+			 */
+			final int footprintVolume = factors[ 0 ] * factors[ 1 ] * factors[ 2 ];
+			final long[] samples = new long[ dims[ 0 ] * footprintVolume ];
+			final int[] numSamples = new int[ dims[ 0 ] ];
+			final long[] values = new long[ numEntities ];
+			Arrays.fill( values, Label.TRANSPARENT );
+			painted = false;
+			for ( int tz = 0, t = 0; tz < dims[ 2 ]; ++tz )
+			{
+				final long zMin = ( min[ 2 ] + tz ) * factors[ 2 ];
+				final long zMax = zMin + footprintSize( min[ 2 ] + tz, 2 ) - 1;
+				for ( int ty = 0; ty < dims[ 1 ]; ++ty, t += dims[ 0 ] )
+				{
+					final long yMin = ( min[ 1 ] + ty ) * factors[ 1 ];
+					final long yMax = yMin + footprintSize( min[ 1 ] + ty, 1 ) - 1;
+
+					Arrays.fill( numSamples, 0 );
+					for ( long z = zMin; z <= zMax; ++z )
+					{
+						final long gz = z / canvasCellDims[ 2 ];
+						final int sz = ( int ) ( gz - sourceCellMin[ 2 ] );
+						for ( long y = yMin; y <= yMax; ++y )
+						{
+							final long gy = y / canvasCellDims[ 1 ];
+							final int sy = ( int ) ( gy - sourceCellMin[ 1 ] );
+							final long sourceDimY = Math.min( canvasCellDims[ 1 ], canvasDimensions[ 1 ] - gy * canvasCellDims[ 1 ] );
+							for ( int sx = 0; sx < numSourceCells[ 0 ]; ++sx )
+							{
+								final long[] data = sources[ ( sz * numSourceCells[ 1 ] + sy ) * numSourceCells[ 0 ] + sx ];
+								if ( data == null )
+									continue;
+
+								final long sourceMinX = ( sourceCellMin[ 0 ] + sx ) * canvasCellDims[ 0 ];
+								final long sourceDimX = Math.min( canvasCellDims[ 0 ], canvasDimensions[ 0 ] - sourceMinX );
+								final long from = Math.max( footprintMin[ 0 ], sourceMinX );
+								final long to = Math.min( footprintMax[ 0 ], sourceMinX + sourceDimX - 1 );
+								int i = ( int ) ( ( ( z - gz * canvasCellDims[ 2 ] ) * sourceDimY + y - gy * canvasCellDims[ 1 ] ) * sourceDimX + from - sourceMinX );
+								for ( long x = from; x <= to; ++x, ++i )
+								{
+									final long value = data[ i ];
+									if ( value == Label.TRANSPARENT )
+										continue;
+									final int tx = ( int ) ( x / factors[ 0 ] - min[ 0 ] );
+									samples[ tx * footprintVolume + numSamples[ tx ]++ ] = value;
+								}
+							}
+						}
+					}
+
+					for ( int tx = 0; tx < dims[ 0 ]; ++tx )
+					{
+						final int numPainted = numSamples[ tx ];
+						if ( numPainted == 0 )
+							continue;
+
+						final int offset = tx * footprintVolume;
+						final int end = offset + numPainted;
+						Arrays.sort( samples, offset, end );
+						long maxLabel = Label.TRANSPARENT;
+						int maxCount = 0;
+						for ( int i = offset, count = 1; i < end; ++i, ++count )
+						{
+							if ( i + 1 < end && samples[ i + 1 ] == samples[ i ] )
+								continue;
+							if ( count > maxCount )
+							{
+								maxCount = count;
+								maxLabel = samples[ i ];
+							}
+							count = 0;
+						}
+
+						/* size of the footprint of tx, smaller at the canvas border */
+						final long footprintSize = footprintSize( min[ 0 ] + tx, 0 ) * ( yMax - yMin + 1 ) * ( zMax - zMin + 1 );
+						if ( maxCount >= footprintSize - numPainted )
+						{
+							values[ t + tx ] = maxLabel;
+							painted = true;
+						}
+					}
+				}
+			}
+
+			return painted ? values : null;
+		}
+
+		private long footprintSize( final long position, final int d )
+		{
+			return Math.min( ( position + 1 ) * factors[ d ], canvasDimensions[ d ] ) - position * factors[ d ];
+		}
+	}
+
+	final private Cells downsampledCells;
+
+	/**
+	 * @param canvas
+	 *            3D full resolution canvas
+	 * @param factors
+	 *            integer downsampling factors
+	 * @param cellDimensions
+	 *            cell dimensions of the downsampled canvas
+	 */
+	public DownsampledLabelCanvas(
+			final SparseLabelCanvas canvas,
+			final int[] factors,
+			final int[] cellDimensions )
+	{
+		this( canvas, factors, new CellGrid( downsampledDimensions( canvas, factors ), cellDimensions ) );
+	}
+
+	private DownsampledLabelCanvas(
+			final SparseLabelCanvas canvas,
+			final int[] factors,
+			final CellGrid grid )
+	{
+		this( grid, new Cells( canvas, factors, grid ) );
+	}
+
+	private DownsampledLabelCanvas( final CellGrid grid, final Cells cells )
+	{
+		super( grid, new LongType(), cells );
+		downsampledCells = cells;
+	}
+
+	static private long[] downsampledDimensions( final Interval canvas, final int[] factors )
+	{
+		final long[] dimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			dimensions[ d ] = ( canvas.dimension( d ) + factors[ d ] - 1 ) / factors[ d ];
+		return dimensions;
+	}
+
+	/**
+	 * Mark all cells that cover {@code interval} in full resolution canvas
+	 * coordinates as stale.
+	 */
+	@Override
+	public void touched( final Interval interval )
+	{
+		downsampledCells.invalidate( interval );
+	}
+}
@@ -33,6 +33,7 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
+import bdv.bigcat.label.CompactILut.Fragments;
 import bdv.labels.labelset.Label;
 import bdv.util.IdService;
 import bdv.util.LocalIdService;
@@ -42,6 +43,7 @@ import gnu.trove.iterator.TLongObjectIterator;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 
 /**
  *
@@ -68,7 +70,7 @@ public class FragmentSegmentAssignment
 		public JsonElement serialize( final FragmentSegmentAssignment src, final Type typeOfSrc, final JsonSerializationContext context )
 		{
 			final JsonObject jsonLut = new JsonObject();
-			final TLongLongIterator lutIterator = src.lut.iterator();
+			final TLongLongIterator lutIterator = src.getLut().iterator();
 			while ( lutIterator.hasNext() )
 			{
 				lutIterator.advance();
@@ -103,7 +105,7 @@ public class FragmentSegmentAssignment
 		{
 			final JsonArray fragments = new JsonArray();
 			final JsonArray segments = new JsonArray();
-			final TLongLongIterator lutIterator = src.lut.iterator();
+			final TLongLongIterator lutIterator = src.getLut().iterator();
 			while ( lutIterator.hasNext() )
 			{
 				lutIterator.advance();
@@ -139,14 +141,11 @@ public class FragmentSegmentAssignment
 			final Gson gson = new Gson();
 
 			final JsonObject jsonILut = new JsonObject();
-			final TLongObjectIterator< long[] > ilutIterator = src.ilut.iterator();
-			while ( ilutIterator.hasNext() )
-			{
-				ilutIterator.advance();
+			final CompactILut ilut = src.getILut();
+			for ( int i = 0; i < ilut.size(); ++i )
 				jsonILut.add(
-						Long.toString( ilutIterator.key() ),
-						gson.toJsonTree( ilutIterator.value() ) );
-			}
+						Long.toString( ilut.getSegmentId( i ) ),
+						gson.toJsonTree( ilut.getFragmentsAt( i ) ) );
 
 			final JsonObject jsonObject = new JsonObject();
 			jsonObject.add( "ilut", jsonILut );
@@ -288,11 +287,231 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 		}
 	}
 
-	final protected TLongLongHashMap lut = new TLongLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, Label.TRANSPARENT, Label.TRANSPARENT);
-	final protected TLongObjectHashMap< long[] > ilut = new TLongObjectHashMap< long[] >(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, Label.TRANSPARENT);
+	/**
+	 * Immutable state of the fragment &gt; segment lookup and its inverse.
+	 *
+	 * Large base maps are shared between consecutive versions, changes are
+	 * stored in delta maps that shadow the base maps.  The deltas are split
+	 * into small recent maps that are copied by each successor, and larger
+	 * delta maps that are shared like the base maps.  Once the recent maps
+	 * grow beyond {@link FragmentSegmentAssignment#MAX_RECENT_SIZE} entries,
+	 * they are folded into new delta maps, once the deltas grow beyond
+	 * {@link FragmentSegmentAssignment#MAX_DELTA_SIZE} entries, they are
+	 * folded into new base maps.  No map is modified after a {@link Lookup}
+	 * has been published, so readers can query it without synchronization.
+	 *
+	 * The inverse base map is a {@link CompactILut}, its delta stores
+	 * {@link Fragments} that reference the fragments of merged segments
+	 * instead of copying them.
+	 */
+	static protected class Lookup
+	{
+		final static protected Fragments REMOVED = Fragments.wrap();
+
+		final protected TLongLongHashMap lut;
+		final protected CompactILut ilut;
+		final protected TLongLongHashMap lutDelta;
+		final protected TLongObjectHashMap< Fragments > ilutDelta;
+		final protected TLongLongHashMap lutRecent = createLut();
+		final protected TLongObjectHashMap< Fragments > ilutRecent = createILutDelta();
+		final protected long version;
+
+		protected Lookup(
+				final TLongLongHashMap lut,
+				final CompactILut ilut,
+				final TLongLongHashMap lutDelta,
+				final TLongObjectHashMap< Fragments > ilutDelta,
+				final long version )
+		{
+			this.lut = lut;
+			this.ilut = ilut;
+			this.lutDelta = lutDelta;
+			this.ilutDelta = ilutDelta;
+			this.version = version;
+		}
+
+		protected Lookup( final TLongLongHashMap lut, final CompactILut ilut, final long version )
+		{
+			this( lut, ilut, createLut(), createILutDelta(), version );
+		}
+
+		/**
+		 * Create the successor of a {@link Lookup} that shares its base and
+		 * delta maps and starts with a copy of its recent maps.
+		 */
+		protected Lookup( final Lookup lookup )
+		{
+			this( lookup.lut, lookup.ilut, lookup.lutDelta, lookup.ilutDelta, lookup.version + 1 );
+			lutRecent.putAll( lookup.lutRecent );
+			ilutRecent.putAll( lookup.ilutRecent );
+		}
+
+		/**
+		 * @return the segment of a fragment or {@link Label#TRANSPARENT} if
+		 *   the fragment is not assigned
+		 */
+		public long getSegment( final long fragmentId )
+		{
+			long segmentId = lutRecent.get( fragmentId );
+			if ( segmentId == Label.TRANSPARENT )
+			{
+				segmentId = lutDelta.get( fragmentId );
+				if ( segmentId == Label.TRANSPARENT )
+					return lut.get( fragmentId );
+			}
+			return segmentId;
+		}
+
+		/**
+		 * @return the fragments of a segment or null if the segment does not
+		 *   exist
+		 */
+		public long[] getFragments( final long segmentId )
+		{
+			final Fragments fragments = getFragmentList( segmentId );
+			return fragments == null ? null : fragments.toArray();
+		}
+
+		/**
+		 * @return the fragments of a segment without copying them or null if
+		 *   the segment does not exist
+		 */
+		public Fragments getFragmentList( final long segmentId )
+		{
+			Fragments fragments = ilutRecent.get( segmentId );
+			if ( fragments == null )
+			{
+				fragments = ilutDelta.get( segmentId );
+				if ( fragments == null )
+					return ilut.getFragments( segmentId );
+			}
+			return fragments == REMOVED ? null : fragments;
+		}
+
+		public long getVersion()
+		{
+			return version;
+		}
+
+		protected void putSegment( final long fragmentId, final long segmentId )
+		{
+			lutRecent.put( fragmentId, segmentId );
+		}
+
+		protected void putFragments( final long segmentId, final long[] fragments )
+		{
+			ilutRecent.put( segmentId, Fragments.wrap( fragments ) );
+		}
+
+		protected void putFragments( final long segmentId, final Fragments fragments )
+		{
+			ilutRecent.put( segmentId, fragments );
+		}
+
+		protected void removeSegment( final long segmentId )
+		{
+			ilutRecent.put( segmentId, REMOVED );
+		}
+
+		protected int recentSize()
+		{
+			return lutRecent.size() + ilutRecent.size();
+		}
+
+		protected int deltaSize()
+		{
+			return lutDelta.size() + ilutDelta.size() + recentSize();
+		}
+
+		/**
+		 * Fold the recent maps into new delta maps.
+		 *
+		 * @return a {@link Lookup} with empty recent maps and the same version
+		 */
+		protected Lookup fold()
+		{
+			if ( recentSize() == 0 )
+				return this;
+
+			final TLongLongHashMap foldedLut = createLut( lutDelta.size() + lutRecent.size() );
+			foldedLut.putAll( lutDelta );
+			foldedLut.putAll( lutRecent );
+
+			final TLongObjectHashMap< Fragments > foldedILut = createILutDelta( ilutDelta.size() + ilutRecent.size() );
+			foldedILut.putAll( ilutDelta );
+			foldedILut.putAll( ilutRecent );
+
+			return new Lookup( lut, ilut, foldedLut, foldedILut, version );
+		}
+
+		/**
+		 * Fold the deltas into new base maps.
+		 *
+		 * @return a {@link Lookup} with empty deltas and the same version
+		 */
+		protected Lookup compact()
+		{
+			if ( deltaSize() == 0 )
+				return this;
+
+			final Lookup folded = fold();
+			final TLongLongHashMap compactLut = createLut( lut.size() + folded.lutDelta.size() );
+			compactLut.putAll( lut );
+			compactLut.putAll( folded.lutDelta );
+
+			return new Lookup( compactLut, CompactILut.compact( ilut, folded.ilutDelta, REMOVED ), version );
+		}
+	}
+
+	/**
+	 * Maximum number of recent entries before a new {@link Lookup} folds them
+	 * into new delta maps.  Each update copies the recent maps of its
+	 * predecessor, each fold copies the delta maps.
+	 */
+	final static public int MAX_RECENT_SIZE = 1 << 8;
+
+	/**
+	 * Maximum number of delta entries before a new {@link Lookup} is folded
+	 * into new base maps.  Each compaction copies the base maps.
+	 */
+	final static public int MAX_DELTA_SIZE = 1 << 14;
+
+	static protected TLongLongHashMap createLut( final int capacity )
+	{
+		return new TLongLongHashMap( Math.max( capacity, Constants.DEFAULT_CAPACITY ), Constants.DEFAULT_LOAD_FACTOR, Label.TRANSPARENT, Label.TRANSPARENT );
+	}
+
+	static protected TLongLongHashMap createLut()
+	{
+		return createLut( Constants.DEFAULT_CAPACITY );
+	}
+
+	static protected TLongObjectHashMap< Fragments > createILutDelta( final int capacity )
+	{
+		return new TLongObjectHashMap< Fragments >( Math.max( capacity, Constants.DEFAULT_CAPACITY ), Constants.DEFAULT_LOAD_FACTOR, Label.TRANSPARENT );
+	}
+
+	static protected TLongObjectHashMap< Fragments > createILutDelta()
+	{
+		return createILutDelta( Constants.DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Current state of the lookup.  Replaced (never modified) by writers
+	 * while holding the monitor of this {@link FragmentSegmentAssignment},
+	 * read without locking.
+	 */
+	protected volatile Lookup lookup = new Lookup( createLut(), new CompactILut(), 0 );
 
 	protected IdService idService;
 
+	/**
+	 * Records all modifications if not null.  Entries are appended while
+	 * holding the monitor of this {@link FragmentSegmentAssignment}, i.e. in
+	 * the order in which the modifications were published.
+	 */
+	protected volatile FragmentSegmentJournal journal = null;
+
 	public FragmentSegmentAssignment( final IdService idService )
 	{
 		this.idService = idService;
@@ -302,17 +521,61 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 	{
 		assert fragments.length == segments.length : "segments and bodies must be of same length";
 
+		final TLongLongHashMap lut = createLut( fragments.length );
 		for ( int i = 0; i < fragments.length; ++i )
 			lut.put( fragments[ i ], segments[ i ] );
 
 		this.idService = idService;
 
-		syncILut();
+		lookup = new Lookup( lut, CompactILut.fromLut( lut ), 0 );
+	}
+
+	/**
+	 * Get the current fragment &gt; segment lookup.  The returned map is
+	 * shared with readers of this {@link FragmentSegmentAssignment} and must
+	 * not be modified.
+	 *
+	 * @return
+	 */
+	public synchronized TLongLongHashMap getLut()
+	{
+		lookup = lookup.compact();
+		return lookup.lut;
 	}
 
-	public TLongLongHashMap getLut()
+	/**
+	 * Get the current segment &gt; [fragments] lookup.  The returned lookup
+	 * is immutable and reports its memory consumption.
+	 *
+	 * @return
+	 */
+	public synchronized CompactILut getILut()
 	{
-		return lut;
+		lookup = lookup.compact();
+		return lookup.ilut;
+	}
+
+	/**
+	 * Get the number of assigned fragments without compacting the lookup.
+	 * Fragments that were reassigned recently may be counted twice.
+	 *
+	 * @return
+	 */
+	public int size()
+	{
+		final Lookup lookup = this.lookup;
+		return lookup.lut.size() + lookup.lutDelta.size() + lookup.lutRecent.size();
+	}
+
+	/**
+	 * Get the version of the current lookup.  The version changes with
+	 * every modification of the assignment.
+	 *
+	 * @return
+	 */
+	public long getVersion()
+	{
+		return lookup.getVersion();
 	}
 
 	public void setIdService( final IdService idService )
@@ -320,78 +583,292 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 		this.idService = idService;
 	}
 
-	public void initLut( final TLongLongHashMap lut )
+	/**
+	 * Record all following modifications in a journal.
+	 *
+	 * @param journal
+	 *            null to stop recording
+	 */
+	public synchronized void setJournal( final FragmentSegmentJournal journal )
 	{
-		this.lut.clear();
-		this.ilut.clear();
-		this.lut.putAll( lut );
-		syncILut();
+		this.journal = journal;
+	}
 
-		System.out.println( "Done" );
+	public FragmentSegmentJournal getJournal()
+	{
+		return journal;
 	}
 
 	/**
-	 * Synchronize the inverse Lookup (segment > [fragments]) with the current
-	 * forward lookup (fragment > segment)).  The current state of the inverse
-	 * lookup will be cleared.
+	 * Must be called while holding the monitor of this
+	 * {@link FragmentSegmentAssignment}.
 	 */
-	protected void syncILut()
+	protected void record( final int type, final long... values )
+	{
+		if ( journal != null )
+			journal.append( type, values );
+	}
+
+	static protected long[] interleave( final long[] fragments, final long[] segments )
 	{
-		ilut.clear();
-		final TLongLongIterator lutIterator =  lut.iterator();
-		while ( lutIterator.hasNext() )
+		final long[] values = new long[ 2 * fragments.length ];
+		for ( int i = 0; i < fragments.length; ++i )
 		{
-			lutIterator.advance();
-			final long fragmentId = lutIterator.key();
-			final long segmentId = lutIterator.value();
-			long[] fragments = ilut.get( segmentId );
-			if ( fragments == null )
-				fragments = new long[]{ fragmentId };
-			else
-				fragments = ArrayUtils.add( fragments, fragmentId );
-			ilut.put( segmentId, fragments);
+			values[ 2 * i ] = fragments[ i ];
+			values[ 2 * i + 1 ] = segments[ i ];
 		}
+		return values;
 	}
 
 	/**
-	 * Get the body that is assigned to a fragment id.
+	 * Repeat a modification that was recorded in a
+	 * {@link FragmentSegmentJournal}.  Modifications that are already
+	 * contained in the current state leave it unchanged, e.g. when a
+	 * snapshot contains more entries than it claims.
 	 *
-	 * @param id
+	 * @param entry
 	 */
-	public long getSegment( final long fragmentId )
+	public synchronized void replay( final FragmentSegmentJournal.Entry entry )
 	{
-		final long id;
-		synchronized ( this )
+		final long[] values = entry.values;
+		switch ( entry.type )
 		{
-			final long segmentId = lut.get( fragmentId );
-			if ( segmentId == lut.getNoEntryValue() ) {
-				id = fragmentId;
-				lut.put( fragmentId, id );
-				ilut.put( id, new long[]{ fragmentId } );
+		case FragmentSegmentJournal.MERGE:
+			idService.invalidate( values[ 2 ] );
+			/* merged segment ids are new, the merge happened if it exists */
+			if ( lookup.getFragmentList( values[ 2 ] ) == null )
+				mergeSegments( values[ 0 ], values[ 1 ], values[ 2 ] );
+			break;
+		case FragmentSegmentJournal.ASSIGN:
+			assignFragments( values[ 0 ], values[ 1 ] );
+			break;
+		case FragmentSegmentJournal.DETACH:
+			detachFragment( values[ 0 ] );
+			break;
+		case FragmentSegmentJournal.DELTA:
+			final long[] fragments = new long[ values.length / 2 ];
+			final long[] segments = new long[ values.length / 2 ];
+			for ( int i = 0; i < fragments.length; ++i )
+			{
+				fragments[ i ] = values[ 2 * i ];
+				segments[ i ] = values[ 2 * i + 1 ];
 			}
-			else
-				id = segmentId;
+			applyDelta( fragments, segments );
+			break;
+		case FragmentSegmentJournal.INIT:
+			/* the replaced lookup is stored in the next snapshot only */
+			break;
+		default:
+			/* entries of unknown types are skipped */
+			break;
+		}
+	}
+
+	public void initLut( final TLongLongHashMap lut )
+	{
+		final TLongLongHashMap lutCopy = createLut( lut.size() );
+		lutCopy.putAll( lut );
+		final CompactILut ilut = CompactILut.fromLut( lutCopy );
+
+		synchronized ( this )
+		{
+			lookup = new Lookup( lutCopy, ilut, lookup.getVersion() + 1 );
+			record( FragmentSegmentJournal.INIT );
 		}
-		return id;
 	}
 
 	/**
-	 * Get the segments assigned to a body.
+	 * Replace the lookup by fragments[ i ] &gt; segments[ i ].  A journal
+	 * records only that the lookup was replaced, the lookup itself is saved
+	 * in the next snapshot.
 	 *
-	 * @param id
+	 * @param fragments
+	 * @param segments
 	 */
-	public long[] getFragments( final long segmentId )
+	public void initLut( final long[] fragments, final long[] segments )
 	{
-		final long[] fragments;
+		assert fragments.length == segments.length : "fragments and segments must be of same length";
+
+		final TLongLongHashMap lut = createLut( fragments.length );
+		for ( int i = 0; i < fragments.length; ++i )
+			lut.put( fragments[ i ], segments[ i ] );
+		final CompactILut ilut = CompactILut.fromLut( lut );
+
 		synchronized ( this )
 		{
-			fragments = ilut.get( segmentId );
+			lookup = new Lookup( lut, ilut, lookup.getVersion() + 1 );
+			record( FragmentSegmentJournal.INIT );
 		}
+	}
+
+	/**
+	 * Reassign fragments[ i ] to segments[ i ].  All changes are published
+	 * at once, readers see either none or all of them.  A segment of
+	 * {@link Label#TRANSPARENT} detaches the fragment into its own segment.
+	 * Segments that lose all their fragments are removed.
+	 *
+	 * @param fragments
+	 * @param segments
+	 */
+	public void applyDelta( final long[] fragments, final long[] segments )
+	{
+		assert fragments.length == segments.length : "fragments and segments must be of same length";
+
+		synchronized ( this )
+		{
+			final Lookup next = new Lookup( lookup );
+			final TLongObjectHashMap< SegmentChange > changes = new TLongObjectHashMap< SegmentChange >();
+			for ( int i = 0; i < fragments.length; ++i )
+			{
+				final long fragmentId = fragments[ i ];
+				final long segmentId = segments[ i ] == Label.TRANSPARENT ? fragmentId : segments[ i ];
+				final long oldSegmentId = getSegment( next, fragmentId );
+				if ( oldSegmentId == segmentId )
+					continue;
+
+				/* unassigned fragments are not listed in their own segment */
+				if ( next.getSegment( fragmentId ) != Label.TRANSPARENT )
+					getChange( changes, oldSegmentId ).remove( fragmentId );
+				getChange( changes, segmentId ).add( fragmentId );
+				next.putSegment( fragmentId, segmentId );
+			}
+
+			final TLongObjectIterator< SegmentChange > it = changes.iterator();
+			while ( it.hasNext() )
+			{
+				it.advance();
+				final Fragments changed = it.value().apply( next.getFragmentList( it.key() ) );
+				if ( changed.size() == 0 )
+					next.removeSegment( it.key() );
+				else
+					next.putFragments( it.key(), changed );
+			}
+			publish( next );
+			if ( journal != null )
+				record( FragmentSegmentJournal.DELTA, interleave( fragments, segments ) );
+		}
+	}
+
+	/**
+	 * Fragments added to and removed from a segment by
+	 * {@link FragmentSegmentAssignment#applyDelta(long[], long[])}.
+	 */
+	static private class SegmentChange
+	{
+		final private TLongHashSet added = new TLongHashSet();
+
+		final private TLongHashSet removed = new TLongHashSet();
+
+		private void add( final long fragmentId )
+		{
+			if ( !removed.remove( fragmentId ) )
+				added.add( fragmentId );
+		}
+
+		private void remove( final long fragmentId )
+		{
+			if ( !added.remove( fragmentId ) )
+				removed.add( fragmentId );
+		}
+
+		/**
+		 * @param fragments
+		 *            fragments of the segment before the change, null if it
+		 *            did not exist
+		 */
+		private Fragments apply( final Fragments fragments )
+		{
+			final Fragments kept = fragments == null ? null : Fragments.remove( fragments, removed );
+			return Fragments.concatenate( kept, Fragments.wrap( added.toArray() ) );
+		}
+	}
+
+	static private SegmentChange getChange( final TLongObjectHashMap< SegmentChange > changes, final long segmentId )
+	{
+		SegmentChange change = changes.get( segmentId );
+		if ( change == null )
+		{
+			change = new SegmentChange();
+			changes.put( segmentId, change );
+		}
+		return change;
+	}
+
+	/**
+	 * Publish a modified {@link Lookup}, folding its recent maps into new
+	 * delta maps or its deltas into new base maps if they became too large.
+	 * Must be called while holding the monitor of this
+	 * {@link FragmentSegmentAssignment}.
+	 *
+	 * @param next
+	 */
+	protected void publish( final Lookup next )
+	{
+		if ( next.deltaSize() > MAX_DELTA_SIZE )
+			lookup = next.compact();
+		else if ( next.recentSize() > MAX_RECENT_SIZE )
+			lookup = next.fold();
+		else
+			lookup = next;
+	}
+
+	/**
+	 * Get the segment of a fragment in a {@link Lookup}.  Fragments that have
+	 * not been assigned are their own segment.
+	 */
+	static protected long getSegment( final Lookup lookup, final long fragmentId )
+	{
+		final long segmentId = lookup.getSegment( fragmentId );
+		return segmentId == Label.TRANSPARENT ? fragmentId : segmentId;
+	}
+
+	/**
+	 * Get the fragments of a segment in a {@link Lookup}.  A segment that has
+	 * not been assigned and is not a fragment of another segment consists of
+	 * itself.
+	 */
+	static protected long[] getFragments( final Lookup lookup, final long segmentId )
+	{
+		final Fragments fragments = getFragmentList( lookup, segmentId );
+		return fragments == null ? null : fragments.toArray();
+	}
+
+	/**
+	 * {@link #getFragments(Lookup, long)} without copying the fragments.
+	 */
+	static protected Fragments getFragmentList( final Lookup lookup, final long segmentId )
+	{
+		final Fragments fragments = lookup.getFragmentList( segmentId );
+		if ( fragments == null && lookup.getSegment( segmentId ) == Label.TRANSPARENT )
+			return Fragments.wrap( segmentId );
 		return fragments;
 	}
 
 	/**
-	 * Assign all fragments of segmentId1 to segmentId2.
+	 * Get the body that is assigned to a fragment id.  Does not lock, it is
+	 * safe to call this concurrently with modifications of the assignment.
+	 *
+	 * @param id
+	 */
+	public long getSegment( final long fragmentId )
+	{
+		return getSegment( lookup, fragmentId );
+	}
+
+	/**
+	 * Get the segments assigned to a body.  Does not lock, it is safe to call
+	 * this concurrently with modifications of the assignment.
+	 *
+	 * @param id
+	 */
+	public long[] getFragments( final long segmentId )
+	{
+		return getFragments( lookup, segmentId );
+	}
+
+	/**
+	 * Assign all fragments of segmentId1 to segmentId2.  Nothing happens if
+	 * segmentId1 is not a segment.
 	 *
 	 * @param segmentId1
 	 * @param segmentId2
@@ -403,12 +880,17 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 
 		synchronized ( this )
 		{
-			final long[] fragments1 = ilut.get( segmentId1 );
-			final long[] fragments2 = ilut.get( segmentId2 );
-			for ( final long fragmentId : fragments1 )
-				lut.put( fragmentId, segmentId2 );
-			ilut.put( segmentId2, ArrayUtils.addAll( fragments1, fragments2 ) );
-			ilut.remove( segmentId1 );
+			final Lookup next = new Lookup( lookup );
+			final Fragments fragments1 = getFragmentList( next, segmentId1 );
+			if ( fragments1 == null )
+				return;
+
+			final Fragments fragments2 = getFragmentList( next, segmentId2 );
+			fragments1.forEach( fragmentId -> next.putSegment( fragmentId, segmentId2 ) );
+			next.putFragments( segmentId2, Fragments.concatenate( fragments1, fragments2 ) );
+			next.removeSegment( segmentId1 );
+			publish( next );
+			record( FragmentSegmentJournal.ASSIGN, segmentId1, segmentId2 );
 		}
 	}
 
@@ -423,17 +905,34 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 		if ( segmentId1 == segmentId2 )
 			return;
 
-		final long mergedSegmentId = idService.next();
+		mergeSegments( segmentId1, segmentId2, idService.next() );
+	}
+
+	/**
+	 * Merge two segments into a segment with a given id.  Nothing happens if
+	 * neither of them is a segment.
+	 *
+	 * @param segmentId1
+	 * @param segmentId2
+	 * @param mergedSegmentId
+	 */
+	protected void mergeSegments( final long segmentId1, final long segmentId2, final long mergedSegmentId )
+	{
 		synchronized ( this )
 		{
-			final long[] fragments1 = ilut.get( segmentId1 );
-			final long[] fragments2 = ilut.get( segmentId2 );
-			final long[] fragments = ArrayUtils.addAll( fragments1, fragments2 );
-			for ( final long fragmentId : fragments )
-				lut.put( fragmentId, mergedSegmentId );
-			ilut.put( mergedSegmentId, fragments );
-			ilut.remove( segmentId1 );
-			ilut.remove( segmentId2 );
+			final Fragments fragments1 = getFragmentList( lookup, segmentId1 );
+			final Fragments fragments2 = getFragmentList( lookup, segmentId2 );
+			if ( fragments1 == null && fragments2 == null )
+				return;
+
+			final Lookup next = new Lookup( lookup );
+			final Fragments fragments = Fragments.concatenate( fragments1, fragments2 );
+			fragments.forEach( fragmentId -> next.putSegment( fragmentId, mergedSegmentId ) );
+			next.removeSegment( segmentId1 );
+			next.removeSegment( segmentId2 );
+			next.putFragments( mergedSegmentId, fragments );
+			publish( next );
+			record( FragmentSegmentJournal.MERGE, segmentId1, segmentId2, mergedSegmentId );
 		}
 	}
 
@@ -460,16 +959,19 @@ A:					for ( final Entry< String, JsonElement > entry : ilutJsonEntrySet )
 	{
 		synchronized ( this )
 		{
-			final long segmentId = lut.get( fragmentId );
-			final long[] fragments = ilut.get( segmentId );
+			final long segmentId = lookup.getSegment( fragmentId );
+			final long[] fragments = lookup.getFragments( segmentId );
 			if ( fragments != null && fragments.length > 1 )
 			{
+				final Lookup next = new Lookup( lookup );
 				final long[] newFragments = ArrayUtils.removeElement( fragments, fragmentId );
-				ilut.put( segmentId, newFragments );
+				next.putFragments( segmentId, newFragments );
 
 				final long newSegmentId = fragmentId;
-				lut.put( fragmentId, newSegmentId );
-				ilut.put( newSegmentId, new long[]{ fragmentId } );
+				next.putSegment( fragmentId, newSegmentId );
+				next.putFragments( newSegmentId, new long[]{ fragmentId } );
+				publish( next );
+				record( FragmentSegmentJournal.DETACH, fragmentId );
 			}
 		}
 	}
@@ -0,0 +1,451 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package bdv.bigcat.label;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the modifications of a
+ * {@link FragmentSegmentAssignment} since its last snapshot.
+ *
+ * Modifications are recorded in memory and appended to the journal file on
+ * {@link #flush()}.  Each entry is stored as
+ * <pre>
+ * int32  n         number of values
+ * int32  type      {@link #MERGE}, {@link #ASSIGN}, {@link #DETACH}, {@link #DELTA}, or {@link #INIT}
+ * int64  sequence  increasing number of the entry
+ * int64  values[ n ]
+ * int64  checksum  CRC32 of all above
+ * </pre>
+ * in big endian byte order.  Reading stops at the first incomplete or
+ * corrupted entry, i.e. a crash during {@link #flush()} loses only the
+ * entries that were not completely written.
+ *
+ * A snapshot of the lookup stores the sequence of the last entry that it
+ * contains, such that older entries can be ignored or dropped from the
+ * journal.  Replacing the whole lookup is recorded as an {@link #INIT}
+ * entry without values, the replaced lookup is saved only in the next
+ * snapshot, see {@link #needsSnapshot()}.
+ */
+public class FragmentSegmentJournal
+{
+	/** mergeSegments( segmentId1, segmentId2 ) into mergedSegmentId */
+	final static public int MERGE = 1;
+
+	/** assignFragments( segmentId1, segmentId2 ) */
+	final static public int ASSIGN = 2;
+
+	/** detachFragment( fragmentId ) */
+	final static public int DETACH = 3;
+
+	/** applyDelta( fragments, segments ), values are interleaved */
+	final static public int DELTA = 4;
+
+	/** initLut( ... ), no values, the lookup is stored in the next snapshot */
+	final static public int INIT = 5;
+
+	final static private int HEADER_SIZE = 16;
+
+	final static private int CHECKSUM_SIZE = 8;
+
+	static public class Entry
+	{
+		final public int type;
+
+		final public long sequence;
+
+		final public long[] values;
+
+		public Entry( final int type, final long sequence, final long[] values )
+		{
+			this.type = type;
+			this.sequence = sequence;
+			this.values = values;
+		}
+	}
+
+	final protected File file;
+
+	/* sequence of the last entry */
+	protected long sequence;
+
+	/* sequence of the last entry in the file */
+	protected long flushedSequence;
+
+	/* encoded entries that are not yet in the file */
+	final protected ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	protected int numPending = 0;
+
+	/* sequence of the last INIT entry that is not contained in a snapshot */
+	protected long initSequence = Long.MIN_VALUE;
+
+	/**
+	 * Create a journal whose next entry has sequence + 1.  Entries in an
+	 * existing file are kept.
+	 *
+	 * @param file
+	 * @param sequence
+	 */
+	public FragmentSegmentJournal( final File file, final long sequence )
+	{
+		this.file = file;
+		this.sequence = sequence;
+		this.flushedSequence = sequence;
+	}
+
+	/**
+	 * Get the journal file that belongs to a dataset in an HDF5 file.
+	 *
+	 * @param h5Path
+	 * @param dataset
+	 * @return
+	 */
+	static public File getFile( final String h5Path, final String dataset )
+	{
+		final String name = dataset.replaceAll( "^/+", "" ).replace( '/', '.' );
+		return new File( h5Path + "." + name + ".journal" );
+	}
+
+	/**
+	 * Get the dataset that a new snapshot of dataset is written to before it
+	 * replaces dataset.  If dataset does not exist, the new snapshot is
+	 * complete but was not yet moved.
+	 *
+	 * @param dataset
+	 * @return
+	 */
+	static public String getNewSnapshotDataset( final String dataset )
+	{
+		return dataset + "_new";
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return the sequence of the last recorded entry
+	 */
+	public synchronized long getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * @return the number of recorded entries that are not yet in the file
+	 */
+	public synchronized int getNumPendingEntries()
+	{
+		return numPending;
+	}
+
+	/**
+	 * Record an entry in memory.
+	 *
+	 * @param type
+	 * @param values
+	 * @return the sequence of the entry
+	 */
+	public synchronized long append( final int type, final long... values )
+	{
+		final byte[] bytes = encode( type, ++sequence, values );
+		pending.write( bytes, 0, bytes.length );
+		++numPending;
+		if ( type == INIT )
+			initSequence = sequence;
+		return sequence;
+	}
+
+	/**
+	 * @return true if the lookup was replaced since the last snapshot, i.e.
+	 *         it must be saved as a new snapshot because the journal does
+	 *         not contain it
+	 */
+	public synchronized boolean needsSnapshot()
+	{
+		return initSequence != Long.MIN_VALUE;
+	}
+
+	static protected long size( final Entry entry )
+	{
+		return HEADER_SIZE + 8L * entry.values.length + CHECKSUM_SIZE;
+	}
+
+	static protected byte[] encode( final int type, final long sequence, final long[] values )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + 8 * values.length + CHECKSUM_SIZE );
+		buffer.putInt( values.length );
+		buffer.putInt( type );
+		buffer.putLong( sequence );
+		buffer.asLongBuffer().put( values );
+		buffer.position( HEADER_SIZE + 8 * values.length );
+		final CRC32 crc = new CRC32();
+		crc.update( buffer.array(), 0, buffer.position() );
+		buffer.putLong( crc.getValue() );
+		return buffer.array();
+	}
+
+	/**
+	 * Append all recorded entries to the file and force them to the storage
+	 * device.
+	 *
+	 * @return the sequence of the last entry in the file
+	 * @throws IOException
+	 */
+	public synchronized long flush() throws IOException
+	{
+		if ( pending.size() > 0 )
+		{
+			try ( final FileChannel channel = FileChannel.open(
+					file.toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND ) )
+			{
+				final ByteBuffer buffer = ByteBuffer.wrap( pending.toByteArray() );
+				while ( buffer.hasRemaining() )
+					channel.write( buffer );
+				channel.force( false );
+			}
+			pending.reset();
+			numPending = 0;
+			flushedSequence = sequence;
+		}
+		return flushedSequence;
+	}
+
+	/**
+	 * Drop all entries up to and including sequence from the file, e.g.
+	 * after they were written into a snapshot.  Entries that are not yet in
+	 * the file are not affected.
+	 *
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public synchronized void dropUntil( final long sequence ) throws IOException
+	{
+		final List< Entry > entries = new ArrayList< Entry >();
+		for ( final Entry entry : read( file ) )
+			if ( entry.sequence > sequence )
+				entries.add( entry );
+		rewrite( entries );
+		if ( initSequence <= sequence )
+			initSequence = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Drop all entries after sequence, from the file and from memory, e.g.
+	 * to discard modifications that were not saved.  The next entry will have
+	 * sequence + 1.
+	 *
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public synchronized void rollback( final long sequence ) throws IOException
+	{
+		final List< Entry > entries = new ArrayList< Entry >();
+		for ( final Entry entry : read( file ) )
+			if ( entry.sequence <= sequence )
+				entries.add( entry );
+		rewrite( entries );
+		pending.reset();
+		numPending = 0;
+		this.sequence = Math.min( this.sequence, sequence );
+		flushedSequence = this.sequence;
+		if ( initSequence > sequence )
+			initSequence = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Replace the file by a file that contains entries, atomically if the
+	 * file system supports it.
+	 */
+	protected void rewrite( final List< Entry > entries ) throws IOException
+	{
+		final File tmp = new File( file.getPath() + ".tmp" );
+		try ( final FileChannel channel = FileChannel.open(
+				tmp.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING ) )
+		{
+			for ( final Entry entry : entries )
+			{
+				final ByteBuffer buffer = ByteBuffer.wrap( encode( entry.type, entry.sequence, entry.values ) );
+				while ( buffer.hasRemaining() )
+					channel.write( buffer );
+			}
+			channel.force( false );
+		}
+		try
+		{
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final IOException e )
+		{
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+
+	/**
+	 * Read all complete and valid entries from a journal file.
+	 *
+	 * @param file
+	 * @return entries in the order in which they were appended, empty if the
+	 *         file does not exist
+	 * @throws IOException
+	 */
+	static public List< Entry > read( final File file ) throws IOException
+	{
+		final List< Entry > entries = new ArrayList< Entry >();
+		if ( !file.exists() )
+			return entries;
+
+		final long length = file.length();
+		long position = 0;
+		try ( final InputStream in = new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) )
+		{
+			final DataInputStream data = new DataInputStream( in );
+			final byte[] header = new byte[ HEADER_SIZE ];
+			long lastSequence = Long.MIN_VALUE;
+			while ( position < length )
+			{
+				data.readFully( header );
+				final ByteBuffer headerBuffer = ByteBuffer.wrap( header );
+				final int n = headerBuffer.getInt();
+				final int type = headerBuffer.getInt();
+				final long sequence = headerBuffer.getLong();
+				final long size = HEADER_SIZE + 8L * n + CHECKSUM_SIZE;
+				if ( n < 0 || position + size > length || sequence <= lastSequence )
+					break;
+
+				final byte[] body = new byte[ 8 * n ];
+				data.readFully( body );
+				final long checksum = data.readLong();
+				final CRC32 crc = new CRC32();
+				crc.update( header );
+				crc.update( body );
+				if ( crc.getValue() != checksum )
+					break;
+
+				final long[] values = new long[ n ];
+				ByteBuffer.wrap( body ).asLongBuffer().get( values );
+				entries.add( new Entry( type, sequence, values ) );
+				lastSequence = sequence;
+				position += size;
+			}
+		}
+		catch ( final EOFException e )
+		{}
+
+		if ( position < length )
+			System.out.println( "Ignoring " + ( length - position ) + " bytes of incomplete or corrupted entries at the end of " + file );
+
+		return entries;
+	}
+
+	/**
+	 * Replay the entries of a journal file that are newer than a snapshot.
+	 * Incomplete or corrupted entries at the end of the file are ignored.
+	 * Replaying stops at an {@link #INIT} entry, the lookup that it replaced
+	 * was never saved in a snapshot and later entries modify that lookup.
+	 * The file is not modified and no journal is attached to the assignment,
+	 * see {@link #open(File, long)} to continue the journal.
+	 *
+	 * @param file
+	 * @param snapshotSequence
+	 *            sequence of the last entry contained in the snapshot that
+	 *            the assignment was initialized with
+	 * @param assignment
+	 * @return the sequence of the last replayed entry, or snapshotSequence
+	 *         if there were no newer entries
+	 * @throws IOException
+	 */
+	static public long replay(
+			final File file,
+			final long snapshotSequence,
+			final FragmentSegmentAssignment assignment ) throws IOException
+	{
+		long sequence = snapshotSequence;
+		int numReplayed = 0;
+		for ( final Entry entry : read( file ) )
+		{
+			if ( entry.sequence > snapshotSequence )
+			{
+				if ( entry.type == INIT )
+				{
+					System.out.println( "Ignoring fragment-segment assignment modifications of an unsaved lookup in " + file );
+					break;
+				}
+				assignment.replay( entry );
+				sequence = entry.sequence;
+				++numReplayed;
+			}
+		}
+		if ( numReplayed > 0 )
+			System.out.println( "Replayed " + numReplayed + " fragment-segment assignment modifications from " + file );
+
+		return sequence;
+	}
+
+	/**
+	 * Continue a journal file after the entry with sequence, e.g. after
+	 * {@link #replay(File, long, FragmentSegmentAssignment)}.  Incomplete
+	 * or corrupted entries and entries after sequence are dropped from the
+	 * file such that new entries are appended after the last valid entry.
+	 *
+	 * @param file
+	 * @param sequence
+	 * @return
+	 * @throws IOException
+	 */
+	static public FragmentSegmentJournal open( final File file, final long sequence ) throws IOException
+	{
+		final List< Entry > entries = new ArrayList< Entry >();
+		long validLength = 0;
+		for ( final Entry entry : read( file ) )
+		{
+			if ( entry.sequence <= sequence )
+			{
+				entries.add( entry );
+				validLength += size( entry );
+			}
+		}
+
+		final FragmentSegmentJournal journal = new FragmentSegmentJournal( file, sequence );
+		if ( file.exists() && file.length() != validLength )
+			journal.rewrite( entries );
+		return journal;
+	}
+}
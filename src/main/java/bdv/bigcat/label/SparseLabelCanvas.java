@@ -0,0 +1,284 @@
+package bdv.bigcat.label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import bdv.labels.labelset.Label;
+import gnu.trove.list.array.TLongArrayList;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.util.Intervals;
+
+/**
+ * A painting canvas of {@link LongType} that allocates storage only for cells
+ * that have been written to.  Cells that were never written read as
+ * {@link Label#TRANSPARENT}.  Memory consumption therefore scales with the
+ * painted volume and not with the size of the label volume.
+ *
+ * Only cells that have been written to are stored, keyed by their flat
+ * index.  Other cells are cheap {@link Cell} objects that are created on
+ * access, the {@code long[]} backing a cell is allocated on the first
+ * {@link LongAccess#setValue(int, long) write} to that cell and shared by all
+ * {@link Cell} objects for the same index.
+ */
+public class SparseLabelCanvas extends LazyCellImg< LongType, SparseLabelCanvas.LazyLongArray >
+{
+	/**
+	 * {@link LongAccess} that reads {@link Label#TRANSPARENT} until it is
+	 * written to for the first time.
+	 */
+	static public class LazyLongArray implements LongAccess
+	{
+		final private int numEntities;
+
+		final private Supplier< long[] > allocate;
+
+		private volatile long[] data = null;
+
+		/**
+		 * @param numEntities
+		 * @param allocate
+		 *            provides the backing array on the first write, filled
+		 *            with {@link Label#TRANSPARENT} if it is new
+		 */
+		public LazyLongArray( final int numEntities, final Supplier< long[] > allocate )
+		{
+			this.numEntities = numEntities;
+			this.allocate = allocate;
+		}
+
+		public LazyLongArray( final int numEntities )
+		{
+			this( numEntities, () -> {
+				final long[] array = new long[ numEntities ];
+				Arrays.fill( array, Label.TRANSPARENT );
+				return array;
+			} );
+		}
+
+		@Override
+		public long getValue( final int index )
+		{
+			final long[] data = this.data;
+			return data == null ? Label.TRANSPARENT : data[ index ];
+		}
+
+		@Override
+		public void setValue( final int index, final long value )
+		{
+			long[] data = this.data;
+			if ( data == null )
+			{
+				if ( value == Label.TRANSPARENT )
+					return;
+				data = materialize();
+			}
+			data[ index ] = value;
+		}
+
+		/**
+		 * Allocate the backing array if it does not yet exist.
+		 *
+		 * @return the backing array
+		 */
+		synchronized public long[] materialize()
+		{
+			if ( data == null )
+				data = allocate.get();
+			return data;
+		}
+
+		public boolean isMaterialized()
+		{
+			return data != null;
+		}
+
+		/**
+		 * @return the backing array or {@code null} if nothing was ever
+		 *         written to this cell
+		 */
+		public long[] getCurrentStorageArray()
+		{
+			return data;
+		}
+
+		public int getArrayLength()
+		{
+			return numEntities;
+		}
+	}
+
+	static private class Cells implements Get< Cell< LazyLongArray > >
+	{
+		final private CellGrid grid;
+
+		/* cells that have been written to */
+		final private ConcurrentHashMap< Long, Cell< LazyLongArray > > cells = new ConcurrentHashMap<>();
+
+		/* indices of cells in the order in which they were written to */
+		final private TLongArrayList materialized = new TLongArrayList();
+
+		public Cells( final CellGrid grid )
+		{
+			this.grid = grid;
+		}
+
+		@Override
+		public Cell< LazyLongArray > get( final long index )
+		{
+			final Cell< LazyLongArray > cell = cells.get( index );
+			if ( cell != null )
+				return cell;
+
+			final int n = grid.numDimensions();
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final int numEntities = ( int ) Intervals.numElements( cellDims );
+
+			return new Cell<>( cellDims, cellMin, new LazyLongArray( numEntities, () -> materialize( index, cellMin, cellDims, numEntities ) ) );
+		}
+
+		/**
+		 * Get the backing array of a cell, storing the cell if this is the
+		 * first write to it.
+		 */
+		synchronized private long[] materialize( final long index, final long[] cellMin, final int[] cellDims, final int numEntities )
+		{
+			final Cell< LazyLongArray > cell = cells.get( index );
+			if ( cell != null )
+				return cell.getData().materialize();
+
+			final LazyLongArray access = new LazyLongArray( numEntities );
+			final long[] data = access.materialize();
+			cells.put( index, new Cell<>( cellDims, cellMin, access ) );
+			materialized.add( index );
+			return data;
+		}
+
+		private Cell< LazyLongArray > getIfMaterialized( final long index )
+		{
+			return cells.get( index );
+		}
+
+		synchronized private List< Cell< LazyLongArray > > getMaterialized()
+		{
+			final ArrayList< Cell< LazyLongArray > > list = new ArrayList<>( materialized.size() );
+			for ( int i = 0; i < materialized.size(); ++i )
+				list.add( cells.get( materialized.get( i ) ) );
+			return list;
+		}
+
+		synchronized private long[] getMaterializedIndices()
+		{
+			return materialized.toArray();
+		}
+
+		synchronized private int numMaterialized()
+		{
+			return materialized.size();
+		}
+	}
+
+	final private Cells sparseCells;
+
+	public SparseLabelCanvas( final long[] dimensions, final int[] cellDimensions )
+	{
+		this( new CellGrid( dimensions, cellDimensions ) );
+	}
+
+	public SparseLabelCanvas( final CellGrid grid )
+	{
+		this( grid, new Cells( grid ) );
+	}
+
+	private SparseLabelCanvas( final CellGrid grid, final Cells cells )
+	{
+		super( grid, new LongType(), cells );
+		sparseCells = cells;
+	}
+
+	/**
+	 * Get the cell with the given flat index in the cell grid.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public Cell< LazyLongArray > getCell( final long index )
+	{
+		return sparseCells.get( index );
+	}
+
+	/**
+	 * Get the cell with the given flat index in the cell grid if it has been
+	 * written to.  Unlike {@link #getCell(long)}, this does not create a
+	 * cell.
+	 *
+	 * @param index
+	 * @return the cell or {@code null} if it was never written to
+	 */
+	public Cell< LazyLongArray > getMaterializedCell( final long index )
+	{
+		return sparseCells.getIfMaterialized( index );
+	}
+
+	/**
+	 * Get a snapshot of all cells that have been written to, in the order in
+	 * which they were materialized.
+	 *
+	 * @return
+	 */
+	public List< Cell< LazyLongArray > > getMaterializedCells()
+	{
+		return sparseCells.getMaterialized();
+	}
+
+	/**
+	 * Get the flat indices of all cells that have been written to, in the
+	 * order in which they were materialized.
+	 *
+	 * @return
+	 */
+	public long[] getMaterializedCellIndices()
+	{
+		return sparseCells.getMaterializedIndices();
+	}
+
+	/**
+	 * Copy cells into a new canvas with the same cell grid, e.g. to save them
+	 * while painting continues.  Cells that were never written to are not
+	 * copied and remain {@link Label#TRANSPARENT} in the copy.
+	 *
+	 * @param cellIndices
+	 *            flat indices of the cells to copy
+	 * @return
+	 */
+	public SparseLabelCanvas copyCells( final long[] cellIndices )
+	{
+		final SparseLabelCanvas copy = new SparseLabelCanvas( getCellGrid() );
+		for ( final long index : cellIndices )
+		{
+			final Cell< LazyLongArray > cell = getMaterializedCell( index );
+			if ( cell != null )
+			{
+				final long[] data = cell.getData().getCurrentStorageArray();
+				System.arraycopy( data, 0, copy.getCell( index ).getData().materialize(), 0, data.length );
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return number of cells that have been written to
+	 */
+	public int numMaterializedCells()
+	{
+		return sparseCells.numMaterialized();
+	}
+}
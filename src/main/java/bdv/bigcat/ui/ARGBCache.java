@@ -0,0 +1,102 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package bdv.bigcat.ui;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free, direct mapped long to ARGB cache for {@link ARGBStream}s.
+ * Entries are immutable and tagged with the epoch of the stream and the
+ * version of the fragment segment assignment they were computed for.
+ * Entries with another tag are misses, such that changing the stream state
+ * is a single increment instead of clearing the cache.  Ids that map to the
+ * same slot evict each other, the cache is lossy by design and must only
+ * memoize colors that can be recomputed.
+ */
+public class ARGBCache
+{
+	final static public long MISSING = -1;
+
+	final static public int DEFAULT_BITS = 16;
+
+	final static private class Entry
+	{
+		final long id;
+
+		final int epoch;
+
+		final long assignmentVersion;
+
+		final int argb;
+
+		Entry( final long id, final int epoch, final long assignmentVersion, final int argb )
+		{
+			this.id = id;
+			this.epoch = epoch;
+			this.assignmentVersion = assignmentVersion;
+			this.argb = argb;
+		}
+	}
+
+	final private int shift;
+
+	final private AtomicReferenceArray< Entry > entries;
+
+	/**
+	 * @param bits
+	 *            the cache has 2<sup>bits</sup> slots
+	 */
+	public ARGBCache( final int bits )
+	{
+		shift = 64 - bits;
+		entries = new AtomicReferenceArray<>( 1 << bits );
+	}
+
+	public ARGBCache()
+	{
+		this( DEFAULT_BITS );
+	}
+
+	private int slot( final long id )
+	{
+		return ( int ) ( ( id * 0x9e3779b97f4a7c15L ) >>> shift );
+	}
+
+	/**
+	 * @return the cached color of {@code id} as an unsigned int or
+	 *         {@link #MISSING} if there is no entry for {@code id} with the
+	 *         given tag.
+	 */
+	public long get( final long id, final int epoch, final long assignmentVersion )
+	{
+		final Entry entry = entries.get( slot( id ) );
+		if ( entry != null && entry.id == id && entry.epoch == epoch && entry.assignmentVersion == assignmentVersion )
+			return entry.argb & 0xffffffffL;
+		return MISSING;
+	}
+
+	public void put( final long id, final int epoch, final long assignmentVersion, final int argb )
+	{
+		entries.lazySet( slot( id ), new Entry( id, epoch, assignmentVersion, argb ) );
+	}
+
+	public void clear()
+	{
+		for ( int i = 0; i < entries.length(); ++i )
+			entries.set( i, null );
+	}
+}
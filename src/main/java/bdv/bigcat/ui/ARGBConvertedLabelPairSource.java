@@ -1,5 +1,7 @@
 package bdv.bigcat.ui;
 
+import java.util.Arrays;
+
 import bdv.labels.labelset.VolatileLabelMultisetType;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
@@ -11,25 +13,64 @@ import net.imglib2.util.Pair;
 import net.imglib2.view.RandomAccessiblePair;
 import net.imglib2.view.Views;
 
+/**
+ * Composition of labels and a painting canvas.  Each mipmap level pairs the
+ * labels of that level with a canvas of the same resolution.
+ */
 public class ARGBConvertedLabelPairSource extends AbstractARGBConvertedLabelsSource
 {
-	final private RandomAccessiblePair< VolatileLabelMultisetType, LongType > source;
-	final private Interval interval;
+	final private RandomAccessiblePair< VolatileLabelMultisetType, LongType >[] sources;
+	final private Interval[] intervals;
 	final private AffineTransform3D[] sourceTransforms;
 
+	/**
+	 * @param setupId
+	 * @param sources
+	 *            label canvas pair for each mipmap level
+	 * @param intervals
+	 *            interval of each mipmap level
+	 * @param sourceTransforms
+	 * @param argbStream
+	 */
 	public ARGBConvertedLabelPairSource(
 			final int setupId,
-			final RandomAccessiblePair< VolatileLabelMultisetType, LongType > source,
-			final Interval interval,
+			final RandomAccessiblePair< VolatileLabelMultisetType, LongType >[] sources,
+			final Interval[] intervals,
 			final AffineTransform3D[] sourceTransforms,
 			final ARGBStream argbStream )
 	{
 		super( setupId, argbStream );
-		this.source = source;
-		this.interval = interval;
+		this.sources = sources;
+		this.intervals = intervals;
 		this.sourceTransforms = sourceTransforms;
 	}
 
+	/**
+	 * Single resolution composition, the full resolution pair is used for
+	 * all levels.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public ARGBConvertedLabelPairSource(
+			final int setupId,
+			final RandomAccessiblePair< VolatileLabelMultisetType, LongType > source,
+			final Interval interval,
+			final AffineTransform3D[] sourceTransforms,
+			final ARGBStream argbStream )
+	{
+		this(
+				setupId,
+				filled( new RandomAccessiblePair[ sourceTransforms.length ], source ),
+				filled( new Interval[ sourceTransforms.length ], interval ),
+				sourceTransforms,
+				argbStream );
+	}
+
+	static private < T > T[] filled( final T[] array, final T value )
+	{
+		Arrays.fill( array, value );
+		return array;
+	}
+
 	@Override
 	public RandomAccessibleInterval< VolatileARGBType > getSource( final int t, final int level )
 	{
@@ -39,7 +80,7 @@ public class ARGBConvertedLabelPairSource extends AbstractARGBConvertedLabelsSou
 				// [ERROR] reference to convert is ambiguous both
 				// [ERROR] method <A,B>convert(net.imglib2.RandomAccessibleInterval<A>,net.imglib2.converter.Converter<? super A,? super B>,B) in net.imglib2.converter.Converters and
 				// [ERROR] method <A,B>convert(net.imglib2.IterableInterval<A>,net.imglib2.converter.Converter<? super A,? super B>,B) in net.imglib2.converter.Converters match
-				( RandomAccessibleInterval< Pair< VolatileLabelMultisetType, LongType > > )Views.interval( source, interval ),
+				( RandomAccessibleInterval< Pair< VolatileLabelMultisetType, LongType > > )Views.interval( sources[ level ], intervals[ level ] ),
 				//Views.interval( source, interval ),
 				new PairVolatileLabelMultisetLongARGBConverter( argbStream ),
 				new VolatileARGBType() );
@@ -51,9 +92,6 @@ public class ARGBConvertedLabelPairSource extends AbstractARGBConvertedLabelsSou
 		transform.set( sourceTransforms[ level ] );
 	}
 
-	/**
-	 * TODO Store this in a field
-	 */
 	@Override
 	public int getNumMipmapLevels()
 	{
@@ -30,4 +30,18 @@ public interface ARGBStream
 	 * @return
 	 */
 	public int argb( long id );
+
+	/**
+	 * Version of the generated colors, changes whenever {@link #argb(long)}
+	 * may return a different color for any id.  Colors of streams that
+	 * return {@link #UNVERSIONED} must not be cached.
+	 *
+	 * @return
+	 */
+	default public long getVersion()
+	{
+		return UNVERSIONED;
+	}
+
+	final static public long UNVERSIONED = Long.MIN_VALUE;
 }
@@ -17,13 +17,16 @@
 package bdv.bigcat.ui;
 
 import bdv.bigcat.label.FragmentSegmentAssignment;
-import bdv.labels.labelset.Label;
-import gnu.trove.impl.Constants;
-import gnu.trove.map.hash.TLongIntHashMap;
 
 
 /**
- * Generates and caches a stream of colors.
+ * Generates and caches a stream of colors.  Cached colors are tagged with an
+ * epoch that is incremented by all changes of the stream state (seed, alpha,
+ * active fragment, ...) and with the version of the fragment segment
+ * assignment, such that changes do not need to clear the caches and
+ * concurrent render threads never reuse colors of a previous state.
+ * Implementations read {@link #epoch} and the assignment version before they
+ * compute a color and tag the cache entry with these values.
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
@@ -42,21 +45,24 @@ abstract public class AbstractARGBStream implements ARGBStream
 
 	final protected FragmentSegmentAssignment assignment;
 
+	/* incremented by clearCache, written after the state it guards */
+	protected volatile int epoch = 0;
+
+	/* incremented by epoch and assignment changes */
+	private long version = 0;
+
+	private int versionEpoch = 0;
+
+	private long versionAssignmentVersion;
+
 	public AbstractARGBStream( final FragmentSegmentAssignment assignment )
 	{
 		this.assignment = assignment;
+		versionAssignmentVersion = assignment.getVersion();
 	}
 
-	protected TLongIntHashMap fragmentARGBCache = new TLongIntHashMap(
-			Constants.DEFAULT_CAPACITY ,
-			Constants.DEFAULT_LOAD_FACTOR,
-			Label.TRANSPARENT,
-			0 );
-	protected TLongIntHashMap segmentARGBCache = new TLongIntHashMap(
-			Constants.DEFAULT_CAPACITY ,
-			Constants.DEFAULT_LOAD_FACTOR,
-			Label.TRANSPARENT,
-			0 );
+	final protected ARGBCache fragmentARGBCache = new ARGBCache();
+	final protected ARGBCache segmentARGBCache = new ARGBCache();
 
 	final static protected int argb( final int r, final int g, final int b, final int alpha )
 	{
@@ -138,9 +144,31 @@ abstract public class AbstractARGBStream implements ARGBStream
 		clearCache();
 	}
 
-	public void clearCache()
+	/**
+	 * Changes with the seed, alpha, active fragment or segment and the
+	 * fragment segment assignment.
+	 */
+	@Override
+	public synchronized long getVersion()
+	{
+		final int currentEpoch = epoch;
+		final long currentAssignmentVersion = assignment.getVersion();
+		if ( currentEpoch != versionEpoch || currentAssignmentVersion != versionAssignmentVersion )
+		{
+			versionEpoch = currentEpoch;
+			versionAssignmentVersion = currentAssignmentVersion;
+			++version;
+		}
+		return version;
+	}
+
+	/**
+	 * Invalidate all cached colors.  Call after changing state that affects
+	 * the generated colors.  This does not touch the caches but starts a new
+	 * epoch.
+	 */
+	public synchronized void clearCache()
 	{
-		fragmentARGBCache.clear();
-		segmentARGBCache.clear();
+		++epoch;
 	}
 }
\ No newline at end of file
@@ -38,13 +38,18 @@ abstract public class AbstractHSVARGBStream extends AbstractARGBStream
 	{
 		if ( fragmentId == Label.TRANSPARENT )
 			return 0;
+		final int epoch = this.epoch;
+		final long assignmentVersion = assignment.getVersion();
 		final long segmentId = assignment.getSegment( fragmentId );
-		int argb = fragmentARGBCache.get( segmentId );
-		if ( argb == 0x00000000 )
+		final long cached = fragmentARGBCache.get( segmentId, epoch, assignmentVersion );
+		int argb;
+		if ( cached == ARGBCache.MISSING )
 		{
 			argb = id2argb( seed + segmentId );
-			fragmentARGBCache.put( segmentId, argb );
+			fragmentARGBCache.put( segmentId, epoch, assignmentVersion, argb );
 		}
+		else
+			argb = ( int )cached;
 		if ( activeFragment == fragmentId )
 			argb = argb & 0x00ffffff | activeFragmentAlpha;
 		else if ( activeSegment == segmentId )
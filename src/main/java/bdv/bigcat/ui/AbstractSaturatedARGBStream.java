@@ -39,31 +39,55 @@ abstract public class AbstractSaturatedARGBStream extends AbstractARGBStream
 		return ( int )( ( v * xs[ k ] + u * xs[ l ] ) * 255.0 + 0.5 );
 	}
 
+	/*
+	 * RGB of the radial projection, 256 steps per sextant.  The interpolated
+	 * channels are rounded to 8 bit, so rounding the position within a
+	 * sextant to 8 bit yields the same colors as interpolating.
+	 */
+	final static protected int[] saturatedRGBs = new int[ 6 * 256 ];
+	static
+	{
+		for ( int k = 0; k < 6; ++k )
+		{
+			for ( int j = 0; j < 256; ++j )
+			{
+				final double u = j / 255.0;
+				final double v = 1.0 - u;
+				saturatedRGBs[ k * 256 + j ] = argb(
+						interpolate( rs, k, k + 1, u, v ),
+						interpolate( gs, k, k + 1, u, v ),
+						interpolate( bs, k, k + 1, u, v ),
+						0 );
+			}
+		}
+	}
+
+	/**
+	 * Saturated RGB for x in [0,1).
+	 */
+	final static protected int saturatedRGB( final double x )
+	{
+		final double x6 = x * 6.0;
+		final int k = ( int )x6;
+		return saturatedRGBs[ k * 256 + ( int )( ( x6 - k ) * 255.0 + 0.5 ) ];
+	}
+
 	@Override
 	public int argb( final long fragmentId )
 	{
+		final int epoch = this.epoch;
+		final long assignmentVersion = assignment.getVersion();
 		final long segmentId = assignment.getSegment( fragmentId );
-		int argb = fragmentARGBCache.get( segmentId );
-		if ( argb == 0x00000000 )
+		final long cached = fragmentARGBCache.get( segmentId, epoch, assignmentVersion );
+		int argb;
+		if ( cached == ARGBCache.MISSING )
 		{
-			double x = getDouble( seed + segmentId );
-			x *= 6.0;
-			final int k = ( int )x;
-			final int l = k + 1;
-			final double u = x - k;
-			final double v = 1.0 - u;
-
-			final int r = interpolate( rs, k, l, u, v );
-			final int g = interpolate( gs, k, l, u, v );
-			final int b = interpolate( bs, k, l, u, v );
-
-			argb = argb( r, g, b, alpha );
-
-			synchronized ( fragmentARGBCache )
-			{
-				fragmentARGBCache.put( segmentId, argb );
-			}
+			argb = saturatedRGB( getDouble( seed + segmentId ) ) | alpha;
+			fragmentARGBCache.put( segmentId, epoch, assignmentVersion, argb );
 		}
+		else
+			argb = ( int )cached;
+
 		if ( Label.INVALID == segmentId )
 			argb = argb & 0x00ffffff;
 		else if ( activeFragment == fragmentId )
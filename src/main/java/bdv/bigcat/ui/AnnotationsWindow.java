@@ -4,6 +4,7 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -179,6 +180,14 @@ public class AnnotationsWindow extends JFrame implements
 			updateTableFromIds();
 		}
 
+		@Override
+		public void onAnnotationsAdded(final Collection<? extends Annotation> added) {
+
+			for (final Annotation a : added)
+				ids.add(a.getId());
+			updateTableFromIds();
+		}
+
 		@Override
 		public void onAnnotationRemoved(final Annotation a) {
 
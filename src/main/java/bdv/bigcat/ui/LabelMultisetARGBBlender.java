@@ -0,0 +1,91 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package bdv.bigcat.ui;
+
+import bdv.labels.labelset.LabelMultisetEntryList;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.ListValueCache;
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * Blends the colors of all labels in a {@link LabelMultisetType}, weighted
+ * by alpha and count.  Entries are read straight from the list data.  The
+ * blended color is cached per list in the {@link ListValueCache} of the
+ * containing array, keyed by the {@link ARGBStream#getVersion() version} of
+ * the stream at construction time.  Converters create a blender per
+ * {@code getSource} call, i.e. per frame, such that seed, alpha, mode and
+ * assignment changes invalidate the caches.
+ *
+ * Unversioned streams are not cached.
+ */
+public class LabelMultisetARGBBlender
+{
+	final static private double iFF = 1.0 / 255.0;
+
+	final protected ARGBStream argbStream;
+
+	final protected long version;
+
+	public LabelMultisetARGBBlender( final ARGBStream argbStream )
+	{
+		this.argbStream = argbStream;
+		this.version = argbStream.getVersion();
+	}
+
+	public int argb( final LabelMultisetType input )
+	{
+		if ( version == ARGBStream.UNVERSIONED )
+			return blend( input.entries() );
+
+		final int listOffset = input.getListOffset();
+		final ListValueCache cache = input.getArray().getListValueCache( argbStream, version );
+		final long cached = cache.get( listOffset );
+		if ( cached != ListValueCache.MISSING )
+			return ( int ) cached;
+
+		final int argb = blend( input.entries() );
+		cache.put( listOffset, argb );
+		return argb;
+	}
+
+	protected int blend( final LabelMultisetEntryList entries )
+	{
+		double a = 0;
+		double r = 0;
+		double g = 0;
+		double b = 0;
+		double alphaCountSize = 0;
+
+		for ( int i = 0, n = entries.size(); i < n; ++i )
+		{
+			final int argb = argbStream.argb( entries.getId( i ) );
+			final double alpha = ARGBType.alpha( argb );
+			final double alphaCount = alpha * iFF * entries.getCount( i );
+			a += alphaCount * alpha;
+			r += alphaCount * ARGBType.red( argb );
+			g += alphaCount * ARGBType.green( argb );
+			b += alphaCount * ARGBType.blue( argb );
+			alphaCountSize += alphaCount;
+		}
+		final double iAlphaCountSize = 1.0 / alphaCountSize;
+		final int aInt = Math.min( 255, ( int ) ( a * iAlphaCountSize ) );
+		final int rInt = Math.min( 255, ( int ) ( r * iAlphaCountSize ) );
+		final int gInt = Math.min( 255, ( int ) ( g * iAlphaCountSize ) );
+		final int bInt = Math.min( 255, ( int ) ( b * iAlphaCountSize ) );
+		return ( ( ( ( ( aInt << 8 ) | rInt ) << 8 ) | gInt ) << 8 ) | bInt;
+	}
+}
@@ -83,47 +83,33 @@ public class ModalGoldenAngleSaturatedARGBStream extends GoldenAngleSaturatedARG
 	@Override
 	public int argb( final long fragmentId )
 	{
-		int argb = fragmentARGBCache.get( fragmentId );
-
-		if ( argb == 0x00000000 )
+		final int epoch = this.epoch;
+		final long assignmentVersion = assignment.getVersion();
+		final long cachedFragment = fragmentARGBCache.get( fragmentId, epoch, assignmentVersion );
+		if ( cachedFragment != ARGBCache.MISSING )
+			return ( int )cachedFragment;
+
+		final long segmentId = assignment.getSegment( fragmentId );
+		final long cachedSegment = segmentARGBCache.get( segmentId, epoch, assignmentVersion );
+		int argb;
+		if ( cachedSegment == ARGBCache.MISSING )
 		{
-			final long segmentId = assignment.getSegment( fragmentId );
-
-			argb = segmentARGBCache.get( segmentId );
-
-			if ( argb == 0x00000000 )
-			{
-				double x = getDouble( seed + segmentId );
-				x *= 6.0;
-				final int k = ( int )x;
-				final int l = k + 1;
-				final double u = x - k;
-				final double v = 1.0 - u;
-
-				final int r = interpolate( rs, k, l, u, v );
-				final int g = interpolate( gs, k, l, u, v );
-				final int b = interpolate( bs, k, l, u, v );
-
-				argb = argb( r, g, b, alpha );
-
-				if ( ( mode == SELECTED_ONLY && segmentId != activeSegment ) || ( mode == HIDE_COMPLETE && completeSegments.contains( segmentId ) ) )
-					argb = argb & 0x00ffffff;
-				else if ( activeSegment == segmentId )
-					argb = argb & 0x00ffffff | activeSegmentAlpha;
-
-				synchronized ( segmentARGBCache )
-				{
-					segmentARGBCache.put( segmentId, argb );
-				}
-			}
-			if ( activeFragment == fragmentId && ( argb & 0xff000000 ) != 0 )
-				argb = argb & 0x00ffffff | activeFragmentAlpha;
-
-			synchronized ( fragmentARGBCache )
-			{
-				fragmentARGBCache.put( fragmentId, argb );
-			}
+			argb = saturatedRGB( getDouble( seed + segmentId ) ) | alpha;
+
+			if ( ( mode == SELECTED_ONLY && segmentId != activeSegment ) || ( mode == HIDE_COMPLETE && completeSegments.contains( segmentId ) ) )
+				argb = argb & 0x00ffffff;
+			else if ( activeSegment == segmentId )
+				argb = argb & 0x00ffffff | activeSegmentAlpha;
+
+			segmentARGBCache.put( segmentId, epoch, assignmentVersion, argb );
 		}
+		else
+			argb = ( int )cachedSegment;
+
+		if ( activeFragment == fragmentId && ( argb & 0xff000000 ) != 0 )
+			argb = argb & 0x00ffffff | activeFragmentAlpha;
+
+		fragmentARGBCache.put( fragmentId, epoch, assignmentVersion, argb );
 
 		return argb;
 	}
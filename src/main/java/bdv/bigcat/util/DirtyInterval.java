@@ -16,34 +16,168 @@
  */
 package bdv.bigcat.util;
 
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import gnu.trove.set.hash.TLongHashSet;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.util.Intervals;
 
 /**
- * Tracks the interval that
+ * Tracks the interval that was modified.  If constructed with a
+ * {@link CellGrid}, also tracks the set of cells intersecting any modified
+ * interval, such that only those cells need to be saved.
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
 public class DirtyInterval
 {
+	public interface Listener
+	{
+		/**
+		 * Called after {@code interval} was touched.  May be called from
+		 * any thread.
+		 *
+		 * @param interval
+		 */
+		public void touched( final Interval interval );
+	}
+
+	final protected CopyOnWriteArrayList< Listener > listeners = new CopyOnWriteArrayList<>();
+
 	protected FinalInterval dirtyInterval = null;
 
+	final protected CellGrid grid;
+
+	final protected TLongHashSet dirtyCells = new TLongHashSet();
+
+	public DirtyInterval()
+	{
+		this( null );
+	}
+
+	public DirtyInterval( final CellGrid grid )
+	{
+		this.grid = grid;
+	}
+
 	public void touch( final Interval interval )
 	{
-		if ( dirtyInterval == null )
-			dirtyInterval = new FinalInterval( interval );
-		else
-			dirtyInterval = Intervals.union( dirtyInterval, interval );
+		synchronized ( this )
+		{
+			if ( dirtyInterval == null )
+				dirtyInterval = new FinalInterval( interval );
+			else
+				dirtyInterval = Intervals.union( dirtyInterval, interval );
+
+			if ( grid != null )
+				touchCells( interval );
+		}
+
+		for ( final Listener listener : listeners )
+			listener.touched( interval );
+	}
+
+	public void addListener( final Listener listener )
+	{
+		listeners.add( listener );
+	}
+
+	public void removeListener( final Listener listener )
+	{
+		listeners.remove( listener );
+	}
+
+	/**
+	 * Add the flat indices of all cells of {@link #grid} that intersect
+	 * {@code interval} to {@link #dirtyCells}.
+	 */
+	protected void touchCells( final Interval interval )
+	{
+		final int n = grid.numDimensions();
+		final long[] gridDimensions = grid.getGridDimensions();
+		final long[] cellMin = new long[ n ];
+		final long[] cellMax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			final long min = Math.max( 0, interval.min( d ) );
+			final long max = Math.min( grid.imgDimension( d ) - 1, interval.max( d ) );
+			if ( min > max )
+				return;
+			cellMin[ d ] = min / grid.cellDimension( d );
+			cellMax[ d ] = max / grid.cellDimension( d );
+		}
+
+		final long[] cell = cellMin.clone();
+		for ( int d = 0; d < n; )
+		{
+			long index = cell[ n - 1 ];
+			for ( int e = n - 2; e >= 0; --e )
+				index = index * gridDimensions[ e ] + cell[ e ];
+			dirtyCells.add( index );
+
+			for ( d = 0; d < n; ++d )
+			{
+				if ( ++cell[ d ] <= cellMax[ d ] )
+					break;
+				else
+					cell[ d ] = cellMin[ d ];
+			}
+		}
+	}
+
+	/**
+	 * Mark cells as dirty by their flat index, e.g. to re-queue cells whose
+	 * saving failed.
+	 *
+	 * @param cellIndices
+	 */
+	synchronized public void touchCells( final long[] cellIndices )
+	{
+		dirtyCells.addAll( cellIndices );
 	}
 
-	public void clear()
+	synchronized public void clear()
 	{
 		dirtyInterval = null;
+		dirtyCells.clear();
 	}
 
-	public FinalInterval getDirtyInterval()
+	synchronized public FinalInterval getDirtyInterval()
 	{
 		return dirtyInterval;
 	}
+
+	/**
+	 * @return the cell grid or {@code null} if cells are not tracked
+	 */
+	public CellGrid getCellGrid()
+	{
+		return grid;
+	}
+
+	/**
+	 * @return number of cells that were modified since the last
+	 *         {@link #takeDirtyCells()}
+	 */
+	synchronized public int numDirtyCells()
+	{
+		return dirtyCells.size();
+	}
+
+	/**
+	 * Get the flat indices of all cells that were modified since the last call
+	 * and reset them to clean.  The indices are sorted.
+	 *
+	 * @return
+	 */
+	synchronized public long[] takeDirtyCells()
+	{
+		final long[] cells = dirtyCells.toArray();
+		dirtyCells.clear();
+		Arrays.sort( cells );
+		return cells;
+	}
 }
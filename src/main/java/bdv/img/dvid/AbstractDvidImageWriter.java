@@ -5,15 +5,10 @@ import java.io.IOException;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
-import bdv.util.BlockedInterval;
 import bdv.util.dvid.DatasetBlk;
-import bdv.util.dvid.DatasetBlkUint8;
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 
 public class AbstractDvidImageWriter< T extends NumericType< T > >
 {
@@ -22,10 +17,31 @@ public class AbstractDvidImageWriter< T extends NumericType< T > >
 	
 	protected final int[] blockSize;
 
+	protected final DvidBulkWriter< T > bulkWriter;
+
 	public AbstractDvidImageWriter( DatasetBlk< T > dataset, int[] blockSize )
+	{
+		this( dataset, blockSize, new DvidBulkWriter<>( dataset, blockSize ) );
+	}
+
+	/**
+	 * @param dataset
+	 * @param blockSize
+	 * @param numThreads
+	 *            Number of threads for conversion and serialization.
+	 * @param maxInFlight
+	 *            Maximum number of concurrent POST requests.
+	 */
+	public AbstractDvidImageWriter( DatasetBlk< T > dataset, int[] blockSize, int numThreads, int maxInFlight )
+	{
+		this( dataset, blockSize, new DvidBulkWriter<>( dataset, blockSize, numThreads, maxInFlight ) );
+	}
+
+	protected AbstractDvidImageWriter( DatasetBlk< T > dataset, int[] blockSize, DvidBulkWriter< T > bulkWriter )
 	{
 		this.dataset = dataset;
 		this.blockSize = blockSize;
+		this.bulkWriter = bulkWriter;
 	}
 	
 	public AbstractDvidImageWriter( DatasetBlk< T > dataset ) throws JsonSyntaxException, JsonIOException, IOException
@@ -158,7 +174,8 @@ public class AbstractDvidImageWriter< T extends NumericType< T > >
 	 *
 	 *            Write image into data set. The image will be divided into
 	 *            blocks as defined by steps. The target coordinates will be the
-	 *            image coordinates shifted by offset.
+	 *            image coordinates shifted by offset. Blocks are converted and
+	 *            posted in parallel, see {@link DvidBulkWriter}.
 	 */
 	public void writeImage(
 			RandomAccessibleInterval< T > image,
@@ -167,70 +184,7 @@ public class AbstractDvidImageWriter< T extends NumericType< T > >
 			final int[] offset,
 			T borderExtension )
 	{
-		// realX ensures that realX[i] is integer multiple of blockSize
-		long[] realDim = new long[ image.numDimensions() ];
-		image.dimensions( realDim );
-		adaptToBlockSize( realDim, this.blockSize );
-		int[] realSteps = adaptToBlockSize( steps.clone(), this.blockSize );
-
-		// For now, assume always that data is in [0,1,2] == "xyz" format.
-		// Do we need flexibility to allow for different orderings?
-		int[] dims = new int[ image.numDimensions() ];
-		for ( int d = 0; d < image.numDimensions(); ++d )
-			dims[ d ] = d;
-
-		// stepSize as long[], needed for BlockedInterval
-		long[] stepSize = new long[ image.numDimensions() ];
-		for ( int i = 0; i < stepSize.length; i++ )
-			stepSize[ i ] = realSteps[ i ];
-
-		// Create BlockedInterval that allows for flat iteration and intuitive
-		// hyperslicing.
-		// Go along iterationAxis and hyperslice, then iterate over each
-		// hyperslice.
-		int[] withinBlockOffset = blockSize.clone();
-		long min[] = new long[ withinBlockOffset.length ];
-		long[] length = new long[ min.length ];
-		int[] realOffset = new int[ min.length ];
-		for ( int d = 0; d < withinBlockOffset.length; ++d )
-		{
-			int off = offset[ d ] % blockSize[ d ];
-			realOffset[ d ] = offset[ d ] - off;
-			withinBlockOffset[ d ] = off;
-			min[ d ] = -off;
-			length[ d ] = image.dimension( d ) + off;
-		}
-		IntervalView< T > shiftedImage = Views.offsetInterval( Views.extendValue( image, borderExtension ), min, length );
-		BlockedInterval< T > blockedImage = BlockedInterval.createValueExtended( shiftedImage, stepSize, borderExtension );
-		for ( int a = 0, aUnitIncrement = 0; a < shiftedImage.dimension( iterationAxis ); ++aUnitIncrement, a += realSteps[ iterationAxis ] )
-		{
-			IntervalView< RandomAccessibleInterval< T >> hs = 
-					Views.hyperSlice( blockedImage, iterationAxis, aUnitIncrement );
-			Cursor< RandomAccessibleInterval< T >> cursor = Views.flatIterable( hs ).cursor();
-			while ( cursor.hasNext() )
-			{
-				RandomAccessibleInterval< T > block = cursor.next();
-				int[] localOffset = realOffset.clone();
-				localOffset[ iterationAxis ] += a;
-				for ( int i = 0, k = 0; i < localOffset.length; i++ )
-				{
-					if ( i == iterationAxis )
-						continue;
-					localOffset[ i ] += cursor.getIntPosition( k++ ) * stepSize[ i ];
-				}
-				try
-				{
-					this.writeBlock( block, dims, localOffset );
-				}
-				catch ( IOException e )
-				{
-					System.err.println( "Failed to write block: " + dataset.getRequestString( DatasetBlkUint8.getIntervalRequestString( image, realSteps ) ) );
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return;
+		bulkWriter.writeImage( image, iterationAxis, steps, offset, borderExtension );
 	}
 
 	/**
@@ -0,0 +1,341 @@
+package bdv.img.dvid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bdv.util.dvid.DatasetBlk;
+import bdv.util.http.HttpClient;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.Type;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+/**
+ * Writes images into a blocked dvid data set through a pipeline of parallel
+ * conversion and serialization followed by a bounded number of concurrent
+ * POST requests.
+ *
+ * The image is divided into chunks of the step size that are aligned with
+ * the block grid of the data set.  Chunks at the upper border are padded to
+ * the next block boundary only, not to the full step size.  The number of
+ * chunks that are serialized but not yet posted is bounded, such that large
+ * images are streamed through a constant amount of memory.  Failed requests
+ * are retried with exponential backoff.  Chunks that fail nevertheless are
+ * reported but do not abort the rest of the upload.
+ *
+ * @param <T>
+ */
+public class DvidBulkWriter< T extends Type< T > >
+{
+	final static public int DEFAULT_MAX_IN_FLIGHT = 8;
+
+	final static public int DEFAULT_MAX_RETRIES = 3;
+
+	final static public long DEFAULT_BACKOFF = 500;
+
+	final static public String CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * Throughput of a {@link DvidBulkWriter#writeImage} call.
+	 */
+	public static class Statistics
+	{
+		final private AtomicLong chunks = new AtomicLong();
+
+		final private AtomicLong bytes = new AtomicLong();
+
+		final private AtomicLong retries = new AtomicLong();
+
+		final private AtomicLong failures = new AtomicLong();
+
+		final private long start = System.currentTimeMillis();
+
+		private long elapsed = 0;
+
+		public long getNumChunks()
+		{
+			return chunks.get();
+		}
+
+		public long getNumBytes()
+		{
+			return bytes.get();
+		}
+
+		public long getNumRetries()
+		{
+			return retries.get();
+		}
+
+		public long getNumFailures()
+		{
+			return failures.get();
+		}
+
+		/**
+		 * @return wall clock time in ms
+		 */
+		public long getElapsed()
+		{
+			return elapsed;
+		}
+
+		/**
+		 * @return MB per second
+		 */
+		public double getThroughput()
+		{
+			return bytes.get() / 1e6 / Math.max( elapsed, 1 ) * 1000;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(
+					"%d chunks, %.1f MB in %.1f s (%.1f MB/s), %d retries, %d failed",
+					chunks.get(),
+					bytes.get() / 1e6,
+					elapsed / 1000.0,
+					getThroughput(),
+					retries.get(),
+					failures.get() );
+		}
+	}
+
+	final private DatasetBlk< T > dataset;
+
+	final private int[] blockSize;
+
+	final private HttpClient client;
+
+	final private int numThreads;
+
+	final private int maxInFlight;
+
+	final private int maxRetries;
+
+	final private long backoff;
+
+	/**
+	 * @param dataset
+	 * @param blockSize
+	 *            Block size of the data set.
+	 * @param client
+	 * @param numThreads
+	 *            Number of threads for conversion and serialization.
+	 * @param maxInFlight
+	 *            Maximum number of concurrent POST requests.
+	 * @param maxRetries
+	 *            Maximum number of retries per chunk.
+	 * @param backoff
+	 *            Delay before the first retry in ms, doubles with each
+	 *            retry.
+	 */
+	public DvidBulkWriter(
+			final DatasetBlk< T > dataset,
+			final int[] blockSize,
+			final HttpClient client,
+			final int numThreads,
+			final int maxInFlight,
+			final int maxRetries,
+			final long backoff )
+	{
+		this.dataset = dataset;
+		this.blockSize = blockSize;
+		this.client = client;
+		this.numThreads = numThreads;
+		this.maxInFlight = maxInFlight;
+		this.maxRetries = maxRetries;
+		this.backoff = backoff;
+	}
+
+	public DvidBulkWriter( final DatasetBlk< T > dataset, final int[] blockSize, final int numThreads, final int maxInFlight )
+	{
+		this( dataset, blockSize, HttpClient.getDefault(), numThreads, maxInFlight, DEFAULT_MAX_RETRIES, DEFAULT_BACKOFF );
+	}
+
+	public DvidBulkWriter( final DatasetBlk< T > dataset, final int[] blockSize )
+	{
+		this( dataset, blockSize, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_IN_FLIGHT );
+	}
+
+	/**
+	 * @param image
+	 *            Image to be stored in dvid server.
+	 * @param iterationAxis
+	 *            Chunks are written in slices along this axis.
+	 * @param steps
+	 *            Chunk size along each axis, rounded up to block size and
+	 *            bounded by {@link DatasetBlk#getMaxChunkSize()}.
+	 * @param offset
+	 *            Offset target position by offset.
+	 * @param borderExtension
+	 *            Extend border with this value.
+	 * @return throughput and failures
+	 */
+	public Statistics writeImage(
+			final RandomAccessibleInterval< T > image,
+			final int iterationAxis,
+			final int[] steps,
+			final int[] offset,
+			final T borderExtension )
+	{
+		final int n = image.numDimensions();
+		final int[] realSteps = AbstractDvidImageWriter.adaptToBlockSize( steps.clone(), blockSize );
+		final int[] maxChunkSize = dataset.getMaxChunkSize();
+		if ( maxChunkSize != null )
+			for ( int d = 0; d < n; ++d )
+				realSteps[ d ] = Math.min( realSteps[ d ], maxChunkSize[ d ] );
+
+		// shift the image such that chunks start at block boundaries
+		final long[] min = new long[ n ];
+		final long[] length = new long[ n ];
+		final int[] realOffset = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			final int off = offset[ d ] % blockSize[ d ];
+			realOffset[ d ] = offset[ d ] - off;
+			min[ d ] = image.min( d ) - off;
+			length[ d ] = image.dimension( d ) + off;
+		}
+		final RandomAccessible< T > source = Views.extendValue( image, borderExtension );
+
+		// iterationAxis varies slowest
+		final int[] axes = new int[ n ];
+		for ( int d = 0, k = 0; d < n; ++d )
+			if ( d != iterationAxis )
+				axes[ k++ ] = d;
+		axes[ n - 1 ] = iterationAxis;
+		final long[] numChunks = new long[ n ];
+		for ( int k = 0; k < n; ++k )
+			numChunks[ k ] = ( length[ axes[ k ] ] + realSteps[ axes[ k ] ] - 1 ) / realSteps[ axes[ k ] ];
+
+		final List< long[] > chunkMins = new ArrayList<>();
+		final long[] gridPosition = new long[ n ];
+		for ( long i = 0; i < Intervals.numElements( numChunks ); ++i )
+		{
+			IntervalIndexer.indexToPosition( i, numChunks, gridPosition );
+			final long[] chunkMin = new long[ n ];
+			for ( int k = 0; k < n; ++k )
+				chunkMin[ axes[ k ] ] = gridPosition[ k ] * realSteps[ axes[ k ] ];
+			chunkMins.add( chunkMin );
+		}
+
+		final Statistics statistics = new Statistics();
+		final ExecutorService converters = Executors.newFixedThreadPool( numThreads );
+		final ExecutorService posters = Executors.newFixedThreadPool( maxInFlight );
+		final Semaphore queued = new Semaphore( numThreads + maxInFlight );
+		final CountDownLatch done = new CountDownLatch( chunkMins.size() );
+		try
+		{
+			for ( final long[] chunkMin : chunkMins )
+			{
+				final long[] chunkSourceMin = new long[ n ];
+				final long[] chunkSize = new long[ n ];
+				final int[] chunkOffset = new int[ n ];
+				for ( int d = 0; d < n; ++d )
+				{
+					final long remaining = length[ d ] - chunkMin[ d ];
+					final long blocks = ( remaining + blockSize[ d ] - 1 ) / blockSize[ d ];
+					chunkSourceMin[ d ] = min[ d ] + chunkMin[ d ];
+					chunkSize[ d ] = Math.min( realSteps[ d ], blocks * blockSize[ d ] );
+					chunkOffset[ d ] = realOffset[ d ] + ( int ) chunkMin[ d ];
+				}
+				final IntervalView< T > chunk = Views.offsetInterval( source, chunkSourceMin, chunkSize );
+				final String url = dataset.getPutRequestUrl( chunk, chunkOffset );
+
+				queued.acquire();
+				converters.submit( () -> {
+					final byte[] data;
+					try
+					{
+						data = dataset.serialize( chunk );
+					}
+					catch ( final RuntimeException e )
+					{
+						fail( url, e, statistics );
+						queued.release();
+						done.countDown();
+						return;
+					}
+					posters.submit( () -> {
+						try
+						{
+							post( url, data, statistics );
+						}
+						finally
+						{
+							queued.release();
+							done.countDown();
+						}
+					} );
+				} );
+			}
+			done.await();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			converters.shutdownNow();
+			posters.shutdownNow();
+		}
+		finally
+		{
+			converters.shutdown();
+			posters.shutdown();
+		}
+
+		statistics.elapsed = System.currentTimeMillis() - statistics.start;
+		System.out.println( "Wrote " + statistics + " to " + dataset.getUrl() );
+		return statistics;
+	}
+
+	private void post( final String url, final byte[] data, final Statistics statistics )
+	{
+		for ( int attempt = 0;; ++attempt )
+		{
+			try
+			{
+				client.post( url, data, CONTENT_TYPE );
+				statistics.chunks.incrementAndGet();
+				statistics.bytes.addAndGet( data.length );
+				return;
+			}
+			catch ( final IOException e )
+			{
+				if ( attempt >= maxRetries )
+				{
+					fail( url, e, statistics );
+					return;
+				}
+				statistics.retries.incrementAndGet();
+				try
+				{
+					Thread.sleep( backoff << attempt );
+				}
+				catch ( final InterruptedException f )
+				{
+					Thread.currentThread().interrupt();
+					fail( url, e, statistics );
+					return;
+				}
+			}
+		}
+	}
+
+	static private void fail( final String url, final Exception e, final Statistics statistics )
+	{
+		statistics.failures.incrementAndGet();
+		System.err.println( "Failed to write block: " + url );
+		e.printStackTrace();
+	}
+}
@@ -6,12 +6,10 @@ import java.util.Random;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
-import bdv.util.BlockedInterval;
 import bdv.util.dvid.DatasetBlk;
 import bdv.util.dvid.DatasetBlkLabel;
 import bdv.util.dvid.Node;
 import bdv.util.dvid.Repository;
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
@@ -23,7 +21,6 @@ import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedLongType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 /**
@@ -40,6 +37,8 @@ public class DvidLabelBlkWriter
 
 	private final int[] blockSize;
 
+	private final DvidBulkWriter< UnsignedLongType > bulkWriter;
+
 	/**
 	 * @param url
 	 *            Url to dvid server in the form of http://hostname:port
@@ -86,9 +85,28 @@ public class DvidLabelBlkWriter
 	}
 	
 	public DvidLabelBlkWriter( DatasetBlkLabel dataset, int[] blockSize )
+	{
+		this( dataset, blockSize, new DvidBulkWriter<>( dataset, blockSize ) );
+	}
+
+	/**
+	 * @param dataset
+	 * @param blockSize
+	 * @param numThreads
+	 *            Number of threads for conversion and serialization.
+	 * @param maxInFlight
+	 *            Maximum number of concurrent POST requests.
+	 */
+	public DvidLabelBlkWriter( DatasetBlkLabel dataset, int[] blockSize, int numThreads, int maxInFlight )
+	{
+		this( dataset, blockSize, new DvidBulkWriter<>( dataset, blockSize, numThreads, maxInFlight ) );
+	}
+
+	private DvidLabelBlkWriter( DatasetBlkLabel dataset, int[] blockSize, DvidBulkWriter< UnsignedLongType > bulkWriter )
 	{
 		this.dataset = dataset;
 		this.blockSize = blockSize;
+		this.bulkWriter = bulkWriter;
 	}
 	
 	public DvidLabelBlkWriter( DatasetBlkLabel dataset ) throws JsonSyntaxException, JsonIOException, IOException
@@ -155,7 +173,10 @@ public class DvidLabelBlkWriter
 	 * 
 	 *            Write image into data set. The image will be divided into
 	 *            blocks as defined by steps. The target coordinates will be the
-	 *            image coordinates shifted by offset.
+	 *            image coordinates shifted by offset rounded up to the next
+	 *            block boundary, the offset along iterationAxis is ignored.
+	 *            Blocks are converted and posted in parallel, see
+	 *            {@link DvidBulkWriter}.
 	 */
 	public void writeImage(
 			RandomAccessibleInterval< UnsignedLongType > image,
@@ -164,58 +185,9 @@ public class DvidLabelBlkWriter
 			final int[] offset,
 			UnsignedLongType borderExtension )
 	{
-		// realX ensures that realX[i] is integer multiple of blockSize
-		long[] realDim = new long[ image.numDimensions() ];
-		image.dimensions( realDim );
-		adaptToBlockSize( realDim, this.blockSize );
-		int[] realSteps = adaptToBlockSize( steps.clone(), this.blockSize );
-		int[] realOffset = adaptToBlockSize( offset.clone(), this.blockSize );
-
-		// For now, assume always that data is in [0,1,2] == "xyz" format.
-		// Do we need flexibility to allow for different orderings?
-		int[] dims = new int[ image.numDimensions() ];
-		for ( int d = 0; d < image.numDimensions(); ++d )
-			dims[ d ] = d;
-
-		// stepSize as long[], needed for BlockedInterval
-		long[] stepSize = new long[ image.numDimensions() ];
-		for ( int i = 0; i < stepSize.length; i++ )
-			stepSize[ i ] = realSteps[ i ];
-
-		// Create BlockedInterval that allows for flat iteration and intuitive
-		// hyperslicing.
-		// Go along iterationAxis and hyperslice, then iterate over each
-		// hyperslice.
-		BlockedInterval< UnsignedLongType > blockedImage = BlockedInterval.createZeroExtended( image, stepSize );
-		for ( int a = 0, aUnitIncrement = 0; a < image.dimension( iterationAxis ); ++aUnitIncrement, a += realSteps[ iterationAxis ] )
-		{
-			IntervalView< RandomAccessibleInterval< UnsignedLongType >> hs = 
-					Views.hyperSlice( blockedImage, iterationAxis, aUnitIncrement );
-			Cursor< RandomAccessibleInterval< UnsignedLongType >> cursor = Views.flatIterable( hs ).cursor();
-			while ( cursor.hasNext() )
-			{
-				RandomAccessibleInterval< UnsignedLongType > block = cursor.next();
-				int[] localOffset = realOffset.clone();
-				localOffset[ iterationAxis ] = a;
-				for ( int i = 0, k = 0; i < localOffset.length; i++ )
-				{
-					if ( i == iterationAxis )
-						continue;
-					localOffset[ i ] += cursor.getIntPosition( k++ ) * stepSize[ i ];
-				}
-				try
-				{
-					this.writeBlock( block, dims, localOffset );
-				}
-				catch ( IOException e )
-				{
-					System.err.println( "Failed to write block: " + dataset.getRequestString( DatasetBlkLabel.getIntervalRequestString( image, realSteps ) ) );
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return;
+		final int[] realOffset = adaptToBlockSize( offset.clone(), this.blockSize );
+		realOffset[ iterationAxis ] = 0;
+		bulkWriter.writeImage( image, iterationAxis, steps, realOffset, borderExtension );
 	}
 
 	/**
@@ -1,8 +1,10 @@
 package bdv.img.dvid;
 
+import java.nio.ByteBuffer;
+
 import bdv.img.cache.CacheArrayLoader;
-import bdv.labels.labelset.ByteUtils;
 import bdv.labels.labelset.LongMappedAccessData;
+import bdv.labels.labelset.OffHeapLongMappedAccessData;
 import bdv.labels.labelset.VolatileLabelMultisetArray;
 import bdv.util.dvid.DatasetKeyValue;
 
@@ -67,7 +69,7 @@ public class DvidLabelMultisetArrayLoader implements CacheArrayLoader< VolatileL
 
 		final int[] data = new int[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
 		final int listDataSize = bytes.length - 4 * data.length;
-		final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( listDataSize );
+		final LongMappedAccessData listData = OffHeapLongMappedAccessData.cacheFactory.createStorage( listDataSize );
 		int j = -1;
 		for ( int i = 0; i < data.length; ++i )
 		{
@@ -76,9 +78,7 @@ public class DvidLabelMultisetArrayLoader implements CacheArrayLoader< VolatileL
 					( ( 0xff & bytes[ ++j ] ) << 16 ) |
 					( ( 0xff & bytes[ ++j ] ) << 24 );
 		}
-		final long[] listDataStorage = listData.getData();
-		for ( int i = 0; i < listDataSize; ++i )
-			ByteUtils.putByte( bytes[ ++j ], listDataStorage, i );
+		listData.copyFrom( ByteBuffer.wrap( bytes, j + 1, listDataSize ), 0 );
 		return new VolatileLabelMultisetArray( data, listData, true );
 	}
 
@@ -14,6 +14,7 @@ import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.labels.labelset.LabelMultisetType;
 import bdv.labels.labelset.VolatileLabelMultisetArray;
 import bdv.labels.labelset.VolatileLabelMultisetType;
+import bdv.util.DiskBlockCache;
 import bdv.util.JsonHelper;
 import bdv.util.MipmapTransforms;
 import bdv.util.dvid.DatasetKeyValue;
@@ -56,7 +57,6 @@ public class LabelblkMultisetSetupImageLoader
 	 * @throws JsonIOException
 	 * @throws JsonSyntaxException
 	 */
-	@SuppressWarnings( "unchecked" )
 	public LabelblkMultisetSetupImageLoader(
 			final int setupId,
 			final String apiUrl,
@@ -64,6 +64,36 @@ public class LabelblkMultisetSetupImageLoader
 			final String dataInstanceId,
 			final double[][] resolutions,
 			final DatasetKeyValue[] dvidStores ) throws JsonSyntaxException, JsonIOException, IOException
+	{
+		this( setupId, apiUrl, nodeId, dataInstanceId, resolutions, dvidStores, null );
+	}
+
+	/**
+	 * http://emrecon100.janelia.priv/api/help/labels64
+	 *
+	 * @param apiUrl e.g. "http://emrecon100.janelia.priv/api"
+	 * @param nodeId e.g. "2a3fd320aef011e4b0ce18037320227c"
+	 * @param dataInstanceId e.g. "bodies"
+	 * @param resolutions
+	 * @param dvidStores Array of {@link DatasetKeyValue} to manage
+	 * load/write of {@link VolatileLabelMultisetArray} from dvid store.
+	 * @param diskCache persistent cache for the labels64 blocks or
+	 * {@code null}, invalidate
+	 * {@link DiskBlockCache#dvidNodeKey(String, String)} after changing an
+	 * unlocked node
+	 * @throws IOException
+	 * @throws JsonIOException
+	 * @throws JsonSyntaxException
+	 */
+	@SuppressWarnings( "unchecked" )
+	public LabelblkMultisetSetupImageLoader(
+			final int setupId,
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final double[][] resolutions,
+			final DatasetKeyValue[] dvidStores,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
 	{
 		super( LabelMultisetType.type, VolatileLabelMultisetType.type );
 		this.setupId = setupId;
@@ -96,7 +126,7 @@ public class LabelblkMultisetSetupImageLoader
 
 		/* first loader is a labels64 source */
 		cellDimensions[ 0 ] = dataInstance.Extended.BlockSize;
-		loaders[ 0 ] = new LabelblkMultisetVolatileArrayLoader( apiUrl, nodeId, dataInstanceId, cellDimensions[ 0 ] );
+		loaders[ 0 ] = new LabelblkMultisetVolatileArrayLoader( apiUrl, nodeId, dataInstanceId, cellDimensions[ 0 ], diskCache );
 
 		/* subsequent loaders are key value stores */
 		for ( int i = 0; i < dvidStores.length; ++i ) {
@@ -1,17 +1,17 @@
 package bdv.img.dvid;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.EmptyArrayCreator;
-import bdv.labels.labelset.LabelMultisetEntry;
-import bdv.labels.labelset.LabelMultisetEntryList;
-import bdv.labels.labelset.LongMappedAccessData;
+import bdv.labels.labelset.LabelMultisetArrayBuilder;
 import bdv.labels.labelset.VolatileLabelMultisetArray;
-import gnu.trove.list.array.TLongArrayList;
+import bdv.util.DiskBlockCache;
+import bdv.util.http.BatchedBlockFetcher;
+import bdv.util.http.HttpClient;
 
 /**
  * Loads a full resolution label block from a DVID labels64 source where each
@@ -20,6 +20,8 @@ import gnu.trove.list.array.TLongArrayList;
  */
 public class LabelblkMultisetVolatileArrayLoader implements CacheArrayLoader< VolatileLabelMultisetArray >
 {
+	final static public int DEFAULT_BATCH_SIZE = 4;
+
 	private VolatileLabelMultisetArray theEmptyArray;
 
 	private final String apiUrl;
@@ -28,16 +30,66 @@ public class LabelblkMultisetVolatileArrayLoader implements CacheArrayLoader< Vo
 
 	private final String dataInstanceId;
 
+	private final int[] blockDimensions;
+
+	private final DiskBlockCache diskCache;
+
+	private final HttpClient client;
+
+	private final BatchedBlockFetcher batchFetcher;
+
+	/**
+	 * @param apiUrl
+	 * @param nodeId
+	 * @param dataInstanceId
+	 * @param blockDimensions
+	 * @param diskCache persistent block cache or {@code null}
+	 * @param client
+	 * @param batchSize number of adjacent blocks along x fetched with one
+	 * request, no batching if &lt;2
+	 */
 	public LabelblkMultisetVolatileArrayLoader(
 			final String apiUrl,
 			final String nodeId,
 			final String dataInstanceId,
-			final int[] blockDimensions )
+			final int[] blockDimensions,
+			final DiskBlockCache diskCache,
+			final HttpClient client,
+			final int batchSize )
 	{
 		theEmptyArray = new VolatileLabelMultisetArray( 1, false );
 		this.apiUrl = apiUrl;
 		this.nodeId = nodeId;
 		this.dataInstanceId = dataInstanceId;
+		this.blockDimensions = blockDimensions;
+		this.diskCache = diskCache;
+		this.client = client;
+		batchFetcher = batchSize < 2 ? null : new BatchedBlockFetcher(
+				client,
+				blockDimensions,
+				8,
+				batchSize,
+				BatchedBlockFetcher.Layout.SUBVOLUME,
+				( gridPosition, numBlocks ) -> makeUrl( gridPosition, numBlocks ) );
+	}
+
+	public LabelblkMultisetVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions,
+			final DiskBlockCache diskCache )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, diskCache, HttpClient.getDefault(), DEFAULT_BATCH_SIZE );
+	}
+
+	public LabelblkMultisetVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, null );
 	}
 
 	// TODO: unused -- remove.
@@ -47,59 +99,52 @@ public class LabelblkMultisetVolatileArrayLoader implements CacheArrayLoader< Vo
 		return 8;
 	}
 
-	static private void readBlock(
-			final String urlString,
-			final int[] data,
-			final LongMappedAccessData listData ) throws IOException
+	private long[] gridPosition( final long[] min )
 	{
-		final byte[] bytes = new byte[ data.length * 8 ];
-		final URL url = new URL( urlString );
-		final InputStream in = url.openStream();
+		return new long[] {
+				min[ 0 ] / blockDimensions[ 0 ],
+				min[ 1 ] / blockDimensions[ 1 ],
+				min[ 2 ] / blockDimensions[ 2 ] };
+	}
 
-		int off = 0, l = 0;
-		do
-		{
-			l = in.read( bytes, off, bytes.length - off );
-			off += l;
-		}
-		while ( l > 0 && off < bytes.length );
-		in.close();
-
-		final TLongArrayList idAndOffsetList = new TLongArrayList();
-		final LabelMultisetEntryList list = new LabelMultisetEntryList( listData, 0 );
-		final LabelMultisetEntry entry = new LabelMultisetEntry( 0, 1 );
-		long nextListOffset = 0;
-A:		for ( int i = 0, j = -1; i < data.length; ++i )
-		{
-			final long id =
-					( 0xffl & bytes[ ++j ] ) |
-					( ( 0xffl & bytes[ ++j ] ) << 8 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 16 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 24 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 32 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 40 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 48 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 56 );
-
-			// does the list [id x 1] already exist?
-			for ( int k = 0; k < idAndOffsetList.size(); k += 2 )
-			{
-				if ( idAndOffsetList.getQuick( k ) == id )
-				{
-					final long offset = idAndOffsetList.getQuick( k + 1 );
-					data[ i ] = ( int ) offset;
-					continue A;
-				}
-			}
-
-			list.createListAt( listData, nextListOffset );
-			entry.setId( id );
-			list.add( entry );
-			idAndOffsetList.add( id );
-			idAndOffsetList.add( nextListOffset );
-			data[ i ] = ( int ) nextListOffset;
-			nextListOffset += list.getSizeInBytes();
-		}
+	private byte[] fetchBlock(
+			final long[] min,
+			final int[] dimensions,
+			final String urlString ) throws IOException
+	{
+		if ( batchFetcher != null && Arrays.equals( dimensions, blockDimensions ) )
+			return batchFetcher.fetch( gridPosition( min ) );
+		return client.get( urlString );
+	}
+
+	/**
+	 * A subvolume of {@code numBlocks} blocks along x.
+	 */
+	private String makeUrl(
+			final long[] gridPosition,
+			final int numBlocks )
+	{
+		return makeUrl(
+				new long[] {
+						gridPosition[ 0 ] * blockDimensions[ 0 ],
+						gridPosition[ 1 ] * blockDimensions[ 1 ],
+						gridPosition[ 2 ] * blockDimensions[ 2 ] },
+				new int[] { numBlocks * blockDimensions[ 0 ], blockDimensions[ 1 ], blockDimensions[ 2 ] } );
+	}
+
+	private long[] readBlock(
+			final long[] min,
+			final int[] dimensions ) throws IOException
+	{
+		final String urlString = makeUrl( min, dimensions );
+		final ByteBuffer bytes = diskCache == null ?
+				ByteBuffer.wrap( fetchBlock( min, dimensions, urlString ) ) :
+				diskCache.get( urlString, dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] * 8, key -> fetchBlock( min, dimensions, key ) );
+
+		final int numElements = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		final long[] ids = new long[ numElements ];
+		bytes.order( ByteOrder.LITTLE_ENDIAN ).asLongBuffer().get( ids, 0, Math.min( numElements, bytes.remaining() / 8 ) );
+		return ids;
 	}
 
 	private String makeUrl(
@@ -153,13 +198,10 @@ A:		for ( int i = 0, j = -1; i < data.length; ++i )
 //				+ "   min = " + Util.printCoordinates( min ) + "\n"
 //				+ ")"
 //				);
-		final int[] data = new int[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
-		final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( 32 );
-
+		final long[] ids;
 		try
 		{
-			final String urlString = makeUrl( min, dimensions );
-			readBlock( urlString, data, listData );
+			ids = readBlock( min, dimensions );
 		}
 		catch ( final IOException e )
 		{
@@ -171,7 +213,7 @@ A:		for ( int i = 0, j = -1; i < data.length; ++i )
 			return null;
 		}
 
-		return new VolatileLabelMultisetArray( data, listData, true );
+		return LabelMultisetArrayBuilder.get().build( ids );
 	}
 
 	@Override
@@ -7,6 +7,7 @@ import com.google.gson.JsonSyntaxException;
 
 import bdv.ViewerSetupImgLoader;
 import bdv.util.ColorStream;
+import bdv.util.DiskBlockCache;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.volatiles.VolatileARGBType;
@@ -25,7 +26,8 @@ public class LabelblkSetupImageLoader extends
 	private LabelblkSetupImageLoader(
 			final ConstructorParameters parameters,
 			final int setupId,
-			final int argbMask ) throws JsonSyntaxException, JsonIOException, IOException
+			final int argbMask,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
 	{
 		super(
 				setupId,
@@ -37,7 +39,8 @@ public class LabelblkSetupImageLoader extends
 						parameters.nodeId,
 						parameters.dataInstanceId,
 						parameters.cellDimensions,
-						argbMask ) );
+						argbMask,
+						diskCache ) );
 	}
 
 	/**
@@ -59,7 +62,33 @@ public class LabelblkSetupImageLoader extends
 			final int setupId,
 			final int argbMask ) throws JsonSyntaxException, JsonIOException, IOException
 	{
-		this( new ConstructorParameters( apiUrl, nodeId, dataInstanceId ), setupId, argbMask );
+		this( apiUrl, nodeId, dataInstanceId, setupId, argbMask, null );
+	}
+
+	/**
+	 * http://hackathon.janelia.org/api/help/labels64
+	 *
+	 * @param apiUrl e.g. "http://hackathon.janelia.org/api"
+	 * @param nodeId e.g. "2a3fd320aef011e4b0ce18037320227c"
+	 * @param dataInstanceId e.g. "bodies"
+	 * @param argbMask e.g. 0xffffffff for full opacity or 0x7fffffff for half opacity
+	 * @param diskCache persistent block cache or {@code null}, invalidate
+	 * {@link DiskBlockCache#dvidNodeKey(String, String)} after changing an
+	 * unlocked node
+	 *
+	 * @throws IOException
+	 * @throws JsonIOException
+	 * @throws JsonSyntaxException
+	 */
+	public LabelblkSetupImageLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int setupId,
+			final int argbMask,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
+	{
+		this( new ConstructorParameters( apiUrl, nodeId, dataInstanceId ), setupId, argbMask, diskCache );
 	}
 
 	/**
@@ -1,12 +1,15 @@
 package bdv.img.dvid;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import bdv.img.cache.CacheArrayLoader;
 import bdv.util.ColorStream;
+import bdv.util.DiskBlockCache;
+import bdv.util.http.BatchedBlockFetcher;
+import bdv.util.http.HttpClient;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 
 /**
@@ -17,22 +20,73 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
  */
 public class LabelblkVolatileArrayLoader implements CacheArrayLoader< VolatileIntArray >
 {
+	final static public int DEFAULT_BATCH_SIZE = 4;
+
 	private final String apiUrl;
 	private final String nodeId;
 	private final String dataInstanceId;
 	private final int argbMask;
-
+	private final int[] blockDimensions;
+	private final DiskBlockCache diskCache;
+	private final HttpClient client;
+	private final BatchedBlockFetcher batchFetcher;
+
+	/**
+	 * @param apiUrl
+	 * @param nodeId
+	 * @param dataInstanceId
+	 * @param blockDimensions
+	 * @param argbMask
+	 * @param diskCache persistent block cache or {@code null}
+	 * @param client
+	 * @param batchSize number of adjacent blocks along x fetched with one
+	 * request, no batching if &lt;2
+	 */
 	public LabelblkVolatileArrayLoader(
 			final String apiUrl,
 			final String nodeId,
 			final String dataInstanceId,
 			final int[] blockDimensions,
-			final int argbMask )
+			final int argbMask,
+			final DiskBlockCache diskCache,
+			final HttpClient client,
+			final int batchSize )
 	{
 		this.apiUrl = apiUrl;
 		this.nodeId = nodeId;
 		this.dataInstanceId = dataInstanceId;
+		this.blockDimensions = blockDimensions;
 		this.argbMask = argbMask;
+		this.diskCache = diskCache;
+		this.client = client;
+		batchFetcher = batchSize < 2 ? null : new BatchedBlockFetcher(
+				client,
+				blockDimensions,
+				8,
+				batchSize,
+				BatchedBlockFetcher.Layout.SUBVOLUME,
+				( gridPosition, numBlocks ) -> makeUrl( gridPosition, numBlocks ) );
+	}
+
+	public LabelblkVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions,
+			final int argbMask,
+			final DiskBlockCache diskCache )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, argbMask, diskCache, HttpClient.getDefault(), DEFAULT_BATCH_SIZE );
+	}
+
+	public LabelblkVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions,
+			final int argbMask )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, argbMask, null );
 	}
 
 	public LabelblkVolatileArrayLoader(
@@ -50,37 +104,53 @@ public class LabelblkVolatileArrayLoader implements CacheArrayLoader< VolatileIn
 		return 1;
 	}
 
-	private void readBlock(
-			final String urlString,
-			final int[] data ) throws IOException
+	private long[] gridPosition( final long[] min )
 	{
-		final byte[] bytes = new byte[ data.length * 8 ];
-		final URL url = new URL( urlString );
-		final InputStream in = url.openStream();
+		return new long[] {
+				min[ 0 ] / blockDimensions[ 0 ],
+				min[ 1 ] / blockDimensions[ 1 ],
+				min[ 2 ] / blockDimensions[ 2 ] };
+	}
 
-		int off = 0, l = 0;
-		do
-		{
-			l = in.read( bytes, off, bytes.length - off );
-			off += l;
-		}
-		while ( l > 0 && off < bytes.length );
+	private byte[] fetchBlock(
+			final long[] min,
+			final int[] dimensions,
+			final String urlString ) throws IOException
+	{
+		if ( batchFetcher != null && Arrays.equals( dimensions, blockDimensions ) )
+			return batchFetcher.fetch( gridPosition( min ) );
+		return client.get( urlString );
+	}
 
-		in.close();
+	/**
+	 * A subvolume of {@code numBlocks} blocks along x.
+	 */
+	private String makeUrl(
+			final long[] gridPosition,
+			final int numBlocks )
+	{
+		return makeUrl(
+				new long[] {
+						gridPosition[ 0 ] * blockDimensions[ 0 ],
+						gridPosition[ 1 ] * blockDimensions[ 1 ],
+						gridPosition[ 2 ] * blockDimensions[ 2 ] },
+				new int[] { numBlocks * blockDimensions[ 0 ], blockDimensions[ 1 ], blockDimensions[ 2 ] } );
+	}
 
-		for ( int i = 0, j = -1; i < data.length; ++i )
-		{
-			final long index =
-					( 0xffl & bytes[ ++j ] ) |
-					( ( 0xffl & bytes[ ++j ] ) << 8 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 16 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 24 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 32 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 40 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 48 ) |
-					( ( 0xffl & bytes[ ++j ] ) << 56 );
-			data[ i ] = ColorStream.get( index ) & argbMask;
-		}
+	private void readBlock(
+			final long[] min,
+			final int[] dimensions,
+			final int[] data ) throws IOException
+	{
+		final String urlString = makeUrl( min, dimensions );
+		final ByteBuffer bytes = diskCache == null ?
+				ByteBuffer.wrap( fetchBlock( min, dimensions, urlString ) ) :
+				diskCache.get( urlString, dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] * 8, key -> fetchBlock( min, dimensions, key ) );
+		bytes.order( ByteOrder.LITTLE_ENDIAN );
+
+		final int n = Math.min( data.length, bytes.remaining() / 8 );
+		for ( int i = 0; i < n; ++i )
+			data[ i ] = ColorStream.get( bytes.getLong( i * 8 ) ) & argbMask;
 	}
 
 	private String makeUrl(
@@ -134,9 +204,7 @@ public class LabelblkVolatileArrayLoader implements CacheArrayLoader< VolatileIn
 
 		try
 		{
-			final String urlString = makeUrl( min, dimensions );
-//			System.out.println( urlString + " " + data.length );
-			readBlock( urlString, data );
+			readBlock( min, dimensions, data );
 		}
 		catch (final IOException e)
 		{
@@ -6,6 +6,7 @@ import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
 import bdv.ViewerImgLoader;
+import bdv.util.DiskBlockCache;
 
 /**
  * {@link ViewerImgLoader} for
@@ -32,4 +33,24 @@ public class Uint8blkImageLoader extends Uint8blkSetupImageLoader
 	{
 		super( apiUrl, nodeId, dataInstanceId, 0 );
 	}
+
+	/**
+	 * http://emdata.janelia.org/api/help/grayscale8
+	 *
+	 * @param apiUrl e.g. "http://hackathon.janelia.org/api"
+	 * @param nodeId e.g. "2a3fd320aef011e4b0ce18037320227c"
+	 * @param dataInstanceId e.g. "grayscale"
+	 * @param diskCache persistent block cache or {@code null}
+	 * @throws IOException
+	 * @throws JsonIOException
+	 * @throws JsonSyntaxException
+	 */
+	public Uint8blkImageLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
+	{
+		super( apiUrl, nodeId, dataInstanceId, 0, diskCache );
+	}
 }
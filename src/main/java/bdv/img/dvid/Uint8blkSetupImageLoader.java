@@ -6,6 +6,7 @@ import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
 import bdv.ViewerSetupImgLoader;
+import bdv.util.DiskBlockCache;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.volatiles.VolatileUnsignedByteType;
@@ -21,7 +22,8 @@ public class Uint8blkSetupImageLoader
 {
 	private Uint8blkSetupImageLoader(
 			final ConstructorParameters parameters,
-			final int setupId ) throws JsonSyntaxException, JsonIOException, IOException
+			final int setupId,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
 	{
 		super(
 				setupId,
@@ -32,7 +34,8 @@ public class Uint8blkSetupImageLoader
 						parameters.apiUrl,
 						parameters.nodeId,
 						parameters.dataInstanceId,
-						parameters.cellDimensions ) );
+						parameters.cellDimensions,
+						diskCache ) );
 	}
 
 	/**
@@ -51,6 +54,27 @@ public class Uint8blkSetupImageLoader
 			final String dataInstanceId,
 			final int setupId ) throws JsonSyntaxException, JsonIOException, IOException
 	{
-		this( new ConstructorParameters( apiUrl, nodeId, dataInstanceId ), setupId );
+		this( apiUrl, nodeId, dataInstanceId, setupId, null );
+	}
+
+	/**
+	 * http://emdata.janelia.org/api/help/grayscale8
+	 *
+	 * @param apiUrl e.g. "http://hackathon.janelia.org/api"
+	 * @param nodeId e.g. "2a3fd320aef011e4b0ce18037320227c"
+	 * @param dataInstanceId e.g. "grayscale"
+	 * @param diskCache persistent block cache or {@code null}
+	 * @throws IOException
+	 * @throws JsonIOException
+	 * @throws JsonSyntaxException
+	 */
+	public Uint8blkSetupImageLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int setupId,
+			final DiskBlockCache diskCache ) throws JsonSyntaxException, JsonIOException, IOException
+	{
+		this( new ConstructorParameters( apiUrl, nodeId, dataInstanceId ), setupId, diskCache );
 	}
 }
@@ -1,11 +1,13 @@
 package bdv.img.dvid;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import bdv.img.cache.CacheArrayLoader;
+import bdv.util.DiskBlockCache;
+import bdv.util.http.BatchedBlockFetcher;
+import bdv.util.http.HttpClient;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 
 /**
@@ -16,19 +18,67 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
  */
 public class Uint8blkVolatileArrayLoader implements CacheArrayLoader< VolatileByteArray >
 {
+	final static public int DEFAULT_BATCH_SIZE = 4;
+
 	private final String apiUrl;
 	private final String nodeId;
 	private final String dataInstanceId;
+	private final int[] blockDimensions;
+	private final DiskBlockCache diskCache;
+	private final HttpClient client;
+	private final BatchedBlockFetcher batchFetcher;
 
+	/**
+	 * @param apiUrl
+	 * @param nodeId
+	 * @param dataInstanceId
+	 * @param blockDimensions
+	 * @param diskCache persistent block cache or {@code null}
+	 * @param client
+	 * @param batchSize number of adjacent blocks along x fetched with one
+	 * request, no batching if &lt;2
+	 */
 	public Uint8blkVolatileArrayLoader(
 			final String apiUrl,
 			final String nodeId,
 			final String dataInstanceId,
-			final int[] blockDimensions )
+			final int[] blockDimensions,
+			final DiskBlockCache diskCache,
+			final HttpClient client,
+			final int batchSize )
 	{
 		this.apiUrl = apiUrl;
 		this.nodeId = nodeId;
 		this.dataInstanceId = dataInstanceId;
+		this.blockDimensions = blockDimensions;
+		this.diskCache = diskCache;
+		this.client = client;
+		batchFetcher = batchSize < 2 ? null : new BatchedBlockFetcher(
+				client,
+				blockDimensions,
+				1,
+				batchSize,
+				BatchedBlockFetcher.Layout.BLOCKS,
+				( gridPosition, numBlocks ) -> makeUrl( gridPosition, numBlocks ) );
+	}
+
+	public Uint8blkVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions,
+			final DiskBlockCache diskCache )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, diskCache, HttpClient.getDefault(), DEFAULT_BATCH_SIZE );
+	}
+
+	public Uint8blkVolatileArrayLoader(
+			final String apiUrl,
+			final String nodeId,
+			final String dataInstanceId,
+			final int[] blockDimensions )
+	{
+		this( apiUrl, nodeId, dataInstanceId, blockDimensions, null );
 	}
 
 	@Override
@@ -37,26 +87,56 @@ public class Uint8blkVolatileArrayLoader implements CacheArrayLoader< VolatileBy
 		return 1;
 	}
 
-	static private void readBlock(
-			final String urlString,
-			final byte[] data ) throws IOException
+	private long[] gridPosition( final long[] min )
+	{
+		return new long[] {
+				min[ 0 ] / blockDimensions[ 0 ],
+				min[ 1 ] / blockDimensions[ 1 ],
+				min[ 2 ] / blockDimensions[ 2 ] };
+	}
+
+	private byte[] fetchBlock(
+			final long[] min,
+			final int[] dimensions,
+			final String urlString ) throws IOException
 	{
-			final URL url = new URL( urlString );
-			final InputStream in = url.openStream();
-			int off = 0, l = 0;
-			do
-			{
-				l = in.read( data, off, data.length - off );
-				off += l;
-			}
-			while ( l > 0 && off < data.length );
-
-			in.close();
+		if ( batchFetcher != null && Arrays.equals( dimensions, blockDimensions ) )
+			return batchFetcher.fetch( gridPosition( min ) );
+		return client.get( urlString );
+	}
+
+	/**
+	 * Incomplete responses are padded with zeros.
+	 */
+	private byte[] readBlock(
+			final long[] min,
+			final int[] dimensions ) throws IOException
+	{
+		final String urlString = makeUrl( min, dimensions );
+		final int length = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		final ByteBuffer buffer = diskCache == null ?
+				ByteBuffer.wrap( fetchBlock( min, dimensions, urlString ) ) :
+				diskCache.get( urlString, length, key -> fetchBlock( min, dimensions, key ) );
+		if ( buffer.hasArray() && buffer.array().length == length )
+			return buffer.array();
+		final byte[] data = new byte[ length ];
+		buffer.get( data, 0, Math.min( length, buffer.remaining() ) );
+		return data;
 	}
 
 	private String makeUrl(
 			final long[] min,
 			final int[] dimensions )
+	{
+		return makeUrl( gridPosition( min ), 1 );
+	}
+
+	/**
+	 * Uncompressed blocks, one after another.
+	 */
+	private String makeUrl(
+			final long[] gridPosition,
+			final int numBlocks )
 	{
 		final StringBuffer buf = new StringBuffer( apiUrl );
 
@@ -65,12 +145,13 @@ public class Uint8blkVolatileArrayLoader implements CacheArrayLoader< VolatileBy
 		buf.append( "/" );
 		buf.append( dataInstanceId );
 		buf.append( "/blocks/" );
-		buf.append( min[ 0 ] / dimensions[ 0 ] );
+		buf.append( gridPosition[ 0 ] );
 		buf.append( "_" );
-		buf.append( min[ 1 ] / dimensions[ 1 ] );
+		buf.append( gridPosition[ 1 ] );
 		buf.append( "_" );
-		buf.append( min[ 2 ] / dimensions[ 2 ] );
-		buf.append( "/1" );
+		buf.append( gridPosition[ 2 ] );
+		buf.append( "/" );
+		buf.append( numBlocks );
 
 		return buf.toString();
 	}
@@ -84,13 +165,12 @@ public class Uint8blkVolatileArrayLoader implements CacheArrayLoader< VolatileBy
 			final int[] dimensions,
 			final long[] min ) throws InterruptedException
 	{
-		final byte[] data = new byte[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final int length = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		byte[] data;
 
 		try
 		{
-			final String urlString = makeUrl( min, dimensions );
-			readBlock( urlString, data );
-//			System.out.println( urlString + " " + data.length );
+			data = readBlock( min, dimensions );
 		}
 		catch (final IOException e)
 		{
@@ -99,6 +179,7 @@ public class Uint8blkVolatileArrayLoader implements CacheArrayLoader< VolatileBy
 					Arrays.toString( min ) +
 					", dimensions = " +
 					Arrays.toString( dimensions ) );
+			data = new byte[ length ];
 		}
 		return new VolatileByteArray( data, true );
 	}
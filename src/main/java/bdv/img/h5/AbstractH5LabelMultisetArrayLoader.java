@@ -2,8 +2,7 @@ package bdv.img.h5;
 
 import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.EmptyArrayCreator;
-import bdv.labels.labelset.LongMappedAccess;
-import bdv.labels.labelset.LongMappedAccessData;
+import bdv.labels.labelset.LabelMultisetBlockCodec;
 import bdv.labels.labelset.VolatileLabelMultisetArray;
 import ch.systemsx.cisd.hdf5.IHDF5IntReader;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
@@ -18,19 +17,26 @@ abstract public class AbstractH5LabelMultisetArrayLoader implements CacheArrayLo
 {
 	protected VolatileLabelMultisetArray theEmptyArray;
 
-	protected final IHDF5IntReader scaleReader;
+	protected final H5ReaderPool scaleReaders;
 
 	final protected String dataset;
 
 	public AbstractH5LabelMultisetArrayLoader(
-			final IHDF5Reader scaleReader,
+			final H5ReaderPool scaleReaders,
 			final String dataset )
 	{
 		theEmptyArray = new VolatileLabelMultisetArray( 1, false );
-		this.scaleReader = ( scaleReader == null ) ? null : scaleReader.uint32();
+		this.scaleReaders = scaleReaders;
 		this.dataset = dataset;
 	}
 
+	public AbstractH5LabelMultisetArrayLoader(
+			final IHDF5Reader scaleReader,
+			final String dataset )
+	{
+		this( H5ReaderPool.shared( scaleReader ), dataset );
+	}
+
 	abstract protected VolatileLabelMultisetArray loadArrayLevel0(
 			final int[] dimensions,
 			final long[] min ) throws InterruptedException;
@@ -46,16 +52,19 @@ abstract public class AbstractH5LabelMultisetArrayLoader implements CacheArrayLo
 		if ( level == 0 )
 			return loadArrayLevel0( dimensions, min );
 
+		final IHDF5Reader scaleReader = scaleReaders.get();
+		final String blockPath = String.format( "l%02d/z%05d/y%05d/x%05d/block", level, min[ 2 ], min[ 1 ], min[ 0 ] );
+		if ( scaleReader.exists( blockPath ) )
+			return LabelMultisetBlockCodec.decode( scaleReader.uint8().readArray( blockPath ) );
+
+		/* legacy blocks with separate lists and data */
 		final String listsPath = String.format( "l%02d/z%05d/y%05d/x%05d/lists", level, min[ 2 ], min[ 1 ], min[ 0 ] );
 		final String dataPath = String.format( "l%02d/z%05d/y%05d/x%05d/data", level, min[ 2 ], min[ 1 ], min[ 0 ] );
 
-		final int[] offsets = scaleReader.readMDArray( dataPath ).getAsFlatArray();
-		final int[] lists = scaleReader.readArray( listsPath );
-		final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( lists.length * 4 );
-		final LongMappedAccess access = listData.createAccess();
-		for ( int i = 0; i < lists.length; ++i )
-			access.putInt( lists[ i ], i * 4 );
-		return new VolatileLabelMultisetArray( offsets, listData, 0, true );
+		final IHDF5IntReader uint32Reader = scaleReader.uint32();
+		final int[] offsets = uint32Reader.readMDArray( dataPath ).getAsFlatArray();
+		final int[] lists = uint32Reader.readArray( listsPath );
+		return new VolatileLabelMultisetArray( offsets, LabelMultisetBlockCodec.listDataFromInts( lists ), 4L * lists.length, true );
 	}
 
 	@Override
@@ -0,0 +1,225 @@
+package bdv.img.h5;
+
+import static bdv.img.hdf5.Util.reorder;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bdv.labels.labelset.Label;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.Multiset;
+import bdv.util.IdService;
+import ch.systemsx.cisd.base.mdarray.MDLongArray;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Maximum label ids per block of a label volume.  Block maxima are computed
+ * in parallel and can be stored in an HDF5 dataset next to the labels such
+ * that the maximum id of a label volume can later be found without scanning
+ * the labels.  Blocks marked {@link #UNKNOWN} are (re-)scanned on demand.
+ *
+ * The dataset stores one uint64 per block in z,y,x order, its attributes
+ * <code>dimensions</code> and <code>blockSize</code> (x,y,z order) identify
+ * the block grid.
+ */
+public class BlockMaxIds
+{
+	/** marks blocks whose maximum id has not been computed */
+	final static public long UNKNOWN = Label.INVALID;
+
+	/**
+	 * Default name of the dataset that stores the block maxima of
+	 * {@code labelsDataset}.
+	 *
+	 * @param labelsDataset
+	 * @return
+	 */
+	static public String datasetFor( final String labelsDataset )
+	{
+		return labelsDataset + "_block_max";
+	}
+
+	/**
+	 * Create block maxima for {@code grid} with all blocks marked
+	 * {@link #UNKNOWN}.
+	 *
+	 * @param grid
+	 * @return
+	 */
+	static public long[] create( final CellGrid grid )
+	{
+		final long[] blockMaxIds = new long[ numBlocks( grid ) ];
+		Arrays.fill( blockMaxIds, UNKNOWN );
+		return blockMaxIds;
+	}
+
+	static private int numBlocks( final CellGrid grid )
+	{
+		final long numBlocks = Intervals.numElements( grid.getGridDimensions() );
+		if ( numBlocks > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many blocks (" + numBlocks + ")." );
+		return ( int ) numBlocks;
+	}
+
+	/**
+	 * Load block maxima from an HDF5 dataset.
+	 *
+	 * @param reader
+	 * @param dataset
+	 * @param grid
+	 * @return the block maxima or {@code null} if the dataset does not exist
+	 *         or was created for a different block grid
+	 */
+	static public long[] load(
+			final IHDF5Reader reader,
+			final String dataset,
+			final CellGrid grid )
+	{
+		if ( !reader.exists( dataset ) ||
+				!reader.object().hasAttribute( dataset, "dimensions" ) ||
+				!reader.object().hasAttribute( dataset, "blockSize" ) )
+			return null;
+
+		final long[] dimensions = reader.int64().getArrayAttr( dataset, "dimensions" );
+		final long[] blockSize = reader.int64().getArrayAttr( dataset, "blockSize" );
+		final int n = grid.numDimensions();
+		if ( dimensions.length != n || blockSize.length != n )
+			return null;
+		for ( int d = 0; d < n; ++d )
+			if ( dimensions[ d ] != grid.imgDimension( d ) || blockSize[ d ] != grid.cellDimension( d ) )
+				return null;
+
+		final long[] blockMaxIds = reader.uint64().readMDArray( dataset ).getAsFlatArray();
+		return blockMaxIds.length == numBlocks( grid ) ? blockMaxIds : null;
+	}
+
+	/**
+	 * Save block maxima into an HDF5 dataset, replacing it if it exists.
+	 *
+	 * @param writer
+	 * @param dataset
+	 * @param grid
+	 * @param blockMaxIds
+	 */
+	static public void save(
+			final IHDF5Writer writer,
+			final String dataset,
+			final CellGrid grid,
+			final long[] blockMaxIds )
+	{
+		if ( writer.exists( dataset ) )
+			writer.delete( dataset );
+
+		final int n = grid.numDimensions();
+		final long[] blockSize = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			blockSize[ d ] = grid.cellDimension( d );
+
+		writer.uint64().writeMDArray(
+				dataset,
+				new MDLongArray( blockMaxIds, reorder( Util.long2int( grid.getGridDimensions() ) ) ),
+				HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE );
+		writer.int64().setArrayAttr( dataset, "dimensions", grid.getImgDimensions() );
+		writer.int64().setArrayAttr( dataset, "blockSize", blockSize );
+	}
+
+	/**
+	 * Compute the maximum id of all blocks that are marked {@link #UNKNOWN}
+	 * in parallel.  At most twice the parallelism of {@code exec} blocks are
+	 * submitted and not yet completed at any time, i.e. memory does not grow
+	 * with the number of blocks.
+	 *
+	 * @param labels
+	 * @param grid
+	 * @param blockMaxIds
+	 *            block maxima, updated in place
+	 * @param exec
+	 * @return number of blocks that were scanned
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static public int scan(
+			final RandomAccessible< LabelMultisetType > labels,
+			final CellGrid grid,
+			final long[] blockMaxIds,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final int n = grid.numDimensions();
+		final int maxSubmitted = 2 * H5Utils.parallelism( exec );
+		final ArrayDeque< Future< ? > > futures = new ArrayDeque<>();
+		int numScanned = 0;
+		for ( int i = 0; i < blockMaxIds.length; ++i )
+		{
+			if ( blockMaxIds[ i ] != UNKNOWN )
+				continue;
+
+			/* wait for the oldest block if too many are in flight */
+			if ( futures.size() >= maxSubmitted )
+				futures.poll().get();
+
+			final int index = i;
+			++numScanned;
+			futures.add( exec.submit( () -> {
+				final long[] min = new long[ n ];
+				final int[] dimensions = new int[ n ];
+				grid.getCellDimensions( index, min, dimensions );
+				final long[] max = new long[ n ];
+				for ( int d = 0; d < n; ++d )
+					max[ d ] = min[ d ] + dimensions[ d ] - 1;
+				blockMaxIds[ index ] = maxId( Views.interval( labels, new FinalInterval( min, max ) ) );
+			} ) );
+		}
+
+		for ( final Future< ? > future : futures )
+			future.get();
+
+		return numScanned;
+	}
+
+	/**
+	 * Find the maximum regular id in a block of labels.
+	 *
+	 * @param labels
+	 * @return the maximum id or 0 if there are no regular ids
+	 */
+	static public long maxId( final Iterable< LabelMultisetType > labels )
+	{
+		long maxId = 0;
+		for ( final LabelMultisetType t : labels )
+		{
+			for ( final Multiset.Entry< Label > v : t.entrySet() )
+			{
+				final long id = v.getElement().id();
+				if ( Label.regular( id ) && IdService.greaterThan( id, maxId ) )
+					maxId = id;
+			}
+		}
+		return maxId;
+	}
+
+	/**
+	 * Find the maximum id of all known block maxima.
+	 *
+	 * @param blockMaxIds
+	 * @return
+	 */
+	static public long maxId( final long[] blockMaxIds )
+	{
+		long maxId = 0;
+		for ( final long id : blockMaxIds )
+			if ( id != UNKNOWN && IdService.greaterThan( id, maxId ) )
+				maxId = id;
+		return maxId;
+	}
+}
@@ -4,7 +4,6 @@ import java.util.Arrays;
 
 import bdv.img.cache.CacheArrayLoader;
 import ch.systemsx.cisd.base.mdarray.MDFloatArray;
-import ch.systemsx.cisd.hdf5.IHDF5FloatReader;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
 
@@ -16,18 +15,25 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
  */
 public class H5FloatArrayLoader implements CacheArrayLoader< VolatileFloatArray >
 {
-	final private IHDF5FloatReader reader;
+	final private H5ReaderPool readers;
 
 	final private String dataset;
 
 	public H5FloatArrayLoader(
-			final IHDF5Reader reader,
+			final H5ReaderPool readers,
 			final String dataset )
 	{
-		this.reader = reader.float32();
+		this.readers = readers;
 		this.dataset = dataset;
 	}
 
+	public H5FloatArrayLoader(
+			final IHDF5Reader reader,
+			final String dataset )
+	{
+		this( H5ReaderPool.shared( reader ), dataset );
+	}
+
 	@Override
 	public int getBytesPerElement()
 	{
@@ -44,7 +50,7 @@ public class H5FloatArrayLoader implements CacheArrayLoader< VolatileFloatArray
 			final long[] min ) throws InterruptedException
 	{
 		float[] data = null;
-		final MDFloatArray slice = reader.readMDArrayBlockWithOffset(
+		final MDFloatArray slice = readers.get().float32().readMDArrayBlockWithOffset(
 				dataset,
 				new int[]{ dimensions[ 2 ], dimensions[ 1 ], dimensions[ 0 ] },
 				new long[]{ min[ 2 ], min[ 1 ], min[ 0 ] } );
@@ -55,4 +55,26 @@ public class H5FloatSetupImageLoader
 				new H5FloatArrayLoader( reader, dataset ),
 				cache );
 	}
+
+	/**
+	 * Read cells through {@code readers}, e.g. with one handle per fetcher
+	 * thread.
+	 */
+	public H5FloatSetupImageLoader(
+			final H5ReaderPool readers,
+			final String dataset,
+			final int setupId,
+			final int[] cellDimension,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		super(
+				readers.get(),
+				dataset,
+				setupId,
+				cellDimension,
+				new FloatType(),
+				new VolatileFloatType(),
+				new H5FloatArrayLoader( readers, dataset ),
+				cache );
+	}
 }
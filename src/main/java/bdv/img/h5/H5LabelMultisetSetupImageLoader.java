@@ -1,6 +1,8 @@
 package bdv.img.h5;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import bdv.AbstractCachedViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
@@ -14,7 +16,9 @@ import bdv.labels.labelset.VolatileLabelMultisetArray;
 import bdv.labels.labelset.VolatileLabelMultisetType;
 import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 
 /**
@@ -28,25 +32,30 @@ public class H5LabelMultisetSetupImageLoader
 		implements ViewerImgLoader, SetCache
 {
 	static private CacheArrayLoader< VolatileLabelMultisetArray > typedLoader(
-			final IHDF5Reader reader,
-			final IHDF5Reader scaleReader,
+			final H5ReaderPool readers,
+			final H5ReaderPool scaleReaders,
 			final String dataset )
 	{
-		final HDF5DataSetInformation typeInfo = reader.object().getDataSetInformation( dataset );
+		final HDF5DataSetInformation typeInfo = readers.get().object().getDataSetInformation( dataset );
 		final Class< ? > cls = typeInfo.getTypeInformation().tryGetJavaType();
 //		System.out.println( typeInfo.getTypeInformation().tryGetJavaType().toString() );
 		if ( float.class == cls )
-			return new H5FloatLabelMultisetArrayLoader( reader, scaleReader, dataset );
+			return new H5FloatLabelMultisetArrayLoader( readers, scaleReaders, dataset );
 		else if ( short.class == cls )
-			return new H5ShortLabelMultisetArrayLoader( reader, scaleReader, dataset );
+			return new H5ShortLabelMultisetArrayLoader( readers, scaleReaders, dataset );
 		else if ( int.class == cls )
-			return new H5IntLabelMultisetArrayLoader( reader, scaleReader, dataset );
+			return new H5IntLabelMultisetArrayLoader( readers, scaleReaders, dataset );
 		else if ( long.class == cls )
-			return new H5LongLabelMultisetArrayLoader( reader, scaleReader, dataset );
+			return new H5LongLabelMultisetArrayLoader( readers, scaleReaders, dataset );
 		else
 			return null;
 	}
 
+	static private IHDF5Reader get( final H5ReaderPool readers )
+	{
+		return readers == null ? null : readers.get();
+	}
+
 	static private long[][] readDimensions(
 			final IHDF5Reader reader,
 			final IHDF5Reader scaleReader,
@@ -145,9 +154,27 @@ public class H5LabelMultisetSetupImageLoader
 
 	private final double[] offset;
 
+	private final H5ReaderPool readers;
+
+	private final String dataset;
+
+	private final int[] cellDimension;
+
+	private LabelBlockIndex labelBlockIndex = null;
+
+	private boolean labelBlockIndexLoaded = false;
+
+	/**
+	 * Read cells through {@code readers} and {@code scaleReaders}, e.g. with
+	 * one handle per fetcher thread.
+	 *
+	 * @param readers
+	 * @param scaleReaders
+	 *            label multiset pyramid or {@code null}
+	 */
 	public H5LabelMultisetSetupImageLoader(
-			final IHDF5Reader reader,
-			final IHDF5Reader scaleReader,
+			final H5ReaderPool readers,
+			final H5ReaderPool scaleReaders,
 			final String dataset,
 			final int setupId,
 			final int[] cellDimension,
@@ -157,14 +184,17 @@ public class H5LabelMultisetSetupImageLoader
 	{
 
 		super( setupId,
-				readDimensions( reader, scaleReader, dataset ),
-				readCellDimensions( reader, scaleReader, dataset, cellDimension ),
-				readResolutions( reader, scaleReader, dataset, resolution ),
+				readDimensions( readers.get(), get( scaleReaders ), dataset ),
+				readCellDimensions( readers.get(), get( scaleReaders ), dataset, cellDimension ),
+				readResolutions( readers.get(), get( scaleReaders ), dataset, resolution ),
 				new LabelMultisetType(),
 				new VolatileLabelMultisetType(),
-				typedLoader( reader, scaleReader, dataset ),
+				typedLoader( readers, scaleReaders, dataset ),
 				cache );
 		this.offset = offset;
+		this.readers = readers;
+		this.dataset = dataset;
+		this.cellDimension = cellDimension;
 		/* offset mipmap transforms */
 		for ( int i = 0; i < resolutions.length; ++i )
 		{
@@ -176,6 +206,30 @@ public class H5LabelMultisetSetupImageLoader
 		}
 	}
 
+	public H5LabelMultisetSetupImageLoader(
+			final IHDF5Reader reader,
+			final IHDF5Reader scaleReader,
+			final String dataset,
+			final int setupId,
+			final int[] cellDimension,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( H5ReaderPool.shared( reader ), H5ReaderPool.shared( scaleReader ), dataset, setupId, cellDimension, resolution, offset, cache );
+	}
+
+	public H5LabelMultisetSetupImageLoader(
+			final H5ReaderPool readers,
+			final H5ReaderPool scaleReaders,
+			final String dataset,
+			final int setupId,
+			final int[] cellDimension,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( readers, scaleReaders, dataset, setupId, cellDimension, readResolution( readers.get(), dataset ), readOffset( readers.get(), dataset ), cache );
+	}
+
 	public H5LabelMultisetSetupImageLoader(
 			final IHDF5Reader reader,
 			final IHDF5Reader scaleReader,
@@ -209,4 +263,53 @@ public class H5LabelMultisetSetupImageLoader
 	{
 		return this.offset;
 	}
+
+	/**
+	 * Get the label&rarr;block index of the full resolution labels.  The
+	 * index is loaded from {@link LabelBlockIndex#datasetFor(String)} on
+	 * first access.
+	 *
+	 * @return the index or {@code null} if it is not available
+	 */
+	public synchronized LabelBlockIndex getLabelBlockIndex()
+	{
+		if ( !labelBlockIndexLoaded )
+		{
+			labelBlockIndex = LabelBlockIndex.load( readers.get(), LabelBlockIndex.datasetFor( dataset ), getLabelBlockIndexGrid() );
+			labelBlockIndexLoaded = true;
+		}
+		return labelBlockIndex;
+	}
+
+	/**
+	 * Build the label&rarr;block index of the full resolution labels in
+	 * parallel and use it for subsequent {@link #getLabelBlockIndex()} calls.
+	 * The index is not saved, use
+	 * {@link LabelBlockIndex#save(ch.systemsx.cisd.hdf5.IHDF5Writer, String)}
+	 * for that.
+	 *
+	 * @param exec
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public LabelBlockIndex buildLabelBlockIndex( final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final LabelBlockIndex index = LabelBlockIndex.build( getImage( 0 ), getLabelBlockIndexGrid(), exec );
+		synchronized ( this )
+		{
+			labelBlockIndex = index;
+			labelBlockIndexLoaded = true;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the block grid of the label&rarr;block index, the cells of the
+	 *         full resolution labels
+	 */
+	public CellGrid getLabelBlockIndexGrid()
+	{
+		return new CellGrid( Intervals.dimensionsAsLongArray( getImage( 0 ) ), cellDimension );
+	}
 }
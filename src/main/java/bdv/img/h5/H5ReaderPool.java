@@ -0,0 +1,108 @@
+package bdv.img.h5;
+
+import java.util.ArrayList;
+
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+
+/**
+ * Source of {@link IHDF5Reader}s for cache array loaders.  A pool either
+ * hands out one shared reader to all threads, or opens a read-only handle
+ * per thread on first use such that BDV's fetcher threads do not share a
+ * handle.
+ *
+ * JHDF5 still serializes calls into the native HDF5 library, per-thread
+ * handles let fetcher threads open datasets, select and convert blocks and
+ * post-process them without waiting for each other on a shared handle.
+ *
+ * HDF5 does not allow to re-open a file for writing that is open read-only,
+ * so open writable handles on the same file before creating a per-thread
+ * pool.
+ */
+public class H5ReaderPool
+{
+	final private String path;
+
+	final private IHDF5Reader sharedReader;
+
+	/* replaced on close such that threads do not keep closed handles */
+	private volatile ThreadLocal< IHDF5Reader > threadReaders;
+
+	final private ArrayList< IHDF5Reader > readers = new ArrayList<>();
+
+	private H5ReaderPool( final String path, final IHDF5Reader sharedReader )
+	{
+		this.path = path;
+		this.sharedReader = sharedReader;
+		threadReaders = sharedReader == null ? ThreadLocal.withInitial( this::open ) : null;
+	}
+
+	/**
+	 * Create a pool that hands out {@code reader} to all threads.  Closing
+	 * the pool does not close {@code reader}.
+	 *
+	 * @param reader
+	 * @return
+	 */
+	static public H5ReaderPool shared( final IHDF5Reader reader )
+	{
+		return reader == null ? null : new H5ReaderPool( null, reader );
+	}
+
+	/**
+	 * Create a pool that opens one read-only handle for {@code path} per
+	 * thread.
+	 *
+	 * @param path
+	 * @return
+	 */
+	static public H5ReaderPool perThread( final String path )
+	{
+		return new H5ReaderPool( path, null );
+	}
+
+	private IHDF5Reader open()
+	{
+		final IHDF5Reader reader = HDF5Factory.openForReading( path );
+		synchronized ( readers )
+		{
+			readers.add( reader );
+		}
+		return reader;
+	}
+
+	/**
+	 * @return the reader of the calling thread
+	 */
+	public IHDF5Reader get()
+	{
+		return sharedReader == null ? threadReaders.get() : sharedReader;
+	}
+
+	/**
+	 * @return the number of handles opened by this pool
+	 */
+	public int getNumReaders()
+	{
+		synchronized ( readers )
+		{
+			return readers.size();
+		}
+	}
+
+	/**
+	 * Close all handles opened by this pool.  Threads that use the pool
+	 * after closing it open new handles.
+	 */
+	public void close()
+	{
+		synchronized ( readers )
+		{
+			if ( sharedReader == null )
+				threadReaders = ThreadLocal.withInitial( this::open );
+			for ( final IHDF5Reader reader : readers )
+				reader.close();
+			readers.clear();
+		}
+	}
+}
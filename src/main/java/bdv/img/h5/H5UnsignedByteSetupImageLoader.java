@@ -53,4 +53,26 @@ public class H5UnsignedByteSetupImageLoader
 				new H5ByteArrayLoader( reader, dataset ),
 				cache );
 	}
+
+	/**
+	 * Read cells through {@code readers}, e.g. with one handle per fetcher
+	 * thread.
+	 */
+	public H5UnsignedByteSetupImageLoader(
+			final H5ReaderPool readers,
+			final String dataset,
+			final int setupId,
+			final int[] blockDimension,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		super(
+				readers.get(),
+				dataset,
+				setupId,
+				blockDimension,
+				new UnsignedByteType(),
+				new VolatileUnsignedByteType(),
+				new H5ByteArrayLoader( readers, dataset ),
+				cache );
+	}
 }
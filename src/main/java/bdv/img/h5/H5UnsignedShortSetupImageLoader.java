@@ -53,4 +53,26 @@ public class H5UnsignedShortSetupImageLoader
 				new H5ShortArrayLoader( reader, dataset ),
 				cache );
 	}
+
+	/**
+	 * Read cells through {@code readers}, e.g. with one handle per fetcher
+	 * thread.
+	 */
+	public H5UnsignedShortSetupImageLoader(
+			final H5ReaderPool readers,
+			final String dataset,
+			final int setupId,
+			final int[] cellDimension,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		super(
+				readers.get(),
+				dataset,
+				setupId,
+				cellDimension,
+				new UnsignedShortType(),
+				new VolatileUnsignedShortType(),
+				new H5ShortArrayLoader( readers, dataset ),
+				cache );
+	}
 }
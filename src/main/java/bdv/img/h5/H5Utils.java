@@ -11,10 +11,18 @@ import static net.imglib2.cache.img.PrimitiveType.SHORT;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import bdv.bigcat.label.FragmentSegmentAssignment;
+import bdv.bigcat.label.SparseLabelCanvas;
 import bdv.labels.labelset.Label;
 import bdv.labels.labelset.LabelMultiset;
 import bdv.labels.labelset.LabelMultisetType;
@@ -363,6 +371,58 @@ public class H5Utils
 		return loadUnsignedLong( new File( filePath ), dataset, cellDimensions );
 	}
 
+	/**
+	 * Load an HDF5 uint64 dataset into a {@link SparseLabelCanvas}.  Only
+	 * blocks that contain at least one value other than
+	 * {@link Label#TRANSPARENT} are allocated.  If the dataset has a
+	 * {@link PaintedCells} index for the same cell grid, only the listed
+	 * blocks are read, otherwise all blocks are read.
+	 *
+	 * @param reader
+	 * @param dataset
+	 * @param cellDimensions
+	 */
+	static public SparseLabelCanvas loadSparseUnsignedLong(
+			final IHDF5Reader reader,
+			final String dataset,
+			final int[] cellDimensions )
+	{
+		final IHDF5LongReader uint64Reader = reader.uint64();
+
+		final long[] dimensions = reorder( reader.object().getDimensions( dataset ) );
+		final int n = dimensions.length;
+
+		final SparseLabelCanvas target = new SparseLabelCanvas( dimensions, cellDimensions );
+		final CellGrid grid = target.getCellGrid();
+		final long[] paintedCells = PaintedCells.load( reader, PaintedCells.datasetFor( dataset ), grid );
+		final long numCells = paintedCells == null ? Intervals.numElements( grid.getGridDimensions() ) : paintedCells.length;
+
+		final long[] offset = new long[ n ];
+		final int[] targetCellDimensions = new int[ n ];
+		for ( long j = 0; j < numCells; ++j )
+		{
+			final long i = paintedCells == null ? j : paintedCells[ ( int ) j ];
+			grid.getCellDimensions( i, offset, targetCellDimensions );
+			final MDLongArray targetCell = uint64Reader.readMDArrayBlockWithOffset(
+					dataset,
+					reorder( targetCellDimensions ),
+					reorder( offset ) );
+
+			final long[] values = targetCell.getAsFlatArray();
+			for ( final long value : values )
+			{
+				if ( value != Label.TRANSPARENT )
+				{
+					final long[] data = target.getCell( i ).getData().materialize();
+					System.arraycopy( values, 0, data, 0, data.length );
+					break;
+				}
+			}
+		}
+
+		return target;
+	}
+
 	/**
 	 * Load an HDF5 uint16 dataset into a {@link CellImg} of
 	 * {@link UnsignedShortType}.
@@ -943,21 +1003,103 @@ public class H5Utils
 				HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE );
 	}
 
+	/**
+	 * Convert blocks of an {@link IntegerType} source into {@link MDLongArray
+	 * MDLongArrays} on {@code exec} and write them into an HDF5 uint64
+	 * dataset on the calling thread in the order given.  At most
+	 * {@code maxPendingBlocks} converted blocks are held in memory.  If
+	 * converting or writing fails, blocks that are still pending are
+	 * cancelled.
+	 *
+	 * @param source
+	 * @param offsets
+	 *            block offsets in source coordinates (x, y, z order)
+	 * @param blockDimensions
+	 *            block dimensions (x, y, z order)
+	 * @param uint64Writer
+	 * @param dataset
+	 * @param exec
+	 * @param maxPendingBlocks
+	 */
+	static protected <T extends IntegerType<T>> void writeUnsignedLongBlocks(
+			final RandomAccessible<T> source,
+			final List< long[] > offsets,
+			final List< long[] > blockDimensions,
+			final IHDF5LongWriter uint64Writer,
+			final String dataset,
+			final ExecutorService exec,
+			final int maxPendingBlocks )
+	{
+		final ArrayDeque< Future< MDLongArray > > pending = new ArrayDeque<>();
+		final ArrayDeque< long[] > pendingOffsets = new ArrayDeque<>();
+		try
+		{
+			for ( int b = 0; b < offsets.size(); ++b )
+			{
+				final long[] offset = offsets.get( b );
+				final long[] dimensions = blockDimensions.get( b );
+				pending.add( exec.submit( () -> {
+					final long[] data = new long[ ( int ) Intervals.numElements( dimensions ) ];
+					final Cursor<T> cursor = Views.flatIterable( Views.offsetInterval( source, offset, dimensions ) ).cursor();
+					for ( int i = 0; i < data.length; ++i )
+						data[ i ] = cursor.next().getIntegerLong();
+					return new MDLongArray( data, reorder( Util.long2int( dimensions ) ) );
+				} ) );
+				pendingOffsets.add( offset );
+
+				if ( pending.size() >= maxPendingBlocks )
+					uint64Writer.writeMDArrayBlockWithOffset( dataset, pending.poll().get(), reorder( pendingOffsets.poll() ) );
+			}
+			while ( !pending.isEmpty() )
+				uint64Writer.writeMDArrayBlockWithOffset( dataset, pending.poll().get(), reorder( pendingOffsets.poll() ) );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( e.getCause() );
+		}
+		finally
+		{
+			for ( final Future< MDLongArray > future : pending )
+				future.cancel( true );
+		}
+	}
+
+	/**
+	 * @return the number of tasks that {@code exec} runs in parallel
+	 */
+	static public int parallelism( final ExecutorService exec )
+	{
+		final int numProcessors = Runtime.getRuntime().availableProcessors();
+		if ( exec instanceof ForkJoinPool )
+			return ( ( ForkJoinPool ) exec ).getParallelism();
+		if ( exec instanceof ThreadPoolExecutor )
+			return Math.min( numProcessors, ( ( ThreadPoolExecutor ) exec ).getMaximumPoolSize() );
+		return numProcessors;
+	}
+
 	/**
 	 * Save a {@link RandomAccessibleInterval} of {@link LongType} into an HDF5
-	 * uint64 dataset.
+	 * uint64 dataset.  Blocks are converted in parallel on {@code exec} and
+	 * written in chunk order by the calling thread.
 	 *
 	 * @param source
 	 *            source
 	 * @param writer
 	 * @param dataset
 	 * @param cellDimensions
+	 * @param exec
 	 */
 	static public <T extends IntegerType<T>> void saveUnsignedLong(
 			final RandomAccessibleInterval<T> source,
 			final IHDF5Writer writer,
 			final String dataset,
-			final int[] cellDimensions )
+			final int[] cellDimensions,
+			final ExecutorService exec )
 	{
 		if ( !writer.exists( dataset ) )
 			createUnsignedLong( writer, dataset, source, cellDimensions );
@@ -965,8 +1107,6 @@ public class H5Utils
 		final long[] dimensions = reorder( writer.object().getDimensions( dataset ) );
 		final int n = source.numDimensions();
 
-		final IHDF5LongWriter uint64Writer = writer.uint64();
-
 		/* min is >= 0, max is < dimensions */
 		final long[] min = Intervals.minAsLongArray( source );
 		final long[] max = Intervals.maxAsLongArray( source );
@@ -976,18 +1116,15 @@ public class H5Utils
 			max[ d ] = Math.min( dimensions[ d ] - 1, max[ d ] );
 		}
 
+		final ArrayList< long[] > offsets = new ArrayList<>();
+		final ArrayList< long[] > blockDimensions = new ArrayList<>();
 		final long[] offset = min.clone();
-		final long[] sourceCellDimensions = new long[ n ];
 		for ( int d = 0; d < n; )
 		{
+			final long[] sourceCellDimensions = new long[ n ];
 			cropCellDimensions( max, offset, cellDimensions, sourceCellDimensions );
-			final RandomAccessibleInterval<T> sourceBlock = Views.offsetInterval( source, offset, sourceCellDimensions );
-			final MDLongArray targetCell = new MDLongArray( reorder( sourceCellDimensions ) );
-			int i = 0;
-			for ( final T t : Views.flatIterable( sourceBlock ) )
-				targetCell.set( t.getIntegerLong(), i++ );
-
-			uint64Writer.writeMDArrayBlockWithOffset( dataset, targetCell, reorder( offset ) );
+			offsets.add( offset.clone() );
+			blockDimensions.add( sourceCellDimensions );
 
 			for ( d = 0; d < n; ++d )
 			{
@@ -998,6 +1135,28 @@ public class H5Utils
 					offset[ d ] = min[ d ];
 			}
 		}
+
+		writeUnsignedLongBlocks( source, offsets, blockDimensions, writer.uint64(), dataset, exec, 2 * parallelism( exec ) );
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of {@link LongType} into an HDF5
+	 * uint64 dataset.  Blocks are converted on the common
+	 * {@link ForkJoinPool}.
+	 *
+	 * @param source
+	 *            source
+	 * @param writer
+	 * @param dataset
+	 * @param cellDimensions
+	 */
+	static public <T extends IntegerType<T>> void saveUnsignedLong(
+			final RandomAccessibleInterval<T> source,
+			final IHDF5Writer writer,
+			final String dataset,
+			final int[] cellDimensions )
+	{
+		saveUnsignedLong( source, writer, dataset, cellDimensions, ForkJoinPool.commonPool() );
 	}
 
 	/**
@@ -1038,6 +1197,91 @@ public class H5Utils
 		saveUnsignedLong( source, new File( filePath ), dataset, cellDimensions );
 	}
 
+	/**
+	 * Save selected cells of a {@link RandomAccessibleInterval} of
+	 * {@link LongType} into an existing HDF5 uint64 dataset.  Cells are
+	 * identified by their flat index in {@code grid}.  If the grid matches
+	 * the chunking of the dataset, only the chunks of these cells are
+	 * rewritten.  Cells are converted in parallel on {@code exec} and
+	 * written by the calling thread.
+	 *
+	 * @param source
+	 * @param grid
+	 * @param cellIndices
+	 * @param writer
+	 * @param dataset
+	 * @param exec
+	 */
+	static public <T extends IntegerType<T>> void saveUnsignedLongCells(
+			final RandomAccessibleInterval<T> source,
+			final CellGrid grid,
+			final long[] cellIndices,
+			final IHDF5Writer writer,
+			final String dataset,
+			final ExecutorService exec )
+	{
+		final int n = source.numDimensions();
+
+		final ArrayList< long[] > offsets = new ArrayList<>();
+		final ArrayList< long[] > blockDimensions = new ArrayList<>();
+		final int[] cellDimensions = new int[ n ];
+		for ( final long index : cellIndices )
+		{
+			final long[] offset = new long[ n ];
+			final long[] sourceCellDimensions = new long[ n ];
+			grid.getCellDimensions( index, offset, cellDimensions );
+			for ( int d = 0; d < n; ++d )
+				sourceCellDimensions[ d ] = cellDimensions[ d ];
+			offsets.add( offset );
+			blockDimensions.add( sourceCellDimensions );
+		}
+
+		writeUnsignedLongBlocks( source, offsets, blockDimensions, writer.uint64(), dataset, exec, 2 * parallelism( exec ) );
+	}
+
+	/**
+	 * Save selected cells of a {@link RandomAccessibleInterval} of
+	 * {@link LongType} into an existing HDF5 uint64 dataset.  Cells are
+	 * converted on the common {@link ForkJoinPool}.
+	 *
+	 * @param source
+	 * @param grid
+	 * @param cellIndices
+	 * @param writer
+	 * @param dataset
+	 */
+	static public <T extends IntegerType<T>> void saveUnsignedLongCells(
+			final RandomAccessibleInterval<T> source,
+			final CellGrid grid,
+			final long[] cellIndices,
+			final IHDF5Writer writer,
+			final String dataset )
+	{
+		saveUnsignedLongCells( source, grid, cellIndices, writer, dataset, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Save selected cells of a {@link RandomAccessibleInterval} of
+	 * {@link LongType} into an existing HDF5 uint64 dataset.
+	 *
+	 * @param source
+	 * @param grid
+	 * @param cellIndices
+	 * @param file
+	 * @param dataset
+	 */
+	static public <T extends IntegerType<T>> void saveUnsignedLongCells(
+			final RandomAccessibleInterval<T> source,
+			final CellGrid grid,
+			final long[] cellIndices,
+			final File file,
+			final String dataset )
+	{
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		saveUnsignedLongCells( source, grid, cellIndices, writer, dataset );
+		writer.close();
+	}
+
 	/**
 	 * Create anHDF5 int64 dataset.
 	 *
@@ -0,0 +1,538 @@
+package bdv.img.h5;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.labels.labelset.Label;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.Multiset;
+import ch.systemsx.cisd.base.mdarray.MDLongArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
+
+/**
+ * Index of the blocks in which each label id of a label volume occurs.  For
+ * every (id, block) pair, the index stores the voxel count and the bounding
+ * box of the id within the block, such that the blocks, voxel count and
+ * bounding box of a fragment or of a segment (all its fragments) can be
+ * looked up without scanning the labels.
+ *
+ * The index is built in parallel and can be stored in an HDF5 dataset next
+ * to the labels.  The dataset is a uint64 table with one row per (id,
+ * block) pair, sorted by id and block:
+ * <code>id, block, count, min x, min y, min z, max x, max y, max z</code>.
+ * Its attributes <code>dimensions</code> and <code>blockSize</code> (x,y,z
+ * order) identify the block grid, blocks are flat indices into that grid.
+ */
+public class LabelBlockIndex
+{
+	static public class Parameters implements Callable< Optional< Void > >
+	{
+		@Option( names = { "--infile", "-i" }, required = true, description = "Input file path" )
+		public String inFile = "";
+
+		@Option( names = { "--label", "-l" }, required = true, description = "label dataset" )
+		public String label = "";
+
+		@Option( names = { "--outfile", "-o" }, description = "Output file path for the index, defaults to the input file" )
+		public String outFile = null;
+
+		@Option( names = { "--cellsize", "-c" }, description = "cell dimensions of the label dataset, e.g. 64,64,8" )
+		public String cellDimensions = "64,64,8";
+
+		@Option( names = { "--threads", "-t" }, description = "number of threads for indexing" )
+		public int numThreads = Runtime.getRuntime().availableProcessors();
+
+		@Override
+		public Optional< Void > call()
+		{
+			return Optional.empty();
+		}
+	}
+
+	/* columns of a row in the HDF5 table */
+	final static private int NUM_COLUMNS = 9;
+
+	/* per row in memory: block, count, min x,y,z, max x,y,z */
+	final static private int ROW_LENGTH = 8;
+
+	/* rows are stored in chunks such that the index is not limited by the maximum array size */
+	final static private int ROWS_PER_CHUNK_BITS = 16;
+
+	final static private int ROWS_PER_CHUNK = 1 << ROWS_PER_CHUNK_BITS;
+
+	final static private long ROW_MASK = ROWS_PER_CHUNK - 1;
+
+	final private CellGrid grid;
+
+	/* distinct ids, sorted */
+	final private long[] ids;
+
+	/* rows of ids[ i ] are offsets[ i ] until offsets[ i + 1 ] */
+	final private long[] offsets;
+
+	/* rows sorted by id and by block for each id */
+	final private long[][] rows;
+
+	private LabelBlockIndex(
+			final CellGrid grid,
+			final long[] ids,
+			final long[] offsets,
+			final long[][] rows )
+	{
+		this.grid = grid;
+		this.ids = ids;
+		this.offsets = offsets;
+		this.rows = rows;
+	}
+
+	static private long[][] allocateRows( final long numRows )
+	{
+		final long numChunks = ( numRows + ROWS_PER_CHUNK - 1 ) >>> ROWS_PER_CHUNK_BITS;
+		if ( numChunks > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many rows (" + numRows + ")." );
+		final long[][] rows = new long[ ( int ) numChunks ][];
+		for ( int c = 0; c < rows.length; ++c )
+			rows[ c ] = new long[ ( int ) Math.min( ROWS_PER_CHUNK, numRows - ( ( long ) c << ROWS_PER_CHUNK_BITS ) ) * ROW_LENGTH ];
+		return rows;
+	}
+
+	private long get( final long row, final int column )
+	{
+		return rows[ ( int ) ( row >>> ROWS_PER_CHUNK_BITS ) ][ ( int ) ( row & ROW_MASK ) * ROW_LENGTH + column ];
+	}
+
+	/**
+	 * Default name of the dataset that stores the index of
+	 * {@code labelsDataset}.
+	 *
+	 * @param labelsDataset
+	 * @return
+	 */
+	static public String datasetFor( final String labelsDataset )
+	{
+		return labelsDataset + "_block_index";
+	}
+
+	public CellGrid getGrid()
+	{
+		return grid;
+	}
+
+	/**
+	 * @return number of distinct ids
+	 */
+	public int numIds()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * @return number of (id, block) pairs
+	 */
+	public long numEntries()
+	{
+		return offsets[ ids.length ];
+	}
+
+	public boolean contains( final long id )
+	{
+		return Arrays.binarySearch( ids, id ) >= 0;
+	}
+
+	/**
+	 * Get the blocks in which any of {@code ids} occurs, e.g. all fragments
+	 * of a segment.
+	 *
+	 * @param ids
+	 * @return sorted flat block indices
+	 */
+	public long[] getBlocks( final long... ids )
+	{
+		final TLongHashSet set = new TLongHashSet();
+		for ( final long id : ids )
+		{
+			final int i = Arrays.binarySearch( this.ids, id );
+			if ( i >= 0 )
+				for ( long r = offsets[ i ]; r < offsets[ i + 1 ]; ++r )
+					set.add( get( r, 0 ) );
+		}
+		final long[] blocks = set.toArray();
+		Arrays.sort( blocks );
+		return blocks;
+	}
+
+	/**
+	 * Get the intervals of the blocks in which any of {@code ids} occurs.
+	 *
+	 * @param ids
+	 * @return
+	 */
+	public List< FinalInterval > getBlockIntervals( final long... ids )
+	{
+		final long[] blocks = getBlocks( ids );
+		final ArrayList< FinalInterval > intervals = new ArrayList<>( blocks.length );
+		for ( final long block : blocks )
+			intervals.add( getBlockInterval( block ) );
+		return intervals;
+	}
+
+	/**
+	 * @param block
+	 *            flat index into {@link #getGrid()}
+	 * @return
+	 */
+	public FinalInterval getBlockInterval( final long block )
+	{
+		final int n = grid.numDimensions();
+		final long[] min = new long[ n ];
+		final int[] dimensions = new int[ n ];
+		grid.getCellDimensions( block, min, dimensions );
+		final long[] max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			max[ d ] = min[ d ] + dimensions[ d ] - 1;
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * Get the number of voxels that contain any of {@code ids}.  For label
+	 * multisets of downscaled levels, this is the sum of all counts.
+	 *
+	 * @param ids
+	 * @return
+	 */
+	public long getCount( final long... ids )
+	{
+		long count = 0;
+		for ( final long id : ids )
+		{
+			final int i = Arrays.binarySearch( this.ids, id );
+			if ( i >= 0 )
+				for ( long r = offsets[ i ]; r < offsets[ i + 1 ]; ++r )
+					count += get( r, 1 );
+		}
+		return count;
+	}
+
+	/**
+	 * Get the bounding box of all voxels that contain any of {@code ids}.
+	 *
+	 * @param ids
+	 * @return the bounding box or {@code null} if none of {@code ids} occurs
+	 */
+	public FinalInterval getBoundingBox( final long... ids )
+	{
+		final long[] min = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		final long[] max = { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+		boolean found = false;
+		for ( final long id : ids )
+		{
+			final int i = Arrays.binarySearch( this.ids, id );
+			if ( i < 0 )
+				continue;
+			found = true;
+			for ( long r = offsets[ i ]; r < offsets[ i + 1 ]; ++r )
+			{
+				for ( int d = 0; d < 3; ++d )
+				{
+					min[ d ] = Math.min( min[ d ], get( r, 2 + d ) );
+					max[ d ] = Math.max( max[ d ], get( r, 5 + d ) );
+				}
+			}
+		}
+		return found ? new FinalInterval( min, max ) : null;
+	}
+
+	/**
+	 * Index all blocks of {@code labels} in parallel.
+	 *
+	 * @param labels
+	 *            3D labels
+	 * @param grid
+	 *            block grid
+	 * @param exec
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static public LabelBlockIndex build(
+			final RandomAccessible< LabelMultisetType > labels,
+			final CellGrid grid,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final long numBlocks = Intervals.numElements( grid.getGridDimensions() );
+		final ArrayList< Future< TLongObjectHashMap< long[] > > > futures = new ArrayList<>();
+		for ( long b = 0; b < numBlocks; ++b )
+		{
+			final long block = b;
+			futures.add( exec.submit( () -> indexBlock( labels, grid, block ) ) );
+		}
+
+		/* count rows per id */
+		final ArrayList< TLongObjectHashMap< long[] > > blockIndices = new ArrayList<>( futures.size() );
+		final TLongIntHashMap rowsPerId = new TLongIntHashMap();
+		long numRows = 0;
+		for ( final Future< TLongObjectHashMap< long[] > > future : futures )
+		{
+			final TLongObjectHashMap< long[] > blockIndex = future.get();
+			blockIndices.add( blockIndex );
+			for ( final long id : blockIndex.keys() )
+				rowsPerId.adjustOrPutValue( id, 1, 1 );
+			numRows += blockIndex.size();
+		}
+
+		final long[] ids = rowsPerId.keys();
+		Arrays.sort( ids );
+		final long[] offsets = new long[ ids.length + 1 ];
+		final TLongLongHashMap nextRow = new TLongLongHashMap( ids.length );
+		for ( int i = 0; i < ids.length; ++i )
+		{
+			offsets[ i + 1 ] = offsets[ i ] + rowsPerId.get( ids[ i ] );
+			nextRow.put( ids[ i ], offsets[ i ] );
+		}
+
+		/* blocks are visited in order, so rows of each id are sorted by block */
+		final long[][] rows = allocateRows( numRows );
+		for ( int b = 0; b < blockIndices.size(); ++b )
+		{
+			for ( final TLongObjectIterator< long[] > it = blockIndices.get( b ).iterator(); it.hasNext(); )
+			{
+				it.advance();
+				final long r = nextRow.adjustOrPutValue( it.key(), 1, 1 ) - 1;
+				final long[] chunk = rows[ ( int ) ( r >>> ROWS_PER_CHUNK_BITS ) ];
+				final int j = ( int ) ( r & ROW_MASK ) * ROW_LENGTH;
+				chunk[ j ] = b;
+				System.arraycopy( it.value(), 0, chunk, j + 1, ROW_LENGTH - 1 );
+			}
+			blockIndices.set( b, null );
+		}
+
+		return new LabelBlockIndex( grid, ids, offsets, rows );
+	}
+
+	/**
+	 * Count and bound all regular ids in one block.
+	 *
+	 * @return id &rarr; count, min x,y,z, max x,y,z
+	 */
+	static private TLongObjectHashMap< long[] > indexBlock(
+			final RandomAccessible< LabelMultisetType > labels,
+			final CellGrid grid,
+			final long block )
+	{
+		final long[] min = new long[ 3 ];
+		final int[] dimensions = new int[ 3 ];
+		grid.getCellDimensions( block, min, dimensions );
+		final long[] max = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			max[ d ] = min[ d ] + dimensions[ d ] - 1;
+
+		final TLongObjectHashMap< long[] > index = new TLongObjectHashMap<>();
+		final Cursor< LabelMultisetType > cursor = Views.interval( labels, new FinalInterval( min, max ) ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			final LabelMultisetType t = cursor.next();
+			for ( final Multiset.Entry< Label > e : t.entrySet() )
+			{
+				final long id = e.getElement().id();
+				if ( !Label.regular( id ) )
+					continue;
+				long[] entry = index.get( id );
+				if ( entry == null )
+				{
+					entry = new long[] {
+							0,
+							Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+							Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+					index.put( id, entry );
+				}
+				entry[ 0 ] += e.getCount();
+				for ( int d = 0; d < 3; ++d )
+				{
+					final long x = cursor.getLongPosition( d );
+					entry[ 1 + d ] = Math.min( entry[ 1 + d ], x );
+					entry[ 4 + d ] = Math.max( entry[ 4 + d ], x );
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Load an index from an HDF5 dataset.
+	 *
+	 * @param reader
+	 * @param dataset
+	 * @param grid
+	 * @return the index or {@code null} if the dataset does not exist or was
+	 *         created for a different block grid
+	 */
+	static public LabelBlockIndex load(
+			final IHDF5Reader reader,
+			final String dataset,
+			final CellGrid grid )
+	{
+		if ( !reader.exists( dataset ) ||
+				!reader.object().hasAttribute( dataset, "dimensions" ) ||
+				!reader.object().hasAttribute( dataset, "blockSize" ) )
+			return null;
+
+		final long[] dimensions = reader.int64().getArrayAttr( dataset, "dimensions" );
+		final long[] blockSize = reader.int64().getArrayAttr( dataset, "blockSize" );
+		final int n = grid.numDimensions();
+		if ( dimensions.length != n || blockSize.length != n )
+			return null;
+		for ( int d = 0; d < n; ++d )
+			if ( dimensions[ d ] != grid.imgDimension( d ) || blockSize[ d ] != grid.cellDimension( d ) )
+				return null;
+
+		final long numRows = reader.object().getDimensions( dataset )[ 0 ];
+		final long[][] rows = allocateRows( numRows );
+		final TLongArrayList ids = new TLongArrayList();
+		final TLongArrayList offsets = new TLongArrayList();
+		for ( int c = 0; c < rows.length; ++c )
+		{
+			final long[] chunk = rows[ c ];
+			final int chunkRows = chunk.length / ROW_LENGTH;
+			final long firstRow = ( long ) c << ROWS_PER_CHUNK_BITS;
+			final long[] table = reader.uint64().readMDArrayBlockWithOffset(
+					dataset,
+					new int[] { chunkRows, NUM_COLUMNS },
+					new long[] { firstRow, 0 } ).getAsFlatArray();
+			for ( int r = 0, i = 0; r < chunkRows; ++r, i += NUM_COLUMNS )
+			{
+				final long id = table[ i ];
+				if ( ids.isEmpty() || ids.get( ids.size() - 1 ) != id )
+				{
+					ids.add( id );
+					offsets.add( firstRow + r );
+				}
+				System.arraycopy( table, i + 1, chunk, r * ROW_LENGTH, ROW_LENGTH );
+			}
+		}
+		offsets.add( numRows );
+
+		return new LabelBlockIndex( grid, ids.toArray(), offsets.toArray(), rows );
+	}
+
+	/**
+	 * Save this index into an HDF5 dataset, replacing it if it exists.  The
+	 * table is written one chunk of rows at a time.
+	 *
+	 * @param writer
+	 * @param dataset
+	 */
+	public void save( final IHDF5Writer writer, final String dataset )
+	{
+		if ( writer.exists( dataset ) )
+			writer.delete( dataset );
+
+		final int n = grid.numDimensions();
+		final long[] blockSize = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			blockSize[ d ] = grid.cellDimension( d );
+
+		final long numRows = numEntries();
+		writer.uint64().createMDArray(
+				dataset,
+				new long[] { numRows, NUM_COLUMNS },
+				new int[] { ( int ) Math.max( 1, Math.min( 4096, numRows ) ), NUM_COLUMNS },
+				HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE );
+
+		int i = 0;
+		for ( int c = 0; c < rows.length; ++c )
+		{
+			final long[] chunk = rows[ c ];
+			final int chunkRows = chunk.length / ROW_LENGTH;
+			final long firstRow = ( long ) c << ROWS_PER_CHUNK_BITS;
+			final long[] table = new long[ chunkRows * NUM_COLUMNS ];
+			for ( int r = 0; r < chunkRows; ++r )
+			{
+				while ( offsets[ i + 1 ] <= firstRow + r )
+					++i;
+				final int j = r * NUM_COLUMNS;
+				table[ j ] = ids[ i ];
+				System.arraycopy( chunk, r * ROW_LENGTH, table, j + 1, ROW_LENGTH );
+			}
+			writer.uint64().writeMDArrayBlockWithOffset(
+					dataset,
+					new MDLongArray( table, new int[] { chunkRows, NUM_COLUMNS } ),
+					new long[] { firstRow, 0 } );
+		}
+		writer.int64().setArrayAttr( dataset, "dimensions", grid.getImgDimensions() );
+		writer.int64().setArrayAttr( dataset, "blockSize", blockSize );
+	}
+
+	public static void main( final String[] args ) throws IOException, InterruptedException, ExecutionException
+	{
+		final Parameters params = new Parameters();
+		if ( CommandLine.call( params, args ) == null )
+			return;
+
+		final String[] cellDimensionStrings = params.cellDimensions.split( "," );
+		final int[] cellDimensions = new int[ cellDimensionStrings.length ];
+		for ( int d = 0; d < cellDimensions.length; ++d )
+			cellDimensions[ d ] = Integer.parseInt( cellDimensionStrings[ d ].trim() );
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFile );
+		final ExecutorService exec = Executors.newFixedThreadPool( params.numThreads );
+		final LabelBlockIndex index;
+		try
+		{
+			final H5LabelMultisetSetupImageLoader labels = new H5LabelMultisetSetupImageLoader(
+					reader,
+					null,
+					params.label,
+					0,
+					cellDimensions,
+					new VolatileGlobalCellCache( 1, params.numThreads ) );
+			final RandomAccessibleInterval< LabelMultisetType > img = labels.getImage( 0 );
+			final CellGrid grid = new CellGrid( Intervals.dimensionsAsLongArray( img ), cellDimensions );
+
+			final long t0 = System.currentTimeMillis();
+			index = build( img, grid, exec );
+			System.out.println( "Indexed " + index.numIds() + " ids in " + index.numEntries() + " (id, block) pairs in " + ( System.currentTimeMillis() - t0 ) + " ms" );
+		}
+		finally
+		{
+			exec.shutdown();
+			reader.close();
+		}
+
+		final IHDF5Writer writer = HDF5Factory.open( params.outFile == null ? params.inFile : params.outFile );
+		try
+		{
+			index.save( writer, datasetFor( params.label ) );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+}
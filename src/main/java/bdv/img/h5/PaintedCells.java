@@ -0,0 +1,110 @@
+package bdv.img.h5;
+
+import java.util.Arrays;
+
+import bdv.labels.labelset.Label;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+
+/**
+ * Index of the cells of a sparse painting canvas that contain painted
+ * labels.  The index is stored in an HDF5 dataset next to the canvas such
+ * that opening the canvas reads only painted cells and not every cell of
+ * the label volume.  Cells that are not listed contain only
+ * {@link Label#TRANSPARENT}.
+ *
+ * The dataset stores the flat indices of the painted cells in ascending
+ * order, its attributes <code>dimensions</code> and <code>blockSize</code>
+ * (x,y,z order) identify the cell grid.
+ */
+public class PaintedCells
+{
+	/**
+	 * Default name of the dataset that stores the painted cells of
+	 * {@code canvasDataset}.
+	 *
+	 * @param canvasDataset
+	 * @return
+	 */
+	static public String datasetFor( final String canvasDataset )
+	{
+		return canvasDataset + "_cells";
+	}
+
+	/**
+	 * Load the indices of painted cells from an HDF5 dataset.
+	 *
+	 * @param reader
+	 * @param dataset
+	 * @param grid
+	 * @return the indices of painted cells or {@code null} if the dataset
+	 *         does not exist or was created for a different cell grid
+	 */
+	static public long[] load(
+			final IHDF5Reader reader,
+			final String dataset,
+			final CellGrid grid )
+	{
+		if ( !reader.exists( dataset ) ||
+				!reader.object().hasAttribute( dataset, "dimensions" ) ||
+				!reader.object().hasAttribute( dataset, "blockSize" ) )
+			return null;
+
+		final long[] dimensions = reader.int64().getArrayAttr( dataset, "dimensions" );
+		final long[] blockSize = reader.int64().getArrayAttr( dataset, "blockSize" );
+		final int n = grid.numDimensions();
+		if ( dimensions.length != n || blockSize.length != n )
+			return null;
+		for ( int d = 0; d < n; ++d )
+			if ( dimensions[ d ] != grid.imgDimension( d ) || blockSize[ d ] != grid.cellDimension( d ) )
+				return null;
+
+		final long numCells = Intervals.numElements( grid.getGridDimensions() );
+		final long[] cellIndices = reader.uint64().readArray( dataset );
+		for ( final long index : cellIndices )
+			if ( index < 0 || index >= numCells )
+				return null;
+
+		return cellIndices;
+	}
+
+	/**
+	 * Save the indices of painted cells into an HDF5 dataset, replacing it if
+	 * it exists.  Nothing is saved if there are no painted cells.
+	 *
+	 * @param writer
+	 * @param dataset
+	 * @param grid
+	 * @param cellIndices
+	 */
+	static public void save(
+			final IHDF5Writer writer,
+			final String dataset,
+			final CellGrid grid,
+			final long[] cellIndices )
+	{
+		if ( writer.exists( dataset ) )
+			writer.delete( dataset );
+
+		if ( cellIndices.length == 0 )
+			return;
+
+		final int n = grid.numDimensions();
+		final long[] blockSize = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			blockSize[ d ] = grid.cellDimension( d );
+
+		final long[] sorted = cellIndices.clone();
+		Arrays.sort( sorted );
+
+		writer.uint64().writeArray(
+				dataset,
+				sorted,
+				HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE );
+		writer.int64().setArrayAttr( dataset, "dimensions", grid.getImgDimensions() );
+		writer.int64().setArrayAttr( dataset, "blockSize", blockSize );
+	}
+}
@@ -3,6 +3,7 @@ package bdv.img.knossos;
 import java.io.IOException;
 
 import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.util.DiskBlockCache;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.volatiles.VolatileUnsignedByteType;
@@ -49,10 +50,17 @@ ftp_mode <server> <root_directory> <http_user> <http_passwd> 30000
  */
 public class KnossosUnsignedByteImageLoader extends AbstractKnossosImageLoader< UnsignedByteType, VolatileUnsignedByteType, VolatileByteArray >
 {
+	/**
+	 * @param config
+	 * @param urlFormat
+	 * @param cache
+	 * @param diskCache persistent block cache or {@code null}
+	 */
 	public KnossosUnsignedByteImageLoader(
 			final KnossosConfig config,
 			final String urlFormat,
-			final VolatileGlobalCellCache cache )
+			final VolatileGlobalCellCache cache,
+			final DiskBlockCache diskCache )
 	{
 		super(
 				config,
@@ -63,10 +71,19 @@ public class KnossosUnsignedByteImageLoader extends AbstractKnossosImageLoader<
 						config.baseUrl,
 						urlFormat,
 						config.experimentName,
-						config.format ),
+						config.format,
+						diskCache ),
 				cache );
 	}
 
+	public KnossosUnsignedByteImageLoader(
+			final KnossosConfig config,
+			final String urlFormat,
+			final VolatileGlobalCellCache cache )
+	{
+		this( config, urlFormat, cache, null );
+	}
+
 
 	public KnossosUnsignedByteImageLoader(
 			final String configUrl,
@@ -1,20 +1,42 @@
 package bdv.img.knossos;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.nio.ByteBuffer;
 
 import bdv.img.cache.CacheArrayLoader;
+import bdv.util.DiskBlockCache;
+import bdv.util.http.HttpClient;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 
 public class KnossosUnsignedByteVolatileArrayLoader implements CacheArrayLoader< VolatileByteArray >
 {
 	final private String urlFormat;
 
-	public KnossosUnsignedByteVolatileArrayLoader( final String baseUrl, final String urlFormat, final String experiment, final String format )
+	final private DiskBlockCache diskCache;
+
+	final private HttpClient client = HttpClient.getDefault();
+
+	/**
+	 * @param baseUrl
+	 * @param urlFormat
+	 * @param experiment
+	 * @param format
+	 * @param diskCache persistent block cache or {@code null}
+	 */
+	public KnossosUnsignedByteVolatileArrayLoader(
+			final String baseUrl,
+			final String urlFormat,
+			final String experiment,
+			final String format,
+			final DiskBlockCache diskCache )
 	{
 		this.urlFormat = baseUrl + urlFormat.replace( "%5$s", experiment );
+		this.diskCache = diskCache;
+	}
+
+	public KnossosUnsignedByteVolatileArrayLoader( final String baseUrl, final String urlFormat, final String experiment, final String format )
+	{
+		this( baseUrl, urlFormat, experiment, format, null );
 	}
 
 	@Override
@@ -62,16 +84,20 @@ public class KnossosUnsignedByteVolatileArrayLoader implements CacheArrayLoader<
 
 		try
 		{
-			final URL file = new URL( url );
-			final InputStream in = file.openStream();
-			final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-			final byte[] chunk = new byte[ 4096 ];
-			int l;
-			for ( l = in.read( chunk ); l > 0; l = in.read( chunk ) )
-			    byteStream.write( chunk, 0, l );
-
-			data = byteStream.toByteArray();
-			byteStream.close();
+			if ( diskCache == null )
+				data = client.get( url );
+			else
+			{
+				/* cache complete cells only, pad the others */
+				final ByteBuffer buffer = diskCache.get( url, 128 * 128 * 128, client::get );
+				if ( buffer.hasArray() && buffer.array().length == 128 * 128 * 128 )
+					data = buffer.array();
+				else
+				{
+					data = new byte[ 128 * 128 * 128 ];
+					buffer.get( data, 0, Math.min( data.length, buffer.remaining() ) );
+				}
+			}
 		}
 		catch ( final IOException e )
 		{
@@ -0,0 +1,73 @@
+package bdv.img.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.img.cache.CacheArrayLoader;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+
+/**
+ * {@link CacheArrayLoader} for uint8 N5 datasets.  Cells must match the
+ * blocks of the dataset.  Missing blocks are loaded as zeros.
+ */
+public class N5ByteArrayLoader implements CacheArrayLoader< VolatileByteArray >
+{
+	final private N5Reader n5;
+
+	final private String[] datasets;
+
+	final private DatasetAttributes[] attributes;
+
+	/**
+	 * @param n5
+	 * @param datasets
+	 *            one dataset per mipmap level
+	 * @throws IOException
+	 */
+	public N5ByteArrayLoader(
+			final N5Reader n5,
+			final String... datasets ) throws IOException
+	{
+		this.n5 = n5;
+		this.datasets = datasets;
+		attributes = new DatasetAttributes[ datasets.length ];
+		for ( int level = 0; level < datasets.length; ++level )
+			attributes[ level ] = n5.getDatasetAttributes( datasets[ level ] );
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return 1;
+	}
+
+	@Override
+	public VolatileByteArray loadArray(
+			final int timepoint,
+			final int setup,
+			final int level,
+			final int[] dimensions,
+			final long[] min ) throws InterruptedException
+	{
+		final DataBlock< ? > block;
+		try
+		{
+			block = n5.readBlock(
+					datasets[ level ],
+					attributes[ level ],
+					N5Utils.gridPosition( min, attributes[ level ].getBlockSize() ) );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		if ( block == null )
+			return new VolatileByteArray( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ], true );
+		else
+			return new VolatileByteArray( ( byte[] ) block.getData(), true );
+	}
+}
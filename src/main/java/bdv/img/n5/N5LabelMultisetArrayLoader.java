@@ -0,0 +1,133 @@
+package bdv.img.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.EmptyArrayCreator;
+import bdv.labels.labelset.LabelMultisetArrayBuilder;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+
+/**
+ * {@link CacheArrayLoader} for labels in N5 containers.  Level 0 is read from
+ * an integer or float32 label dataset and converted into single element
+ * label multisets.  Higher levels are read from the varlength blocks of a
+ * label multiset pyramid, see {@link N5LabelMultisets}.  Cells must match the
+ * blocks of the datasets.
+ *
+ * Missing label blocks are background (0), as is the N5 convention.
+ */
+public class N5LabelMultisetArrayLoader implements CacheArrayLoader< VolatileLabelMultisetArray >
+{
+	final private N5Reader n5;
+
+	final private N5Reader scaleN5;
+
+	final private String[] datasets;
+
+	final private DatasetAttributes[] attributes;
+
+	/**
+	 * @param n5
+	 *            container of the label dataset
+	 * @param scaleN5
+	 *            container of the label multiset pyramid or {@code null}
+	 * @param datasets
+	 *            the label dataset followed by the scale level datasets of
+	 *            the pyramid
+	 * @throws IOException
+	 */
+	public N5LabelMultisetArrayLoader(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String... datasets ) throws IOException
+	{
+		this.n5 = n5;
+		this.scaleN5 = scaleN5;
+		this.datasets = datasets;
+		attributes = new DatasetAttributes[ datasets.length ];
+		attributes[ 0 ] = n5.getDatasetAttributes( datasets[ 0 ] );
+		for ( int level = 1; level < datasets.length; ++level )
+			attributes[ level ] = scaleN5.getDatasetAttributes( datasets[ level ] );
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return 8;
+	}
+
+	@Override
+	public VolatileLabelMultisetArray loadArray(
+			final int timepoint,
+			final int setup,
+			final int level,
+			final int[] dimensions,
+			final long[] min ) throws InterruptedException
+	{
+		final int numElements = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		final DataBlock< ? > block;
+		try
+		{
+			block = ( level == 0 ? n5 : scaleN5 ).readBlock(
+					datasets[ level ],
+					attributes[ level ],
+					N5Utils.gridPosition( min, attributes[ level ].getBlockSize() ) );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		if ( block == null )
+			return LabelMultisetArrayBuilder.get().build( new long[ numElements ] );
+		else if ( level == 0 )
+			return fromLabels( block, attributes[ 0 ].getDataType() );
+		else
+			return N5LabelMultisets.deserialize( ( byte[] ) block.getData() );
+	}
+
+	/**
+	 * Convert an integer or float32 block into single element label
+	 * multisets.  Unsigned types are zero extended, float32 labels are
+	 * interpreted by their bits as in the HDF5 loaders.
+	 *
+	 * @param block
+	 * @param dataType
+	 * @return
+	 */
+	static public VolatileLabelMultisetArray fromLabels( final DataBlock< ? > block, final DataType dataType )
+	{
+		final LabelMultisetArrayBuilder builder = LabelMultisetArrayBuilder.get();
+		final Object data = block.getData();
+		switch ( dataType )
+		{
+		case UINT64:
+		case INT64:
+			return builder.build( ( long[] ) data );
+		case UINT32:
+		case INT32:
+			return builder.build( ( int[] ) data, dataType == DataType.UINT32 );
+		case UINT16:
+		case INT16:
+			return builder.build( ( short[] ) data, dataType == DataType.UINT16 );
+		case UINT8:
+		case INT8:
+			return builder.build( ( byte[] ) data, dataType == DataType.UINT8 );
+		case FLOAT32:
+			return builder.build( ( float[] ) data );
+		default:
+			throw new IllegalArgumentException( "Unsupported label data type " + dataType );
+		}
+	}
+
+	@Override
+	public EmptyArrayCreator< VolatileLabelMultisetArray > getEmptyArrayCreator()
+	{
+		return VolatileLabelMultisetArray.emptyArrayCreator;
+	}
+}
@@ -0,0 +1,180 @@
+package bdv.img.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.AbstractCachedViewerSetupImgLoader;
+import bdv.ViewerImgLoader;
+import bdv.ViewerSetupImgLoader;
+import bdv.cache.CacheControl;
+import bdv.img.SetCache;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+import bdv.labels.labelset.VolatileLabelMultisetType;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * {@link ViewerSetupImgLoader} for labels stored in N5 containers.
+ *
+ * The full resolution labels are an integer or float32 dataset.  Lower
+ * resolutions are read from an optional label multiset pyramid, a group with
+ * an <code>int:levels</code> attribute and varlength uint8 datasets
+ * <code>s1</code>, <code>s2</code>, ... with
+ * <code>double[]:downsamplingFactors</code> attributes, as written by
+ * {@link bdv.labels.labelset.DownscaleToN5}.  Cell dimensions are the block
+ * sizes of the datasets.
+ */
+public class N5LabelMultisetSetupImageLoader
+		extends AbstractCachedViewerSetupImgLoader< LabelMultisetType, VolatileLabelMultisetType, VolatileLabelMultisetArray >
+		implements ViewerImgLoader, SetCache
+{
+	static private String[] datasets(
+			final N5Reader scaleN5,
+			final String dataset,
+			final String scaleGroup ) throws IOException
+	{
+		final int numLevels = scaleN5 == null ? 1 : N5LabelMultisets.readNumLevels( scaleN5, scaleGroup );
+		final String[] datasets = new String[ numLevels ];
+		datasets[ 0 ] = dataset;
+		for ( int level = 1; level < numLevels; ++level )
+			datasets[ level ] = N5LabelMultisets.scaleLevelDataset( scaleGroup, level );
+		return datasets;
+	}
+
+	static private DatasetAttributes[] readAttributes(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String[] datasets ) throws IOException
+	{
+		final DatasetAttributes[] attributes = new DatasetAttributes[ datasets.length ];
+		attributes[ 0 ] = n5.getDatasetAttributes( datasets[ 0 ] );
+		for ( int level = 1; level < datasets.length; ++level )
+			attributes[ level ] = scaleN5.getDatasetAttributes( datasets[ level ] );
+		return attributes;
+	}
+
+	static private long[][] dimensions( final DatasetAttributes[] attributes )
+	{
+		final long[][] dimensions = new long[ attributes.length ][];
+		for ( int level = 0; level < attributes.length; ++level )
+			dimensions[ level ] = attributes[ level ].getDimensions();
+		return dimensions;
+	}
+
+	static private int[][] cellDimensions( final DatasetAttributes[] attributes )
+	{
+		final int[][] cellDimensions = new int[ attributes.length ][];
+		for ( int level = 0; level < attributes.length; ++level )
+			cellDimensions[ level ] = attributes[ level ].getBlockSize();
+		return cellDimensions;
+	}
+
+	private final double[] offset;
+
+	private N5LabelMultisetSetupImageLoader(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String[] datasets,
+			final DatasetAttributes[] attributes,
+			final int setupId,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		super( setupId,
+				dimensions( attributes ),
+				cellDimensions( attributes ),
+				N5UnsignedByteSetupImageLoader.readResolutions( scaleN5 == null ? n5 : scaleN5, datasets, resolution ),
+				new LabelMultisetType(),
+				new VolatileLabelMultisetType(),
+				new N5LabelMultisetArrayLoader( n5, scaleN5, datasets ),
+				cache );
+		this.offset = offset;
+		/* offset mipmap transforms */
+		for ( int i = 0; i < resolutions.length; ++i )
+		{
+			final AffineTransform3D mipmapTransform = mipmapTransforms[ i ];
+			final double[] scaledResolution = resolutions[ i ];
+			mipmapTransform.set( offset[ 0 ] / scaledResolution[ 0 ] * resolution[ 0 ], 0, 3 );
+			mipmapTransform.set( offset[ 1 ] / scaledResolution[ 1 ] * resolution[ 1 ], 1, 3 );
+			mipmapTransform.set( offset[ 2 ] / scaledResolution[ 2 ] * resolution[ 2 ], 2, 3 );
+		}
+	}
+
+	private N5LabelMultisetSetupImageLoader(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String[] datasets,
+			final int setupId,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( n5, scaleN5, datasets, readAttributes( n5, scaleN5, datasets ), setupId, resolution, offset, cache );
+	}
+
+	/**
+	 * @param n5
+	 *            container of the label dataset
+	 * @param scaleN5
+	 *            container of the label multiset pyramid or {@code null}
+	 * @param dataset
+	 *            label dataset
+	 * @param scaleGroup
+	 *            group of the label multiset pyramid in {@code scaleN5}
+	 * @param setupId
+	 * @param resolution
+	 * @param offset
+	 * @param cache
+	 * @throws IOException
+	 */
+	public N5LabelMultisetSetupImageLoader(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String dataset,
+			final String scaleGroup,
+			final int setupId,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( n5, scaleN5, datasets( scaleN5, dataset, scaleGroup ), setupId, resolution, offset, cache );
+	}
+
+	public N5LabelMultisetSetupImageLoader(
+			final N5Reader n5,
+			final N5Reader scaleN5,
+			final String dataset,
+			final String scaleGroup,
+			final int setupId,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( n5, scaleN5, dataset, scaleGroup, setupId, N5Utils.readResolution( n5, dataset ), N5Utils.readOffset( n5, dataset ), cache );
+	}
+
+	@Override
+	public void setCache( final VolatileGlobalCellCache cache )
+	{
+		this.cache = cache;
+	}
+
+	@Override
+	public ViewerSetupImgLoader< ?, ? > getSetupImgLoader( final int setupId )
+	{
+		return this;
+	}
+
+	@Override
+	public CacheControl getCacheControl()
+	{
+		return cache;
+	}
+
+	public double[] getOffset()
+	{
+		return this.offset;
+	}
+}
@@ -0,0 +1,67 @@
+package bdv.img.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.labels.labelset.LabelMultisetBlockCodec;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+
+/**
+ * Serialization of {@link VolatileLabelMultisetArray VolatileLabelMultisetArrays}
+ * into the varlength uint8 blocks of N5 label multiset pyramids.
+ *
+ * Blocks use the same {@link LabelMultisetBlockCodec} format as HDF5
+ * pyramids.
+ */
+public class N5LabelMultisets
+{
+	private N5LabelMultisets() {}
+
+	/**
+	 * @param group
+	 *            group of a label multiset pyramid
+	 * @param level
+	 * @return the dataset of a scale level
+	 */
+	static public String scaleLevelDataset( final String group, final int level )
+	{
+		return group + "/s" + level;
+	}
+
+	/**
+	 * The number of levels of a pyramid including the label dataset is
+	 * stored in the <code>int:levels</code> attribute of its group.  It is
+	 * updated after each completed level.
+	 *
+	 * @param n5
+	 * @param group
+	 * @return the number of levels or 1 if the pyramid does not exist
+	 * @throws IOException
+	 */
+	static public int readNumLevels( final N5Reader n5, final String group ) throws IOException
+	{
+		final Integer levels = n5.exists( group ) ? n5.getAttribute( group, "levels", Integer.class ) : null;
+		return levels == null ? 1 : levels;
+	}
+
+	/**
+	 * @param data
+	 * @return the block in the {@link LabelMultisetBlockCodec} format without
+	 *         deflating it, N5 compresses blocks
+	 */
+	static public byte[] serialize( final VolatileLabelMultisetArray data )
+	{
+		return LabelMultisetBlockCodec.encode( data, false );
+	}
+
+	/**
+	 * @param bytes
+	 *            serialized block
+	 * @return
+	 */
+	static public VolatileLabelMultisetArray deserialize( final byte[] bytes )
+	{
+		return LabelMultisetBlockCodec.decode( bytes );
+	}
+}
@@ -0,0 +1,154 @@
+package bdv.img.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.AbstractCachedViewerSetupImgLoader;
+import bdv.ViewerImgLoader;
+import bdv.ViewerSetupImgLoader;
+import bdv.cache.CacheControl;
+import bdv.img.SetCache;
+import bdv.img.cache.VolatileGlobalCellCache;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+
+/**
+ * {@link ViewerSetupImgLoader} for uint8 N5 datasets.  The dataset is either
+ * a single dataset or a group of scale levels <code>s0</code>,
+ * <code>s1</code>, ... with optional
+ * <code>double[]:downsamplingFactors</code> attributes.  Cell dimensions are
+ * the block sizes of the datasets.  The dataset or group may have optional
+ * <code>double[]:resolution</code> and <code>double[]:offset</code>
+ * attributes as in CREMI style HDF5 files but in x, y, z order.
+ *
+ * Unlike JHDF5, N5 readers have no global lock, BDV's fetcher threads read
+ * and decompress blocks concurrently.
+ */
+public class N5UnsignedByteSetupImageLoader
+		extends AbstractCachedViewerSetupImgLoader< UnsignedByteType, VolatileUnsignedByteType, VolatileByteArray >
+		implements ViewerImgLoader, SetCache
+{
+	final protected double[] offset;
+
+	static private long[][] readDimensions( final N5Reader n5, final String[] datasets ) throws IOException
+	{
+		final long[][] dimensions = new long[ datasets.length ][];
+		for ( int level = 0; level < datasets.length; ++level )
+			dimensions[ level ] = n5.getDatasetAttributes( datasets[ level ] ).getDimensions();
+		return dimensions;
+	}
+
+	static private int[][] readCellDimensions( final N5Reader n5, final String[] datasets ) throws IOException
+	{
+		final int[][] cellDimensions = new int[ datasets.length ][];
+		for ( int level = 0; level < datasets.length; ++level )
+			cellDimensions[ level ] = n5.getDatasetAttributes( datasets[ level ] ).getBlockSize();
+		return cellDimensions;
+	}
+
+	/**
+	 * @return voxel sizes of all levels
+	 * @throws IOException
+	 */
+	static protected double[][] readResolutions(
+			final N5Reader n5,
+			final String[] datasets,
+			final double[] resolution ) throws IOException
+	{
+		final double[][] resolutions = new double[ datasets.length ][];
+		resolutions[ 0 ] = resolution;
+		for ( int level = 1; level < datasets.length; ++level )
+		{
+			final double[] factors = N5Utils.readDownsamplingFactors( n5, datasets[ level ] );
+			resolutions[ level ] = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				resolutions[ level ][ d ] = resolution[ d ] * factors[ d ];
+		}
+		return resolutions;
+	}
+
+	private N5UnsignedByteSetupImageLoader(
+			final N5Reader n5,
+			final String[] datasets,
+			final int setupId,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		super(
+				setupId,
+				readDimensions( n5, datasets ),
+				readCellDimensions( n5, datasets ),
+				readResolutions( n5, datasets, resolution ),
+				new UnsignedByteType(),
+				new VolatileUnsignedByteType(),
+				new N5ByteArrayLoader( n5, datasets ),
+				cache );
+		this.offset = offset;
+		/* offset mipmap transforms */
+		for ( int i = 0; i < resolutions.length; ++i )
+		{
+			final AffineTransform3D mipmapTransform = mipmapTransforms[ i ];
+			final double[] scaledResolution = resolutions[ i ];
+			mipmapTransform.set( offset[ 0 ] / scaledResolution[ 0 ] * resolution[ 0 ], 0, 3 );
+			mipmapTransform.set( offset[ 1 ] / scaledResolution[ 1 ] * resolution[ 1 ], 1, 3 );
+			mipmapTransform.set( offset[ 2 ] / scaledResolution[ 2 ] * resolution[ 2 ], 2, 3 );
+		}
+	}
+
+	/**
+	 * @param n5
+	 * @param dataset
+	 *            dataset or group of scale levels
+	 * @param setupId
+	 * @param resolution
+	 * @param offset
+	 * @param cache
+	 * @throws IOException
+	 */
+	public N5UnsignedByteSetupImageLoader(
+			final N5Reader n5,
+			final String dataset,
+			final int setupId,
+			final double[] resolution,
+			final double[] offset,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( n5, N5Utils.scaleLevelDatasets( n5, dataset ), setupId, resolution, offset, cache );
+	}
+
+	public N5UnsignedByteSetupImageLoader(
+			final N5Reader n5,
+			final String dataset,
+			final int setupId,
+			final VolatileGlobalCellCache cache ) throws IOException
+	{
+		this( n5, dataset, setupId, N5Utils.readResolution( n5, dataset ), N5Utils.readOffset( n5, dataset ), cache );
+	}
+
+	@Override
+	public void setCache( final VolatileGlobalCellCache cache )
+	{
+		this.cache = cache;
+	}
+
+	@Override
+	public N5UnsignedByteSetupImageLoader getSetupImgLoader( final int setupId )
+	{
+		return this;
+	}
+
+	@Override
+	public CacheControl getCacheControl()
+	{
+		return cache;
+	}
+
+	public double[] getOffset()
+	{
+		return offset;
+	}
+}
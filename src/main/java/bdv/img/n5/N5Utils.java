@@ -0,0 +1,560 @@
+package bdv.img.n5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import bdv.bigcat.label.SparseLabelCanvas;
+import bdv.img.h5.H5Utils;
+import bdv.labels.labelset.Label;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Utility methods for N5 containers.
+ *
+ * N5 stores dimensions, block sizes and attributes in x, y, z order, no
+ * reordering is necessary other than for HDF5.  Blocks are independent
+ * files, all methods that write multiple blocks read or write them in
+ * parallel.
+ */
+public class N5Utils
+{
+	private N5Utils() {}
+
+	/**
+	 * @param min
+	 *            min of a block
+	 * @param blockSize
+	 * @return the position of the block in the block grid
+	 */
+	static public long[] gridPosition( final long[] min, final int[] blockSize )
+	{
+		final long[] gridPosition = new long[ min.length ];
+		for ( int d = 0; d < min.length; ++d )
+			gridPosition[ d ] = min[ d ] / blockSize[ d ];
+		return gridPosition;
+	}
+
+	/**
+	 * @return the interval covered by the block at {@code gridPosition},
+	 *         cropped to the dataset
+	 */
+	static public Interval blockInterval( final DatasetAttributes attributes, final long[] gridPosition )
+	{
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] min = new long[ dimensions.length ];
+		final long[] max = new long[ dimensions.length ];
+		for ( int d = 0; d < min.length; ++d )
+		{
+			min[ d ] = gridPosition[ d ] * blockSize[ d ];
+			max[ d ] = Math.min( min[ d ] + blockSize[ d ], dimensions[ d ] ) - 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	static private double[] readDoubleArrayAttribute(
+			final N5Reader n5,
+			final String dataset,
+			final String key,
+			final double defaultValue ) throws IOException
+	{
+		final double[] value = n5.getAttribute( dataset, key, double[].class );
+		if ( value != null )
+			return value;
+
+		final double[] defaultArray = new double[ 3 ];
+		Arrays.fill( defaultArray, defaultValue );
+		return defaultArray;
+	}
+
+	/**
+	 * Read the optional <code>double[]:resolution</code> attribute.
+	 *
+	 * @return the resolution or (1, 1, 1)
+	 * @throws IOException
+	 */
+	static public double[] readResolution( final N5Reader n5, final String dataset ) throws IOException
+	{
+		return readDoubleArrayAttribute( n5, dataset, "resolution", 1 );
+	}
+
+	/**
+	 * Read the optional <code>double[]:offset</code> attribute.
+	 *
+	 * @return the offset or (0, 0, 0)
+	 * @throws IOException
+	 */
+	static public double[] readOffset( final N5Reader n5, final String dataset ) throws IOException
+	{
+		return readDoubleArrayAttribute( n5, dataset, "offset", 0 );
+	}
+
+	/**
+	 * Read the optional <code>double[]:downsamplingFactors</code> attribute of
+	 * a scale level.
+	 *
+	 * @return the downsampling factors or (1, 1, 1)
+	 * @throws IOException
+	 */
+	static public double[] readDownsamplingFactors( final N5Reader n5, final String dataset ) throws IOException
+	{
+		return readDoubleArrayAttribute( n5, dataset, "downsamplingFactors", 1 );
+	}
+
+	/**
+	 * List the scale levels of a dataset.  If {@code group} is a dataset,
+	 * it is the only level, otherwise the levels are the datasets
+	 * <code>s0</code>, <code>s1</code>, ... in {@code group}.
+	 *
+	 * @param n5
+	 * @param group
+	 * @return
+	 * @throws IOException
+	 */
+	static public String[] scaleLevelDatasets( final N5Reader n5, final String group ) throws IOException
+	{
+		if ( n5.datasetExists( group ) )
+			return new String[] { group };
+
+		final ArrayList< String > datasets = new ArrayList<>();
+		for ( String dataset = group + "/s0"; n5.datasetExists( dataset ); dataset = group + "/s" + datasets.size() )
+			datasets.add( dataset );
+		if ( datasets.isEmpty() )
+			throw new IOException( "No dataset or scale levels at " + group );
+		return datasets.toArray( new String[ datasets.size() ] );
+	}
+
+	/**
+	 * Whether {@code path} is an N5 container.  N5 containers are
+	 * directories, paths that do not exist yet are N5 containers if they end
+	 * with <code>.n5</code>.  Everything else is treated as an HDF5 file.
+	 *
+	 * @param path
+	 * @return
+	 */
+	static public boolean isN5( final String path )
+	{
+		final File file = new File( path );
+		if ( file.exists() )
+			return file.isDirectory();
+		return path.toLowerCase().endsWith( ".n5" );
+	}
+
+	/**
+	 * Convert the data of an integer or float32 block into unsigned long
+	 * labels.  Unsigned types are zero extended, float32 labels are
+	 * interpreted by their bits as in the HDF5 loaders.
+	 *
+	 * @param block
+	 * @param dataType
+	 * @return
+	 */
+	static public long[] toUnsignedLongs( final DataBlock< ? > block, final DataType dataType )
+	{
+		final Object data = block.getData();
+		switch ( dataType )
+		{
+		case UINT64:
+		case INT64:
+			return ( long[] ) data;
+		case UINT32:
+		{
+			final int[] ints = ( int[] ) data;
+			final long[] longs = new long[ ints.length ];
+			for ( int i = 0; i < ints.length; ++i )
+				longs[ i ] = ints[ i ] & 0xffffffffL;
+			return longs;
+		}
+		case INT32:
+		{
+			final int[] ints = ( int[] ) data;
+			final long[] longs = new long[ ints.length ];
+			for ( int i = 0; i < ints.length; ++i )
+				longs[ i ] = ints[ i ];
+			return longs;
+		}
+		case UINT16:
+		{
+			final short[] shorts = ( short[] ) data;
+			final long[] longs = new long[ shorts.length ];
+			for ( int i = 0; i < shorts.length; ++i )
+				longs[ i ] = shorts[ i ] & 0xffffL;
+			return longs;
+		}
+		case INT16:
+		{
+			final short[] shorts = ( short[] ) data;
+			final long[] longs = new long[ shorts.length ];
+			for ( int i = 0; i < shorts.length; ++i )
+				longs[ i ] = shorts[ i ];
+			return longs;
+		}
+		case UINT8:
+		{
+			final byte[] bytes = ( byte[] ) data;
+			final long[] longs = new long[ bytes.length ];
+			for ( int i = 0; i < bytes.length; ++i )
+				longs[ i ] = bytes[ i ] & 0xffL;
+			return longs;
+		}
+		case INT8:
+		{
+			final byte[] bytes = ( byte[] ) data;
+			final long[] longs = new long[ bytes.length ];
+			for ( int i = 0; i < bytes.length; ++i )
+				longs[ i ] = bytes[ i ];
+			return longs;
+		}
+		case FLOAT32:
+		{
+			final float[] floats = ( float[] ) data;
+			final long[] longs = new long[ floats.length ];
+			for ( int i = 0; i < floats.length; ++i )
+				longs[ i ] = Float.floatToIntBits( floats[ i ] ) & 0xffffffffL;
+			return longs;
+		}
+		default:
+			throw new IllegalArgumentException( "Unsupported label data type " + dataType );
+		}
+	}
+
+	/**
+	 * Run {@code numTasks} tasks on {@code exec} and wait for them.  Tasks
+	 * are created on demand by {@code tasks} and at most twice the
+	 * parallelism of {@code exec} are submitted and not yet complete at any
+	 * time, i.e. memory does not grow with the number of blocks.  If a task
+	 * fails, the remaining tasks are cancelled.
+	 */
+	static protected void invokeAll( final long numTasks, final LongFunction< Callable< Void > > tasks, final ExecutorService exec )
+	{
+		final int maxSubmitted = 2 * H5Utils.parallelism( exec );
+		final ArrayDeque< Future< Void > > futures = new ArrayDeque<>( maxSubmitted );
+		try
+		{
+			for ( long i = 0; i < numTasks; ++i )
+			{
+				futures.add( exec.submit( tasks.apply( i ) ) );
+				if ( futures.size() >= maxSubmitted )
+					futures.poll().get();
+			}
+			while ( !futures.isEmpty() )
+				futures.poll().get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( e.getCause() );
+		}
+		finally
+		{
+			for ( final Future< Void > future : futures )
+				future.cancel( true );
+		}
+	}
+
+	/**
+	 * Load an N5 dataset into a {@link SparseLabelCanvas} with the block
+	 * size of the dataset as cell dimensions.  The dataset is usually uint64,
+	 * other integer and float32 datasets are converted with
+	 * {@link #toUnsignedLongs(DataBlock, DataType)} such that a canvas can be
+	 * started from existing labels.  Blocks are read in parallel on
+	 * {@code exec}.  Only blocks that exist and contain at least one value
+	 * other than {@link Label#TRANSPARENT} are allocated.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param exec
+	 * @throws IOException
+	 */
+	static public SparseLabelCanvas loadSparseUnsignedLong(
+			final N5Reader n5,
+			final String dataset,
+			final ExecutorService exec ) throws IOException
+	{
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+		final SparseLabelCanvas target = new SparseLabelCanvas( attributes.getDimensions(), attributes.getBlockSize() );
+		final CellGrid grid = target.getCellGrid();
+		final long numCells = Intervals.numElements( grid.getGridDimensions() );
+		final int n = grid.numDimensions();
+
+		invokeAll( numCells, index -> () -> {
+			final long[] offset = new long[ n ];
+			final int[] cellDimensions = new int[ n ];
+			grid.getCellDimensions( index, offset, cellDimensions );
+			final DataBlock< ? > block = n5.readBlock( dataset, attributes, gridPosition( offset, attributes.getBlockSize() ) );
+			if ( block == null )
+				return null;
+
+			final long[] values = toUnsignedLongs( block, attributes.getDataType() );
+			for ( final long value : values )
+			{
+				if ( value != Label.TRANSPARENT )
+				{
+					final long[] data = target.getCell( index ).getData().materialize();
+					System.arraycopy( values, 0, data, 0, data.length );
+					break;
+				}
+			}
+			return null;
+		}, exec );
+
+		return target;
+	}
+
+	/**
+	 * Load an N5 dataset into a {@link SparseLabelCanvas}.  Blocks are
+	 * read on the common {@link ForkJoinPool}.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @throws IOException
+	 */
+	static public SparseLabelCanvas loadSparseUnsignedLong(
+			final N5Reader n5,
+			final String dataset ) throws IOException
+	{
+		return loadSparseUnsignedLong( n5, dataset, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Create an N5 uint64 dataset if it does not exist.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param dimensions
+	 * @param blockSize
+	 * @param compression
+	 * @return the attributes of the dataset
+	 * @throws IOException
+	 */
+	static public DatasetAttributes createUnsignedLong(
+			final N5Writer n5,
+			final String dataset,
+			final long[] dimensions,
+			final int[] blockSize,
+			final Compression compression ) throws IOException
+	{
+		if ( !n5.datasetExists( dataset ) )
+			n5.createDataset( dataset, dimensions, blockSize, DataType.UINT64, compression );
+		return n5.getDatasetAttributes( dataset );
+	}
+
+	/**
+	 * Write the block at {@code gridPosition} from {@code source}.  Blocks
+	 * that are covered by {@code source} only in part are merged with the
+	 * existing block, missing blocks are {@link Label#TRANSPARENT}.
+	 */
+	static protected < T extends IntegerType< T > > void writeUnsignedLongBlock(
+			final RandomAccessibleInterval< T > source,
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridPosition ) throws IOException
+	{
+		final Interval blockInterval = blockInterval( attributes, gridPosition );
+		final int[] size = new int[ blockInterval.numDimensions() ];
+		for ( int d = 0; d < size.length; ++d )
+			size[ d ] = ( int ) blockInterval.dimension( d );
+
+		final Interval sourceInterval = Intervals.intersect( source, blockInterval );
+		final long[] data;
+		if ( Intervals.numElements( sourceInterval ) == Intervals.numElements( blockInterval ) )
+			data = new long[ ( int ) Intervals.numElements( size ) ];
+		else
+		{
+			final DataBlock< ? > existing = n5.readBlock( dataset, attributes, gridPosition );
+			if ( existing == null )
+			{
+				data = new long[ ( int ) Intervals.numElements( size ) ];
+				Arrays.fill( data, Label.TRANSPARENT );
+			}
+			else
+				data = ( long[] ) existing.getData();
+		}
+
+		final RandomAccessibleInterval< LongType > target = Views.translate(
+				ArrayImgs.longs( data, Intervals.dimensionsAsLongArray( blockInterval ) ),
+				Intervals.minAsLongArray( blockInterval ) );
+		final Cursor< T > sourceCursor = Views.flatIterable( Views.interval( source, sourceInterval ) ).cursor();
+		final Cursor< LongType > targetCursor = Views.flatIterable( Views.interval( target, sourceInterval ) ).cursor();
+		while ( sourceCursor.hasNext() )
+			targetCursor.next().set( sourceCursor.next().getIntegerLong() );
+
+		n5.writeBlock( dataset, attributes, new LongArrayDataBlock( size, gridPosition, data ) );
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of {@link IntegerType} into an
+	 * N5 uint64 dataset.  The dataset is created with the dimensions of
+	 * {@code source} if it does not exist.  All blocks that intersect
+	 * {@code source} are written in parallel on {@code exec}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param exec
+	 * @throws IOException
+	 */
+	static public < T extends IntegerType< T > > void saveUnsignedLong(
+			final RandomAccessibleInterval< T > source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws IOException
+	{
+		final long[] sourceDimensions = Intervals.maxAsLongArray( source );
+		for ( int d = 0; d < sourceDimensions.length; ++d )
+			sourceDimensions[ d ] += 1;
+		final DatasetAttributes attributes = createUnsignedLong( n5, dataset, sourceDimensions, blockSize, compression );
+		final long[] dimensions = attributes.getDimensions();
+		final int[] datasetBlockSize = attributes.getBlockSize();
+		final int n = dimensions.length;
+
+		/* grid positions of all blocks that intersect source */
+		final long[] minGrid = new long[ n ];
+		final long[] maxGrid = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			minGrid[ d ] = Math.max( 0, source.min( d ) ) / datasetBlockSize[ d ];
+			maxGrid[ d ] = Math.min( dimensions[ d ] - 1, source.max( d ) ) / datasetBlockSize[ d ];
+			if ( maxGrid[ d ] < minGrid[ d ] )
+				return;
+		}
+
+		final long[] gridDimensions = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			gridDimensions[ d ] = maxGrid[ d ] - minGrid[ d ] + 1;
+
+		invokeAll( Intervals.numElements( gridDimensions ), index -> {
+			final long[] position = new long[ n ];
+			long i = index;
+			for ( int d = 0; d < n; ++d )
+			{
+				position[ d ] = minGrid[ d ] + i % gridDimensions[ d ];
+				i /= gridDimensions[ d ];
+			}
+			return () -> {
+				writeUnsignedLongBlock( source, n5, dataset, attributes, position );
+				return null;
+			};
+		}, exec );
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of {@link IntegerType} into an
+	 * N5 uint64 dataset.  Blocks are written on the common
+	 * {@link ForkJoinPool}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @throws IOException
+	 */
+	static public < T extends IntegerType< T > > void saveUnsignedLong(
+			final RandomAccessibleInterval< T > source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression ) throws IOException
+	{
+		saveUnsignedLong( source, n5, dataset, blockSize, compression, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Save selected cells of a {@link RandomAccessibleInterval} of
+	 * {@link IntegerType} into an existing N5 uint64 dataset.  Cells are
+	 * identified by their flat index in {@code grid} which must match the
+	 * block grid of the dataset.  Cells are written in parallel on
+	 * {@code exec}.
+	 *
+	 * @param source
+	 * @param grid
+	 * @param cellIndices
+	 * @param n5
+	 * @param dataset
+	 * @param exec
+	 * @throws IOException
+	 */
+	static public < T extends IntegerType< T > > void saveUnsignedLongCells(
+			final RandomAccessibleInterval< T > source,
+			final CellGrid grid,
+			final long[] cellIndices,
+			final N5Writer n5,
+			final String dataset,
+			final ExecutorService exec ) throws IOException
+	{
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+		final int n = grid.numDimensions();
+		final int[] cellDimensions = new int[ n ];
+		grid.cellDimensions( cellDimensions );
+		if ( !Arrays.equals( cellDimensions, attributes.getBlockSize() ) )
+			throw new IllegalArgumentException(
+					"Cell dimensions " + Arrays.toString( cellDimensions ) +
+					" do not match the block size " + Arrays.toString( attributes.getBlockSize() ) +
+					" of " + dataset );
+
+		invokeAll( cellIndices.length, i -> () -> {
+			final long[] offset = new long[ n ];
+			final int[] dimensions = new int[ n ];
+			grid.getCellDimensions( cellIndices[ ( int ) i ], offset, dimensions );
+			writeUnsignedLongBlock( source, n5, dataset, attributes, gridPosition( offset, cellDimensions ) );
+			return null;
+		}, exec );
+	}
+
+	/**
+	 * Save selected cells into an existing N5 uint64 dataset.  Cells are
+	 * written on the common {@link ForkJoinPool}.
+	 *
+	 * @param source
+	 * @param grid
+	 * @param cellIndices
+	 * @param n5
+	 * @param dataset
+	 * @throws IOException
+	 */
+	static public < T extends IntegerType< T > > void saveUnsignedLongCells(
+			final RandomAccessibleInterval< T > source,
+			final CellGrid grid,
+			final long[] cellIndices,
+			final N5Writer n5,
+			final String dataset ) throws IOException
+	{
+		saveUnsignedLongCells( source, grid, cellIndices, n5, dataset, ForkJoinPool.commonPool() );
+	}
+}
@@ -30,19 +30,43 @@ public class Downscale
 	 * @param min
 	 *            minimum coordinate of output block (in output resolution).
 	 *            Corresponding input coordinates are <em>min * factors</em>.
-	 * @param filename
 	 * @return
-	 * @throws InterruptedException
 	 */
 	public static VolatileLabelMultisetArray downscale(
 			final RandomAccessibleInterval< LabelMultisetType > input,
 			final long[] factors,
 			final long[] dimensions,
 			final long[] min )
+	{
+		return downscale( input, factors, dimensions, min, LongMappedAccessData.factory );
+	}
+
+	/**
+	 *
+	 * @param input
+	 * @param factors
+	 *            downsampling factors of output block relative to input.
+	 * @param dimensions
+	 *            dimensions of the output block (in output resolution)
+	 * @param min
+	 *            minimum coordinate of output block (in output resolution).
+	 *            Corresponding input coordinates are <em>min * factors</em>.
+	 * @param storageFactory
+	 *            creates the storage for the lists of the output block, e.g.
+	 *            {@link OffHeapLongMappedAccessData#factory} to grow it
+	 *            outside of the Java heap without copying.
+	 * @return
+	 */
+	public static VolatileLabelMultisetArray downscale(
+			final RandomAccessibleInterval< LabelMultisetType > input,
+			final long[] factors,
+			final long[] dimensions,
+			final long[] min,
+			final MappedAccessData.Factory< ? extends LongMappedAccessData, LongMappedAccess > storageFactory )
 	{
 		final int numElements = ( int ) Intervals.numElements( dimensions ); // num elements in output block
 		final int[] data = new int[ numElements ];
-		final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( 32 );
+		final LongMappedAccessData listData = storageFactory.createStorage( 32 );
 
 		final Cursor< Neighborhood< LabelMultisetType > > inNeighborhoods = Views.offsetInterval(
 				Views.subsample(
@@ -2,11 +2,18 @@ package bdv.labels.labelset;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 import bdv.export.ExportMipmapInfo;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.h5.H5LabelMultisetSetupImageLoader;
-import ch.systemsx.cisd.base.mdarray.MDIntArray;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
@@ -16,97 +23,225 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
 
+/**
+ * Generates a label multiset pyramid for a label dataset in an HDF5 file.
+ *
+ * Blocks of each level are downscaled in parallel on a {@link ForkJoinPool}.
+ * The workers read the input and the previous levels through JHDF5, which
+ * serializes these reads internally.  Downscaled blocks are written by the
+ * calling thread only.
+ * Blocks that exist in the output file already are skipped such that an
+ * interrupted run can be restarted with the same parameters.
+ */
 public class DownscaleToHdf5
 {
-	public static void main( final String[] args ) throws IOException
-	{
-		final String fn = "/Users/pietzsch/workspace/data/bigcat/davi_v7_4k_refix_export.h5";
-		final String fnscaled = "/Users/pietzsch/Desktop/downscale-test.h5";
-
-		final int[][] resolutions = new int[][] {
-			{ 1, 1, 1 },
-			{ 2, 2, 1 },
-			{ 4, 4, 1 },
-			{ 8, 8, 1 },
-			{ 16, 16, 2 },
-			{ 32, 32, 3 },
-			{ 64, 64, 6 }
-		};
-		final int[][] subdivisions = new int[][] {
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-			{ 32, 32, 32 },
-		};
+	static public class Parameters implements Callable< Optional< Void > >
+	{
+		@Option( names = { "--infile", "-i" }, required = true, description = "Input file path" )
+		public String inFile = "";
+
+		@Option( names = { "--label", "-l" }, required = true, description = "label dataset" )
+		public String label = "";
+
+		@Option( names = { "--outfile", "-o" }, required = true, description = "Output file path for the scale levels" )
+		public String outFile = "";
+
+		@Option( names = { "--cellsize", "-c" }, description = "cell dimensions of the label dataset, e.g. 64,64,8" )
+		public String cellDimensions = "64,64,8";
+
+		@Option( names = { "--resolution", "-r" }, description = "downsampling factors of each scale level relative to the label dataset, e.g. -r 2,2,1 -r 4,4,1" )
+		public List< String > resolutions = Arrays.asList( "2,2,1", "4,4,1", "8,8,1", "16,16,2", "32,32,3", "64,64,6" );
+
+		@Option( names = { "--blocksize", "-b" }, description = "block dimensions of the scale levels, e.g. 32,32,32" )
+		public String blockDimensions = "32,32,32";
+
+		@Option( names = { "--compression", "-z" }, description = "block compression, deflate or none" )
+		public String compression = "deflate";
+
+		@Option( names = { "--threads", "-t" }, description = "number of threads for downscaling" )
+		public int numThreads = Runtime.getRuntime().availableProcessors();
+
+		@Override
+		public Optional< Void > call()
+		{
+			return Optional.empty();
+		}
+	}
+
+	final static protected int[] parseInts( final String csv )
+	{
+		return Arrays.stream( csv.split( "," ) ).mapToInt( s -> Integer.parseInt( s.trim() ) ).toArray();
+	}
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final Parameters params = new Parameters();
+		if ( CommandLine.call( params, args ) == null )
+			return;
+
+		final int[][] resolutions = new int[ params.resolutions.size() + 1 ][];
+		final int[][] subdivisions = new int[ resolutions.length ][];
+		resolutions[ 0 ] = new int[] { 1, 1, 1 };
+		subdivisions[ 0 ] = parseInts( params.cellDimensions );
+		for ( int level = 1; level < resolutions.length; ++level )
+		{
+			resolutions[ level ] = parseInts( params.resolutions.get( level - 1 ) );
+			subdivisions[ level ] = parseInts( params.blockDimensions );
+		}
 		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo( resolutions, subdivisions );
 		final int numLevels = resolutions.length;
+		final boolean deflate = parseDeflate( params.compression );
 
-		for ( int level = 1; level < numLevels; ++level )
+		final IHDF5Reader reader = HDF5Factory.openForReading( params.inFile );
+		final IHDF5Writer writer = HDF5Factory.open( params.outFile );
+		final ForkJoinPool pool = new ForkJoinPool( params.numThreads );
+		try
 		{
-			final IHDF5Reader reader = HDF5Factory.openForReading( fn );
-			final IHDF5Writer writer = HDF5Factory.open( fnscaled );
-			final H5LabelMultisetSetupImageLoader fragments = new H5LabelMultisetSetupImageLoader(
-					reader,
-					level == 1 ? null : writer,
-					"/bodies",
-					1,
-					new int[] {64, 64, 8},
-					new VolatileGlobalCellCache( 1, 10 ) );
+			for ( int level = 1; level < numLevels; ++level )
+			{
+				final H5LabelMultisetSetupImageLoader fragments = new H5LabelMultisetSetupImageLoader(
+						reader,
+						level == 1 ? null : writer,
+						params.label,
+						1,
+						subdivisions[ 0 ],
+						new VolatileGlobalCellCache( 1, params.numThreads ) );
 
+				final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs = new ArrayList<>();
+				for ( int i = 0; i < level; ++i )
+					imgs.add( fragments.getImage( 0, i ) );
 
-			final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs = new ArrayList<>();
-			for ( int i = 0; i < level; ++i )
-				imgs.add( fragments.getImage( 0, i ) );
+				final int l = level;
+				writeLevelToHdf5File(
+						imgs,
+						mipmapInfo,
+						level,
+						hdf5BlockWriter( writer, level, deflate ),
+						hdf5LevelInfoWriter( writer, level ),
+						min -> writer.exists( blockPath( l, min ) ) || writer.exists( dataPath( l, min ) ),
+						pool,
+						hdf5ProgressListener( writer, level ) );
 
-			writer.uint32().write( "levels", level + 1 );
-			final int l = level;
-			final BlockWriter hdfBlockWriter = new BlockWriter()
+				writer.uint32().write( "levels", level + 1 );
+				writer.file().flush();
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+			writer.close();
+			reader.close();
+		}
+	}
+
+	final static protected boolean parseDeflate( final String compression )
+	{
+		switch ( compression.trim().toLowerCase() )
+		{
+		case "deflate":
+			return true;
+		case "none":
+			return false;
+		default:
+			throw new IllegalArgumentException( "Unknown compression " + compression );
+		}
+	}
+
+	final static protected String blockPath( final int level, final long[] min )
+	{
+		return String.format( "l%02d/z%05d/y%05d/x%05d/block", level, min[ 2 ], min[ 1 ], min[ 0 ] );
+	}
+
+	final static protected String dataPath( final int level, final long[] min )
+	{
+		return String.format( "l%02d/z%05d/y%05d/x%05d/data", level, min[ 2 ], min[ 1 ], min[ 0 ] );
+	}
+
+	/**
+	 * Create a {@link BlockWriter} that writes into the scale level format
+	 * read by {@link H5LabelMultisetSetupImageLoader}.  Each block is a uint8
+	 * array in the {@link LabelMultisetBlockCodec} format.
+	 *
+	 * @param writer
+	 * @param level
+	 * @param deflate
+	 *            deflate the blocks
+	 */
+	public static BlockWriter hdf5BlockWriter( final IHDF5Writer writer, final int level, final boolean deflate )
+	{
+		return new BlockWriter()
+		{
+			@Override
+			public void writeBlock( final VolatileLabelMultisetArray data, final long[] min, final long[] blocksize )
 			{
-				@Override
-				public void writeBlock( final VolatileLabelMultisetArray data, final long[] min, final long[] blocksize )
-				{
-//					System.out.println( Util.printCoordinates( min ) );
-					final LongMappedAccess access = data.getListData().createAccess();
-					final int intSize = ( int ) ( data.getListDataUsedSizeInBytes() / 4 );
-					final int[] lists = new int[ intSize ];
-					for ( int i = 0; i < intSize; ++i )
-						lists[ i ] = access.getInt( i * 4 );
-					final MDIntArray block = new MDIntArray( data.getCurrentStorageArray(), bdv.img.hdf5.Util.reorder( blocksize ) );
-
-					final String listsPath = String.format( "l%02d/z%05d/y%05d/x%05d/lists", l, min[ 2 ], min[ 1 ], min[ 0 ] );
-					final String dataPath = String.format( "l%02d/z%05d/y%05d/x%05d/data", l, min[ 2 ], min[ 1 ], min[ 0 ] );
-					writer.uint32().writeArray( listsPath, lists, HDF5IntStorageFeatures.INT_AUTO_SCALING_UNSIGNED_DELETE );
-					writer.uint32().writeMDArray( dataPath, block, HDF5IntStorageFeatures.INT_AUTO_SCALING_UNSIGNED_DELETE );
-				}
-			};
-			final LevelInfoWriter hdfLevelInfoWriter = new LevelInfoWriter()
+				writer.uint8().writeArray(
+						blockPath( level, min ),
+						LabelMultisetBlockCodec.encode( data, deflate ),
+						HDF5IntStorageFeatures.INT_NO_COMPRESSION_DELETE );
+			}
+		};
+	}
+
+	public static BlockWriter hdf5BlockWriter( final IHDF5Writer writer, final int level )
+	{
+		return hdf5BlockWriter( writer, level, true );
+	}
+
+	public static LevelInfoWriter hdf5LevelInfoWriter( final IHDF5Writer writer, final int level )
+	{
+		return new LevelInfoWriter()
+		{
+			@Override
+			public void writeLevelInfo( final long[] dimensions, final long[] factors, final long[] blocksize )
 			{
-				@Override
-				public void writeLevelInfo( final long[] dimensions, final long[] factors, final long[] blocksize )
+				System.out.println( "writing level " + level );
+				System.out.println( "dimensions = " + Util.printCoordinates( dimensions ) );
+				System.out.println( "factors = " + Util.printCoordinates( factors ) );
+				System.out.println( "blocksize = " + Util.printCoordinates( blocksize ) );
+
+				final String dimensionsPath = String.format( "l%02d/dimensions", level );
+				final String factorsPath = String.format( "l%02d/factors", level );
+				final String blocksizePath = String.format( "l%02d/blocksize", level );
+				writer.uint64().writeArray( dimensionsPath, dimensions );
+				writer.uint64().writeArray( factorsPath, factors );
+				writer.uint64().writeArray( blocksizePath, blocksize );
+			}
+		};
+	}
+
+	/**
+	 * Create a {@link ProgressListener} that prints progress in percent steps
+	 * and flushes the HDF5 file such that completed blocks survive an
+	 * interrupted run.
+	 */
+	public static ProgressListener hdf5ProgressListener( final IHDF5Writer writer, final int level )
+	{
+		return new ProgressListener()
+		{
+			private long lastPercent = -1;
+
+			@Override
+			public void blockCompleted( final long numCompleted, final long numBlocks )
+			{
+				final long percent = numCompleted * 100 / numBlocks;
+				if ( percent != lastPercent )
 				{
-					System.out.println( "writing level " + l );
-					System.out.println( "dimensions = " + Util.printCoordinates( dimensions ) );
-					System.out.println( "factors = " + Util.printCoordinates( factors ) );
-					System.out.println( "blocksize = " + Util.printCoordinates( blocksize ) );
-
-					final String dimensionsPath = String.format( "l%02d/dimensions", l );
-					final String factorsPath = String.format( "l%02d/factors", l );
-					final String blocksizePath = String.format( "l%02d/blocksize", l );
-					writer.uint64().writeArray( dimensionsPath, dimensions );
-					writer.uint64().writeArray( factorsPath, factors );
-					writer.uint64().writeArray( blocksizePath, blocksize );
+					lastPercent = percent;
+					writer.file().flush();
+					System.out.println( String.format( "level %d: %d/%d blocks (%d%%)", level, numCompleted, numBlocks, percent ) );
 				}
-			};
-			writeLevelToHdf5File( imgs, mipmapInfo, level, hdfBlockWriter, hdfLevelInfoWriter );
-			writer.close();
-			reader.close();
-		}
+			}
+		};
 	}
 
+	/**
+	 * Writes a downscaled block.  The block is released after
+	 * {@link #writeBlock(VolatileLabelMultisetArray, long[], long[])}
+	 * returned and must not be kept.
+	 */
 	public interface BlockWriter
 	{
 		public void writeBlock( VolatileLabelMultisetArray data, final long[] min, final long[] blocksize );
@@ -117,79 +252,275 @@ public class DownscaleToHdf5
 		public void writeLevelInfo( final long[] dimensions, final long[] factors, final long[] blocksize );
 	}
 
-	public static void writeLevelToHdf5File(
-			final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs,
-			final ExportMipmapInfo mipmapInfo,
-			final int level,
-			final BlockWriter writer,
-			final LevelInfoWriter levelInfoWriter )
+	public interface ProgressListener
 	{
-		final int n = imgs.get( 0 ).numDimensions();
-		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		/**
+		 * Called by the writing thread after each block, including blocks
+		 * that were complete already.
+		 *
+		 * @param numCompleted
+		 * @param numBlocks
+		 */
+		public void blockCompleted( final long numCompleted, final long numBlocks );
+	}
+
+	/**
+	 * A downscaled block on its way from a worker thread to the writer, or
+	 * the failure that prevented it.
+	 */
+	static protected class DownscaledBlock
+	{
+		final VolatileLabelMultisetArray data;
+		final long[] min;
+		final long[] dimensions;
+		final Throwable failure;
+
+		DownscaledBlock( final VolatileLabelMultisetArray data, final long[] min, final long[] dimensions, final Throwable failure )
+		{
+			this.data = data;
+			this.min = min;
+			this.dimensions = dimensions;
+			this.failure = failure;
+		}
+	}
 
-		// Are downsampling factors a multiple of a level that we have
-		// already written?
-		int[] factorsToPreviousLevel = null;
-		int previousLevel = -1;
-		A: for ( int l = level - 1; l >= 0; --l )
+	/**
+	 * Grid of output blocks for a scale level and the source image to
+	 * downscale them from.
+	 */
+	static protected class LevelGrid
+	{
+		final RandomAccessibleInterval< LabelMultisetType > extendedImg;
+		final long[] factors;
+		final int[] cellDimensions;
+		final long[] numCells;
+		final int[] borderSize;
+
+		LevelGrid(
+				final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs,
+				final ExportMipmapInfo mipmapInfo,
+				final int level,
+				final LevelInfoWriter levelInfoWriter )
 		{
-			final int[] f = new int[ n ];
+			final int n = imgs.get( 0 ).numDimensions();
+			final int[][] resolutions = mipmapInfo.getExportResolutions();
+
+			// Are downsampling factors a multiple of a level that we have
+			// already written?
+			int[] factorsToPreviousLevel = null;
+			int previousLevel = -1;
+			A: for ( int l = level - 1; l >= 0; --l )
+			{
+				final int[] f = new int[ n ];
+				for ( int d = 0; d < n; ++d )
+				{
+					f[ d ] = resolutions[ level ][ d ] / resolutions[ l ][ d ];
+					if ( f[ d ] * resolutions[ l ][ d ] != resolutions[ level ][ d ] )
+						continue A;
+				}
+				factorsToPreviousLevel = f;
+				previousLevel = l;
+				break;
+			}
+
+			final RandomAccessibleInterval< LabelMultisetType > sourceImg = imgs.get( previousLevel );
+			factors = Util.int2long( factorsToPreviousLevel );
+
+			final long[] dimensions = new long[ n ];
+			sourceImg.dimensions( dimensions );
+			for ( int d = 0; d < n; ++d )
+				dimensions[ d ] = Math.max( dimensions[ d ] / factors[ d ], 1 );
+
+			levelInfoWriter.writeLevelInfo( dimensions, Util.int2long( resolutions[ level ] ), Util.int2long( mipmapInfo.getSubdivisions()[ level ] ) );
+
+			final long[] minRequiredInput = new long[ n ];
+			final long[] maxRequiredInput = new long[ n ];
+			sourceImg.min( minRequiredInput );
 			for ( int d = 0; d < n; ++d )
+				maxRequiredInput[ d ] = minRequiredInput[ d ] + dimensions[ d ] * factors[ d ] - 1;
+			extendedImg = Views.interval( Views.extendBorder( sourceImg ), new FinalInterval( minRequiredInput, maxRequiredInput ) );
+
+			cellDimensions = mipmapInfo.getSubdivisions()[ level ];
+			numCells = new long[ n ];
+			borderSize = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
+				borderSize[ d ] = ( int ) ( dimensions[ d ] - ( numCells[ d ] - 1 ) * cellDimensions[ d ] );
+			}
+		}
+
+		LocalizingIntervalIterator cellIterator()
+		{
+			final long[] minCell = new long[ numCells.length ];
+			final long[] maxCell = new long[ numCells.length ];
+			for ( int d = 0; d < numCells.length; ++d )
+				maxCell[ d ] = numCells[ d ] - 1;
+			return new LocalizingIntervalIterator( minCell, maxCell );
+		}
+
+		long numBlocks()
+		{
+			long numBlocks = 1;
+			for ( final long s : numCells )
+				numBlocks *= s;
+			return numBlocks;
+		}
+
+		/**
+		 * Set min and dimensions of the block at the current position of a
+		 * cell iterator.
+		 */
+		void cell( final LocalizingIntervalIterator i, final long[] currentCellMin, final long[] currentCellDim )
+		{
+			for ( int d = 0; d < numCells.length; ++d )
 			{
-				f[ d ] = resolutions[ level ][ d ] / resolutions[ l ][ d ];
-				if ( f[ d ] * resolutions[ l ][ d ] != resolutions[ level ][ d ] )
-					continue A;
+				final long currentCellPos = i.getLongPosition( d );
+				currentCellMin[ d ] = currentCellPos * cellDimensions[ d ];
+				final boolean isBorderCellInThisDim = ( currentCellPos + 1 == numCells[ d ] );
+				currentCellDim[ d ] = isBorderCellInThisDim ? borderSize[ d ] : cellDimensions[ d ];
 			}
-			factorsToPreviousLevel = f;
-			previousLevel = l;
-			break;
 		}
 
-		final RandomAccessibleInterval< LabelMultisetType > sourceImg = imgs.get( previousLevel );
-		final long[] factors = Util.int2long( factorsToPreviousLevel );
-
-		final long[] dimensions = new long[ n ];
-		sourceImg.dimensions( dimensions );
-		for ( int d = 0; d < n; ++d )
-			dimensions[ d ] = Math.max( dimensions[ d ] / factors[ d ], 1 );
-
-		levelInfoWriter.writeLevelInfo( dimensions, Util.int2long( resolutions[ level ] ), Util.int2long( mipmapInfo.getSubdivisions()[ level ] ) );
-
-		final long[] minRequiredInput = new long[ n ];
-		final long[] maxRequiredInput = new long[ n ];
-		sourceImg.min( minRequiredInput );
-		for ( int d = 0; d < n; ++d )
-			maxRequiredInput[ d ] = minRequiredInput[ d ] + dimensions[ d ] * factors[ d ] - 1;
-		final RandomAccessibleInterval< LabelMultisetType > extendedImg = Views.interval( Views.extendBorder( sourceImg ), new FinalInterval( minRequiredInput, maxRequiredInput ) );
-
-		final int[] cellDimensions = mipmapInfo.getSubdivisions()[ level ];
-		final long[] numCells = new long[ n ];
-		final int[] borderSize = new int[ n ];
-		final long[] minCell = new long[ n ];
-		final long[] maxCell = new long[ n ];
-		for ( int d = 0; d < n; ++d )
-		{
-			numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
-			maxCell[ d ] = numCells[ d ] - 1;
-			borderSize[ d ] = ( int ) ( dimensions[ d ] - ( numCells[ d ] - 1 ) * cellDimensions[ d ] );
+		VolatileLabelMultisetArray downscale( final long[] currentCellMin, final long[] currentCellDim )
+		{
+			return Downscale.downscale( extendedImg, factors, currentCellDim, currentCellMin, OffHeapLongMappedAccessData.factory );
 		}
+	}
 
-		final LocalizingIntervalIterator i = new LocalizingIntervalIterator( minCell, maxCell );
+	public static void writeLevelToHdf5File(
+			final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs,
+			final ExportMipmapInfo mipmapInfo,
+			final int level,
+			final BlockWriter writer,
+			final LevelInfoWriter levelInfoWriter )
+	{
+		final LevelGrid grid = new LevelGrid( imgs, mipmapInfo, level, levelInfoWriter );
+		final int n = grid.numCells.length;
+		final LocalizingIntervalIterator i = grid.cellIterator();
 		final long[] currentCellMin = new long[ n ];
 		final long[] currentCellDim = new long[ n ];
-		final long[] currentCellPos = new long[ n ];
 		while ( i.hasNext() )
 		{
 			i.fwd();
-			i.localize( currentCellPos );
-			for ( int d = 0; d < n; ++d )
+			grid.cell( i, currentCellMin, currentCellDim );
+			final VolatileLabelMultisetArray downscaled = grid.downscale( currentCellMin, currentCellDim );
+			writer.writeBlock( downscaled, currentCellMin, currentCellDim );
+			release( downscaled );
+		}
+	}
+
+	/**
+	 * Downscale the blocks of a level in parallel on a {@link ForkJoinPool}.
+	 * Downscaled blocks are passed through a bounded queue to the calling
+	 * thread which is the only thread that calls the {@link BlockWriter}, the
+	 * {@link LevelInfoWriter} and the {@link ProgressListener}.  At most
+	 * twice the parallelism of the pool blocks are submitted and not yet
+	 * written at any time, i.e. memory does not grow with the number of
+	 * blocks.
+	 *
+	 * @param imgs
+	 * @param mipmapInfo
+	 * @param level
+	 * @param writer
+	 * @param levelInfoWriter
+	 * @param isBlockComplete
+	 *            tests whether the block at a given min has been written
+	 *            already and can be skipped
+	 * @param pool
+	 * @param progressListener
+	 * @throws InterruptedException
+	 */
+	public static void writeLevelToHdf5File(
+			final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs,
+			final ExportMipmapInfo mipmapInfo,
+			final int level,
+			final BlockWriter writer,
+			final LevelInfoWriter levelInfoWriter,
+			final Predicate< long[] > isBlockComplete,
+			final ForkJoinPool pool,
+			final ProgressListener progressListener ) throws InterruptedException
+	{
+		final LevelGrid grid = new LevelGrid( imgs, mipmapInfo, level, levelInfoWriter );
+		final int n = grid.numCells.length;
+		final long numBlocks = grid.numBlocks();
+		final int maxSubmitted = 2 * pool.getParallelism();
+		final BlockingQueue< DownscaledBlock > queue = new ArrayBlockingQueue<>( maxSubmitted );
+
+		long numCompleted = 0;
+		long numSubmitted = 0;
+		final LocalizingIntervalIterator i = grid.cellIterator();
+		while ( i.hasNext() )
+		{
+			i.fwd();
+			final long[] currentCellMin = new long[ n ];
+			final long[] currentCellDim = new long[ n ];
+			grid.cell( i, currentCellMin, currentCellDim );
+			if ( isBlockComplete.test( currentCellMin ) )
+				progressListener.blockCompleted( ++numCompleted, numBlocks );
+			else
 			{
-				currentCellMin[ d ] = currentCellPos[ d ] * cellDimensions[ d ];
-				final boolean isBorderCellInThisDim = ( currentCellPos[ d ] + 1 == numCells[ d ] );
-				currentCellDim[ d ] = isBorderCellInThisDim ? borderSize[ d ] : cellDimensions[ d ];
+				pool.execute( () -> {
+					DownscaledBlock block;
+					try
+					{
+						block = new DownscaledBlock( grid.downscale( currentCellMin, currentCellDim ), currentCellMin, currentCellDim, null );
+					}
+					catch ( final Throwable e )
+					{
+						block = new DownscaledBlock( null, currentCellMin, currentCellDim, e );
+					}
+					try
+					{
+						queue.put( block );
+					}
+					catch ( final InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+					}
+				} );
+				++numSubmitted;
+
+				/* wait for a block if too many are in flight */
+				if ( numSubmitted >= maxSubmitted )
+				{
+					--numSubmitted;
+					write( queue.take(), writer );
+					progressListener.blockCompleted( ++numCompleted, numBlocks );
+				}
+
+				/* write what is ready while submitting */
+				DownscaledBlock block;
+				while ( ( block = queue.poll() ) != null )
+				{
+					--numSubmitted;
+					write( block, writer );
+					progressListener.blockCompleted( ++numCompleted, numBlocks );
+				}
 			}
-			final VolatileLabelMultisetArray downscaled = Downscale.downscale( extendedImg, factors, currentCellDim, currentCellMin );
-			writer.writeBlock( downscaled, currentCellMin, currentCellDim );
 		}
+
+		for ( ; numSubmitted > 0; --numSubmitted )
+		{
+			write( queue.take(), writer );
+			progressListener.blockCompleted( ++numCompleted, numBlocks );
+		}
+	}
+
+	static private void write( final DownscaledBlock block, final BlockWriter writer )
+	{
+		if ( block.failure != null )
+			throw new RuntimeException( "Failed to downscale block at " + Util.printCoordinates( block.min ), block.failure );
+		writer.writeBlock( block.data, block.min, block.dimensions );
+		release( block.data );
+	}
+
+	/**
+	 * Return the off-heap pages of a written block to the pool.
+	 */
+	static void release( final VolatileLabelMultisetArray data )
+	{
+		if ( data.getListData() instanceof OffHeapLongMappedAccessData )
+			( ( OffHeapLongMappedAccessData ) data.getListData() ).release();
 	}
 }
@@ -0,0 +1,271 @@
+package bdv.labels.labelset;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.n5.N5LabelMultisetSetupImageLoader;
+import bdv.img.n5.N5LabelMultisets;
+import bdv.img.n5.N5Utils;
+import bdv.labels.labelset.DownscaleToHdf5.LevelGrid;
+import bdv.labels.labelset.DownscaleToHdf5.LevelInfoWriter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.util.Util;
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
+
+/**
+ * Generates a label multiset pyramid for a label dataset in an N5 container.
+ *
+ * Other than {@link DownscaleToHdf5}, blocks are downscaled and written by
+ * the worker threads of a {@link ForkJoinPool} because N5 blocks are
+ * independent files.  Blocks that exist in the output container already are
+ * skipped such that an interrupted run can be restarted with the same
+ * parameters.  The <code>levels</code> attribute of the pyramid group is
+ * updated after each completed level.
+ */
+public class DownscaleToN5
+{
+	static public class Parameters implements Callable< Optional< Void > >
+	{
+		@Option( names = { "--infile", "-i" }, required = true, description = "Input N5 container path" )
+		public String inFile = "";
+
+		@Option( names = { "--label", "-l" }, required = true, description = "label dataset" )
+		public String label = "";
+
+		@Option( names = { "--outfile", "-o" }, required = true, description = "Output N5 container path for the scale levels" )
+		public String outFile = "";
+
+		@Option( names = { "--group", "-g" }, description = "group of the scale levels in the output container" )
+		public String group = "label-multisets";
+
+		@Option( names = { "--resolution", "-r" }, description = "downsampling factors of each scale level relative to the label dataset, e.g. -r 2,2,1 -r 4,4,1" )
+		public List< String > resolutions = Arrays.asList( "2,2,1", "4,4,1", "8,8,1", "16,16,2", "32,32,3", "64,64,6" );
+
+		@Option( names = { "--blocksize", "-b" }, description = "block dimensions of the scale levels, e.g. 32,32,32" )
+		public String blockDimensions = "32,32,32";
+
+		@Option( names = { "--compression", "-z" }, description = "block compression, gzip or raw" )
+		public String compression = "gzip";
+
+		@Option( names = { "--threads", "-t" }, description = "number of threads for downscaling and writing" )
+		public int numThreads = Runtime.getRuntime().availableProcessors();
+
+		@Override
+		public Optional< Void > call()
+		{
+			return Optional.empty();
+		}
+	}
+
+	final static protected Compression parseCompression( final String compression )
+	{
+		switch ( compression.trim().toLowerCase() )
+		{
+		case "gzip":
+			return new GzipCompression();
+		case "raw":
+			return new RawCompression();
+		default:
+			throw new IllegalArgumentException( "Unknown compression " + compression );
+		}
+	}
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final Parameters params = new Parameters();
+		if ( CommandLine.call( params, args ) == null )
+			return;
+
+		final N5Reader reader = new N5FSReader( params.inFile );
+		final N5Writer writer = new N5FSWriter( params.outFile );
+		final int[] cellDimensions = reader.getDatasetAttributes( params.label ).getBlockSize();
+
+		final int[][] resolutions = new int[ params.resolutions.size() + 1 ][];
+		final int[][] subdivisions = new int[ resolutions.length ][];
+		resolutions[ 0 ] = new int[] { 1, 1, 1 };
+		subdivisions[ 0 ] = cellDimensions;
+		for ( int level = 1; level < resolutions.length; ++level )
+		{
+			resolutions[ level ] = DownscaleToHdf5.parseInts( params.resolutions.get( level - 1 ) );
+			subdivisions[ level ] = DownscaleToHdf5.parseInts( params.blockDimensions );
+		}
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo( resolutions, subdivisions );
+		final int numLevels = resolutions.length;
+		final Compression compression = parseCompression( params.compression );
+
+		writer.createGroup( params.group );
+		final ForkJoinPool pool = new ForkJoinPool( params.numThreads );
+		try
+		{
+			for ( int level = 1; level < numLevels; ++level )
+			{
+				final N5LabelMultisetSetupImageLoader fragments = new N5LabelMultisetSetupImageLoader(
+						reader,
+						level == 1 ? null : writer,
+						params.label,
+						params.group,
+						1,
+						new VolatileGlobalCellCache( 1, params.numThreads ) );
+
+				final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs = new ArrayList<>();
+				for ( int i = 0; i < level; ++i )
+					imgs.add( fragments.getImage( 0, i ) );
+
+				writeLevelToN5(
+						imgs,
+						mipmapInfo,
+						level,
+						writer,
+						N5LabelMultisets.scaleLevelDataset( params.group, level ),
+						compression,
+						pool );
+
+				writer.setAttribute( params.group, "levels", level + 1 );
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Create a {@link LevelInfoWriter} that creates the varlength uint8
+	 * dataset of a scale level read by {@link N5LabelMultisetSetupImageLoader}
+	 * unless it exists.
+	 */
+	public static LevelInfoWriter n5LevelInfoWriter(
+			final N5Writer writer,
+			final String dataset,
+			final Compression compression )
+	{
+		return new LevelInfoWriter()
+		{
+			@Override
+			public void writeLevelInfo( final long[] dimensions, final long[] factors, final long[] blocksize )
+			{
+				System.out.println( "writing " + dataset );
+				System.out.println( "dimensions = " + Util.printCoordinates( dimensions ) );
+				System.out.println( "factors = " + Util.printCoordinates( factors ) );
+				System.out.println( "blocksize = " + Util.printCoordinates( blocksize ) );
+
+				try
+				{
+					if ( !writer.datasetExists( dataset ) )
+						writer.createDataset( dataset, dimensions, Util.long2int( blocksize ), DataType.UINT8, compression );
+					writer.setAttribute( dataset, "downsamplingFactors", Arrays.stream( factors ).asDoubleStream().toArray() );
+				}
+				catch ( final IOException e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+		};
+	}
+
+	/**
+	 * Downscale and write the blocks of a level in parallel on a
+	 * {@link ForkJoinPool}.  Each block is written by the worker that
+	 * downscaled it.  At most twice the parallelism of the pool blocks are
+	 * submitted and not yet written at any time, i.e. memory does not grow
+	 * with the number of blocks.
+	 *
+	 * @param imgs
+	 * @param mipmapInfo
+	 * @param level
+	 * @param writer
+	 * @param dataset
+	 * @param compression
+	 * @param pool
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void writeLevelToN5(
+			final ArrayList< RandomAccessibleInterval< LabelMultisetType > > imgs,
+			final ExportMipmapInfo mipmapInfo,
+			final int level,
+			final N5Writer writer,
+			final String dataset,
+			final Compression compression,
+			final ForkJoinPool pool ) throws IOException, InterruptedException
+	{
+		final LevelGrid grid = new LevelGrid( imgs, mipmapInfo, level, n5LevelInfoWriter( writer, dataset, compression ) );
+		final DatasetAttributes attributes = writer.getDatasetAttributes( dataset );
+		final int n = grid.numCells.length;
+		final long numBlocks = grid.numBlocks();
+		final AtomicLong numCompleted = new AtomicLong();
+		final AtomicLong lastPercent = new AtomicLong( -1 );
+
+		final int maxSubmitted = 2 * pool.getParallelism();
+		final ArrayDeque< Future< ? > > futures = new ArrayDeque<>( maxSubmitted );
+		final LocalizingIntervalIterator i = grid.cellIterator();
+		try
+		{
+			while ( i.hasNext() )
+			{
+				i.fwd();
+				final long[] currentCellMin = new long[ n ];
+				final long[] currentCellDim = new long[ n ];
+				grid.cell( i, currentCellMin, currentCellDim );
+				futures.add( pool.submit( () -> {
+					final long[] gridPosition = N5Utils.gridPosition( currentCellMin, attributes.getBlockSize() );
+					if ( writer.readBlock( dataset, attributes, gridPosition ) == null )
+					{
+						final VolatileLabelMultisetArray downscaled = grid.downscale( currentCellMin, currentCellDim );
+						writer.writeBlock(
+								dataset,
+								attributes,
+								new ByteArrayDataBlock( Util.long2int( currentCellDim ), gridPosition, N5LabelMultisets.serialize( downscaled ) ) );
+						DownscaleToHdf5.release( downscaled );
+					}
+					final long completed = numCompleted.incrementAndGet();
+					final long percent = completed * 100 / numBlocks;
+					final long last = lastPercent.get();
+					if ( percent > last && lastPercent.compareAndSet( last, percent ) )
+						System.out.println( String.format( "level %d: %d/%d blocks (%d%%)", level, completed, numBlocks, percent ) );
+					return null;
+				} ) );
+
+				/* wait for the oldest block if too many are in flight */
+				if ( futures.size() >= maxSubmitted )
+					futures.poll().get();
+			}
+
+			while ( !futures.isEmpty() )
+				futures.poll().get();
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to downscale level " + level, e.getCause() );
+		}
+		finally
+		{
+			for ( final Future< ? > future : futures )
+				future.cancel( true );
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package bdv.labels.labelset;
+
+import java.util.Arrays;
+
+/**
+ * Builds {@link VolatileLabelMultisetArray VolatileLabelMultisetArrays} of
+ * single element multisets [id x 1] from arrays of label ids, e.g. the full
+ * resolution level of label datasets.
+ *
+ * Consecutive equal ids are detected without a hash lookup.  Other ids are
+ * deduplicated in an open addressing hash table that is reused by all
+ * builds of a thread, invalidating it between builds is a counter increment.
+ * All lists have the same size, such that the list storage is allocated
+ * once with its final size after the ids have been deduplicated and list
+ * offsets are known while scanning the ids.
+ *
+ * Use {@link #get()} to get the builder of the calling thread.
+ */
+public class LabelMultisetArrayBuilder
+{
+	final static private int LIST_SIZE = ByteUtils.INT_SIZE + LabelMultisetEntry.SIZE_IN_BYTES;
+
+	final static private int ID_OFFSET = ByteUtils.INT_SIZE + LabelMultisetEntry.LABEL_ID_OFFSET;
+
+	final static private int COUNT_OFFSET = ByteUtils.INT_SIZE + LabelMultisetEntry.COUNT_OFFSET;
+
+	final static private int MIN_BITS = 8;
+
+	final static private ThreadLocal< LabelMultisetArrayBuilder > builders = ThreadLocal.withInitial( LabelMultisetArrayBuilder::new );
+
+	/**
+	 * @return the builder of the calling thread
+	 */
+	static public LabelMultisetArrayBuilder get()
+	{
+		return builders.get();
+	}
+
+	/* hash table id -> list index, slots of other generations are empty */
+	private long[] keys;
+
+	private int[] values;
+
+	private int[] generations;
+
+	private int generation = 0;
+
+	private int shift;
+
+	/* ids of the lists in list index order */
+	private long[] ids = new long[ 256 ];
+
+	private int numIds;
+
+	/* run-length state */
+	private long previousId;
+
+	private int previousOffset;
+
+	public LabelMultisetArrayBuilder()
+	{
+		allocate( MIN_BITS );
+	}
+
+	private void allocate( final int bits )
+	{
+		keys = new long[ 1 << bits ];
+		values = new int[ 1 << bits ];
+		generations = new int[ 1 << bits ];
+		shift = 64 - bits;
+	}
+
+	private int slot( final long id )
+	{
+		return ( int ) ( ( id * 0x9e3779b97f4a7c15L ) >>> shift );
+	}
+
+	private void reset()
+	{
+		if ( ++generation == 0 )
+		{
+			/* wrapped around, stale slots could look current */
+			Arrays.fill( generations, 0 );
+			generation = 1;
+		}
+		numIds = 0;
+		previousOffset = -1;
+	}
+
+	/**
+	 * Grow the table once it is half full and re-insert the current
+	 * generation.
+	 */
+	private void grow()
+	{
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		final int[] oldGenerations = generations;
+		allocate( 64 - shift + 1 );
+		final int mask = keys.length - 1;
+		for ( int i = 0; i < oldKeys.length; ++i )
+		{
+			if ( oldGenerations[ i ] == generation )
+			{
+				int s = slot( oldKeys[ i ] );
+				while ( generations[ s ] == generation )
+					s = ( s + 1 ) & mask;
+				keys[ s ] = oldKeys[ i ];
+				values[ s ] = oldValues[ i ];
+				generations[ s ] = generation;
+			}
+		}
+	}
+
+	/**
+	 * @return the list offset of {@code id}
+	 */
+	private int offset( final long id )
+	{
+		if ( id == previousId && previousOffset >= 0 )
+			return previousOffset;
+
+		final int mask = keys.length - 1;
+		int s = slot( id );
+		while ( generations[ s ] == generation )
+		{
+			if ( keys[ s ] == id )
+			{
+				previousId = id;
+				previousOffset = values[ s ];
+				return previousOffset;
+			}
+			s = ( s + 1 ) & mask;
+		}
+
+		final int offset = numIds * LIST_SIZE;
+		keys[ s ] = id;
+		values[ s ] = offset;
+		generations[ s ] = generation;
+		if ( numIds == ids.length )
+			ids = Arrays.copyOf( ids, 2 * ids.length );
+		ids[ numIds++ ] = id;
+		if ( 2 * numIds > keys.length )
+			grow();
+
+		previousId = id;
+		previousOffset = offset;
+		return offset;
+	}
+
+	private VolatileLabelMultisetArray create( final int[] offsets )
+	{
+		final long listDataSize = ( long ) numIds * LIST_SIZE;
+		final LongMappedAccessData listData = OffHeapLongMappedAccessData.cacheFactory.createStorage( listDataSize );
+		final LongMappedAccess access = listData.createAccess();
+		for ( int i = 0, offset = 0; i < numIds; ++i, offset += LIST_SIZE )
+		{
+			access.putInt( 1, offset );
+			access.putLong( ids[ i ], offset + ID_OFFSET );
+			access.putInt( 1, offset + COUNT_OFFSET );
+		}
+		return new VolatileLabelMultisetArray( offsets, listData, listDataSize, true );
+	}
+
+	public VolatileLabelMultisetArray build( final long[] data )
+	{
+		reset();
+		final int[] offsets = new int[ data.length ];
+		for ( int i = 0; i < data.length; ++i )
+			offsets[ i ] = offset( data[ i ] );
+		return create( offsets );
+	}
+
+	/**
+	 * @param data
+	 * @param unsigned
+	 *            zero extend ids
+	 */
+	public VolatileLabelMultisetArray build( final int[] data, final boolean unsigned )
+	{
+		reset();
+		final long mask = unsigned ? 0xffffffffL : -1L;
+		final int[] offsets = new int[ data.length ];
+		for ( int i = 0; i < data.length; ++i )
+			offsets[ i ] = offset( data[ i ] & mask );
+		return create( offsets );
+	}
+
+	/**
+	 * @param data
+	 * @param unsigned
+	 *            zero extend ids
+	 */
+	public VolatileLabelMultisetArray build( final short[] data, final boolean unsigned )
+	{
+		reset();
+		final long mask = unsigned ? 0xffffL : -1L;
+		final int[] offsets = new int[ data.length ];
+		for ( int i = 0; i < data.length; ++i )
+			offsets[ i ] = offset( data[ i ] & mask );
+		return create( offsets );
+	}
+
+	/**
+	 * @param data
+	 * @param unsigned
+	 *            zero extend ids
+	 */
+	public VolatileLabelMultisetArray build( final byte[] data, final boolean unsigned )
+	{
+		reset();
+		final long mask = unsigned ? 0xffL : -1L;
+		final int[] offsets = new int[ data.length ];
+		for ( int i = 0; i < data.length; ++i )
+			offsets[ i ] = offset( data[ i ] & mask );
+		return create( offsets );
+	}
+
+	/**
+	 * Float labels are interpreted by their bits as unsigned ints.
+	 *
+	 * @param data
+	 */
+	public VolatileLabelMultisetArray build( final float[] data )
+	{
+		reset();
+		final int[] offsets = new int[ data.length ];
+		for ( int i = 0; i < data.length; ++i )
+			offsets[ i ] = offset( Float.floatToIntBits( data[ i ] ) & 0xffffffffL );
+		return create( offsets );
+	}
+}
@@ -0,0 +1,329 @@
+package bdv.labels.labelset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Compact binary format for blocks of label multisets, used for the scale
+ * levels of label multiset pyramids.
+ *
+ * <pre>
+ * byte    version
+ * byte    flags, bit 0: payload is deflated
+ * varint  number of pixels
+ * varint  payload length in bytes (deflated only)
+ * payload:
+ *   varint  number of lists
+ *   varint  size of the lists in mapped storage in bytes
+ *   lists:  varint size, then for each entry
+ *           zigzag varint id delta to the previous entry (first to 0),
+ *           varint count
+ *   pixels: runs of varint list index, varint run length
+ * </pre>
+ *
+ * Each list referenced by the pixels is stored once, in order of first
+ * reference.  Ids within a list are sorted by construction, such that
+ * deltas are small.  Decoding writes lists straight into a {@link LongMappedAccessData} of the
+ * final size and fills pixel runs with their list offsets.
+ */
+public class LabelMultisetBlockCodec
+{
+	final static public byte VERSION = 1;
+
+	final static public byte DEFLATE = 1;
+
+	final static private int ENTRY_SIZE = LabelMultisetEntry.SIZE_IN_BYTES;
+
+	final static private int ID_OFFSET = ByteUtils.INT_SIZE + LabelMultisetEntry.LABEL_ID_OFFSET;
+
+	final static private int COUNT_OFFSET = ByteUtils.INT_SIZE + LabelMultisetEntry.COUNT_OFFSET;
+
+	private LabelMultisetBlockCodec() {}
+
+	/**
+	 * Growable byte array with varint writers.
+	 */
+	static private class Output
+	{
+		byte[] bytes;
+
+		int size = 0;
+
+		Output( final int capacity )
+		{
+			bytes = new byte[ Math.max( 16, capacity ) ];
+		}
+
+		void ensure( final int n )
+		{
+			if ( size + n > bytes.length )
+				bytes = Arrays.copyOf( bytes, Math.max( size + n, 2 * bytes.length ) );
+		}
+
+		void writeByte( final byte b )
+		{
+			ensure( 1 );
+			bytes[ size++ ] = b;
+		}
+
+		void writeVarLong( long value )
+		{
+			ensure( 10 );
+			while ( ( value & ~0x7fL ) != 0 )
+			{
+				bytes[ size++ ] = ( byte ) ( ( value & 0x7f ) | 0x80 );
+				value >>>= 7;
+			}
+			bytes[ size++ ] = ( byte ) value;
+		}
+
+		void writeVarInt( final int value )
+		{
+			writeVarLong( value & 0xffffffffL );
+		}
+
+		void write( final Output output )
+		{
+			ensure( output.size );
+			System.arraycopy( output.bytes, 0, bytes, size, output.size );
+			size += output.size;
+		}
+
+		void write( final byte[] b, final int off, final int len )
+		{
+			ensure( len );
+			System.arraycopy( b, off, bytes, size, len );
+			size += len;
+		}
+	}
+
+	static private class Input
+	{
+		final byte[] bytes;
+
+		int position;
+
+		Input( final byte[] bytes, final int position )
+		{
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		long readVarLong()
+		{
+			long value = 0;
+			for ( int shift = 0;; shift += 7 )
+			{
+				final byte b = bytes[ position++ ];
+				value |= ( long ) ( b & 0x7f ) << shift;
+				if ( b >= 0 )
+					return value;
+			}
+		}
+
+		int readVarInt()
+		{
+			return ( int ) readVarLong();
+		}
+	}
+
+	/**
+	 * @param data
+	 * @param deflate
+	 *            deflate the payload, e.g. for storage without block
+	 *            compression
+	 * @return the encoded block
+	 */
+	static public byte[] encode( final VolatileLabelMultisetArray data, final boolean deflate )
+	{
+		final int[] offsets = data.getCurrentStorageArray();
+		final LongMappedAccess access = data.getListData().createAccess();
+
+		final TIntIntHashMap listIndices = new TIntIntHashMap(
+				Constants.DEFAULT_CAPACITY,
+				Constants.DEFAULT_LOAD_FACTOR,
+				-1,
+				-1 );
+		final Output lists = new Output( 256 );
+		final Output runs = new Output( 256 );
+		long listDataSize = 0;
+
+		int runIndex = -1;
+		int runLength = 0;
+		for ( final int offset : offsets )
+		{
+			int index = listIndices.get( offset );
+			if ( index == -1 )
+			{
+				index = listIndices.size();
+				listIndices.put( offset, index );
+
+				final int size = access.getInt( offset );
+				lists.writeVarInt( size );
+				long previousId = 0;
+				for ( int i = 0, entryOffset = offset; i < size; ++i, entryOffset += ENTRY_SIZE )
+				{
+					final long id = access.getLong( entryOffset + ID_OFFSET );
+					final long delta = id - previousId;
+					lists.writeVarLong( ( delta << 1 ) ^ ( delta >> 63 ) );
+					lists.writeVarInt( access.getInt( entryOffset + COUNT_OFFSET ) );
+					previousId = id;
+				}
+				listDataSize += ByteUtils.INT_SIZE + ( long ) size * ENTRY_SIZE;
+			}
+
+			if ( index == runIndex )
+				++runLength;
+			else
+			{
+				if ( runLength > 0 )
+				{
+					runs.writeVarInt( runIndex );
+					runs.writeVarInt( runLength );
+				}
+				runIndex = index;
+				runLength = 1;
+			}
+		}
+		if ( runLength > 0 )
+		{
+			runs.writeVarInt( runIndex );
+			runs.writeVarInt( runLength );
+		}
+
+		final Output payload = new Output( lists.size + runs.size + 20 );
+		payload.writeVarInt( listIndices.size() );
+		payload.writeVarLong( listDataSize );
+		payload.write( lists );
+		payload.write( runs );
+
+		final Output block = new Output( payload.size + 20 );
+		block.writeByte( VERSION );
+		block.writeByte( deflate ? DEFLATE : 0 );
+		block.writeVarInt( offsets.length );
+		if ( deflate )
+		{
+			block.writeVarInt( payload.size );
+			final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+			try
+			{
+				deflater.setInput( payload.bytes, 0, payload.size );
+				deflater.finish();
+				final byte[] buffer = new byte[ 8192 ];
+				while ( !deflater.finished() )
+				{
+					final int n = deflater.deflate( buffer );
+					block.write( buffer, 0, n );
+				}
+			}
+			finally
+			{
+				deflater.end();
+			}
+		}
+		else
+			block.write( payload );
+
+		return Arrays.copyOf( block.bytes, block.size );
+	}
+
+	/**
+	 * @param bytes
+	 *            encoded block
+	 * @return the decoded block
+	 */
+	static public VolatileLabelMultisetArray decode( final byte[] bytes )
+	{
+		if ( bytes[ 0 ] != VERSION )
+			throw new IllegalArgumentException( "Unsupported label multiset block version " + bytes[ 0 ] );
+
+		final int flags = bytes[ 1 ];
+		final Input header = new Input( bytes, 2 );
+		final int numElements = header.readVarInt();
+
+		final Input in;
+		if ( ( flags & DEFLATE ) != 0 )
+		{
+			final byte[] payload = new byte[ header.readVarInt() ];
+			final Inflater inflater = new Inflater();
+			try
+			{
+				inflater.setInput( bytes, header.position, bytes.length - header.position );
+				for ( int n = 0; n < payload.length; )
+				{
+					final int inflated = inflater.inflate( payload, n, payload.length - n );
+					if ( inflated == 0 && ( inflater.finished() || inflater.needsInput() ) )
+						throw new IllegalArgumentException( "Truncated label multiset block" );
+					n += inflated;
+				}
+			}
+			catch ( final DataFormatException e )
+			{
+				throw new IllegalArgumentException( e );
+			}
+			finally
+			{
+				inflater.end();
+			}
+			in = new Input( payload, 0 );
+		}
+		else
+			in = header;
+
+		final int numLists = in.readVarInt();
+		final long listDataSize = in.readVarLong();
+		final LongMappedAccessData listData = OffHeapLongMappedAccessData.cacheFactory.createStorage( listDataSize );
+		final LongMappedAccess access = listData.createAccess();
+		final int[] listOffsets = new int[ numLists ];
+		int offset = 0;
+		for ( int l = 0; l < numLists; ++l )
+		{
+			listOffsets[ l ] = offset;
+			final int size = in.readVarInt();
+			access.putInt( size, offset );
+			long id = 0;
+			for ( int i = 0, entryOffset = offset; i < size; ++i, entryOffset += ENTRY_SIZE )
+			{
+				final long zigzag = in.readVarLong();
+				id += ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+				access.putLong( id, entryOffset + ID_OFFSET );
+				access.putInt( in.readVarInt(), entryOffset + COUNT_OFFSET );
+			}
+			offset += ByteUtils.INT_SIZE + size * ENTRY_SIZE;
+		}
+
+		final int[] data = new int[ numElements ];
+		for ( int i = 0; i < numElements; )
+		{
+			final int listOffset = listOffsets[ in.readVarInt() ];
+			final int runLength = in.readVarInt();
+			Arrays.fill( data, i, i + runLength, listOffset );
+			i += runLength;
+		}
+
+		return new VolatileLabelMultisetArray( data, listData, listDataSize, true );
+	}
+
+	/**
+	 * Create list storage from the <code>int[]</code> lists of legacy HDF5
+	 * pyramid blocks with bulk copies.
+	 *
+	 * @param lists
+	 * @return
+	 */
+	static public LongMappedAccessData listDataFromInts( final int[] lists )
+	{
+		final LongMappedAccessData listData = OffHeapLongMappedAccessData.cacheFactory.createStorage( 4L * lists.length );
+		final ByteBuffer buffer = ByteBuffer.allocate( 4 * lists.length ).order( ByteOrder.nativeOrder() );
+		buffer.asIntBuffer().put( lists );
+		listData.copyFrom( buffer, 0 );
+		return listData;
+	}
+}
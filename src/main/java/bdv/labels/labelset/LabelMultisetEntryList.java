@@ -1,5 +1,7 @@
 package bdv.labels.labelset;
 
+import static bdv.labels.labelset.ByteUtils.INT_SIZE;
+
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Set;
@@ -30,6 +32,24 @@ public class LabelMultisetEntryList
 		super( LabelMultisetEntry.type, data, baseOffset );
 	}
 
+	/**
+	 * Get the id of the entry at {@code index} without creating a ref.  The
+	 * index is not checked.
+	 */
+	public long getId( final int index )
+	{
+		return getAccess().getLong( INT_SIZE + index * LabelMultisetEntry.SIZE_IN_BYTES + LabelMultisetEntry.LABEL_ID_OFFSET );
+	}
+
+	/**
+	 * Get the count of the entry at {@code index} without creating a ref.  The
+	 * index is not checked.
+	 */
+	public int getCount( final int index )
+	{
+		return getAccess().getInt( INT_SIZE + index * LabelMultisetEntry.SIZE_IN_BYTES + LabelMultisetEntry.COUNT_OFFSET );
+	}
+
 	protected int multisetSize()
 	{
 		int size = 0;
@@ -203,6 +203,37 @@ public class LabelMultisetType extends AbstractNativeType< LabelMultisetType > i
 		return entrySet;
 	}
 
+	/**
+	 * Get the entry list of this multiset for allocation free iteration with
+	 * {@link LabelMultisetEntryList#getId(int)} and
+	 * {@link LabelMultisetEntryList#getCount(int)}.  The list is reused and
+	 * refers to another multiset after this type has been moved.
+	 */
+	public LabelMultisetEntryList entries()
+	{
+		access.getValue( i, entries );
+		return entries;
+	}
+
+	/**
+	 * Get the array that stores this multiset.
+	 */
+	public VolatileLabelMultisetArray getArray()
+	{
+		return access;
+	}
+
+	/**
+	 * Get the offset of the entry list of this multiset in
+	 * {@link VolatileLabelMultisetArray#getListData()}.  Pixels with equal
+	 * multisets in one array share the same list, i.e. the offset identifies
+	 * the multiset within {@link #getArray()}.
+	 */
+	public int getListOffset()
+	{
+		return access.getCurrentStorageArray()[ i ];
+	}
+
 	@Override
 	public String toString()
 	{
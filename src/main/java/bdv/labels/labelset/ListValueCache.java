@@ -0,0 +1,65 @@
+package bdv.labels.labelset;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Direct mapped cache of int values derived from the entry lists of one
+ * {@link VolatileLabelMultisetArray}, e.g. the blended color of a multiset.
+ * Values are keyed by list offset, such that all pixels that share a list
+ * share the cached value.  A cache is valid for one owner and version, see
+ * {@link VolatileLabelMultisetArray#getListValueCache(Object, long)}.
+ *
+ * Offset and value are packed into one long, concurrent readers and writers
+ * therefore never see a value for the wrong list, colliding lists simply
+ * evict each other.
+ */
+public class ListValueCache
+{
+	final static public long MISSING = -1;
+
+	final static private int MAX_BITS = 12;
+
+	final private Object owner;
+
+	final private long version;
+
+	final private int shift;
+
+	final private AtomicLongArray entries;
+
+	public ListValueCache( final Object owner, final long version, final int numEntities )
+	{
+		this.owner = owner;
+		this.version = version;
+		int bits = 4;
+		while ( bits < MAX_BITS && ( 1 << bits ) < numEntities )
+			++bits;
+		shift = 32 - bits;
+		entries = new AtomicLongArray( 1 << bits );
+	}
+
+	public boolean isValidFor( final Object owner, final long version )
+	{
+		return this.owner == owner && this.version == version;
+	}
+
+	private int slot( final int listOffset )
+	{
+		return ( listOffset * 0x9e3779b9 ) >>> shift;
+	}
+
+	/**
+	 * @return the value cached for the list at {@code listOffset} as an
+	 *         unsigned int or {@link #MISSING}.
+	 */
+	public long get( final int listOffset )
+	{
+		final long entry = entries.get( slot( listOffset ) );
+		return ( int ) ( entry >>> 32 ) == listOffset + 1 ? entry & 0xffffffffL : MISSING;
+	}
+
+	public void put( final int listOffset, final int value )
+	{
+		entries.lazySet( slot( listOffset ), ( ( long ) ( listOffset + 1 ) << 32 ) | ( value & 0xffffffffL ) );
+	}
+}
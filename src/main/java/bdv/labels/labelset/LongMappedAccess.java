@@ -2,7 +2,9 @@ package bdv.labels.labelset;
 
 /**
  * A {@link MappedAccess} that stores its data in a portion of a {@code long[]}
- * array.
+ * array.  Storages without an array, e.g.
+ * {@link OffHeapLongMappedAccessData}, are accessed through the primitive
+ * accessors of {@link LongMappedAccessData}.
  *
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
@@ -48,73 +50,108 @@ public class LongMappedAccess implements MappedAccess< LongMappedAccess >
 	@Override
 	public void putByte( final byte value, final int offset )
 	{
-		ByteUtils.putByte( value, dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			ByteUtils.putByte( value, data, baseOffset + offset );
+		else
+			dataArray.putByte( value, baseOffset + offset );
 	}
 
 	@Override
 	public byte getByte( final int offset )
 	{
-		return ByteUtils.getByte( dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			return ByteUtils.getByte( data, baseOffset + offset );
+		return dataArray.getByte( baseOffset + offset );
 	}
 
 	@Override
 	public void putBoolean( final boolean value, final int offset )
 	{
-		ByteUtils.putBoolean( value, dataArray.data, baseOffset + offset );
+		putByte( value ? ( byte ) 1 : ( byte ) 0, offset );
 	}
 
 	@Override
 	public boolean getBoolean( final int offset )
 	{
-		return ByteUtils.getBoolean( dataArray.data, baseOffset + offset );
+		return getByte( offset ) != ( byte ) 0;
 	}
 
 	@Override
 	public void putInt( final int value, final int offset )
 	{
-		ByteUtils.putInt( value, dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			ByteUtils.putInt( value, data, baseOffset + offset );
+		else
+			dataArray.putInt( value, baseOffset + offset );
 	}
 
 	@Override
 	public int getInt( final int offset )
 	{
-		return ByteUtils.getInt( dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			return ByteUtils.getInt( data, baseOffset + offset );
+		return dataArray.getInt( baseOffset + offset );
 	}
 
 	@Override
 	public void putLong( final long value, final int offset )
 	{
-		ByteUtils.putLong( value, dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			ByteUtils.putLong( value, data, baseOffset + offset );
+		else
+			dataArray.putLong( value, baseOffset + offset );
 	}
 
 	@Override
 	public long getLong( final int offset )
 	{
-		return ByteUtils.getLong( dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			return ByteUtils.getLong( data, baseOffset + offset );
+		return dataArray.getLong( baseOffset + offset );
 	}
 
 	@Override
 	public void putFloat( final float value, final int offset )
 	{
-		ByteUtils.putFloat( value, dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			ByteUtils.putFloat( value, data, baseOffset + offset );
+		else
+			dataArray.putFloat( value, baseOffset + offset );
 	}
 
 	@Override
 	public float getFloat( final int offset )
 	{
-		return ByteUtils.getFloat( dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			return ByteUtils.getFloat( data, baseOffset + offset );
+		return dataArray.getFloat( baseOffset + offset );
 	}
 
 	@Override
 	public void putDouble( final double value, final int offset )
 	{
-		ByteUtils.putDouble( value, dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			ByteUtils.putDouble( value, data, baseOffset + offset );
+		else
+			dataArray.putDouble( value, baseOffset + offset );
 	}
 
 	@Override
 	public double getDouble( final int offset )
 	{
-		return ByteUtils.getDouble( dataArray.data, baseOffset + offset );
+		final long[] data = dataArray.data;
+		if ( data != null )
+			return ByteUtils.getDouble( data, baseOffset + offset );
+		return dataArray.getDouble( baseOffset + offset );
 	}
 
 	/**
@@ -142,7 +179,7 @@ public class LongMappedAccess implements MappedAccess< LongMappedAccess >
 	@Override
 	public void copyFrom( final LongMappedAccess fromAccess, final int numBytes )
 	{
-		ByteUtils.copyBytes( fromAccess.dataArray.data, fromAccess.baseOffset, dataArray.data, baseOffset, numBytes );
+		dataArray.copyFrom( fromAccess.dataArray, fromAccess.baseOffset, baseOffset, numBytes );
 	}
 
 	private long[] swapTmp = new long[ 0 ];
@@ -150,10 +187,22 @@ public class LongMappedAccess implements MappedAccess< LongMappedAccess >
 	@Override
 	public void swapWith( final LongMappedAccess access, final int numBytes )
 	{
-		if ( ( swapTmp.length << 3 ) < numBytes )
-			swapTmp = new long[ ( numBytes >> 3 ) + 1 ];
-		ByteUtils.copyBytes( dataArray.data, baseOffset, swapTmp, 0, numBytes );
-		ByteUtils.copyBytes( access.dataArray.data, access.baseOffset, dataArray.data, baseOffset, numBytes );
-		ByteUtils.copyBytes( swapTmp, 0, access.dataArray.data, access.baseOffset, numBytes );
+		if ( dataArray.data != null && access.dataArray.data != null )
+		{
+			if ( ( swapTmp.length << 3 ) < numBytes )
+				swapTmp = new long[ ( numBytes >> 3 ) + 1 ];
+			ByteUtils.copyBytes( dataArray.data, baseOffset, swapTmp, 0, numBytes );
+			ByteUtils.copyBytes( access.dataArray.data, access.baseOffset, dataArray.data, baseOffset, numBytes );
+			ByteUtils.copyBytes( swapTmp, 0, access.dataArray.data, access.baseOffset, numBytes );
+		}
+		else
+		{
+			for ( int i = 0; i < numBytes; ++i )
+			{
+				final byte b = getByte( i );
+				putByte( access.getByte( i ), i );
+				access.putByte( b, i );
+			}
+		}
 	}
 }
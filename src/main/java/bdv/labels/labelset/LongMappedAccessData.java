@@ -1,5 +1,8 @@
 package bdv.labels.labelset;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 
 /**
  * A {@link MappedElementArray} that stores {@link DoubleMappedElement
@@ -55,6 +58,17 @@ public class LongMappedAccessData implements MappedAccessData< LongMappedAccess
 		this.data = new long[ ( int ) longSize ];
 	}
 
+	/**
+	 * Constructor for subclasses that do not store their data in a
+	 * {@code long[]} array.  Such subclasses must override {@link #size()},
+	 * {@link #resize(long)} and all primitive accessors.
+	 */
+	protected LongMappedAccessData()
+	{
+		this.size = 0;
+		this.data = null;
+	}
+
 	@Override
 	public long size()
 	{
@@ -83,6 +97,105 @@ public class LongMappedAccessData implements MappedAccessData< LongMappedAccess
 		this.size = size;
 	}
 
+	/*
+	 * Primitive accessors at byte offsets into this container, used by
+	 * LongMappedAccess.
+	 */
+
+	protected byte getByte( final long offset )
+	{
+		return ByteUtils.getByte( data, offset );
+	}
+
+	protected void putByte( final byte value, final long offset )
+	{
+		ByteUtils.putByte( value, data, offset );
+	}
+
+	protected int getInt( final long offset )
+	{
+		return ByteUtils.getInt( data, offset );
+	}
+
+	protected void putInt( final int value, final long offset )
+	{
+		ByteUtils.putInt( value, data, offset );
+	}
+
+	protected long getLong( final long offset )
+	{
+		return ByteUtils.getLong( data, offset );
+	}
+
+	protected void putLong( final long value, final long offset )
+	{
+		ByteUtils.putLong( value, data, offset );
+	}
+
+	protected float getFloat( final long offset )
+	{
+		return ByteUtils.getFloat( data, offset );
+	}
+
+	protected void putFloat( final float value, final long offset )
+	{
+		ByteUtils.putFloat( value, data, offset );
+	}
+
+	protected double getDouble( final long offset )
+	{
+		return ByteUtils.getDouble( data, offset );
+	}
+
+	protected void putDouble( final double value, final long offset )
+	{
+		ByteUtils.putDouble( value, data, offset );
+	}
+
+	/**
+	 * Copy {@code numBytes} bytes from {@code src} into this container.
+	 * Overlapping regions in the same container are copied correctly.
+	 */
+	protected void copyFrom( final LongMappedAccessData src, final long srcOffset, final long dstOffset, final int numBytes )
+	{
+		if ( src.data != null && data != null )
+			ByteUtils.copyBytes( src.data, srcOffset, data, dstOffset, numBytes );
+		else if ( src == this && srcOffset < dstOffset )
+		{
+			for ( int i = numBytes - 1; i >= 0; --i )
+				putByte( src.getByte( srcOffset + i ), dstOffset + i );
+		}
+		else
+		{
+			int i = 0;
+			for ( ; i + ByteUtils.LONG_SIZE <= numBytes; i += ByteUtils.LONG_SIZE )
+				putLong( src.getLong( srcOffset + i ), dstOffset + i );
+			for ( ; i < numBytes; ++i )
+				putByte( src.getByte( srcOffset + i ), dstOffset + i );
+		}
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer into this container starting at
+	 * {@code offset}.  Bytes are copied as they are, i.e. values in the
+	 * buffer must be in native byte order.
+	 */
+	public void copyFrom( final ByteBuffer source, final long offset )
+	{
+		final ByteBuffer src = source.duplicate();
+		long o = offset;
+		if ( ( o & ( ByteUtils.LONG_SIZE - 1 ) ) == 0 )
+		{
+			final LongBuffer longs = src.slice().order( ByteOrder.nativeOrder() ).asLongBuffer();
+			final int n = longs.remaining();
+			longs.get( data, ( int ) ( o / ByteUtils.LONG_SIZE ), n );
+			src.position( src.position() + n * ByteUtils.LONG_SIZE );
+			o += n * ByteUtils.LONG_SIZE;
+		}
+		while ( src.hasRemaining() )
+			putByte( src.get(), o++ );
+	}
+
 	/**
 	 * A factory for {@link LongMappedAccessData}s.
 	 */
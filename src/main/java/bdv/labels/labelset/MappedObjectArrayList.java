@@ -132,6 +132,15 @@ public class MappedObjectArrayList< O extends MappedObject< O, T >, T extends Ma
 			data.resize( 2 * ( elementBaseOffset + required ) );
 	}
 
+	/**
+	 * The access that refers to the size field of this list, elements start
+	 * at offset {@link ByteUtils#INT_SIZE}.
+	 */
+	protected T getAccess()
+	{
+		return access;
+	}
+
 	public long getBaseOffset()
 	{
 		return baseOffset;
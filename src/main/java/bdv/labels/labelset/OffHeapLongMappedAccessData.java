@@ -0,0 +1,525 @@
+package bdv.labels.labelset;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LongMappedAccessData} that stores its data outside of the Java
+ * heap in direct {@link ByteBuffer ByteBuffers}.
+ *
+ * The storage is split into pages of growing size: page 0 covers bytes
+ * [0,P), page i &gt; 0 covers bytes [P2<sup>i-1</sup>,P2<sup>i</sup>) until
+ * pages reach {@link #MAX_PAGE_SIZE}, after which all pages have that size.
+ * {@link #resize(long) Growing} the storage only allocates new pages, existing
+ * data is never copied.  Values that straddle a page boundary are assembled
+ * byte by byte in native byte order.  Page 0 is allocated with the initial
+ * size rounded up to one of eight size classes per power of two, such that
+ * storages that do not grow, e.g. loaded blocks, waste at most 1/8 of their
+ * size.  It is replaced by a full page when the storage grows beyond it.
+ *
+ * Pages are taken from and returned to a shared {@link PagePool}, allocating
+ * direct buffers is expensive.  The pages of a storage are returned when it
+ * is {@link #release() released}, or after it was garbage collected, e.g.
+ * when a cache dropped it.
+ */
+public class OffHeapLongMappedAccessData extends LongMappedAccessData
+{
+	final static public int MIN_PAGE_SIZE = 64;
+
+	final static public int MAX_PAGE_SIZE = 1 << 30;
+
+	final static private int MAX_PAGE_SHIFT = 30;
+
+	final static private boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	final static private ByteBuffer[] NO_PAGES = new ByteBuffer[ 0 ];
+
+	/**
+	 * Recycled direct {@link ByteBuffer ByteBuffers} by capacity.  Pooled
+	 * pages are zeroed before they are reused.
+	 */
+	static public class PagePool
+	{
+		final private ConcurrentHashMap< Integer, ConcurrentLinkedDeque< ByteBuffer > > pages = new ConcurrentHashMap<>();
+
+		/* bytes in pages that are pooled */
+		final private AtomicLong pooledBytes = new AtomicLong();
+
+		/* bytes in pages that are in use or pooled */
+		final private AtomicLong allocatedBytes = new AtomicLong();
+
+		private volatile long maxPooledBytes;
+
+		private PagePool( final long maxPooledBytes )
+		{
+			this.maxPooledBytes = maxPooledBytes;
+		}
+
+		private ByteBuffer take( final int capacity )
+		{
+			recycleCollected();
+			final ConcurrentLinkedDeque< ByteBuffer > queue = pages.get( capacity );
+			if ( queue != null )
+			{
+				final ByteBuffer page = queue.pollFirst();
+				if ( page != null )
+				{
+					pooledBytes.addAndGet( -capacity );
+					for ( int i = 0; i < capacity; i += ByteUtils.LONG_SIZE )
+						page.putLong( i, 0 );
+					return page;
+				}
+			}
+			allocatedBytes.addAndGet( capacity );
+			return ByteBuffer.allocateDirect( capacity ).order( ByteOrder.nativeOrder() );
+		}
+
+		private void give( final ByteBuffer page )
+		{
+			final int capacity = page.capacity();
+			if ( pooledBytes.addAndGet( capacity ) <= maxPooledBytes )
+				pages.computeIfAbsent( capacity, c -> new ConcurrentLinkedDeque<>() ).addFirst( page );
+			else
+			{
+				/* dropped pages are freed by their cleaner */
+				pooledBytes.addAndGet( -capacity );
+				allocatedBytes.addAndGet( -capacity );
+			}
+		}
+
+		/**
+		 * @return bytes in pages that are in use or pooled
+		 */
+		public long getAllocatedBytes()
+		{
+			return allocatedBytes.get();
+		}
+
+		/**
+		 * @return bytes in pooled pages
+		 */
+		public long getPooledBytes()
+		{
+			return pooledBytes.get();
+		}
+
+		public void setMaxPooledBytes( final long maxPooledBytes )
+		{
+			this.maxPooledBytes = maxPooledBytes;
+		}
+	}
+
+	final static public PagePool pool = new PagePool( 1L << 28 );
+
+	/**
+	 * The pages of a storage.  Reachable through {@link #registered} until
+	 * the pages were recycled, such that they can be returned to the
+	 * {@link #pool} after the storage was garbage collected.
+	 */
+	static private class Pages extends PhantomReference< OffHeapLongMappedAccessData >
+	{
+		private ByteBuffer[] buffers = NO_PAGES;
+
+		private Pages( final OffHeapLongMappedAccessData data )
+		{
+			super( data, collected );
+		}
+	}
+
+	final static private ReferenceQueue< OffHeapLongMappedAccessData > collected = new ReferenceQueue<>();
+
+	final static private Set< Pages > registered = ConcurrentHashMap.newKeySet();
+
+	static private void recycle( final Pages pages )
+	{
+		if ( registered.remove( pages ) )
+			for ( final ByteBuffer page : pages.buffers )
+				pool.give( page );
+		pages.buffers = NO_PAGES;
+	}
+
+	/**
+	 * Return the pages of storages that were garbage collected to the
+	 * {@link #pool}.
+	 */
+	static public void recycleCollected()
+	{
+		for ( Reference< ? extends OffHeapLongMappedAccessData > ref = collected.poll(); ref != null; ref = collected.poll() )
+			recycle( ( Pages ) ref );
+	}
+
+	/** log<sub>2</sub> of the size of the first page */
+	private final int pageShift;
+
+	/** index of the last page of growing size */
+	private final int maxGrowingPage;
+
+	/** first byte after the pages of growing size */
+	private final long growingPagesEnd;
+
+	private final Pages pages;
+
+	/* page 0, accessed without page lookup */
+	private ByteBuffer firstPage;
+
+	private int firstPageCapacity;
+
+	private long size = 0;
+
+	/**
+	 * Create a new storage of {@code size} bytes.  The first page is large
+	 * enough to hold the initial size (within [{@link #MIN_PAGE_SIZE},
+	 * {@link #MAX_PAGE_SIZE}]).
+	 */
+	protected OffHeapLongMappedAccessData( final long size )
+	{
+		int shift = Integer.numberOfTrailingZeros( MIN_PAGE_SIZE );
+		while ( shift < MAX_PAGE_SHIFT && ( 1L << shift ) < size )
+			++shift;
+		pageShift = shift;
+		maxGrowingPage = MAX_PAGE_SHIFT - pageShift + 1;
+		growingPagesEnd = 1L << ( MAX_PAGE_SHIFT + 1 );
+
+		pages = new Pages( this );
+		registered.add( pages );
+		setPages( new ByteBuffer[]{ pool.take( Math.min( sizeClass( size ), pageSize( 0 ) ) ) } );
+		resize( size );
+	}
+
+	/**
+	 * Round a size up to one of eight size classes per power of two, at
+	 * least {@link #MIN_PAGE_SIZE}.
+	 */
+	static protected int sizeClass( final long size )
+	{
+		if ( size <= MIN_PAGE_SIZE )
+			return MIN_PAGE_SIZE;
+		final long step = 1L << ( 60 - Long.numberOfLeadingZeros( size - 1 ) );
+		return ( int ) Math.min( MAX_PAGE_SIZE, ( size + step - 1 ) / step * step );
+	}
+
+	private void setPages( final ByteBuffer[] buffers )
+	{
+		pages.buffers = buffers;
+		firstPage = buffers[ 0 ];
+		firstPageCapacity = firstPage.capacity();
+	}
+
+	protected int pageIndex( final long offset )
+	{
+		if ( offset < growingPagesEnd )
+		{
+			final long q = offset >>> pageShift;
+			return q == 0 ? 0 : 64 - Long.numberOfLeadingZeros( q );
+		}
+		else
+			return maxGrowingPage + 1 + ( int ) ( ( offset - growingPagesEnd ) >>> MAX_PAGE_SHIFT );
+	}
+
+	protected long pageStart( final int page )
+	{
+		if ( page == 0 )
+			return 0;
+		else if ( page <= maxGrowingPage )
+			return 1L << ( pageShift + page - 1 );
+		else
+			return growingPagesEnd + ( ( long ) ( page - maxGrowingPage - 1 ) << MAX_PAGE_SHIFT );
+	}
+
+	protected int pageSize( final int page )
+	{
+		if ( page == 0 )
+			return 1 << pageShift;
+		else if ( page <= maxGrowingPage )
+			return 1 << ( pageShift + page - 1 );
+		else
+			return MAX_PAGE_SIZE;
+	}
+
+	@Override
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc} Pages are allocated as required, shrinking keeps the
+	 * allocated pages.
+	 */
+	@Override
+	public void resize( final long size )
+	{
+		if ( size > 0 )
+		{
+			ByteBuffer[] buffers = pages.buffers;
+			if ( size > firstPageCapacity && firstPageCapacity < pageSize( 0 ) )
+			{
+				final ByteBuffer page = pool.take( pageSize( 0 ) );
+				final ByteBuffer old = firstPage.duplicate();
+				old.clear();
+				page.duplicate().put( old );
+				buffers = buffers.clone();
+				buffers[ 0 ] = page;
+				pool.give( firstPage );
+			}
+			final int numPages = pageIndex( size - 1 ) + 1;
+			if ( numPages > buffers.length )
+			{
+				final int oldNumPages = buffers.length;
+				buffers = Arrays.copyOf( buffers, numPages );
+				for ( int i = oldNumPages; i < numPages; ++i )
+					buffers[ i ] = pool.take( pageSize( i ) );
+			}
+			if ( buffers != pages.buffers )
+				setPages( buffers );
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Return the pages of this storage to the {@link #pool}.  The storage
+	 * must not be used afterwards.
+	 */
+	public void release()
+	{
+		pages.clear();
+		recycle( pages );
+		firstPage = null;
+		firstPageCapacity = 0;
+		size = 0;
+	}
+
+	/**
+	 * Read {@code numBytes} bytes starting at {@code offset} into the lower
+	 * bytes of a long, assuming native byte order.
+	 */
+	private long getBytes( final long offset, final int numBytes )
+	{
+		long value = 0;
+		for ( int i = 0; i < numBytes; ++i )
+		{
+			final long b = getByte( offset + i ) & 0xffL;
+			if ( LITTLE_ENDIAN )
+				value |= b << ( 8 * i );
+			else
+				value = ( value << 8 ) | b;
+		}
+		return value;
+	}
+
+	/**
+	 * Write the lower {@code numBytes} bytes of a long starting at
+	 * {@code offset}, assuming native byte order.
+	 */
+	private void putBytes( final long value, final long offset, final int numBytes )
+	{
+		for ( int i = 0; i < numBytes; ++i )
+		{
+			final int shift = LITTLE_ENDIAN ? 8 * i : 8 * ( numBytes - 1 - i );
+			putByte( ( byte ) ( value >>> shift ), offset + i );
+		}
+	}
+
+	@Override
+	protected byte getByte( final long offset )
+	{
+		if ( offset < firstPageCapacity )
+			return firstPage.get( ( int ) offset );
+		final int page = pageIndex( offset );
+		return pages.buffers[ page ].get( ( int ) ( offset - pageStart( page ) ) );
+	}
+
+	@Override
+	protected void putByte( final byte value, final long offset )
+	{
+		if ( offset < firstPageCapacity )
+		{
+			firstPage.put( ( int ) offset, value );
+			return;
+		}
+		final int page = pageIndex( offset );
+		pages.buffers[ page ].put( ( int ) ( offset - pageStart( page ) ), value );
+	}
+
+	@Override
+	protected int getInt( final long offset )
+	{
+		if ( offset + ByteUtils.INT_SIZE <= firstPageCapacity )
+			return firstPage.getInt( ( int ) offset );
+		final int page = pageIndex( offset );
+		final ByteBuffer buffer = pages.buffers[ page ];
+		final int pageOffset = ( int ) ( offset - pageStart( page ) );
+		if ( pageOffset + ByteUtils.INT_SIZE <= buffer.capacity() )
+			return buffer.getInt( pageOffset );
+		else
+			return ( int ) getBytes( offset, ByteUtils.INT_SIZE );
+	}
+
+	@Override
+	protected void putInt( final int value, final long offset )
+	{
+		if ( offset + ByteUtils.INT_SIZE <= firstPageCapacity )
+		{
+			firstPage.putInt( ( int ) offset, value );
+			return;
+		}
+		final int page = pageIndex( offset );
+		final ByteBuffer buffer = pages.buffers[ page ];
+		final int pageOffset = ( int ) ( offset - pageStart( page ) );
+		if ( pageOffset + ByteUtils.INT_SIZE <= buffer.capacity() )
+			buffer.putInt( pageOffset, value );
+		else
+			putBytes( value, offset, ByteUtils.INT_SIZE );
+	}
+
+	@Override
+	protected long getLong( final long offset )
+	{
+		if ( offset + ByteUtils.LONG_SIZE <= firstPageCapacity )
+			return firstPage.getLong( ( int ) offset );
+		final int page = pageIndex( offset );
+		final ByteBuffer buffer = pages.buffers[ page ];
+		final int pageOffset = ( int ) ( offset - pageStart( page ) );
+		if ( pageOffset + ByteUtils.LONG_SIZE <= buffer.capacity() )
+			return buffer.getLong( pageOffset );
+		else
+			return getBytes( offset, ByteUtils.LONG_SIZE );
+	}
+
+	@Override
+	protected void putLong( final long value, final long offset )
+	{
+		if ( offset + ByteUtils.LONG_SIZE <= firstPageCapacity )
+		{
+			firstPage.putLong( ( int ) offset, value );
+			return;
+		}
+		final int page = pageIndex( offset );
+		final ByteBuffer buffer = pages.buffers[ page ];
+		final int pageOffset = ( int ) ( offset - pageStart( page ) );
+		if ( pageOffset + ByteUtils.LONG_SIZE <= buffer.capacity() )
+			buffer.putLong( pageOffset, value );
+		else
+			putBytes( value, offset, ByteUtils.LONG_SIZE );
+	}
+
+	@Override
+	protected float getFloat( final long offset )
+	{
+		return Float.intBitsToFloat( getInt( offset ) );
+	}
+
+	@Override
+	protected void putFloat( final float value, final long offset )
+	{
+		putInt( Float.floatToRawIntBits( value ), offset );
+	}
+
+	@Override
+	protected double getDouble( final long offset )
+	{
+		return Double.longBitsToDouble( getLong( offset ) );
+	}
+
+	@Override
+	protected void putDouble( final double value, final long offset )
+	{
+		putLong( Double.doubleToRawLongBits( value ), offset );
+	}
+
+	@Override
+	public void copyFrom( final ByteBuffer source, final long offset )
+	{
+		final ByteBuffer src = source.duplicate();
+		long o = offset;
+		while ( src.hasRemaining() )
+		{
+			final int page = pageIndex( o );
+			final ByteBuffer buffer = pages.buffers[ page ].duplicate();
+			buffer.clear();
+			buffer.position( ( int ) ( o - pageStart( page ) ) );
+			final int n = Math.min( buffer.remaining(), src.remaining() );
+			final ByteBuffer chunk = src.duplicate();
+			chunk.limit( chunk.position() + n );
+			buffer.put( chunk );
+			src.position( src.position() + n );
+			o += n;
+		}
+	}
+
+	/**
+	 * A factory for {@link OffHeapLongMappedAccessData}s.
+	 */
+	public static final MappedAccessData.Factory< OffHeapLongMappedAccessData, LongMappedAccess > factory =
+			new MappedAccessData.Factory< OffHeapLongMappedAccessData, LongMappedAccess >()
+			{
+				@Override
+				public OffHeapLongMappedAccessData createStorage( final long size )
+				{
+					return new OffHeapLongMappedAccessData( size );
+				}
+
+				@Override
+				public LongMappedAccess createAccess()
+				{
+					return new LongMappedAccess( null, 0 );
+				}
+			};
+
+	/*
+	 * Half of the maximum heap size, which is also the default limit for
+	 * direct buffers.
+	 */
+	static private volatile long maxCacheBytes = Runtime.getRuntime().maxMemory() / 2;
+
+	/**
+	 * Set the number of bytes in pages, including pooled pages, up to which
+	 * {@link #cacheFactory} creates off-heap storage.
+	 */
+	static public void setMaxCacheBytes( final long maxCacheBytes )
+	{
+		OffHeapLongMappedAccessData.maxCacheBytes = maxCacheBytes;
+	}
+
+	static public long getMaxCacheBytes()
+	{
+		return maxCacheBytes;
+	}
+
+	/**
+	 * A factory for the list storage of loaded blocks.  Creates
+	 * {@link OffHeapLongMappedAccessData}s while the allocated pages stay
+	 * below {@link #getMaxCacheBytes()} and heap
+	 * {@link LongMappedAccessData}s otherwise.  Caches that hold their blocks
+	 * through soft references are cleared under heap pressure only, heap
+	 * storage beyond the limit lets the garbage collector drop cached blocks
+	 * whose pages are then recycled.
+	 */
+	public static final MappedAccessData.Factory< LongMappedAccessData, LongMappedAccess > cacheFactory =
+			new MappedAccessData.Factory< LongMappedAccessData, LongMappedAccess >()
+			{
+				@Override
+				public LongMappedAccessData createStorage( final long size )
+				{
+					recycleCollected();
+					if ( pool.getAllocatedBytes() + size <= maxCacheBytes )
+						return new OffHeapLongMappedAccessData( size );
+					else
+						return LongMappedAccessData.factory.createStorage( size );
+				}
+
+				@Override
+				public LongMappedAccess createAccess()
+				{
+					return new LongMappedAccess( null, 0 );
+				}
+			};
+}
@@ -15,6 +15,8 @@ public class VolatileLabelMultisetArray implements VolatileAccess, VolatileArray
 
 	private final long listDataUsedSizeInBytes;
 
+	private volatile ListValueCache listValueCache = null;
+
 	public VolatileLabelMultisetArray( final int numEntities, final boolean isValid )
 	{
 		this.data = new int[ numEntities ];
@@ -77,6 +79,22 @@ public class VolatileLabelMultisetArray implements VolatileAccess, VolatileArray
 		return listDataUsedSizeInBytes;
 	}
 
+	/**
+	 * Get the {@link ListValueCache} of this array for {@code owner} and
+	 * {@code version}.  A new empty cache replaces the current cache if it
+	 * was created for another owner or version.
+	 */
+	public ListValueCache getListValueCache( final Object owner, final long version )
+	{
+		final ListValueCache cache = listValueCache;
+		if ( cache != null && cache.isValidFor( owner, version ) )
+			return cache;
+
+		final ListValueCache newCache = new ListValueCache( owner, version, data.length );
+		listValueCache = newCache;
+		return newCache;
+	}
+
 	@Override
 	public boolean isValid()
 	{
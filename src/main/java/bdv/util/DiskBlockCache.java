@@ -0,0 +1,385 @@
+package bdv.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent second level cache for the raw bytes of remote blocks, e.g.
+ * DVID or Knossos cells, that sits between a
+ * {@link bdv.img.cache.CacheArrayLoader} and the network.
+ *
+ * Blocks are keyed by a string that identifies server, version and block,
+ * typically the request URL.  Each block is a file in the cache directory
+ * named by the SHA-1 of its key, with a header that stores the key.  Hits
+ * are memory mapped.  The total size of all blocks is bounded, least
+ * recently used blocks are evicted first.  The access order survives
+ * restarts through the modification time of the files.
+ *
+ * Blocks of mutable sources, e.g. DVID nodes that are not locked, can be
+ * invalidated by key prefix, see {@link #dvidNodeKey(String, String)}.
+ */
+public class DiskBlockCache
+{
+	final static private int MAGIC = 0x62636463;
+
+	final static private int HEADER_SIZE = 8;
+
+	final static private String SUFFIX = ".block";
+
+	/**
+	 * Fetches a block that is not cached, e.g. over HTTP.
+	 */
+	public static interface Fetcher
+	{
+		public byte[] fetch( String key ) throws IOException;
+	}
+
+	static private class Entry
+	{
+		final Path path;
+
+		final long size;
+
+		Entry( final Path path, final long size )
+		{
+			this.path = path;
+			this.size = size;
+		}
+	}
+
+	final private Path directory;
+
+	final private long maxBytes;
+
+	/* access ordered, the eldest entry is evicted first */
+	final private LinkedHashMap< String, Entry > entries = new LinkedHashMap<>( 256, 0.75f, true );
+
+	private long bytes = 0;
+
+	final private AtomicLong hits = new AtomicLong();
+
+	final private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Open or create a cache in {@code directory}.  Blocks that remain from
+	 * earlier sessions are indexed in the order of their last access.
+	 *
+	 * @param directory
+	 * @param maxBytes
+	 *            upper bound for the total size of all blocks on disk
+	 * @throws IOException
+	 */
+	public DiskBlockCache( final String directory, final long maxBytes ) throws IOException
+	{
+		this.directory = Paths.get( directory );
+		this.maxBytes = maxBytes;
+		Files.createDirectories( this.directory );
+		index();
+	}
+
+	/**
+	 * @return the default cache directory in the user's home
+	 */
+	static public String defaultDirectory()
+	{
+		return Paths.get( System.getProperty( "user.home" ), ".bigcat", "block-cache" ).toString();
+	}
+
+	/**
+	 * @param apiUrl
+	 * @param nodeId
+	 * @return the key prefix of all blocks of a DVID node
+	 */
+	static public String dvidNodeKey( final String apiUrl, final String nodeId )
+	{
+		return apiUrl + "/node/" + nodeId + "/";
+	}
+
+	private void index() throws IOException
+	{
+		/* interrupted puts */
+		try ( final DirectoryStream< Path > files = Files.newDirectoryStream( directory, "*.tmp" ) )
+		{
+			for ( final Path path : files )
+				Files.deleteIfExists( path );
+		}
+
+		final List< Path > paths = new ArrayList<>();
+		try ( final DirectoryStream< Path > files = Files.newDirectoryStream( directory, "*" + SUFFIX ) )
+		{
+			for ( final Path path : files )
+				paths.add( path );
+		}
+		final Map< Path, FileTime > times = new HashMap<>();
+		for ( final Path path : paths )
+			times.put( path, Files.getLastModifiedTime( path ) );
+		paths.sort( ( a, b ) -> times.get( a ).compareTo( times.get( b ) ) );
+
+		synchronized ( this )
+		{
+			for ( final Path path : paths )
+			{
+				try
+				{
+					final String key = readKey( path );
+					if ( key == null )
+						Files.deleteIfExists( path );
+					else
+					{
+						final Entry entry = new Entry( path, Files.size( path ) );
+						entries.put( key, entry );
+						bytes += entry.size;
+					}
+				}
+				catch ( final IOException e )
+				{
+					Files.deleteIfExists( path );
+				}
+			}
+		}
+		evict();
+	}
+
+	static private String readKey( final Path path ) throws IOException
+	{
+		try ( final DataInputStream in = new DataInputStream( Files.newInputStream( path ) ) )
+		{
+			if ( in.readInt() != MAGIC )
+				return null;
+			final byte[] key = new byte[ in.readInt() ];
+			in.readFully( key );
+			return new String( key, StandardCharsets.UTF_8 );
+		}
+	}
+
+	static private String hash( final String key )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder hex = new StringBuilder( 2 * digest.length );
+			for ( final byte b : digest )
+				hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+			return hex.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return a read-only memory mapped buffer of the block's bytes or
+	 *         {@code null} if the block is not cached
+	 */
+	public ByteBuffer get( final String key )
+	{
+		final Entry entry;
+		synchronized ( this )
+		{
+			entry = entries.get( key );
+		}
+		if ( entry == null )
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try ( final FileChannel channel = FileChannel.open( entry.path, StandardOpenOption.READ ) )
+		{
+			final ByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+			if ( mapped.getInt() != MAGIC || mapped.getInt() != keyBytes.length )
+				throw new IOException( "Corrupt block " + entry.path );
+			for ( final byte b : keyBytes )
+				if ( mapped.get() != b )
+					throw new IOException( "Hash collision for " + key );
+
+			/* persist the access order */
+			Files.setLastModifiedTime( entry.path, FileTime.fromMillis( System.currentTimeMillis() ) );
+			hits.incrementAndGet();
+			return mapped.slice();
+		}
+		catch ( final IOException e )
+		{
+			/* evicted or overwritten concurrently, or corrupt */
+			synchronized ( this )
+			{
+				if ( entries.get( key ) == entry )
+					remove( key );
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Get a cached block or fetch and cache it.  Fetched blocks that do not
+	 * have the expected size, e.g. from incomplete responses, are returned
+	 * but not cached.  The fetcher must therefore not pad short responses.
+	 *
+	 * @param key
+	 * @param size
+	 *            expected size of the block in bytes
+	 * @param fetcher
+	 * @return the block's bytes
+	 * @throws IOException
+	 *             if fetching failed, failed blocks are not cached
+	 */
+	public ByteBuffer get( final String key, final int size, final Fetcher fetcher ) throws IOException
+	{
+		final ByteBuffer cached = get( key );
+		if ( cached != null )
+			return cached;
+		final byte[] data = fetcher.fetch( key );
+		if ( data.length == size )
+			put( key, data );
+		return ByteBuffer.wrap( data );
+	}
+
+	/**
+	 * Store a block and evict least recently used blocks until the cache fits
+	 * into its bound.  Failures to write are ignored, the block will simply
+	 * be fetched again.
+	 *
+	 * @param key
+	 * @param data
+	 */
+	public void put( final String key, final byte[] data )
+	{
+		final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+		final long size = HEADER_SIZE + keyBytes.length + data.length;
+		if ( size > maxBytes )
+			return;
+
+		final Path path = directory.resolve( hash( key ) + SUFFIX );
+		Path tmp = null;
+		try
+		{
+			tmp = Files.createTempFile( directory, "put", ".tmp" );
+			try ( final FileChannel channel = FileChannel.open( tmp, StandardOpenOption.WRITE ) )
+			{
+				final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE + keyBytes.length );
+				header.putInt( MAGIC ).putInt( keyBytes.length ).put( keyBytes ).flip();
+				final ByteBuffer[] buffers = { header, ByteBuffer.wrap( data ) };
+				while ( buffers[ 1 ].hasRemaining() )
+					channel.write( buffers );
+			}
+			synchronized ( this )
+			{
+				Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+				final Entry previous = entries.put( key, new Entry( path, size ) );
+				if ( previous != null )
+					bytes -= previous.size;
+				bytes += size;
+			}
+		}
+		catch ( final IOException e )
+		{
+			System.out.println( "failed caching " + key + ": " + e.getMessage() );
+			try
+			{
+				if ( tmp != null )
+					Files.deleteIfExists( tmp );
+			}
+			catch ( final IOException f )
+			{}
+			return;
+		}
+		evict();
+	}
+
+	private synchronized void remove( final String key )
+	{
+		final Entry entry = entries.remove( key );
+		if ( entry != null )
+		{
+			bytes -= entry.size;
+			try
+			{
+				Files.deleteIfExists( entry.path );
+			}
+			catch ( final IOException e )
+			{}
+		}
+	}
+
+	private synchronized void evict()
+	{
+		final Iterator< Map.Entry< String, Entry > > it = entries.entrySet().iterator();
+		while ( bytes > maxBytes && it.hasNext() )
+		{
+			final Entry entry = it.next().getValue();
+			it.remove();
+			bytes -= entry.size;
+			try
+			{
+				Files.deleteIfExists( entry.path );
+			}
+			catch ( final IOException e )
+			{}
+		}
+	}
+
+	/**
+	 * Remove all blocks whose key starts with {@code prefix}, e.g. after
+	 * writing to a mutable DVID node.
+	 *
+	 * @param prefix
+	 */
+	public synchronized void invalidate( final String prefix )
+	{
+		final List< String > keys = new ArrayList<>();
+		for ( final String key : entries.keySet() )
+			if ( key.startsWith( prefix ) )
+				keys.add( key );
+		for ( final String key : keys )
+			remove( key );
+	}
+
+	public synchronized void invalidateAll()
+	{
+		for ( final String key : new ArrayList<>( entries.keySet() ) )
+			remove( key );
+	}
+
+	public synchronized long getSizeInBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized int getNumBlocks()
+	{
+		return entries.size();
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+}
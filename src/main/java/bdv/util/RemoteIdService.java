@@ -1,6 +1,8 @@
 package bdv.util;
 
-import java.util.stream.LongStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
@@ -8,12 +10,21 @@ import org.zeromq.ZMQ.Socket;
 
 import com.google.gson.Gson;
 
-import gnu.trove.list.array.TLongArrayList;
-
+/**
+ * {@link IdService} that reserves ranges of IDs from a remote ID service
+ * (ZeroMQ REQ/REP, JSON <code>{count}</code> &rarr;
+ * <code>{begin, end}</code>).
+ *
+ * Reserved IDs are kept in a local reservoir.  When the reservoir drops
+ * below a threshold, it is refilled asynchronously, such that
+ * {@link #next()} only blocks on a round trip if IDs are consumed faster
+ * than they can be reserved.  All communication with the remote service
+ * happens on a single background thread.
+ */
 public class RemoteIdService implements IdService
 {
-	/* number of ids requested at once */
-	private static int count = 10;
+	/** default number of ids requested at once */
+	final static public int DEFAULT_BATCH_SIZE = 1000;
 
 	static private class Request
 	{
@@ -41,74 +52,315 @@ public class RemoteIdService implements IdService
 
 	final private Socket socket;
 
-	private long next = 0;
-	private long end = 0;
+	final private ExecutorService requestExecutor = Executors.newSingleThreadExecutor( r -> {
+		final Thread thread = new Thread( r, "remote id service" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	/* number of ids requested at once */
+	final private int batchSize;
+
+	/* refill when fewer ids are available */
+	final private int refillThreshold;
+
+	/* reserved ranges [begin, end) in the order they were received */
+	final private ArrayDeque< long[] > reservoir = new ArrayDeque<>();
+
+	private long numAvailable = 0;
 
+	/* ids less than this have been invalidated */
+	private long minNext = 0;
+
+	private boolean refilling = false;
+
+	private RuntimeException refillFailure = null;
+
+	/* metrics */
+	private long numRequests = 0;
+	private long numReceived = 0;
+	private long numStalls = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+
+	/**
+	 * @param ctx
+	 * @param url
+	 * @param batchSize
+	 *            number of IDs requested at once
+	 * @param refillThreshold
+	 *            request more IDs when fewer are available
+	 */
 	public RemoteIdService(
 			final ZContext ctx,
-			final String url )
+			final String url,
+			final int batchSize,
+			final int refillThreshold )
 	{
 		gson = new Gson();
+		this.batchSize = batchSize;
+		this.refillThreshold = refillThreshold;
 
 		/* connect */
 		socket = ctx.createSocket( ZMQ.REQ );
 		socket.connect( url );
 
 		/* init ID */
-		update();
+		synchronized ( this )
+		{
+			refill( batchSize );
+		}
+	}
+
+	public RemoteIdService(
+			final ZContext ctx,
+			final String url )
+	{
+		this( ctx, url, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_SIZE / 2 );
 	}
 
-	private synchronized void update()
+	/**
+	 * Request a range of ids from the remote service.  Must only be called
+	 * on {@link #requestExecutor}.
+	 */
+	private Response request( final int count )
 	{
+		final long t0 = System.nanoTime();
 		while ( !socket.send( gson.toJson( new Request( count ) ) ) )
 			System.out.println( "Failed sending message." );
 		final Response response = gson.fromJson(
 				socket.recvStr(),
 				Response.class );
-		next = response.begin;
-		end = response.end;
-		System.out.println( "begin " + next + ", end " + end );
+		final long latency = System.nanoTime() - t0;
+
+		synchronized ( this )
+		{
+			++numRequests;
+			numReceived += response.end - response.begin;
+			totalLatency += latency;
+			maxLatency = Math.max( maxLatency, latency );
+		}
+		return response;
+	}
+
+	/**
+	 * Start an asynchronous request for at least {@code count} ids unless a
+	 * request is in flight already.  Must be called holding this lock.
+	 */
+	private void refill( final int count )
+	{
+		if ( refilling )
+			return;
+
+		refilling = true;
+		requestExecutor.submit( () -> {
+			try
+			{
+				final Response response = request( count );
+				synchronized ( this )
+				{
+					add( response.begin, response.end );
+				}
+			}
+			catch ( final RuntimeException e )
+			{
+				e.printStackTrace();
+				synchronized ( this )
+				{
+					refillFailure = e;
+				}
+			}
+			finally
+			{
+				synchronized ( this )
+				{
+					refilling = false;
+					notifyAll();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Add a received range of ids to the reservoir, skipping invalidated
+	 * ids.  Must be called holding this lock.
+	 */
+	private void add( long begin, final long end )
+	{
+		if ( IdService.greaterThan( minNext, begin ) )
+			begin = minNext;
+		if ( IdService.greaterThan( end, begin ) )
+		{
+			reservoir.add( new long[] { begin, end } );
+			numAvailable += end - begin;
+		}
+	}
+
+	/**
+	 * Wait until at least one id is available, refilling the reservoir with
+	 * at least {@code count} ids if necessary.  Must be called holding this
+	 * lock.
+	 */
+	private void awaitIds( final int count )
+	{
+		if ( numAvailable > 0 )
+			return;
+
+		++numStalls;
+		while ( numAvailable == 0 )
+		{
+			if ( refillFailure != null )
+			{
+				final RuntimeException e = refillFailure;
+				refillFailure = null;
+				throw new RuntimeException( "Requesting ids failed.", e );
+			}
+			refill( Math.max( batchSize, count ) );
+			try
+			{
+				wait();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
+	/**
+	 * Take the next id from the reservoir, there must be at least one id
+	 * available.  Must be called holding this lock.
+	 */
+	private long take()
+	{
+		final long[] range = reservoir.peek();
+		final long id = range[ 0 ]++;
+		if ( range[ 0 ] == range[ 1 ] )
+			reservoir.poll();
+		--numAvailable;
+		return id;
 	}
 
 	@Override
 	public synchronized void invalidate( final long id )
 	{
-		while ( next < id )
-			update();
+		if ( !IdService.greaterThan( id + 1, minNext ) )
+			return;
+
+		minNext = id + 1;
+		while ( !reservoir.isEmpty() )
+		{
+			final long[] range = reservoir.peek();
+			if ( !IdService.greaterThan( range[ 1 ], minNext ) )
+			{
+				reservoir.poll();
+				numAvailable -= range[ 1 ] - range[ 0 ];
+			}
+			else
+			{
+				if ( IdService.greaterThan( minNext, range[ 0 ] ) )
+				{
+					numAvailable -= minNext - range[ 0 ];
+					range[ 0 ] = minNext;
+				}
+				break;
+			}
+		}
+
+		if ( numAvailable < refillThreshold )
+			refill( batchSize );
 	}
 
 	@Override
 	public synchronized long next()
 	{
-		while ( next >= end )
-			update();
+		awaitIds( 1 );
+		final long id = take();
 
-		return next++;
+		if ( numAvailable < refillThreshold )
+			refill( batchSize );
+
+		return id;
 	}
 
-	/**
-	 * TODO may be request n - something new ids instead of looping...
-	 */
 	@Override
 	public synchronized long[] next( final int n )
 	{
-		int m = 0;
-		TLongArrayList ids = new TLongArrayList();
-		do
+		final long[] ids = new long[ n ];
+		for ( int i = 0; i < n; ++i )
 		{
-			final long end1 = Math.min( end, next + n - ids.size() );
-			final long[] someIds =
-					LongStream.range(
-							next,
-							end1 ).toArray();
-			ids.add( someIds );
-			if ( end1 < end )
-				next = end1;
-			else
-				update();
+			awaitIds( n - i );
+			ids[ i ] = take();
 		}
-		while ( ids.size() < n );
 
-		return ids.toArray();
+		if ( numAvailable < refillThreshold )
+			refill( batchSize );
+
+		return ids;
+	}
+
+	/**
+	 * @return number of reserved ids that are available without a round
+	 *         trip
+	 */
+	public synchronized long getNumAvailable()
+	{
+		return numAvailable;
+	}
+
+	/**
+	 * @return number of requests sent to the remote service
+	 */
+	public synchronized long getNumRequests()
+	{
+		return numRequests;
+	}
+
+	/**
+	 * @return number of times that {@link #next()} or {@link #next(int)} had
+	 *         to wait for a request to complete
+	 */
+	public synchronized long getNumStalls()
+	{
+		return numStalls;
+	}
+
+	/**
+	 * @return mean round trip time in milliseconds
+	 */
+	public synchronized double getMeanLatency()
+	{
+		return numRequests == 0 ? 0 : totalLatency / 1e6 / numRequests;
+	}
+
+	/**
+	 * @return max round trip time in milliseconds
+	 */
+	public synchronized double getMaxLatency()
+	{
+		return maxLatency / 1e6;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format(
+				"%s: %d ids available, %d requests, %d ids received, %d stalls, latency mean %.2f ms, max %.2f ms",
+				getClass().getSimpleName(),
+				numAvailable,
+				numRequests,
+				numReceived,
+				numStalls,
+				getMeanLatency(),
+				getMaxLatency() );
+	}
+
+	/**
+	 * Stop refilling the reservoir.  Pending requests are abandoned.
+	 */
+	public void close()
+	{
+		requestExecutor.shutdownNow();
 	}
 }
@@ -57,10 +57,44 @@ public abstract class DatasetBlk< T > extends Dataset
 			int[] offset
 			) throws MalformedURLException, IOException;
 	
-	public abstract void writeBlock( 
-			RandomAccessibleInterval< T > source, 
+	public abstract void writeBlock(
+			RandomAccessibleInterval< T > source,
 			int[] position ) throws MalformedURLException, IOException;
-	
+
+	/**
+	 * @param source {@link RandomAccessibleInterval} to be read from.
+	 * @return The body of the POST request to {@link #getPutRequestUrl}
+	 * that writes source, in the same format as
+	 * {@link #put(RandomAccessibleInterval, int[])}.
+	 *
+	 * Serialization is separated from the request to allow for converting
+	 * and serializing several blocks in parallel while others are posted.
+	 * Implementations must not use shared buffers.
+	 */
+	public abstract byte[] serialize( RandomAccessibleInterval< T > source );
+
+	/**
+	 * @return The largest chunk that can be written with a single
+	 * {@link #serialize(RandomAccessibleInterval)} and
+	 * {@link #getPutRequestUrl(Interval, int[])}, or null if chunks of any
+	 * block aligned size can be written.
+	 */
+	public int[] getMaxChunkSize()
+	{
+		return null;
+	}
+
+	/**
+	 * @param source Defines image dimensions.
+	 * @param offset Defines image position.
+	 * @return The URL for posting the result of
+	 * {@link #serialize(RandomAccessibleInterval)}.
+	 */
+	public String getPutRequestUrl( Interval source, int[] offset )
+	{
+		return getIntervalRequestUrl( source, offset );
+	}
+
 	/**
 	 * @param image Defines image dimensions.
 	 * @param offset Defines image position.
@@ -10,6 +10,7 @@ import com.google.gson.JsonSyntaxException;
 import bdv.util.http.HttpRequest;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 /**
@@ -38,6 +39,16 @@ public class DatasetBlkLabel extends DatasetBlk< UnsignedLongType >
 				Views.flatIterable( source ), "application/octet-stream" );
 	}
 
+	@Override
+	public byte[] serialize( RandomAccessibleInterval< UnsignedLongType > source )
+	{
+		final byte[] data = new byte[ ( int ) Intervals.numElements( source ) * Long.BYTES ];
+		final ByteBuffer bb = ByteBuffer.wrap( data );
+		for ( final UnsignedLongType t : Views.flatIterable( source ) )
+			bb.putLong( t.getIntegerLong() );
+		return data;
+	}
+
 	@Override
 	public void get( RandomAccessibleInterval< UnsignedLongType > target, int[] offset ) throws MalformedURLException, IOException
 	{
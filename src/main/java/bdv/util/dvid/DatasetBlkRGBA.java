@@ -11,6 +11,7 @@ import bdv.util.http.HttpRequest;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 /**
@@ -46,6 +47,16 @@ public class DatasetBlkRGBA extends DatasetBlk< UnsignedIntType >
 				Views.flatIterable( source ), "application/octet-stream" );
 	}
 
+	@Override
+	public byte[] serialize( RandomAccessibleInterval< UnsignedIntType > source )
+	{
+		final byte[] data = new byte[ ( int ) Intervals.numElements( source ) * Integer.BYTES ];
+		final ByteBuffer bb = ByteBuffer.wrap( data );
+		for ( final UnsignedIntType t : Views.flatIterable( source ) )
+			bb.putInt( t.getInteger() );
+		return data;
+	}
+
 	@Override
 	public void get( RandomAccessibleInterval< UnsignedIntType > target, int[] offset ) throws MalformedURLException, IOException
 	{
@@ -11,6 +11,7 @@ import bdv.util.http.HttpRequest;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 /**
@@ -46,6 +47,16 @@ public class DatasetBlkUint8 extends DatasetBlk< UnsignedByteType >
 				Views.flatIterable( source ), "application/octet-stream" );
 	}
 
+	@Override
+	public byte[] serialize( RandomAccessibleInterval< UnsignedByteType > source )
+	{
+		final byte[] data = new byte[ ( int ) Intervals.numElements( source ) * Byte.BYTES ];
+		final ByteBuffer bb = ByteBuffer.wrap( data );
+		for ( final UnsignedByteType t : Views.flatIterable( source ) )
+			bb.put( ( byte ) ( t.get() & 0xff ) );
+		return data;
+	}
+
 	@Override
 	public void get( RandomAccessibleInterval< UnsignedByteType > target, int[] offset ) throws MalformedURLException, IOException
 	{
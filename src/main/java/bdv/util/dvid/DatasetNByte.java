@@ -3,6 +3,7 @@ package bdv.util.dvid;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 import com.google.gson.JsonIOException;
@@ -10,6 +11,7 @@ import com.google.gson.JsonSyntaxException;
 
 import bdv.util.http.HttpRequest;
 import net.imglib2.Cursor;
+import net.imglib2.Interval;
 import net.imglib2.Point;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayCursor;
@@ -89,7 +91,48 @@ public class DatasetNByte< T > extends DatasetBlk< T >
 		
 	}
 	
-	public void getBlock( 
+	/**
+	 * Serialize a single block, see
+	 * {@link #getPutRequestUrl(Interval, int[])}.
+	 */
+	@Override
+	public byte[] serialize( RandomAccessibleInterval< T > source )
+	{
+		for ( int d = 0; d < blockSize.length; ++d )
+			if ( source.dimension( d ) != blockSize[ d ] )
+				throw new IllegalArgumentException( "Can only serialize single blocks of size " + Arrays.toString( blockSize ) );
+
+		final byte[] data = new byte[ this.numByteBlocks * this.buffer.length ];
+		final ByteBuffer bb = ByteBuffer.wrap( data );
+		for ( final T t : Views.flatIterable( source ) )
+			io.write( t, bb );
+		return data;
+	}
+
+	/**
+	 * @return The URL for posting the nBytes consecutive
+	 * uint8 blocks that store the single block at offset in one request.
+	 */
+	@Override
+	public String getPutRequestUrl( Interval source, int[] offset )
+	{
+		final int[] position = new int[ offset.length ];
+		for ( int d = 0; d < offset.length; ++d )
+			position[ d ] = offset[ d ] / blockSize[ d ];
+		return getBlockRequestUrl( correctPosition( position ), this.numByteBlocks );
+	}
+
+	/**
+	 * Each block is stored in nBytes uint8 blocks, so chunks cannot be
+	 * larger than a block.
+	 */
+	@Override
+	public int[] getMaxChunkSize()
+	{
+		return blockSize.clone();
+	}
+
+	public void getBlock(
 			RandomAccessibleInterval< T > target,
 			int[] position,
 			NByteIO< T > reader ) throws MalformedURLException, IOException
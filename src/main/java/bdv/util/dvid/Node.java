@@ -8,14 +8,19 @@ import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 
 import net.imglib2.util.Pair;
+import bdv.util.JsonHelper;
 import bdv.util.http.HttpRequest;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
 
 /**
  * @author Philipp Hanslovsky <hanslovskyp@janelia.hhmi.org>
@@ -87,6 +92,47 @@ public class Node
 		HttpRequest.postRequestJSON( url, json );
 	}
 
+	/**
+	 * Check if this node is locked, i.e. committed, such that its data can
+	 * no longer change.
+	 *
+	 * @return true if locked, false otherwise
+	 * @throws JsonSyntaxException
+	 * @throws JsonIOException
+	 * @throws IOException
+	 */
+	public boolean isLocked() throws JsonSyntaxException, JsonIOException, IOException
+	{
+		return isLocked( repository.getServer().getApiUrl(), uuid );
+	}
+
+	/**
+	 * Check if a node is locked, i.e. committed, such that its data can no
+	 * longer change.  Uses the DAG of the repository:
+	 *
+	 * GET &lt;api URL&gt;/repo/&lt;uuid&gt;/info
+	 *
+	 * @param apiUrl
+	 * @param uuid
+	 * @return true if locked, false otherwise or if the node is not listed
+	 * @throws JsonSyntaxException
+	 * @throws JsonIOException
+	 * @throws IOException
+	 */
+	public static boolean isLocked( final String apiUrl, final String uuid ) throws JsonSyntaxException, JsonIOException, IOException
+	{
+		final String url = DvidUrlOptions.getRequestString( apiUrl + "/repo/" + uuid + "/info" );
+		final JsonObject info = JsonHelper.fetch( url, JsonObject.class );
+		final JsonObject nodes = info.get( "DAG" ).getAsJsonObject().get( "Nodes" ).getAsJsonObject();
+		for ( final Entry< String, JsonElement > node : nodes.entrySet() )
+			if ( uuidEquivalenceCheck( node.getKey(), uuid ) )
+			{
+				final JsonElement locked = node.getValue().getAsJsonObject().get( "Locked" );
+				return locked != null && locked.getAsBoolean();
+			}
+		return false;
+	}
+
 	/**
 	 *
 	 * Create new branch based on the {@link Node} instance.
@@ -0,0 +1,249 @@
+package bdv.util.http;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches blocks of a regular 3D grid in batches of adjacent blocks along x,
+ * e.g. one DVID <code>raw</code> subvolume or <code>blocks</code> request
+ * for several cells, and splits the response back into blocks.
+ *
+ * A request for a block fetches the aligned batch that contains it.  The
+ * other blocks of the batch are kept until they are requested, typically
+ * right after by the other fetcher threads.  Concurrent requests for blocks
+ * of a batch in flight wait for that batch instead of requesting it again.
+ */
+public class BatchedBlockFetcher
+{
+	/**
+	 * Layout of a batch response.
+	 */
+	public static enum Layout
+	{
+		/**
+		 * one subvolume of <code>batchSize * blockSize[0] x blockSize[1] x
+		 * blockSize[2]</code> pixels, x fastest, as returned by DVID's
+		 * <code>raw/0_1_2</code> requests
+		 */
+		SUBVOLUME,
+
+		/**
+		 * the blocks one after another, as returned by DVID's uncompressed
+		 * <code>blocks</code> requests
+		 */
+		BLOCKS
+	}
+
+	/**
+	 * Creates the URL of a batch.
+	 */
+	public static interface BatchUrl
+	{
+		/**
+		 * @param gridPosition
+		 *            grid position of the first block
+		 * @param numBlocks
+		 *            number of blocks along x
+		 * @return
+		 */
+		public String url( long[] gridPosition, int numBlocks );
+	}
+
+	final private HttpClient client;
+
+	final private int[] blockSize;
+
+	final private int bytesPerElement;
+
+	final private int batchSize;
+
+	final private Layout layout;
+
+	final private BatchUrl batchUrl;
+
+	final private int maxPending;
+
+	/* batches in flight, guarded by pending */
+	final private HashMap< String, CompletableFuture< byte[][] > > inFlight = new HashMap<>();
+
+	/* fetched blocks that have not been requested yet, oldest are dropped */
+	final private LinkedHashMap< String, byte[] > pending;
+
+	/**
+	 * @param client
+	 * @param blockSize
+	 * @param bytesPerElement
+	 * @param batchSize
+	 *            number of blocks along x per request
+	 * @param layout
+	 * @param batchUrl
+	 */
+	public BatchedBlockFetcher(
+			final HttpClient client,
+			final int[] blockSize,
+			final int bytesPerElement,
+			final int batchSize,
+			final Layout layout,
+			final BatchUrl batchUrl )
+	{
+		this.client = client;
+		this.blockSize = blockSize.clone();
+		this.bytesPerElement = bytesPerElement;
+		this.batchSize = batchSize;
+		this.layout = layout;
+		this.batchUrl = batchUrl;
+		maxPending = 64 * batchSize;
+		pending = new LinkedHashMap< String, byte[] >()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< String, byte[] > eldest )
+			{
+				return size() > maxPending;
+			}
+		};
+	}
+
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	static private String key( final long x, final long y, final long z )
+	{
+		return x + "_" + y + "_" + z;
+	}
+
+	/**
+	 * @param gridPosition
+	 * @return the bytes of the block at {@code gridPosition}, fewer than a
+	 *         block if the response was incomplete
+	 * @throws IOException
+	 */
+	public byte[] fetch( final long[] gridPosition ) throws IOException
+	{
+		final String key = key( gridPosition[ 0 ], gridPosition[ 1 ], gridPosition[ 2 ] );
+		final long[] batchPosition = {
+				Math.floorDiv( gridPosition[ 0 ], batchSize ) * batchSize,
+				gridPosition[ 1 ],
+				gridPosition[ 2 ] };
+		final int index = ( int ) ( gridPosition[ 0 ] - batchPosition[ 0 ] );
+		final String batchKey = key( batchPosition[ 0 ], batchPosition[ 1 ], batchPosition[ 2 ] );
+
+		final CompletableFuture< byte[][] > future = new CompletableFuture<>();
+		final CompletableFuture< byte[][] > existing;
+		synchronized ( pending )
+		{
+			final byte[] block = pending.remove( key );
+			if ( block != null )
+				return block;
+			existing = inFlight.putIfAbsent( batchKey, future );
+		}
+
+		if ( existing != null )
+		{
+			final byte[][] blocks = await( existing );
+			synchronized ( pending )
+			{
+				pending.remove( key );
+			}
+			return blocks[ index ];
+		}
+
+		final byte[][] blocks;
+		try
+		{
+			blocks = split( client.get( batchUrl.url( batchPosition, batchSize ) ) );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			synchronized ( pending )
+			{
+				inFlight.remove( batchKey );
+			}
+			future.completeExceptionally( e );
+			throw e;
+		}
+
+		synchronized ( pending )
+		{
+			for ( int i = 0; i < batchSize; ++i )
+				if ( i != index )
+					pending.put( key( batchPosition[ 0 ] + i, batchPosition[ 1 ], batchPosition[ 2 ] ), blocks[ i ] );
+			inFlight.remove( batchKey );
+		}
+		future.complete( blocks );
+		return blocks[ index ];
+	}
+
+	static private byte[][] await( final CompletableFuture< byte[][] > future ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw new IOException( e.getCause() );
+		}
+	}
+
+	private int blockBytes()
+	{
+		return blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ] * bytesPerElement;
+	}
+
+	/**
+	 * Split a batch response into blocks.  Blocks that are not completely
+	 * contained in a short response are not padded but contain only their
+	 * leading complete rows, such that callers can tell them apart, e.g.
+	 * to not cache them.
+	 *
+	 * @param batch
+	 * @return
+	 */
+	public byte[][] split( final byte[] batch )
+	{
+		final int blockBytes = blockBytes();
+		final byte[][] blocks = new byte[ batchSize ][];
+		if ( layout == Layout.BLOCKS )
+		{
+			for ( int i = 0; i < batchSize; ++i )
+				blocks[ i ] = Arrays.copyOfRange(
+						batch,
+						Math.min( batch.length, i * blockBytes ),
+						Math.min( batch.length, ( i + 1 ) * blockBytes ) );
+		}
+		else
+		{
+			final int rowBytes = blockSize[ 0 ] * bytesPerElement;
+			final int numRows = blockSize[ 1 ] * blockSize[ 2 ];
+			final int batchRowBytes = batchSize * rowBytes;
+			for ( int i = 0; i < batchSize; ++i )
+			{
+				final int src0 = i * rowBytes;
+				final int numCompleteRows = batch.length < src0 + rowBytes ?
+						0 :
+						Math.min( numRows, ( batch.length - src0 - rowBytes ) / batchRowBytes + 1 );
+				final byte[] block = new byte[ numCompleteRows * rowBytes ];
+				for ( int row = 0, src = src0, dst = 0; row < numCompleteRows; ++row, src += batchRowBytes, dst += rowBytes )
+					System.arraycopy( batch, src, block, dst, rowBytes );
+				blocks[ i ] = block;
+			}
+		}
+		return blocks;
+	}
+}
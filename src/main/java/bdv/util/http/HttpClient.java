@@ -0,0 +1,266 @@
+package bdv.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * GET and POST client for block data that reuses connections.
+ *
+ * Connections are kept alive by the JDK's keep-alive cache as long as
+ * responses are read completely and their streams are closed instead of
+ * disconnected, which is what this client does, also for error responses.
+ * The number of concurrent requests is bounded by the size of the pool such
+ * that all idle connections fit into the keep-alive cache.  Responses are
+ * requested gzip or deflate encoded and decoded transparently.
+ *
+ * The size of the JDK's keep-alive cache is the system property
+ * <code>http.maxConnections</code> that is read once.  The first client sets
+ * it to its pool size unless it has been set before.
+ */
+public class HttpClient
+{
+	final static public int DEFAULT_MAX_CONNECTIONS = 16;
+
+	final static public int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	final static public int DEFAULT_READ_TIMEOUT = 60000;
+
+	final static public String ACCEPT_ENCODING = "gzip, deflate";
+
+	static private HttpClient defaultClient = null;
+
+	final private Semaphore connections;
+
+	final private int connectTimeout;
+
+	final private int readTimeout;
+
+	/**
+	 * @param maxConnections
+	 *            maximum number of concurrent requests
+	 * @param connectTimeout
+	 *            in ms
+	 * @param readTimeout
+	 *            in ms
+	 */
+	public HttpClient( final int maxConnections, final int connectTimeout, final int readTimeout )
+	{
+		synchronized ( HttpClient.class )
+		{
+			if ( System.getProperty( "http.maxConnections" ) == null )
+				System.setProperty( "http.maxConnections", Integer.toString( maxConnections ) );
+		}
+		connections = new Semaphore( maxConnections, true );
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	public HttpClient()
+	{
+		this( DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT );
+	}
+
+	/**
+	 * @return the shared client of all loaders that do not specify one
+	 */
+	static synchronized public HttpClient getDefault()
+	{
+		if ( defaultClient == null )
+			defaultClient = new HttpClient();
+		return defaultClient;
+	}
+
+	/**
+	 * HTTP GET request:
+	 * GET url
+	 *
+	 * @param url
+	 * @return the decoded response body
+	 * @throws IOException
+	 *             if the request failed or the HTTP status code is not 200
+	 */
+	public byte[] get( final String url ) throws IOException
+	{
+		return get( url, -1 );
+	}
+
+	/**
+	 * HTTP GET request for a response of known size, e.g. a block.  Shorter
+	 * responses are padded with zeros, longer responses are truncated.
+	 *
+	 * @param url
+	 * @param length
+	 *            expected size of the decoded response, -1 if unknown
+	 * @return the decoded response body
+	 * @throws IOException
+	 *             if the request failed or the HTTP status code is not 200
+	 */
+	public byte[] get( final String url, final int length ) throws IOException
+	{
+		try
+		{
+			connections.acquire();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for a connection", e );
+		}
+		try
+		{
+			final URLConnection urlConnection = new URL( url ).openConnection();
+			urlConnection.setConnectTimeout( connectTimeout );
+			urlConnection.setReadTimeout( readTimeout );
+			if ( !( urlConnection instanceof HttpURLConnection ) )
+			{
+				/* e.g. file: URLs */
+				try ( final InputStream in = urlConnection.getInputStream() )
+				{
+					return read( in, length );
+				}
+			}
+
+			final HttpURLConnection connection = ( HttpURLConnection ) urlConnection;
+			connection.setRequestProperty( "Accept-Encoding", ACCEPT_ENCODING );
+			final int response = connection.getResponseCode();
+			if ( response != 200 )
+			{
+				/* drain the error response to keep the connection alive */
+				final InputStream error = connection.getErrorStream();
+				if ( error != null )
+				{
+					try
+					{
+						read( error, -1 );
+					}
+					finally
+					{
+						error.close();
+					}
+				}
+				throw new IOException( "HTTP " + response + " for " + url );
+			}
+
+			final InputStream in = decode( connection.getInputStream(), connection.getContentEncoding() );
+			try
+			{
+				final byte[] data = read( in, length );
+				/* the rest of a longer response */
+				if ( length >= 0 )
+					while ( in.skip( Long.MAX_VALUE ) > 0 || in.read() >= 0 );
+				return data;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		finally
+		{
+			connections.release();
+		}
+	}
+
+	/**
+	 * HTTP POST request:
+	 * POST url
+	 *
+	 * The response is drained such that the connection can be reused.
+	 *
+	 * @param url
+	 * @param data
+	 * @param contentType
+	 *            value of the header field "Content-Type"
+	 * @throws IOException
+	 *             if the request failed or the HTTP status code is not 200
+	 */
+	public void post( final String url, final byte[] data, final String contentType ) throws IOException
+	{
+		try
+		{
+			connections.acquire();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for a connection", e );
+		}
+		try
+		{
+			final HttpURLConnection connection = ( HttpURLConnection ) new URL( url ).openConnection();
+			connection.setConnectTimeout( connectTimeout );
+			connection.setReadTimeout( readTimeout );
+			connection.setDoOutput( true );
+			connection.setRequestMethod( "POST" );
+			connection.setRequestProperty( "Content-Type", contentType );
+			connection.setFixedLengthStreamingMode( data.length );
+			try ( final OutputStream out = connection.getOutputStream() )
+			{
+				out.write( data );
+			}
+
+			final int response = connection.getResponseCode();
+			final InputStream in = response == 200 ? connection.getInputStream() : connection.getErrorStream();
+			if ( in != null )
+			{
+				try
+				{
+					read( in, -1 );
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			if ( response != 200 )
+				throw new IOException( "HTTP " + response + " for " + url );
+		}
+		finally
+		{
+			connections.release();
+		}
+	}
+
+	static private InputStream decode( final InputStream in, final String contentEncoding ) throws IOException
+	{
+		if ( contentEncoding == null )
+			return in;
+		else if ( contentEncoding.equalsIgnoreCase( "gzip" ) )
+			return new GZIPInputStream( in );
+		else if ( contentEncoding.equalsIgnoreCase( "deflate" ) )
+			return new InflaterInputStream( in );
+		else
+			return in;
+	}
+
+	/**
+	 * Read {@code length} bytes or until the end of the stream if
+	 * {@code length} is negative.
+	 */
+	static private byte[] read( final InputStream in, final int length ) throws IOException
+	{
+		byte[] data = new byte[ length < 0 ? 8192 : length ];
+		int off = 0;
+		for ( int l = 0; l >= 0; off += l )
+		{
+			if ( off == data.length )
+			{
+				if ( length >= 0 )
+					break;
+				data = Arrays.copyOf( data, 2 * data.length );
+			}
+			l = in.read( data, off, data.length - off );
+			if ( l < 0 )
+				break;
+		}
+		return length < 0 ? Arrays.copyOf( data, off ) : data;
+	}
+}
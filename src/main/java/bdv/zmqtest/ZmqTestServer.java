@@ -7,12 +7,61 @@ import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import bdv.bigcat.control.FragmentSegmentLutFrame;
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongLongHashMap;
+
 /**
+ * Minimal solver for the
+ * {@link bdv.bigcat.control.AgglomerationClientController}.  Answers
+ * "request-lut" with a snapshot of its fragment &gt; segment lookup and
+ * "merge" and "separate" with deltas.
+ *
  * @author Stephan Saalfeld <saalfelds@janelia.hhmi.org>
  *
  */
 public class ZmqTestServer
 {
+	final static private TLongLongHashMap lut = new TLongLongHashMap();
+
+	static private long version = 0;
+
+	static private long nextSegmentId = 1L << 32;
+
+	static private void sendSnapshot( final Socket server )
+	{
+		final FragmentSegmentLutFrame frame = new FragmentSegmentLutFrame(
+				FragmentSegmentLutFrame.SNAPSHOT,
+				version,
+				lut.keys(),
+				lut.values() );
+		server.send( frame.encode() );
+		System.out.println( "sent snapshot " + version + " with " + frame.size() + " entries" );
+	}
+
+	static private void sendDelta( final Socket server, final TLongArrayList fragments, final TLongArrayList segments )
+	{
+		for ( int i = 0; i < fragments.size(); ++i )
+			lut.put( fragments.get( i ), segments.get( i ) );
+		final FragmentSegmentLutFrame frame = new FragmentSegmentLutFrame(
+				FragmentSegmentLutFrame.DELTA,
+				++version,
+				fragments.toArray(),
+				segments.toArray() );
+		server.send( frame.encode() );
+		System.out.println( "sent delta " + version + " with " + frame.size() + " entries" );
+	}
+
+	static private long getSegment( final long fragmentId )
+	{
+		return lut.containsKey( fragmentId ) ? lut.get( fragmentId ) : fragmentId;
+	}
+
 	/**
 	 * @param args
 	 */
@@ -29,6 +78,58 @@ public class ZmqTestServer
 		{
 			msg = server.recvStr();
 			System.out.println( msg );
+
+			final JsonElement json;
+			try
+			{
+				json = new JsonParser().parse( msg );
+			}
+			catch ( final RuntimeException e )
+			{
+				continue;
+			}
+			if ( !json.isJsonObject() || !json.getAsJsonObject().has( "type" ) )
+				continue;
+
+			final JsonObject action = json.getAsJsonObject();
+			final String type = action.get( "type" ).getAsString();
+			final JsonObject data = action.getAsJsonObject( "data" );
+			final TLongArrayList fragments = new TLongArrayList();
+			final TLongArrayList segments = new TLongArrayList();
+			switch ( type )
+			{
+			case "request-lut":
+				sendSnapshot( server );
+				break;
+			case "merge":
+				final long segmentId = nextSegmentId++;
+				for ( final JsonElement fragment : data.getAsJsonArray( "fragments" ) )
+				{
+					final long oldSegmentId = getSegment( fragment.getAsLong() );
+					for ( final TLongLongIterator it = lut.iterator(); it.hasNext(); )
+					{
+						it.advance();
+						if ( it.value() == oldSegmentId && !fragments.contains( it.key() ) )
+						{
+							fragments.add( it.key() );
+							segments.add( segmentId );
+						}
+					}
+					if ( !fragments.contains( fragment.getAsLong() ) )
+					{
+						fragments.add( fragment.getAsLong() );
+						segments.add( segmentId );
+					}
+				}
+				sendDelta( server, fragments, segments );
+				break;
+			case "separate":
+				final long fragmentId = data.get( "fragment" ).getAsLong();
+				fragments.add( fragmentId );
+				segments.add( fragmentId );
+				sendDelta( server, fragments, segments );
+				break;
+			}
 		}
 
 		ctx.destroy();
@@ -0,0 +1,171 @@
+package bdv.bigcat.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.RealPoint;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+public class AnnotationGridTest {
+
+	static RealPoint randomPoint(final Random rnd) {
+
+		return new RealPoint(
+				rnd.nextDouble() * 1000 - 200,
+				rnd.nextDouble() * 1000 - 200,
+				rnd.nextDouble() * 300 - 100);
+	}
+
+	static double distance(final RealPoint a, final RealPoint b) {
+
+		double d = 0;
+		for (int i = 0; i < 3; ++i)
+			d += (a.getDoublePosition(i) - b.getDoublePosition(i)) * (a.getDoublePosition(i) - b.getDoublePosition(i));
+		return d;
+	}
+
+	static boolean isInside(final RealPoint p, final ConvexPolytope polytope) {
+
+		for (final HyperPlane plane : polytope.getHyperplanes()) {
+			double dot = 0;
+			for (int d = 0; d < 3; ++d)
+				dot += plane.getNormal()[d] * p.getDoublePosition(d);
+			if (dot < plane.getDistance())
+				return false;
+		}
+		return true;
+	}
+
+	@Test
+	public void testEditsAndQueries() {
+
+		final Random rnd = new Random(42);
+		final Annotations annotations = new Annotations(32);
+		final List<Annotation> all = new ArrayList<Annotation>();
+		for (int i = 0; i < 2000; ++i) {
+			final Annotation a = new Synapse(i, randomPoint(rnd), "");
+			annotations.add(a);
+			all.add(a);
+		}
+
+		/* move some, remove some */
+		for (int i = 0; i < 300; ++i)
+			annotations.move(all.get(rnd.nextInt(all.size())), randomPoint(rnd));
+		for (int i = 0; i < 200; ++i)
+			annotations.remove(all.remove(rnd.nextInt(all.size())));
+
+		final ConvexPolytope polytope = new ConvexPolytope(
+				new HyperPlane(1, 0, 0, 100),
+				new HyperPlane(-1, 0, 0, -500),
+				new HyperPlane(0.6, 0.8, 0, 50),
+				new HyperPlane(0, -1, 0, -400),
+				new HyperPlane(0, 0, 1, -10),
+				new HyperPlane(0, 0, -1, -10));
+		final HashSet<Annotation> expected = new HashSet<Annotation>();
+		for (final Annotation a : all)
+			if (isInside(a.getPosition(), polytope))
+				expected.add(a);
+		final List<Annotation> local = annotations.getLocalAnnotations(polytope);
+		assertEquals(expected.size(), local.size());
+		assertEquals(expected, new HashSet<Annotation>(local));
+
+		for (int i = 0; i < 20; ++i) {
+			/* also far outside of all annotations */
+			final RealPoint q = i < 18 ? randomPoint(rnd) : new RealPoint(5000.0 * (i - 18), -3000, 7000);
+			final int k = 1 + rnd.nextInt(10);
+			final List<Annotation> sorted = new ArrayList<Annotation>(all);
+			sorted.sort(Comparator.comparingDouble(a -> distance(a.getPosition(), q)));
+			final List<Annotation> nearest = annotations.getKNearest(q, k);
+			assertEquals(k, nearest.size());
+			for (int j = 0; j < k; ++j)
+				assertEquals(distance(sorted.get(j).getPosition(), q), distance(nearest.get(j).getPosition(), q), 1e-9);
+		}
+	}
+
+	static HyperPlane plane(final double[] normal, final double[] point) {
+
+		return new HyperPlane(normal[0], normal[1], normal[2], normal[0] * point[0] + normal[1] * point[1] + normal[2] * point[2]);
+	}
+
+	static double[] randomUnit(final Random rnd) {
+
+		final double[] v = {rnd.nextGaussian(), rnd.nextGaussian(), rnd.nextGaussian()};
+		final double l = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+		for (int d = 0; d < 3; ++d)
+			v[d] /= l;
+		return v;
+	}
+
+	@Test
+	public void testClipSlabs() {
+
+		final Random rnd = new Random(7);
+		final AnnotationGrid grid = new AnnotationGrid(16);
+		final List<Annotation> all = new ArrayList<Annotation>();
+		for (int i = 0; i < 5000; ++i) {
+			final Annotation a = new Synapse(i, randomPoint(rnd), "");
+			grid.add(a);
+			all.add(a);
+		}
+
+		final List<ConvexPolytope> polytopes = new ArrayList<ConvexPolytope>();
+		for (int i = 0; i < 20; ++i) {
+			/* thin oblique slabs bounded by a rotated screen rectangle */
+			final double[] u = randomUnit(rnd);
+			final double[] n = randomUnit(rnd);
+			final double[] v = {n[1] * u[2] - n[2] * u[1], n[2] * u[0] - n[0] * u[2], n[0] * u[1] - n[1] * u[0]};
+			final double[] c = new double[3];
+			randomPoint(rnd).localize(c);
+			final double w = 50 + rnd.nextDouble() * 300;
+			final double t = 1 + rnd.nextDouble() * 10;
+			polytopes.add(new ConvexPolytope(
+					plane(u, new double[] {c[0] - w * u[0], c[1] - w * u[1], c[2] - w * u[2]}),
+					plane(new double[] {-u[0], -u[1], -u[2]}, new double[] {c[0] + w * u[0], c[1] + w * u[1], c[2] + w * u[2]}),
+					plane(v, new double[] {c[0] - w * v[0], c[1] - w * v[1], c[2] - w * v[2]}),
+					plane(new double[] {-v[0], -v[1], -v[2]}, new double[] {c[0] + w * v[0], c[1] + w * v[1], c[2] + w * v[2]}),
+					plane(n, new double[] {c[0] - t * n[0], c[1] - t * n[1], c[2] - t * n[2]}),
+					plane(new double[] {-n[0], -n[1], -n[2]}, new double[] {c[0] + t * n[0], c[1] + t * n[1], c[2] + t * n[2]})));
+		}
+
+		/* unbounded */
+		polytopes.add(new ConvexPolytope(new HyperPlane(0, 0, 1, -5), new HyperPlane(0, 0, -1, -5)));
+		polytopes.add(new ConvexPolytope(new HyperPlane(1, 0, 0, 100), new HyperPlane(0, 1, 0, 100), new HyperPlane(0, 0, 1, 0)));
+
+		/* empty */
+		polytopes.add(new ConvexPolytope(
+				new HyperPlane(1, 0, 0, 10), new HyperPlane(-1, 0, 0, 0),
+				new HyperPlane(0, 1, 0, 0), new HyperPlane(0, -1, 0, -10),
+				new HyperPlane(0, 0, 1, 0), new HyperPlane(0, 0, -1, -10)));
+
+		for (final ConvexPolytope polytope : polytopes) {
+			final HashSet<Annotation> expected = new HashSet<Annotation>();
+			for (final Annotation a : all)
+				if (isInside(a.getPosition(), polytope))
+					expected.add(a);
+			final List<Annotation> clipped = grid.clip(polytope);
+			assertEquals(expected.size(), clipped.size());
+			assertEquals(expected, new HashSet<Annotation>(clipped));
+		}
+
+		/* the bounding box of a unit cube */
+		final double[][] box = AnnotationGrid.boundingBox(new ConvexPolytope(
+				new HyperPlane(1, 0, 0, 0), new HyperPlane(-1, 0, 0, -1),
+				new HyperPlane(0, 1, 0, 0), new HyperPlane(0, -1, 0, -1),
+				new HyperPlane(0, 0, 1, 0), new HyperPlane(0, 0, -1, -1)).getHyperplanes());
+		for (int d = 0; d < 3; ++d) {
+			assertEquals(0, box[0][d], 1e-6);
+			assertEquals(1, box[1][d], 1e-6);
+		}
+		assertNull(AnnotationGrid.boundingBox(polytopes.get(20).getHyperplanes()));
+		assertNull(AnnotationGrid.boundingBox(polytopes.get(21).getHyperplanes()));
+	}
+}
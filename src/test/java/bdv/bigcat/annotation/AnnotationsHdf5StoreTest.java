@@ -0,0 +1,144 @@
+package bdv.bigcat.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bdv.util.LocalIdService;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import net.imglib2.RealPoint;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+public class AnnotationsHdf5StoreTest {
+
+	private File testFile;
+
+	@Before
+	public void setUp() throws IOException {
+
+		testFile = File.createTempFile("bigcat-annotations-test", ".h5");
+		testFile.delete();
+		HDF5Factory.open(testFile).close();
+	}
+
+	@After
+	public void tearDown() {
+
+		testFile.delete();
+	}
+
+	static ConvexPolytope box(final double min, final double max) {
+
+		return new ConvexPolytope(
+				new HyperPlane(1, 0, 0, min),
+				new HyperPlane(-1, 0, 0, -max),
+				new HyperPlane(0, 1, 0, min),
+				new HyperPlane(0, -1, 0, -max),
+				new HyperPlane(0, 0, 1, min),
+				new HyperPlane(0, 0, -1, -max));
+	}
+
+	@Test
+	public void testChunkedRoundTrip() throws Exception {
+
+		final String filename = testFile.getAbsolutePath();
+		final float[] blockSize = {100, 100, 100};
+
+		final Annotations annotations = new Annotations();
+		for (int i = 0; i < 10; ++i)
+			annotations.add(new Synapse(i, new RealPoint(i * 50.0 + 10, i * 50.0 + 10, i * 50.0 + 10), "s" + i));
+
+		/* partners in different blocks */
+		final PreSynapticSite pre = new PreSynapticSite(100, new RealPoint(20.0, 20.0, 20.0), "");
+		final PostSynapticSite post = new PostSynapticSite(101, new RealPoint(420.0, 420.0, 420.0), "");
+		pre.setPartner(post);
+		post.setPartner(pre);
+		annotations.add(pre);
+		annotations.add(post);
+
+		new AnnotationsHdf5Store(filename, "/annotations", new LocalIdService(), blockSize).write(annotations);
+
+		final IHDF5Reader reader = HDF5Factory.openForReading(filename);
+		assertEquals(AnnotationsHdf5Store.FILE_FORMAT, reader.string().getAttr("/", "file_format"));
+		assertEquals(5, reader.object().getGroupMembers("/annotations/blocks").size());
+		reader.close();
+
+		/* nothing is read before it is needed */
+		final LocalIdService idService = new LocalIdService();
+		final AnnotationsHdf5Store store = new AnnotationsHdf5Store(filename, idService);
+		final Annotations read = store.read();
+		assertEquals(0, read.getAnnotations().size());
+		assertEquals(102, idService.next());
+
+		/* visible blocks are loaded in the background */
+		read.getLocalAnnotations(box(0, 99));
+		store.awaitLoading();
+		final List<Annotation> local = read.getLocalAnnotations(box(0, 99));
+		assertEquals(3, local.size());
+		assertEquals(3, read.getAnnotations().size());
+		final PreSynapticSite readPre = (PreSynapticSite)read.getById(100);
+		assertNotNull(readPre);
+		assertEquals("s1", read.getById(1).getComment());
+		assertEquals(null, readPre.getPartner());
+
+		/* the partner is linked when its block is loaded */
+		read.getLocalAnnotations(box(400, 499));
+		store.awaitLoading();
+		assertSame(read.getById(101), readPre.getPartner());
+		assertSame(readPre, ((PostSynapticSite)read.getById(101)).getPartner());
+
+		/* move an annotation into a block that is not loaded and remove another */
+		read.move(read.getById(0), new RealPoint(960.0, 960.0, 960.0));
+		read.remove(read.getById(1));
+		store.write(read);
+
+		final AnnotationsHdf5Store restore = new AnnotationsHdf5Store(filename, new LocalIdService());
+		final Annotations reread = restore.read();
+		reread.getLocalAnnotations(box(0, 49));
+		restore.awaitLoading();
+		assertEquals(1, reread.getLocalAnnotations(box(0, 49)).size());
+		reread.getLocalAnnotations(box(-1000, 2000));
+		restore.awaitLoading();
+		final List<Annotation> all = reread.getLocalAnnotations(box(-1000, 2000));
+		assertEquals(11, all.size());
+		assertTrue(reread.getById(1) == null);
+		assertEquals(960.0, reread.getById(0).getPosition().getDoublePosition(0), 0.0);
+		assertEquals("s9", reread.getById(9).getComment());
+		assertSame(reread.getById(101), ((PreSynapticSite)reread.getById(100)).getPartner());
+	}
+
+	@Test
+	public void testKNearestLoadsEnoughBlocks() throws Exception {
+
+		final String filename = testFile.getAbsolutePath();
+		final float[] blockSize = {10, 10, 10};
+
+		/* the nearest annotations to the origin are several blocks away */
+		final Annotations annotations = new Annotations();
+		annotations.add(new Synapse(0, new RealPoint(45.0, 5.0, 5.0), ""));
+		annotations.add(new Synapse(1, new RealPoint(5.0, 38.0, 5.0), ""));
+		annotations.add(new Synapse(2, new RealPoint(5.0, 5.0, -31.0), ""));
+		annotations.add(new Synapse(3, new RealPoint(95.0, 95.0, 95.0), ""));
+		new AnnotationsHdf5Store(filename, "/annotations", new LocalIdService(), blockSize).write(annotations);
+
+		final AnnotationsHdf5Store store = new AnnotationsHdf5Store(filename, new LocalIdService());
+		final Annotations read = store.read();
+		read.getKNearest(new RealPoint(5.0, 5.0, 5.0), 2);
+		store.awaitLoading();
+		final List<Annotation> nearest = read.getKNearest(new RealPoint(5.0, 5.0, 5.0), 2);
+		assertEquals(2, nearest.size());
+		assertEquals(1, nearest.get(0).getId());
+		assertEquals(2, nearest.get(1).getId());
+	}
+}
@@ -0,0 +1,41 @@
+package bdv.bigcat.control;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FragmentSegmentLutFrameTest
+{
+	@Test
+	public void testEncodeDecode()
+	{
+		final long[] fragments = { 1, 2, 3, -1 };
+		final long[] segments = { 10, 10, 20, 0x7fffffffffffffffL };
+		final byte[] message = new FragmentSegmentLutFrame( FragmentSegmentLutFrame.DELTA, 42, fragments, segments ).encode();
+		Assert.assertEquals( FragmentSegmentLutFrame.HEADER_SIZE + 16 * fragments.length, message.length );
+		Assert.assertTrue( FragmentSegmentLutFrame.isFrame( message ) );
+
+		final FragmentSegmentLutFrame frame = FragmentSegmentLutFrame.decode( message );
+		Assert.assertEquals( FragmentSegmentLutFrame.DELTA, frame.type );
+		Assert.assertEquals( 42, frame.version );
+		Assert.assertArrayEquals( fragments, frame.fragments );
+		Assert.assertArrayEquals( segments, frame.segments );
+	}
+
+	@Test
+	public void testJsonIsNoFrame()
+	{
+		final byte[] json = "{\"type\":\"fragment-segment-lut\",\"data\":{\"fragments\":[],\"segments\":[]}}".getBytes( StandardCharsets.UTF_8 );
+		Assert.assertFalse( FragmentSegmentLutFrame.isFrame( json ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testTruncated()
+	{
+		final byte[] message = new FragmentSegmentLutFrame( FragmentSegmentLutFrame.SNAPSHOT, 0, new long[]{ 1, 2 }, new long[]{ 3, 4 } ).encode();
+		final byte[] truncated = new byte[ message.length - 8 ];
+		System.arraycopy( message, 0, truncated, 0, truncated.length );
+		FragmentSegmentLutFrame.decode( truncated );
+	}
+}
@@ -0,0 +1,103 @@
+package bdv.bigcat.label;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import bdv.labels.labelset.Label;
+import net.imglib2.Cursor;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.fill.Filter;
+import net.imglib2.algorithm.fill.FloodFill;
+import net.imglib2.algorithm.neighborhood.DiamondShape;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.util.Pair;
+import net.imglib2.view.Views;
+
+public class BlockParallelFloodFillTest
+{
+	final static long[] dimensions = { 37, 29, 23 };
+
+	final static int[] cellDimensions = { 8, 8, 8 };
+
+	/* fill pixels with the seed value that were not filled yet */
+	final static Filter< Pair< LongType, LongType >, Pair< LongType, LongType > > filter =
+			( current, reference ) ->
+				current.getA().get() == reference.getA().get() &&
+				current.getB().get() != reference.getB().get();
+
+	/**
+	 * Random two-label volume, such that regions wind through many blocks
+	 * and re-enter blocks that were filled before.
+	 */
+	static ArrayImg< LongType, LongArray > createLabels()
+	{
+		final ArrayImg< LongType, LongArray > labels = ArrayImgs.longs( dimensions );
+		final Random rnd = new Random( 42 );
+		for ( final LongType t : labels )
+			t.set( rnd.nextDouble() < 0.6 ? 1 : 2 );
+		return labels;
+	}
+
+	@Test
+	public void testSameAsFloodFill() throws Exception
+	{
+		final ArrayImg< LongType, LongArray > labels = createLabels();
+		final Point seed = new Point( 18, 14, 11 );
+		final RandomAccess< LongType > labelAccess = labels.randomAccess();
+		labelAccess.setPosition( seed );
+		final LongType seedLabel = labelAccess.get().copy();
+
+		final ArrayImg< LongType, LongArray > expected = ArrayImgs.longs( dimensions );
+		for ( final LongType t : expected )
+			t.set( Label.TRANSPARENT );
+		FloodFill.fill(
+				labels,
+				expected,
+				seed,
+				seedLabel.copy(),
+				new LongType( 7 ),
+				new DiamondShape( 1 ),
+				filter );
+
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( dimensions, cellDimensions );
+		final ExecutorService exec = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			final BlockParallelFloodFill< LongType, LongType > fill = new BlockParallelFloodFill<>(
+					labels,
+					canvas,
+					canvas.getCellGrid(),
+					seedLabel.copy(),
+					new LongType( 7 ),
+					filter,
+					exec,
+					null );
+			final long numFilled = fill.start( seed ).get();
+
+			long numExpected = 0;
+			final Cursor< LongType > e = expected.cursor();
+			final Cursor< LongType > c = Views.flatIterable( canvas ).cursor();
+			while ( e.hasNext() )
+			{
+				final long value = e.next().get();
+				assertEquals( value, c.next().get() );
+				if ( value == 7 )
+					++numExpected;
+			}
+			assertEquals( numExpected, numFilled );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package bdv.bigcat.label;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bdv.bigcat.label.CompactILut.Fragments;
+import bdv.labels.labelset.Label;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+public class CompactILutTest
+{
+	static CompactILut createILut()
+	{
+		final TLongLongHashMap lut = new TLongLongHashMap();
+		lut.put( 1, 10 );
+		lut.put( 2, 20 );
+		lut.put( 3, 20 );
+		lut.put( 4, 30 );
+		lut.put( 5, 20 );
+		return CompactILut.fromLut( lut );
+	}
+
+	static long[] sorted( final long[] array )
+	{
+		Arrays.sort( array );
+		return array;
+	}
+
+	@Test
+	public void testFromLut()
+	{
+		final CompactILut ilut = createILut();
+		Assert.assertEquals( 3, ilut.size() );
+		Assert.assertEquals( 5, ilut.getNumFragments() );
+		Assert.assertArrayEquals( new long[]{ 1 }, ilut.get( 10 ) );
+		Assert.assertArrayEquals( new long[]{ 2, 3, 5 }, sorted( ilut.get( 20 ) ) );
+		Assert.assertArrayEquals( new long[]{ 4 }, ilut.get( 30 ) );
+		Assert.assertNull( ilut.get( 40 ) );
+		Assert.assertNull( ilut.getFragments( 40 ) );
+
+		/* segments in ascending order */
+		Assert.assertEquals( 10, ilut.getSegmentId( 0 ) );
+		Assert.assertEquals( 30, ilut.getSegmentId( 2 ) );
+		Assert.assertArrayEquals( new long[]{ 2, 3, 5 }, sorted( ilut.getFragmentsAt( 1 ) ) );
+
+		/* copies do not modify the lookup */
+		ilut.get( 10 )[ 0 ] = 100;
+		Assert.assertArrayEquals( new long[]{ 1 }, ilut.get( 10 ) );
+
+		Assert.assertEquals( 0, new CompactILut().size() );
+	}
+
+	@Test
+	public void testCompact()
+	{
+		final CompactILut ilut = createILut();
+		final TLongObjectHashMap< Fragments > delta = new TLongObjectHashMap< Fragments >();
+		final Fragments removed = Fragments.wrap();
+
+		/* merge 10 and 30 into 40, detach 5 from 20 */
+		delta.put( 40, Fragments.concatenate( ilut.getFragments( 10 ), ilut.getFragments( 30 ) ) );
+		delta.put( 10, removed );
+		delta.put( 30, removed );
+		delta.put( 20, Fragments.wrap( 2, 3 ) );
+		delta.put( 5, Fragments.wrap( 5 ) );
+
+		final CompactILut compacted = CompactILut.compact( ilut, delta, removed );
+		Assert.assertEquals( 3, compacted.size() );
+		Assert.assertEquals( 5, compacted.getNumFragments() );
+		Assert.assertNull( compacted.get( 10 ) );
+		Assert.assertNull( compacted.get( 30 ) );
+		Assert.assertArrayEquals( new long[]{ 1, 4 }, compacted.get( 40 ) );
+		Assert.assertArrayEquals( new long[]{ 2, 3 }, compacted.get( 20 ) );
+		Assert.assertArrayEquals( new long[]{ 5 }, compacted.get( 5 ) );
+
+		/* the original is not modified */
+		Assert.assertArrayEquals( new long[]{ 1 }, ilut.get( 10 ) );
+		Assert.assertEquals( 3, ilut.get( 20 ).length );
+	}
+
+	@Test
+	public void testDeepConcatenation()
+	{
+		final int n = 1 << 17;
+		Fragments fragments = null;
+		for ( long i = 0; i < n; ++i )
+			fragments = Fragments.concatenate( fragments, Fragments.wrap( i ) );
+		Assert.assertEquals( n, fragments.size() );
+
+		final long[] array = fragments.toArray();
+		for ( int i = 0; i < n; ++i )
+			Assert.assertEquals( i, array[ i ] );
+
+		final long[] sum = new long[ 1 ];
+		fragments.forEach( fragmentId -> sum[ 0 ] += fragmentId );
+		Assert.assertEquals( ( long ) n * ( n - 1 ) / 2, sum[ 0 ] );
+
+		Assert.assertSame( fragments, Fragments.concatenate( fragments, null ) );
+		Assert.assertEquals( 0, Fragments.concatenate( null, null ).size() );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		final CompactILut ilut = createILut();
+		final Fragments fragments = Fragments.concatenate( ilut.getFragments( 20 ), Fragments.wrap( 6, 7 ) );
+
+		final TLongHashSet removed = new TLongHashSet( new long[]{ 3, 7 } );
+		final Fragments remaining = Fragments.remove( fragments, removed );
+		Assert.assertEquals( 3, remaining.size() );
+		Assert.assertArrayEquals( new long[]{ 2, 5, 6 }, sorted( remaining.toArray() ) );
+
+		/* nested removals */
+		final Fragments nested = Fragments.remove( Fragments.concatenate( remaining, Fragments.wrap( 3 ) ), new TLongHashSet( new long[]{ 2, 6 } ) );
+		Assert.assertEquals( 2, nested.size() );
+		Assert.assertArrayEquals( new long[]{ 3, 5 }, sorted( nested.toArray() ) );
+		final long[] sum = new long[ 1 ];
+		nested.forEach( fragmentId -> sum[ 0 ] += fragmentId );
+		Assert.assertEquals( 8, sum[ 0 ] );
+
+		Assert.assertSame( fragments, Fragments.remove( fragments, new TLongHashSet() ) );
+		Assert.assertEquals( 0, Fragments.remove( Fragments.wrap( 1, 2 ), new TLongHashSet( new long[]{ 1, 2 } ) ).size() );
+
+		/* the lookup is not modified */
+		Assert.assertArrayEquals( new long[]{ 2, 3, 5 }, sorted( ilut.get( 20 ) ) );
+	}
+
+	@Test
+	public void testDeepRemove()
+	{
+		final int n = 1 << 14;
+		final long[] all = new long[ 2 * n ];
+		for ( int i = 0; i < all.length; ++i )
+			all[ i ] = i;
+		Fragments fragments = Fragments.wrap( all );
+		for ( long i = 0; i < n; ++i )
+			fragments = Fragments.remove( fragments, new TLongHashSet( new long[]{ 2 * i } ) );
+		Assert.assertEquals( n, fragments.size() );
+
+		final long[] array = fragments.toArray();
+		for ( int i = 0; i < n; ++i )
+			Assert.assertEquals( 2 * i + 1, array[ i ] );
+	}
+
+	@Test
+	public void testMemory()
+	{
+		final int n = 1 << 16;
+		final TLongLongHashMap lut = new TLongLongHashMap( n, 0.5f, Label.TRANSPARENT, Label.TRANSPARENT );
+		for ( long i = 0; i < n; ++i )
+			lut.put( i, n + i / 4 );
+		final CompactILut ilut = CompactILut.fromLut( lut );
+		Assert.assertEquals( n / 4, ilut.size() );
+
+		/* 8 bytes per segment id, 4 per offset, 4 * 8 per fragment */
+		Assert.assertEquals( 44, ilut.getMemoryBytesPerSegment(), 0.1 );
+		Assert.assertTrue( ilut.toString().contains( "bytes per segment" ) );
+	}
+}
@@ -0,0 +1,117 @@
+package bdv.bigcat.label;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import bdv.bigcat.util.DirtyInterval;
+import bdv.labels.labelset.Label;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.view.Views;
+
+public class DownsampledLabelCanvasTest
+{
+	static long get( final DownsampledLabelCanvas canvas, final long... position )
+	{
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( position );
+		return access.get().get();
+	}
+
+	@Test
+	public void testMostFrequentValue()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 100, 80, 30 }, new int[] { 16, 16, 16 } );
+		final DownsampledLabelCanvas downsampled = new DownsampledLabelCanvas( canvas, new int[] { 4, 4, 2 }, new int[] { 8, 8, 8 } );
+
+		assertEquals( 25, downsampled.dimension( 0 ) );
+		assertEquals( 20, downsampled.dimension( 1 ) );
+		assertEquals( 15, downsampled.dimension( 2 ) );
+
+		/* 16 of 32 pixels painted, painted wins ties */
+		for ( final LongType t : Views.interval( canvas, new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 3, 3, 0 } ) ) )
+			t.set( 5 );
+		/* 15 of 32 pixels painted */
+		for ( final LongType t : Views.interval( canvas, new FinalInterval( new long[] { 16, 0, 0 }, new long[] { 19, 3, 0 } ) ) )
+			t.set( 7 );
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( new long[] { 16, 0, 0 } );
+		access.get().set( Label.TRANSPARENT );
+
+		assertEquals( 5, get( downsampled, 0, 0, 0 ) );
+		assertEquals( Label.TRANSPARENT, get( downsampled, 4, 0, 0 ) );
+		assertEquals( Label.TRANSPARENT, get( downsampled, 1, 0, 0 ) );
+
+		/* footprints at the border are smaller, x 99 is the only pixel of x 33 */
+		final DownsampledLabelCanvas downsampled3 = new DownsampledLabelCanvas( canvas, new int[] { 3, 1, 1 }, new int[] { 8, 8, 8 } );
+		assertEquals( 34, downsampled3.dimension( 0 ) );
+		access.setPosition( new long[] { 99, 0, 0 } );
+		access.get().set( 3 );
+		assertEquals( 3, get( downsampled3, 33, 0, 0 ) );
+	}
+
+	@Test
+	public void testTouchInvalidates()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 100, 80, 30 }, new int[] { 16, 16, 16 } );
+		final DownsampledLabelCanvas downsampled = new DownsampledLabelCanvas( canvas, new int[] { 2, 2, 2 }, new int[] { 8, 8, 8 } );
+		final DirtyInterval dirtyInterval = new DirtyInterval( canvas.getCellGrid() );
+		dirtyInterval.addListener( downsampled );
+
+		assertEquals( Label.TRANSPARENT, get( downsampled, 10, 10, 5 ) );
+
+		final FinalInterval painted = new FinalInterval( new long[] { 20, 20, 10 }, new long[] { 21, 21, 11 } );
+		for ( final LongType t : Views.interval( canvas, painted ) )
+			t.set( 9 );
+
+		/* cached until touched */
+		assertEquals( Label.TRANSPARENT, get( downsampled, 10, 10, 5 ) );
+
+		dirtyInterval.touch( painted );
+		assertEquals( 9, get( downsampled, 10, 10, 5 ) );
+
+		for ( final LongType t : Views.interval( canvas, painted ) )
+			t.set( Label.TRANSPARENT );
+		dirtyInterval.touch( painted );
+		assertEquals( Label.TRANSPARENT, get( downsampled, 10, 10, 5 ) );
+	}
+
+	@Test
+	public void testRecomputedCellsAreReplaced()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 32, 32, 32 }, new int[] { 16, 16, 16 } );
+		final DownsampledLabelCanvas downsampled = new DownsampledLabelCanvas( canvas, new int[] { 2, 2, 2 }, new int[] { 8, 8, 8 } );
+
+		final FinalInterval painted = new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 1, 1, 1 } );
+		for ( final LongType t : Views.interval( canvas, painted ) )
+			t.set( 9 );
+		final SparseLabelCanvas.LazyLongArray before = downsampled.getCell( 0 ).getData();
+		assertEquals( 9, before.getValue( 0 ) );
+
+		for ( final LongType t : Views.interval( canvas, painted ) )
+			t.set( 4 );
+		downsampled.touched( painted );
+		assertEquals( 4, downsampled.getCell( 0 ).getData().getValue( 0 ) );
+
+		/* a cell that was handed out is never modified */
+		assertEquals( 9, before.getValue( 0 ) );
+	}
+
+	@Test
+	public void testHugeGrid()
+	{
+		/* more than Integer.MAX_VALUE downsampled cells */
+		final long size = 1l << 21;
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { size, size, size }, new int[] { 64, 64, 64 } );
+		final DownsampledLabelCanvas downsampled = new DownsampledLabelCanvas( canvas, new int[] { 2, 2, 2 }, new int[] { 4, 4, 4 } );
+
+		final FinalInterval painted = new FinalInterval( new long[] { size - 2, size - 2, size - 2 }, new long[] { size - 1, size - 1, size - 1 } );
+		for ( final LongType t : Views.interval( canvas, painted ) )
+			t.set( 9 );
+		downsampled.touched( painted );
+		assertEquals( 9, get( downsampled, size / 2 - 1, size / 2 - 1, size / 2 - 1 ) );
+		assertEquals( Label.TRANSPARENT, get( downsampled, 0, 0, 0 ) );
+	}
+}
@@ -0,0 +1,210 @@
+package bdv.bigcat.label;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bdv.labels.labelset.Label;
+import bdv.util.LocalIdService;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+public class FragmentSegmentAssignmentTest
+{
+	static long[] sorted( final long[] array )
+	{
+		final long[] copy = array.clone();
+		Arrays.sort( copy );
+		return copy;
+	}
+
+	static FragmentSegmentAssignment createAssignment()
+	{
+		final LocalIdService idService = new LocalIdService();
+		idService.setNext( 100 );
+		return new FragmentSegmentAssignment(
+				new long[]{ 1, 2, 3, 4 },
+				new long[]{ 10, 10, 20, 20 },
+				idService );
+	}
+
+	@Test
+	public void testUnassigned()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		Assert.assertEquals( 5, assignment.getSegment( 5 ) );
+		Assert.assertArrayEquals( new long[]{ 5 }, assignment.getFragments( 5 ) );
+		Assert.assertNull( assignment.getFragments( 1 ) );
+	}
+
+	@Test
+	public void testMergeAndDetach()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		final long version = assignment.getVersion();
+
+		assignment.mergeFragmentSegments( 1, 3 );
+		final long merged = assignment.getSegment( 1 );
+		Assert.assertEquals( 100, merged );
+		for ( long i = 1; i <= 4; ++i )
+			Assert.assertEquals( merged, assignment.getSegment( i ) );
+		Assert.assertArrayEquals( new long[]{ 1, 2, 3, 4 }, sorted( assignment.getFragments( merged ) ) );
+		Assert.assertTrue( assignment.getVersion() > version );
+
+		assignment.mergeFragmentSegments( 4, 5 );
+		Assert.assertEquals( 101, assignment.getSegment( 5 ) );
+		Assert.assertArrayEquals( new long[]{ 1, 2, 3, 4, 5 }, sorted( assignment.getFragments( 101 ) ) );
+
+		assignment.detachFragment( 2 );
+		Assert.assertEquals( 2, assignment.getSegment( 2 ) );
+		Assert.assertArrayEquals( new long[]{ 2 }, assignment.getFragments( 2 ) );
+		Assert.assertArrayEquals( new long[]{ 1, 3, 4, 5 }, sorted( assignment.getFragments( 101 ) ) );
+
+		final TLongLongHashMap lut = assignment.getLut();
+		Assert.assertEquals( 5, lut.size() );
+		Assert.assertEquals( 101, lut.get( 1 ) );
+		Assert.assertEquals( 2, lut.get( 2 ) );
+		Assert.assertEquals( 101, assignment.getSegment( 3 ) );
+	}
+
+	@Test
+	public void testApplyDelta()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		final long version = assignment.getVersion();
+
+		/* move 2 to 20, 5 to a new segment 30, detach 4 */
+		assignment.applyDelta(
+				new long[]{ 2, 5, 4 },
+				new long[]{ 20, 30, Label.TRANSPARENT } );
+		Assert.assertEquals( version + 1, assignment.getVersion() );
+		Assert.assertEquals( 10, assignment.getSegment( 1 ) );
+		Assert.assertEquals( 20, assignment.getSegment( 2 ) );
+		Assert.assertEquals( 30, assignment.getSegment( 5 ) );
+		Assert.assertEquals( 4, assignment.getSegment( 4 ) );
+		Assert.assertArrayEquals( new long[]{ 1 }, assignment.getFragments( 10 ) );
+		Assert.assertArrayEquals( new long[]{ 2, 3 }, sorted( assignment.getFragments( 20 ) ) );
+		Assert.assertArrayEquals( new long[]{ 5 }, assignment.getFragments( 30 ) );
+		Assert.assertArrayEquals( new long[]{ 4 }, assignment.getFragments( 4 ) );
+
+		/* emptied segments are removed */
+		assignment.applyDelta( new long[]{ 1 }, new long[]{ 20 } );
+		Assert.assertNull( assignment.getILut().get( 10 ) );
+		Assert.assertArrayEquals( new long[]{ 1, 2, 3 }, sorted( assignment.getFragments( 20 ) ) );
+		Assert.assertEquals( 3, assignment.getILut().get( 20 ).length );
+	}
+
+	@Test
+	public void testApplyDeltaMovesBack()
+	{
+		final int n = 1 << 12;
+		final long[] fragments = new long[ n ];
+		final long[] segments = new long[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			fragments[ i ] = i + 1;
+			segments[ i ] = 1000000;
+		}
+		final FragmentSegmentAssignment assignment = new FragmentSegmentAssignment( fragments, segments, new LocalIdService() );
+
+		/* move fragments out of the large segment one at a time, and back in */
+		for ( int i = 1; i <= n / 2; ++i )
+			assignment.applyDelta( new long[]{ i }, new long[]{ 2000000 } );
+		Assert.assertEquals( n / 2, assignment.getFragments( 1000000 ).length );
+		Assert.assertEquals( n / 2, assignment.getFragments( 2000000 ).length );
+
+		/* moved twice within one delta, and back to where it was */
+		assignment.applyDelta( new long[]{ n, n, 1 }, new long[]{ 2000000, 3000000, 1000000 } );
+		Assert.assertEquals( 3000000, assignment.getSegment( n ) );
+		Assert.assertEquals( 1000000, assignment.getSegment( 1 ) );
+		Assert.assertArrayEquals( new long[]{ n }, assignment.getFragments( 3000000 ) );
+		Assert.assertEquals( n / 2, assignment.getFragments( 1000000 ).length );
+		Assert.assertEquals( n / 2 - 1, assignment.getFragments( 2000000 ).length );
+
+		final long[] remaining = sorted( assignment.getILut().get( 1000000 ) );
+		Assert.assertEquals( 1, remaining[ 0 ] );
+		for ( int i = 1; i < remaining.length; ++i )
+			Assert.assertEquals( n / 2 + i, remaining[ i ] );
+	}
+
+	@Test
+	public void testInitLut()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		assignment.initLut( new long[]{ 1, 2, 7 }, new long[]{ 40, 40, 40 } );
+		Assert.assertEquals( 40, assignment.getSegment( 7 ) );
+		Assert.assertEquals( 3, assignment.getSegment( 3 ) );
+		Assert.assertArrayEquals( new long[]{ 1, 2, 7 }, sorted( assignment.getFragments( 40 ) ) );
+		Assert.assertNull( assignment.getILut().get( 10 ) );
+	}
+
+	@Test
+	public void testCompaction()
+	{
+		final LocalIdService idService = new LocalIdService();
+		idService.setNext( 1000000 );
+		final FragmentSegmentAssignment assignment = new FragmentSegmentAssignment( idService );
+		final int n = FragmentSegmentAssignment.MAX_DELTA_SIZE;
+		for ( long i = 1; i < n; ++i )
+			assignment.mergeFragmentSegments( 0, i );
+
+		final long segment = assignment.getSegment( 0 );
+		Assert.assertEquals( n, assignment.getFragments( segment ).length );
+		for ( long i = 0; i < n; ++i )
+			Assert.assertEquals( segment, assignment.getSegment( i ) );
+		Assert.assertEquals( n, assignment.getLut().size() );
+		Assert.assertEquals( 1, assignment.getILut().size() );
+	}
+
+	@Test
+	public void testSharedDeltas()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		for ( long i = 0; i < 4 * FragmentSegmentAssignment.MAX_RECENT_SIZE; ++i )
+			assignment.assignFragments( 1000 + i, 10 );
+
+		/* successors share the delta maps and copy only the recent maps */
+		final FragmentSegmentAssignment.Lookup lookup = assignment.lookup;
+		Assert.assertTrue( lookup.lutDelta.size() > FragmentSegmentAssignment.MAX_RECENT_SIZE );
+		Assert.assertTrue( lookup.recentSize() <= FragmentSegmentAssignment.MAX_RECENT_SIZE );
+		assignment.detachFragment( 1 );
+		Assert.assertSame( lookup.lutDelta, assignment.lookup.lutDelta );
+		Assert.assertSame( lookup.ilutDelta, assignment.lookup.ilutDelta );
+
+		Assert.assertEquals( 1, assignment.getSegment( 1 ) );
+		Assert.assertEquals( 10, assignment.getSegment( 1000 ) );
+		Assert.assertEquals( 10, assignment.getSegment( 2 ) );
+		Assert.assertEquals( 1 + 4 * FragmentSegmentAssignment.MAX_RECENT_SIZE, assignment.getFragments( 10 ).length );
+		Assert.assertEquals( 1 + 4 * FragmentSegmentAssignment.MAX_RECENT_SIZE, assignment.getILut().get( 10 ).length );
+	}
+
+	@Test
+	public void testConcurrentReads() throws InterruptedException
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		final AtomicBoolean failed = new AtomicBoolean( false );
+		final Thread[] readers = new Thread[ 4 ];
+		for ( int t = 0; t < readers.length; ++t )
+		{
+			readers[ t ] = new Thread( () -> {
+				for ( int i = 0; i < 100000; ++i )
+				{
+					final long segment = assignment.getSegment( 1 );
+					if ( segment != 10 && segment < 100 )
+						failed.set( true );
+				}
+			} );
+			readers[ t ].start();
+		}
+		for ( int i = 0; i < 1000; ++i )
+		{
+			assignment.mergeFragmentSegments( 1, 3 );
+			assignment.detachFragment( 3 );
+		}
+		for ( final Thread reader : readers )
+			reader.join();
+
+		Assert.assertFalse( failed.get() );
+	}
+}
@@ -0,0 +1,225 @@
+package bdv.bigcat.label;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import bdv.util.LocalIdService;
+
+public class FragmentSegmentJournalTest
+{
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile( "bigcat-journal-test", ".journal" );
+		file.delete();
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	/**
+	 * Record four modifications of
+	 * {@link FragmentSegmentAssignmentTest#createAssignment()} in the journal
+	 * file.
+	 */
+	FragmentSegmentAssignment createJournal() throws IOException
+	{
+		final FragmentSegmentAssignment assignment = FragmentSegmentAssignmentTest.createAssignment();
+		assignment.setJournal( FragmentSegmentJournal.open( file, 0 ) );
+
+		assignment.mergeFragmentSegments( 1, 3 );
+		assignment.detachFragment( 2 );
+		assignment.applyDelta( new long[]{ 5, 6 }, new long[]{ 20, 20 } );
+		assignment.assignFragments( 2, 20 );
+
+		final FragmentSegmentJournal journal = assignment.getJournal();
+		Assert.assertEquals( 4, journal.getNumPendingEntries() );
+		Assert.assertEquals( 4, journal.flush() );
+		Assert.assertEquals( 0, journal.getNumPendingEntries() );
+
+		return assignment;
+	}
+
+	static void assertSameAssignment( final FragmentSegmentAssignment expected, final FragmentSegmentAssignment actual )
+	{
+		for ( long i = 1; i <= 6; ++i )
+		{
+			Assert.assertEquals( expected.getSegment( i ), actual.getSegment( i ) );
+			Assert.assertArrayEquals(
+					FragmentSegmentAssignmentTest.sorted( expected.getFragments( expected.getSegment( i ) ) ),
+					FragmentSegmentAssignmentTest.sorted( actual.getFragments( actual.getSegment( i ) ) ) );
+		}
+	}
+
+	@Test
+	public void testReplay() throws IOException
+	{
+		final FragmentSegmentAssignment assignment = createJournal();
+
+		final List< FragmentSegmentJournal.Entry > entries = FragmentSegmentJournal.read( file );
+		Assert.assertEquals( 4, entries.size() );
+		Assert.assertEquals( FragmentSegmentJournal.MERGE, entries.get( 0 ).type );
+		Assert.assertArrayEquals( new long[]{ 10, 20, 100 }, entries.get( 0 ).values );
+		Assert.assertEquals( FragmentSegmentJournal.DELTA, entries.get( 2 ).type );
+		Assert.assertArrayEquals( new long[]{ 5, 20, 6, 20 }, entries.get( 2 ).values );
+
+		/* restart from the same snapshot, merged ids are not reused */
+		final FragmentSegmentAssignment replayed = FragmentSegmentAssignmentTest.createAssignment();
+		final LocalIdService idService = new LocalIdService();
+		replayed.setIdService( idService );
+		Assert.assertEquals( 4, FragmentSegmentJournal.replay( file, 0, replayed ) );
+		assertSameAssignment( assignment, replayed );
+		Assert.assertEquals( 101, idService.next() );
+		Assert.assertNull( replayed.getJournal() );
+
+		/* entries contained in the snapshot are skipped */
+		final FragmentSegmentAssignment skipped = FragmentSegmentAssignmentTest.createAssignment();
+		skipped.mergeFragmentSegments( 1, 3 );
+		FragmentSegmentJournal.replay( file, 1, skipped );
+		assertSameAssignment( assignment, skipped );
+	}
+
+	@Test
+	public void testReplayAppliedEntries() throws IOException
+	{
+		final FragmentSegmentAssignment assignment = createJournal();
+
+		/* a snapshot that contains all entries but claims to contain none */
+		final FragmentSegmentAssignment replayed = FragmentSegmentAssignmentTest.createAssignment();
+		replayed.setIdService( new LocalIdService() );
+		FragmentSegmentJournal.replay( file, 0, replayed );
+		FragmentSegmentJournal.replay( file, 0, replayed );
+		assertSameAssignment( assignment, replayed );
+		Assert.assertArrayEquals( new long[]{ 1, 3, 4 }, FragmentSegmentAssignmentTest.sorted( replayed.getFragments( 100 ) ) );
+
+		/* a snapshot that contains the merge but claims to contain none */
+		final FragmentSegmentAssignment merged = FragmentSegmentAssignmentTest.createAssignment();
+		merged.setIdService( new LocalIdService() );
+		merged.replay( FragmentSegmentJournal.read( file ).get( 0 ) );
+		FragmentSegmentJournal.replay( file, 0, merged );
+		assertSameAssignment( assignment, merged );
+	}
+
+	@Test
+	public void testIncompleteEntry() throws IOException
+	{
+		createJournal();
+
+		/* cut the last entry */
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			raf.setLength( raf.length() - 5 );
+		}
+		Assert.assertEquals( 3, FragmentSegmentJournal.read( file ).size() );
+
+		final FragmentSegmentAssignment replayed = FragmentSegmentAssignmentTest.createAssignment();
+		Assert.assertEquals( 3, FragmentSegmentJournal.replay( file, 0, replayed ) );
+		Assert.assertEquals( 2, replayed.getSegment( 2 ) );
+
+		/* new entries are appended after the last complete entry */
+		replayed.setJournal( FragmentSegmentJournal.open( file, 3 ) );
+		replayed.detachFragment( 5 );
+		replayed.getJournal().flush();
+		final List< FragmentSegmentJournal.Entry > entries = FragmentSegmentJournal.read( file );
+		Assert.assertEquals( 4, entries.size() );
+		Assert.assertEquals( FragmentSegmentJournal.DETACH, entries.get( 3 ).type );
+		Assert.assertEquals( 4, entries.get( 3 ).sequence );
+	}
+
+	@Test
+	public void testCorruptedEntry() throws IOException
+	{
+		createJournal();
+
+		/* flip a bit in the values of the second entry */
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			final long position = 16 + 3 * 8 + 8 + 16;
+			raf.seek( position );
+			final int b = raf.read();
+			raf.seek( position );
+			raf.write( b ^ 1 );
+		}
+		Assert.assertEquals( 1, FragmentSegmentJournal.read( file ).size() );
+	}
+
+	@Test
+	public void testDropAndRollback() throws IOException
+	{
+		final FragmentSegmentAssignment assignment = createJournal();
+		final FragmentSegmentJournal journal = assignment.getJournal();
+
+		journal.dropUntil( 2 );
+		List< FragmentSegmentJournal.Entry > entries = FragmentSegmentJournal.read( file );
+		Assert.assertEquals( 2, entries.size() );
+		Assert.assertEquals( 3, entries.get( 0 ).sequence );
+
+		assignment.detachFragment( 5 );
+		Assert.assertEquals( 1, journal.getNumPendingEntries() );
+		journal.rollback( 3 );
+		Assert.assertEquals( 0, journal.getNumPendingEntries() );
+		Assert.assertEquals( 3, journal.getSequence() );
+		entries = FragmentSegmentJournal.read( file );
+		Assert.assertEquals( 1, entries.size() );
+		Assert.assertEquals( 3, entries.get( 0 ).sequence );
+	}
+
+	@Test
+	public void testInit() throws IOException
+	{
+		final FragmentSegmentAssignment assignment = createJournal();
+		final FragmentSegmentJournal journal = assignment.getJournal();
+		Assert.assertFalse( journal.needsSnapshot() );
+
+		/* the replaced lookup is not written into the journal */
+		final long length = file.length();
+		assignment.initLut( new long[]{ 1, 2, 3, 4, 5, 6 }, new long[]{ 7, 7, 7, 7, 7, 7 } );
+		assignment.mergeFragmentSegments( 7, 8 );
+		Assert.assertTrue( journal.needsSnapshot() );
+		Assert.assertEquals( 6, journal.flush() );
+		final List< FragmentSegmentJournal.Entry > entries = FragmentSegmentJournal.read( file );
+		Assert.assertEquals( FragmentSegmentJournal.INIT, entries.get( 4 ).type );
+		Assert.assertEquals( 0, entries.get( 4 ).values.length );
+		Assert.assertTrue( file.length() - length < 100 );
+
+		/* without a snapshot, replaying stops before the replaced lookup */
+		final FragmentSegmentAssignment replayed = FragmentSegmentAssignmentTest.createAssignment();
+		replayed.setIdService( new LocalIdService() );
+		Assert.assertEquals( 4, FragmentSegmentJournal.replay( file, 0, replayed ) );
+		assertSameAssignment( createJournalCopy(), replayed );
+
+		/* a snapshot contains the replaced lookup */
+		journal.dropUntil( 6 );
+		Assert.assertFalse( journal.needsSnapshot() );
+
+		assignment.initLut( new long[]{ 1 }, new long[]{ 7 } );
+		journal.rollback( 6 );
+		Assert.assertFalse( journal.needsSnapshot() );
+	}
+
+	/**
+	 * @return the assignment recorded by {@link #createJournal()} without a
+	 *         journal
+	 */
+	FragmentSegmentAssignment createJournalCopy()
+	{
+		final FragmentSegmentAssignment assignment = FragmentSegmentAssignmentTest.createAssignment();
+		assignment.mergeFragmentSegments( 1, 3 );
+		assignment.detachFragment( 2 );
+		assignment.applyDelta( new long[]{ 5, 6 }, new long[]{ 20, 20 } );
+		assignment.assignFragments( 2, 20 );
+		return assignment;
+	}
+}
@@ -0,0 +1,107 @@
+package bdv.bigcat.label;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import bdv.labels.labelset.Label;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.LongType;
+
+public class SparseLabelCanvasTest
+{
+	@Test
+	public void testUntouchedCellsAreTransparent()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 100, 80, 30 }, new int[] { 16, 16, 16 } );
+		for ( final LongType t : canvas )
+			assertEquals( Label.TRANSPARENT, t.get() );
+		assertEquals( 0, canvas.numMaterializedCells() );
+	}
+
+	@Test
+	public void testWriteMaterializesSingleCell()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 100, 80, 30 }, new int[] { 16, 16, 16 } );
+		final RandomAccess< LongType > access = canvas.randomAccess();
+
+		/* writing transparent does not allocate */
+		access.setPosition( new long[] { 1, 2, 3 } );
+		access.get().set( Label.TRANSPARENT );
+		assertEquals( 0, canvas.numMaterializedCells() );
+
+		access.setPosition( new long[] { 99, 79, 29 } );
+		access.get().set( 42 );
+		assertEquals( 1, canvas.numMaterializedCells() );
+		assertEquals( 42, access.get().get() );
+
+		access.setPosition( new long[] { 98, 79, 29 } );
+		assertEquals( Label.TRANSPARENT, access.get().get() );
+		access.get().set( 43 );
+		assertEquals( 1, canvas.numMaterializedCells() );
+
+		assertNull( canvas.getCell( 0 ).getData().getCurrentStorageArray() );
+		assertTrue( canvas.getMaterializedCells().get( 0 ).getData().isMaterialized() );
+
+		long sum = 0;
+		for ( final LongType t : canvas )
+			if ( t.get() != Label.TRANSPARENT )
+				sum += t.get();
+		assertEquals( 85, sum );
+	}
+
+	@Test
+	public void testCellsOfSameIndexShareData()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 32, 32, 32 }, new int[] { 16, 16, 16 } );
+		final SparseLabelCanvas.LazyLongArray a = canvas.getCell( 3 ).getData();
+		final SparseLabelCanvas.LazyLongArray b = canvas.getCell( 3 ).getData();
+		assertNull( canvas.getMaterializedCell( 3 ) );
+
+		a.setValue( 5, 42 );
+		b.setValue( 6, 43 );
+		assertEquals( 1, canvas.numMaterializedCells() );
+		assertEquals( 43, a.getValue( 6 ) );
+		assertEquals( 42, canvas.getCell( 3 ).getData().getValue( 5 ) );
+		assertTrue( a.getCurrentStorageArray() == canvas.getMaterializedCell( 3 ).getData().getCurrentStorageArray() );
+	}
+
+	@Test
+	public void testHugeGrid()
+	{
+		/* more than Integer.MAX_VALUE cells */
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 1l << 20, 1l << 20, 1l << 20 }, new int[] { 16, 16, 16 } );
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( new long[] { ( 1l << 20 ) - 1, ( 1l << 20 ) - 1, ( 1l << 20 ) - 1 } );
+		access.get().set( 42 );
+		assertEquals( 1, canvas.numMaterializedCells() );
+		assertEquals( ( 1l << 48 ) - 1, canvas.getMaterializedCellIndices()[ 0 ] );
+		assertEquals( 42, access.get().get() );
+	}
+
+	@Test
+	public void testCopyCells()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[] { 32, 32, 32 }, new int[] { 16, 16, 16 } );
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( new long[] { 1, 2, 3 } );
+		access.get().set( 42 );
+		access.setPosition( new long[] { 17, 2, 3 } );
+		access.get().set( 43 );
+
+		/* cell 2 was never written and is not copied */
+		final SparseLabelCanvas copy = canvas.copyCells( new long[] { 1, 2 } );
+		assertArrayEquals( new long[] { 1 }, copy.getMaterializedCellIndices() );
+
+		/* the copy does not change with the canvas */
+		access.get().set( 44 );
+		final RandomAccess< LongType > copyAccess = copy.randomAccess();
+		copyAccess.setPosition( new long[] { 17, 2, 3 } );
+		assertEquals( 43, copyAccess.get().get() );
+		copyAccess.setPosition( new long[] { 1, 2, 3 } );
+		assertEquals( Label.TRANSPARENT, copyAccess.get().get() );
+	}
+}
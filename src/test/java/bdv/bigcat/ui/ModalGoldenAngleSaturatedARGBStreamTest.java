@@ -0,0 +1,113 @@
+package bdv.bigcat.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import bdv.bigcat.label.FragmentSegmentAssignment;
+import bdv.bigcat.label.SegmentAssignment;
+import bdv.util.LocalIdService;
+
+public class ModalGoldenAngleSaturatedARGBStreamTest
+{
+	static FragmentSegmentAssignment createAssignment()
+	{
+		final LocalIdService idService = new LocalIdService();
+		idService.setNext( 100 );
+		return new FragmentSegmentAssignment(
+				new long[]{ 1, 2, 3, 4 },
+				new long[]{ 10, 10, 20, 20 },
+				idService );
+	}
+
+	/**
+	 * The color of a segment as computed before colors were taken from a
+	 * lookup table.
+	 */
+	static int interpolatedARGB( final GoldenAngleSaturatedARGBStream stream, final long segmentId )
+	{
+		double x = stream.getDouble( stream.seed + segmentId );
+		x *= 6.0;
+		final int k = ( int )x;
+		final int l = k + 1;
+		final double u = x - k;
+		final double v = 1.0 - u;
+		return AbstractARGBStream.argb(
+				AbstractSaturatedARGBStream.interpolate( AbstractARGBStream.rs, k, l, u, v ),
+				AbstractSaturatedARGBStream.interpolate( AbstractARGBStream.gs, k, l, u, v ),
+				AbstractSaturatedARGBStream.interpolate( AbstractARGBStream.bs, k, l, u, v ),
+				stream.alpha );
+	}
+
+	@Test
+	public void testLookupTable()
+	{
+		final ModalGoldenAngleSaturatedARGBStream stream = new ModalGoldenAngleSaturatedARGBStream( createAssignment(), new SegmentAssignment() );
+		stream.setActive( 0 );
+		for ( long id = 1000; id < 11000; ++id )
+			assertEquals( interpolatedARGB( stream, id ), stream.argb( id ) );
+	}
+
+	@Test
+	public void testEpochs()
+	{
+		final FragmentSegmentAssignment assignment = createAssignment();
+		final ModalGoldenAngleSaturatedARGBStream stream = new ModalGoldenAngleSaturatedARGBStream( assignment, new SegmentAssignment() );
+		stream.setActive( 0 );
+
+		final int argb1 = stream.argb( 1 );
+		final int argb3 = stream.argb( 3 );
+		assertEquals( argb1, stream.argb( 2 ) );
+		assertNotEquals( argb1, argb3 );
+
+		long version = stream.getVersion();
+		assertEquals( version, stream.getVersion() );
+
+		/* seed changes start a new epoch */
+		stream.incSeed();
+		assertNotEquals( version, stream.getVersion() );
+		assertEquals( interpolatedARGB( stream, 10 ), stream.argb( 1 ) );
+		stream.decSeed();
+		assertEquals( argb1, stream.argb( 1 ) );
+
+		/* cached fragment colors follow assignment changes */
+		version = stream.getVersion();
+		assignment.mergeFragmentSegments( 1, 3 );
+		assertNotEquals( version, stream.getVersion() );
+		assertEquals( stream.argb( 3 ), stream.argb( 1 ) );
+		assertEquals( interpolatedARGB( stream, assignment.getSegment( 1 ) ), stream.argb( 1 ) );
+	}
+
+	@Test
+	public void testConcurrentEpochs() throws Exception
+	{
+		final ModalGoldenAngleSaturatedARGBStream stream = new ModalGoldenAngleSaturatedARGBStream( createAssignment(), new SegmentAssignment() );
+		stream.setActive( 0 );
+		final ExecutorService exec = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			for ( int seed = 1; seed < 20; ++seed )
+			{
+				stream.setSeed( seed );
+				final ArrayList< Future< ? > > futures = new ArrayList<>();
+				for ( int t = 0; t < 4; ++t )
+					futures.add( exec.submit( () -> {
+						for ( long id = 1000; id < 5000; ++id )
+							assertEquals( interpolatedARGB( stream, id ), stream.argb( id ) );
+					} ) );
+				for ( final Future< ? > future : futures )
+					future.get();
+			}
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+}
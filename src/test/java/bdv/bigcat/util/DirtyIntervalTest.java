@@ -0,0 +1,34 @@
+package bdv.bigcat.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.img.cell.CellGrid;
+
+public class DirtyIntervalTest
+{
+	@Test
+	public void testDirtyCells()
+	{
+		final CellGrid grid = new CellGrid( new long[] { 100, 100, 100 }, new int[] { 10, 10, 10 } );
+		final DirtyInterval dirty = new DirtyInterval( grid );
+
+		/* two strokes far apart touch only their own cells */
+		dirty.touch( new FinalInterval( new long[] { 1, 1, 1 }, new long[] { 3, 3, 3 } ) );
+		dirty.touch( new FinalInterval( new long[] { 95, 95, 95 }, new long[] { 105, 99, 99 } ) );
+		assertEquals( 2, dirty.numDirtyCells() );
+		assertEquals( 105, dirty.getDirtyInterval().max( 0 ) );
+
+		/* straddling a cell boundary in x and y */
+		dirty.touch( new FinalInterval( new long[] { 9, 19, 0 }, new long[] { 10, 20, 0 } ) );
+		assertArrayEquals( new long[] { 0, 10, 11, 20, 21, 999 }, dirty.takeDirtyCells() );
+		assertEquals( 0, dirty.numDirtyCells() );
+
+		/* completely outside */
+		dirty.touch( new FinalInterval( new long[] { -10, 0, 0 }, new long[] { -1, 5, 5 } ) );
+		assertEquals( 0, dirty.numDirtyCells() );
+	}
+}
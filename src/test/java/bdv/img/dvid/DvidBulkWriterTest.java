@@ -0,0 +1,196 @@
+package bdv.img.dvid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import bdv.util.dvid.DatasetBlkLabel;
+import bdv.util.dvid.Repository;
+import bdv.util.http.HttpClient;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests against a local stub server that stores the
+ * <code>raw/0_1_2/dx_dy_dz/x_y_z</code> POSTs of a labelblk data set in a
+ * volume of {@link #SIZE}<sup>3</sup> pixels.
+ */
+public class DvidBulkWriterTest
+{
+	final static private int SIZE = 32;
+
+	final static private int[] BLOCK_SIZE = { 4, 4, 4 };
+
+	private HttpServer server;
+
+	private String url;
+
+	final private long[] volume = new long[ SIZE * SIZE * SIZE ];
+
+	final private AtomicInteger posts = new AtomicInteger();
+
+	/* the first request fails to test retries */
+	final private AtomicInteger failures = new AtomicInteger( 1 );
+
+	static long[] parse( final String s )
+	{
+		final String[] parts = s.split( "_" );
+		return new long[] { Long.parseLong( parts[ 0 ] ), Long.parseLong( parts[ 1 ] ), Long.parseLong( parts[ 2 ] ) };
+	}
+
+	static void respond( final HttpExchange exchange, final int code, final byte[] body ) throws IOException
+	{
+		exchange.sendResponseHeaders( code, body.length );
+		try ( final OutputStream out = exchange.getResponseBody() )
+		{
+			out.write( body );
+		}
+	}
+
+	private void handleRaw( final HttpExchange exchange ) throws IOException
+	{
+		final byte[] body;
+		try ( final InputStream in = exchange.getRequestBody() )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 4096 ];
+			for ( int l = in.read( buffer ); l >= 0; l = in.read( buffer ) )
+				bytes.write( buffer, 0, l );
+			body = bytes.toByteArray();
+		}
+		if ( failures.getAndDecrement() > 0 )
+		{
+			respond( exchange, 503, "busy".getBytes() );
+			return;
+		}
+		posts.incrementAndGet();
+
+		final String[] path = exchange.getRequestURI().getPath().split( "/" );
+		final long[] size = parse( path[ path.length - 2 ] );
+		final long[] offset = parse( path[ path.length - 1 ] );
+		if ( body.length != size[ 0 ] * size[ 1 ] * size[ 2 ] * Long.BYTES )
+		{
+			respond( exchange, 400, "wrong size".getBytes() );
+			return;
+		}
+		for ( int d = 0; d < 3; ++d )
+			if ( offset[ d ] % BLOCK_SIZE[ d ] != 0 || size[ d ] % BLOCK_SIZE[ d ] != 0 )
+			{
+				respond( exchange, 400, "not block aligned".getBytes() );
+				return;
+			}
+
+		final ByteBuffer bb = ByteBuffer.wrap( body );
+		synchronized ( volume )
+		{
+			for ( long z = 0; z < size[ 2 ]; ++z )
+				for ( long y = 0; y < size[ 1 ]; ++y )
+					for ( long x = 0; x < size[ 0 ]; ++x )
+						volume[ index( offset[ 0 ] + x, offset[ 1 ] + y, offset[ 2 ] + z ) ] = bb.getLong();
+		}
+		respond( exchange, 200, new byte[ 0 ] );
+	}
+
+	static int index( final long x, final long y, final long z )
+	{
+		return ( int ) ( ( z * SIZE + y ) * SIZE + x );
+	}
+
+	static long value( final long x, final long y, final long z )
+	{
+		return 1 + x + 100 * y + 10000 * z;
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		server.createContext( "/api/node/abc/labels/info", exchange -> respond(
+				exchange,
+				200,
+				"{\"Extended\":{\"BlockSize\":[4,4,4]}}".getBytes() ) );
+		server.createContext( "/api/node/abc/labels/raw/", this::handleRaw );
+		server.setExecutor( Executors.newFixedThreadPool( 4 ) );
+		server.start();
+		url = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop( 0 );
+	}
+
+	@Test
+	public void testWriteImage() throws IOException
+	{
+		final DatasetBlkLabel dataset = new DatasetBlkLabel( new Repository( url, "abc" ).getRootNode(), "labels" );
+		final DvidBulkWriter< UnsignedLongType > writer = new DvidBulkWriter<>(
+				dataset,
+				BLOCK_SIZE,
+				new HttpClient( 4, 1000, 1000 ),
+				3,
+				2,
+				2,
+				1 );
+
+		final long[] dimensions = { 10, 9, 7 };
+		final ArrayImg< UnsignedLongType, LongArray > image = ArrayImgs.unsignedLongs( dimensions );
+		final long[] position = new long[ 3 ];
+		for ( final Cursor< UnsignedLongType > c = image.localizingCursor(); c.hasNext(); )
+		{
+			c.fwd();
+			c.localize( position );
+			c.get().set( value( position[ 0 ], position[ 1 ], position[ 2 ] ) );
+		}
+
+		final int[] offset = { 3, 5, 2 };
+		final DvidBulkWriter.Statistics statistics = writer.writeImage(
+				Views.translate( image, 7, 7, 7 ),
+				2,
+				new int[] { 8, 8, 4 },
+				offset,
+				new UnsignedLongType() );
+
+		assertEquals( 0, statistics.getNumFailures() );
+		assertEquals( 1, statistics.getNumRetries() );
+		assertEquals( posts.get(), statistics.getNumChunks() );
+
+		/* the image is at offset, the padding of the chunks is zero */
+		for ( int z = 0; z < SIZE; ++z )
+			for ( int y = 0; y < SIZE; ++y )
+				for ( int x = 0; x < SIZE; ++x )
+				{
+					final long ix = x - offset[ 0 ];
+					final long iy = y - offset[ 1 ];
+					final long iz = z - offset[ 2 ];
+					final boolean inside =
+							ix >= 0 && ix < dimensions[ 0 ] &&
+							iy >= 0 && iy < dimensions[ 1 ] &&
+							iz >= 0 && iz < dimensions[ 2 ];
+					assertEquals( inside ? value( ix, iy, iz ) : 0, volume[ index( x, y, z ) ] );
+				}
+
+		/* edge chunks are padded to the next block, not to the full step */
+		final long paddedVoxels = 16 * 12 * 12;
+		assertEquals( paddedVoxels * Long.BYTES, statistics.getNumBytes() );
+	}
+}
@@ -0,0 +1,117 @@
+package bdv.img.h5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bdv.labels.labelset.LabelMultisetArrayBuilder;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+
+public class BlockMaxIdsTest
+{
+	static private String testDirPath = System.getProperty( "user.home" ) + "/tmp/bigcat-test/";
+
+	static private String testH5Name = "block-max-ids-test.h5";
+
+	static private ExecutorService exec;
+
+	/* 8 blocks of 4x4x2, block b contains 10 * ( b + 1 ) + x % 4 */
+	final static private long[] dimensions = { 8, 8, 4 };
+
+	final static private CellGrid grid = new CellGrid( dimensions, new int[] { 4, 4, 2 } );
+
+	final static private long[] expected = { 13, 23, 33, 43, 53, 63, 73, 83 };
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		final File testDir = new File( testDirPath );
+		testDir.mkdirs();
+		if ( !( testDir.exists() && testDir.isDirectory() ) )
+			throw new IOException( "Could not create test directory for BlockMaxIds test." );
+		exec = Executors.newFixedThreadPool( 2 );
+	}
+
+	@AfterClass
+	public static void rampDownAfterClass() throws Exception
+	{
+		exec.shutdown();
+		new File( testDirPath + testH5Name ).delete();
+		new File( testDirPath ).delete();
+	}
+
+	static ArrayImg< LabelMultisetType, VolatileLabelMultisetArray > createLabels()
+	{
+		final long[] labels = new long[ 8 * 8 * 4 ];
+		for ( int z = 0, i = 0; z < 4; ++z )
+			for ( int y = 0; y < 8; ++y )
+				for ( int x = 0; x < 8; ++x, ++i )
+					labels[ i ] = 10 * ( x / 4 + 2 * ( y / 4 ) + 4 * ( z / 2 ) + 1 ) + x % 4;
+
+		final VolatileLabelMultisetArray access = LabelMultisetArrayBuilder.get().build( labels );
+		final ArrayImg< LabelMultisetType, VolatileLabelMultisetArray > img = new ArrayImg<>( access, dimensions, new Fraction() );
+		img.setLinkedType( new LabelMultisetType( img ) );
+		return img;
+	}
+
+	@Test
+	public void testScan() throws Exception
+	{
+		final ArrayImg< LabelMultisetType, VolatileLabelMultisetArray > labels = createLabels();
+
+		final long[] blockMaxIds = BlockMaxIds.create( grid );
+		assertEquals( 8, blockMaxIds.length );
+		assertEquals( 0, BlockMaxIds.maxId( blockMaxIds ) );
+
+		assertEquals( 8, BlockMaxIds.scan( labels, grid, blockMaxIds, exec ) );
+		assertArrayEquals( expected, blockMaxIds );
+		assertEquals( 83, BlockMaxIds.maxId( blockMaxIds ) );
+
+		/* only unknown blocks are scanned */
+		blockMaxIds[ 2 ] = BlockMaxIds.UNKNOWN;
+		blockMaxIds[ 7 ] = BlockMaxIds.UNKNOWN;
+		blockMaxIds[ 5 ] = 1000;
+		assertEquals( 1000, BlockMaxIds.maxId( blockMaxIds ) );
+		assertEquals( 2, BlockMaxIds.scan( labels, grid, blockMaxIds, exec ) );
+		assertEquals( 33, blockMaxIds[ 2 ] );
+		assertEquals( 83, blockMaxIds[ 7 ] );
+		assertEquals( 1000, blockMaxIds[ 5 ] );
+		assertEquals( 0, BlockMaxIds.scan( labels, grid, blockMaxIds, exec ) );
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception
+	{
+		final long[] blockMaxIds = BlockMaxIds.create( grid );
+		BlockMaxIds.scan( createLabels(), grid, blockMaxIds, exec );
+		blockMaxIds[ 4 ] = BlockMaxIds.UNKNOWN;
+
+		final IHDF5Writer writer = HDF5Factory.open( testDirPath + testH5Name );
+		BlockMaxIds.save( writer, BlockMaxIds.datasetFor( "/labels" ), grid, blockMaxIds );
+		writer.close();
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( testDirPath + testH5Name );
+		assertArrayEquals( blockMaxIds, BlockMaxIds.load( reader, BlockMaxIds.datasetFor( "/labels" ), grid ) );
+
+		/* block maxima for a different grid or a missing dataset are not loaded */
+		assertNull( BlockMaxIds.load( reader, BlockMaxIds.datasetFor( "/labels" ), new CellGrid( dimensions, new int[] { 8, 8, 4 } ) ) );
+		assertNull( BlockMaxIds.load( reader, BlockMaxIds.datasetFor( "/other" ), grid ) );
+		reader.close();
+	}
+}
@@ -0,0 +1,119 @@
+package bdv.img.h5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+public class H5ReaderPoolTest
+{
+	final static private int[] dimensions = { 32, 24, 16 };
+
+	final static private int[] cellDimensions = { 8, 8, 4 };
+
+	static private File testFile;
+
+	static private byte[] data;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		testFile = File.createTempFile( "bigcat-reader-pool-test", ".h5" );
+		testFile.delete();
+
+		data = new byte[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = ( byte ) ( i * 31 );
+
+		final IHDF5Writer writer = HDF5Factory.open( testFile );
+		writer.uint8().writeMDArray( "/raw", new MDByteArray( data, new int[]{ dimensions[ 2 ], dimensions[ 1 ], dimensions[ 0 ] } ) );
+		writer.close();
+	}
+
+	@AfterClass
+	public static void rampDownAfterClass() throws Exception
+	{
+		testFile.delete();
+	}
+
+	static byte[] expected( final long[] min, final int[] dims )
+	{
+		final byte[] block = new byte[ dims[ 0 ] * dims[ 1 ] * dims[ 2 ] ];
+		int i = 0;
+		for ( int z = 0; z < dims[ 2 ]; ++z )
+			for ( int y = 0; y < dims[ 1 ]; ++y )
+				for ( int x = 0; x < dims[ 0 ]; ++x )
+					block[ i++ ] = data[ ( int ) ( ( ( z + min[ 2 ] ) * dimensions[ 1 ] + y + min[ 1 ] ) * dimensions[ 0 ] + x + min[ 0 ] ) ];
+		return block;
+	}
+
+	@Test
+	public void testShared()
+	{
+		final IHDF5Reader reader = HDF5Factory.openForReading( testFile );
+		final H5ReaderPool readers = H5ReaderPool.shared( reader );
+		assertSame( reader, readers.get() );
+		assertEquals( 0, readers.getNumReaders() );
+		readers.close();
+		assertTrue( reader.exists( "/raw" ) );
+		reader.close();
+	}
+
+	@Test
+	public void testPerThread() throws Exception
+	{
+		final H5ReaderPool readers = H5ReaderPool.perThread( testFile.getAbsolutePath() );
+		final H5ByteArrayLoader loader = new H5ByteArrayLoader( readers, "/raw" );
+		final int numThreads = 4;
+		final ExecutorService exec = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			final ArrayList< Future< ? > > futures = new ArrayList<>();
+			for ( int z = 0; z < dimensions[ 2 ]; z += cellDimensions[ 2 ] )
+				for ( int y = 0; y < dimensions[ 1 ]; y += cellDimensions[ 1 ] )
+					for ( int x = 0; x < dimensions[ 0 ]; x += cellDimensions[ 0 ] )
+					{
+						final long[] min = { x, y, z };
+						futures.add( exec.submit( () -> {
+							assertArrayEquals(
+									expected( min, cellDimensions ),
+									loader.loadArray( 0, 0, 0, cellDimensions, min ).getCurrentStorageArray() );
+							return null;
+						} ) );
+					}
+			for ( final Future< ? > future : futures )
+				future.get();
+
+			assertTrue( readers.getNumReaders() >= 1 );
+			assertTrue( readers.getNumReaders() <= numThreads );
+
+			final IHDF5Reader reader = readers.get();
+			assertSame( reader, readers.get() );
+			readers.close();
+			assertEquals( 0, readers.getNumReaders() );
+			assertNotSame( reader, readers.get() );
+			assertEquals( 1, readers.getNumReaders() );
+		}
+		finally
+		{
+			readers.close();
+			exec.shutdown();
+		}
+	}
+}
@@ -16,6 +16,8 @@
  */
 package bdv.img.h5;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -29,10 +31,16 @@ import org.junit.Test;
 
 import com.google.gson.Gson;
 
+import bdv.bigcat.label.SparseLabelCanvas;
 import bdv.labels.labelset.Label;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
 import gnu.trove.impl.Constants;
 import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.LongType;
 
 /**
  *
@@ -143,4 +151,41 @@ public class H5UtilsTest
 			assertTrue( "loaded expected value '" + expectedValue + "' does not exist.", test.contains( expectedValue ) );
 	}
 
+	@Test
+	public void testLoadSparseUnsignedLongPaintedCells()
+	{
+		final SparseLabelCanvas canvas = new SparseLabelCanvas( new long[]{ 8, 8, 8 }, new int[]{ 4, 4, 4 } );
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( new long[]{ 5, 1, 6 } );
+		access.get().set( 42 );
+		access.setPosition( new long[]{ 1, 1, 1 } );
+		access.get().set( 43 );
+
+		final IHDF5Writer writer = HDF5Factory.open( testDirPath + testH5Name );
+		H5Utils.saveUnsignedLong( canvas, writer, "/canvas", new int[]{ 4, 4, 4 } );
+		PaintedCells.save( writer, PaintedCells.datasetFor( "/canvas" ), canvas.getCellGrid(), new long[]{ 5 } );
+		writer.close();
+
+		/* only the indexed cell is read */
+		final IHDF5Reader reader = HDF5Factory.openForReading( testDirPath + testH5Name );
+		final SparseLabelCanvas loaded = H5Utils.loadSparseUnsignedLong( reader, "/canvas", new int[]{ 4, 4, 4 } );
+		reader.close();
+
+		assertArrayEquals( new long[]{ 5 }, loaded.getMaterializedCellIndices() );
+		final RandomAccess< LongType > loadedAccess = loaded.randomAccess();
+		loadedAccess.setPosition( new long[]{ 5, 1, 6 } );
+		assertEquals( 42, loadedAccess.get().get() );
+		loadedAccess.setPosition( new long[]{ 1, 1, 1 } );
+		assertEquals( Label.TRANSPARENT, loadedAccess.get().get() );
+
+		/* an index for a different grid is ignored */
+		final IHDF5Reader otherReader = HDF5Factory.openForReading( testDirPath + testH5Name );
+		final SparseLabelCanvas other = H5Utils.loadSparseUnsignedLong( otherReader, "/canvas", new int[]{ 8, 8, 8 } );
+		otherReader.close();
+		assertEquals( 1, other.numMaterializedCells() );
+		final RandomAccess< LongType > otherAccess = other.randomAccess();
+		otherAccess.setPosition( new long[]{ 1, 1, 1 } );
+		assertEquals( 43, otherAccess.get().get() );
+	}
+
 }
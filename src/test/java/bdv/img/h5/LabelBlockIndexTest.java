@@ -0,0 +1,152 @@
+package bdv.img.h5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bdv.labels.labelset.LabelMultisetArrayBuilder;
+import bdv.labels.labelset.LabelMultisetType;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+public class LabelBlockIndexTest
+{
+	static private String testDirPath = System.getProperty( "user.home" ) + "/tmp/bigcat-test/";
+
+	static private String testH5Name = "label-block-index-test.h5";
+
+	static private ExecutorService exec;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		final File testDir = new File( testDirPath );
+		testDir.mkdirs();
+		if ( !( testDir.exists() && testDir.isDirectory() ) )
+			throw new IOException( "Could not create test directory for LabelBlockIndex test." );
+		exec = Executors.newFixedThreadPool( 4 );
+	}
+
+	@AfterClass
+	public static void rampDownAfterClass() throws Exception
+	{
+		exec.shutdown();
+		new File( testDirPath + testH5Name ).delete();
+		new File( testDirPath ).delete();
+	}
+
+	static ArrayImg< LabelMultisetType, VolatileLabelMultisetArray > createLabels( final long[] labels, final long... dimensions )
+	{
+		final VolatileLabelMultisetArray access = LabelMultisetArrayBuilder.get().build( labels );
+		final ArrayImg< LabelMultisetType, VolatileLabelMultisetArray > img = new ArrayImg<>( access, dimensions, new Fraction() );
+		img.setLinkedType( new LabelMultisetType( img ) );
+		return img;
+	}
+
+	static LabelBlockIndex saveAndLoad( final LabelBlockIndex index )
+	{
+		final IHDF5Writer writer = HDF5Factory.open( testDirPath + testH5Name );
+		index.save( writer, LabelBlockIndex.datasetFor( "/labels" ) );
+		writer.close();
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( testDirPath + testH5Name );
+		final LabelBlockIndex loaded = LabelBlockIndex.load( reader, LabelBlockIndex.datasetFor( "/labels" ), index.getGrid() );
+		reader.close();
+		return loaded;
+	}
+
+	static void assertSameInterval( final Interval expected, final Interval actual )
+	{
+		if ( expected == null )
+			assertNull( actual );
+		else
+		{
+			assertArrayEquals( Intervals.minAsLongArray( expected ), Intervals.minAsLongArray( actual ) );
+			assertArrayEquals( Intervals.maxAsLongArray( expected ), Intervals.maxAsLongArray( actual ) );
+		}
+	}
+
+	static void assertSameIndex( final LabelBlockIndex expected, final LabelBlockIndex actual, final long... ids )
+	{
+		assertEquals( expected.numIds(), actual.numIds() );
+		assertEquals( expected.numEntries(), actual.numEntries() );
+		for ( final long id : ids )
+		{
+			assertArrayEquals( expected.getBlocks( id ), actual.getBlocks( id ) );
+			assertEquals( expected.getCount( id ), actual.getCount( id ) );
+			assertSameInterval( expected.getBoundingBox( id ), actual.getBoundingBox( id ) );
+		}
+	}
+
+	@Test
+	public void testBuildSaveLoad() throws Exception
+	{
+		/* 1 in x < 4, 2 at ( 5, 6, 3 ), 3 everywhere else */
+		final long[] dimensions = { 8, 8, 4 };
+		final long[] labels = new long[ 8 * 8 * 4 ];
+		for ( int z = 0, i = 0; z < 4; ++z )
+			for ( int y = 0; y < 8; ++y )
+				for ( int x = 0; x < 8; ++x, ++i )
+					labels[ i ] = x < 4 ? 1 : x == 5 && y == 6 && z == 3 ? 2 : 3;
+
+		final CellGrid grid = new CellGrid( dimensions, new int[] { 4, 4, 2 } );
+		final LabelBlockIndex index = LabelBlockIndex.build( createLabels( labels, dimensions ), grid, exec );
+
+		assertEquals( 3, index.numIds() );
+		assertEquals( 9, index.numEntries() );
+		assertFalse( index.contains( 4 ) );
+		assertArrayEquals( new long[] { 0, 2, 4, 6 }, index.getBlocks( 1 ) );
+		assertArrayEquals( new long[] { 7 }, index.getBlocks( 2 ) );
+		assertArrayEquals( new long[] { 1, 3, 5, 7 }, index.getBlocks( 3 ) );
+		assertArrayEquals( new long[] { 0, 2, 4, 6, 7 }, index.getBlocks( 1, 2 ) );
+		assertEquals( 128, index.getCount( 1 ) );
+		assertEquals( 129, index.getCount( 1, 2 ) );
+		assertSameInterval( new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 3, 7, 3 } ), index.getBoundingBox( 1 ) );
+		assertSameInterval( new FinalInterval( new long[] { 5, 6, 3 }, new long[] { 5, 6, 3 } ), index.getBoundingBox( 2 ) );
+		assertNull( index.getBoundingBox( 4 ) );
+
+		assertSameIndex( index, saveAndLoad( index ), 1, 2, 3, 4 );
+
+		/* an index for a different grid is not loaded */
+		final IHDF5Reader reader = HDF5Factory.openForReading( testDirPath + testH5Name );
+		assertNull( LabelBlockIndex.load( reader, LabelBlockIndex.datasetFor( "/labels" ), new CellGrid( dimensions, new int[] { 8, 8, 4 } ) ) );
+		reader.close();
+	}
+
+	@Test
+	public void testSaveLoadMultipleChunks() throws Exception
+	{
+		/* one row per voxel, more rows than fit into one chunk */
+		final long[] dimensions = { 64, 64, 40 };
+		final long[] labels = new long[ 64 * 64 * 40 ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = i + 1;
+
+		final CellGrid grid = new CellGrid( dimensions, new int[] { 64, 64, 8 } );
+		final LabelBlockIndex index = LabelBlockIndex.build( createLabels( labels, dimensions ), grid, exec );
+		assertEquals( labels.length, index.numEntries() );
+
+		final LabelBlockIndex loaded = saveAndLoad( index );
+		assertSameIndex( index, loaded, 1, 4096, 65536, 65537, labels.length );
+		assertArrayEquals( new long[] { 4 }, loaded.getBlocks( labels.length ) );
+		assertSameInterval( new FinalInterval( new long[] { 63, 63, 39 }, new long[] { 63, 63, 39 } ), loaded.getBoundingBox( labels.length ) );
+	}
+}
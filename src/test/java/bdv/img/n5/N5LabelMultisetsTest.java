@@ -0,0 +1,155 @@
+package bdv.img.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bdv.bigcat.label.SparseLabelCanvas;
+import bdv.labels.labelset.Label;
+import bdv.labels.labelset.LabelMultisetArrayBuilder;
+import bdv.labels.labelset.LabelMultisetEntryList;
+import bdv.labels.labelset.VolatileLabelMultisetArray;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.LongType;
+
+public class N5LabelMultisetsTest
+{
+	final static private long[] dimensions = { 20, 12, 6 };
+
+	final static private int[] blockSize = { 8, 8, 4 };
+
+	static private File testDirectory;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		testDirectory = Files.createTempDirectory( "bigcat-n5-test" ).toFile();
+	}
+
+	@AfterClass
+	public static void rampDownAfterClass() throws Exception
+	{
+		Files.walk( testDirectory.toPath() )
+				.sorted( Comparator.reverseOrder() )
+				.map( Path::toFile )
+				.forEach( File::delete );
+	}
+
+	static void assertSameLists( final VolatileLabelMultisetArray expected, final VolatileLabelMultisetArray actual )
+	{
+		final LabelMultisetEntryList expectedList = new LabelMultisetEntryList();
+		final LabelMultisetEntryList actualList = new LabelMultisetEntryList();
+		assertEquals( expected.getCurrentStorageArray().length, actual.getCurrentStorageArray().length );
+		for ( int i = 0; i < expected.getCurrentStorageArray().length; ++i )
+		{
+			expected.getValue( i, expectedList );
+			actual.getValue( i, actualList );
+			assertEquals( expectedList.size(), actualList.size() );
+			for ( int j = 0; j < expectedList.size(); ++j )
+			{
+				assertEquals( expectedList.getId( j ), actualList.getId( j ) );
+				assertEquals( expectedList.getCount( j ), actualList.getCount( j ) );
+			}
+		}
+	}
+
+	@Test
+	public void testSerialization()
+	{
+		final long[] labels = new long[ 8 * 8 * 4 ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = ( i / 7 ) * 0x100000001L;
+
+		final VolatileLabelMultisetArray array = LabelMultisetArrayBuilder.get().build( labels );
+		final byte[] bytes = N5LabelMultisets.serialize( array );
+		final VolatileLabelMultisetArray deserialized = N5LabelMultisets.deserialize( bytes );
+		assertArrayEquals( array.getCurrentStorageArray(), deserialized.getCurrentStorageArray() );
+		assertEquals( array.getListDataUsedSizeInBytes(), deserialized.getListDataUsedSizeInBytes() );
+		assertSameLists( array, deserialized );
+	}
+
+	@Test
+	public void testPyramidBlocks() throws Exception
+	{
+		final N5Writer n5 = new N5FSWriter( new File( testDirectory, "pyramid.n5" ).getAbsolutePath() );
+		final String dataset = N5LabelMultisets.scaleLevelDataset( "label-multisets", 1 );
+		n5.createDataset( dataset, dimensions, blockSize, DataType.UINT8, new GzipCompression() );
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+
+		/* border block */
+		final int[] size = { 4, 4, 2 };
+		final long[] labels = new long[ size[ 0 ] * size[ 1 ] * size[ 2 ] ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = i % 3;
+		final VolatileLabelMultisetArray array = LabelMultisetArrayBuilder.get().build( labels );
+		n5.writeBlock( dataset, attributes, new ByteArrayDataBlock( size, new long[] { 2, 1, 1 }, N5LabelMultisets.serialize( array ) ) );
+
+		final N5LabelMultisetArrayLoader loader = new N5LabelMultisetArrayLoader( n5, n5, dataset, dataset );
+		assertSameLists( array, loader.loadArray( 0, 0, 1, size, new long[] { 16, 8, 4 } ) );
+
+		/* missing blocks are background */
+		final VolatileLabelMultisetArray missing = loader.loadArray( 0, 0, 1, blockSize, new long[] { 0, 0, 0 } );
+		final LabelMultisetEntryList list = new LabelMultisetEntryList();
+		missing.getValue( 0, list );
+		assertEquals( 1, list.size() );
+		assertEquals( 0, list.getId( 0 ) );
+	}
+
+	@Test
+	public void testCanvas() throws Exception
+	{
+		final N5Writer n5 = new N5FSWriter( new File( testDirectory, "canvas.n5" ).getAbsolutePath() );
+		final ArrayImg< LongType, LongArray > source = ArrayImgs.longs( dimensions );
+		for ( final LongType t : source )
+			t.set( Label.TRANSPARENT );
+		final RandomAccess< LongType > access = source.randomAccess();
+		access.setPosition( new long[] { 17, 3, 5 } );
+		access.get().set( 42 );
+
+		N5Utils.saveUnsignedLong( source, n5, "canvas", blockSize, new GzipCompression() );
+		SparseLabelCanvas canvas = N5Utils.loadSparseUnsignedLong( n5, "canvas" );
+		assertEquals( 1, canvas.numMaterializedCells() );
+		assertEquals( 42, valueAt( canvas, 17, 3, 5 ) );
+		assertEquals( Label.TRANSPARENT, valueAt( canvas, 1, 1, 1 ) );
+
+		/* rewrite cell 0 only */
+		access.get().set( 43 );
+		access.setPosition( new long[] { 1, 1, 1 } );
+		access.get().set( 7 );
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+		N5Utils.saveUnsignedLongCells( source, grid, new long[] { 0 }, n5, "canvas" );
+		canvas = N5Utils.loadSparseUnsignedLong( n5, "canvas" );
+		assertEquals( 2, canvas.numMaterializedCells() );
+		assertEquals( 7, valueAt( canvas, 1, 1, 1 ) );
+		assertEquals( 42, valueAt( canvas, 17, 3, 5 ) );
+		assertTrue( canvas.getCell( 0 ).getData().isMaterialized() );
+		assertFalse( canvas.getCell( 1 ).getData().isMaterialized() );
+	}
+
+	static long valueAt( final SparseLabelCanvas canvas, final long... position )
+	{
+		final RandomAccess< LongType > access = canvas.randomAccess();
+		access.setPosition( position );
+		return access.get().get();
+	}
+}
@@ -0,0 +1,92 @@
+package bdv.labels.labelset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+public class LabelMultisetArrayBuilderTest
+{
+	static void assertLabels( final long[] expected, final VolatileLabelMultisetArray actual )
+	{
+		final LabelMultisetEntryList list = new LabelMultisetEntryList();
+		final TLongIntHashMap offsets = new TLongIntHashMap();
+		assertEquals( expected.length, actual.getCurrentStorageArray().length );
+		for ( int i = 0; i < expected.length; ++i )
+		{
+			actual.getValue( i, list );
+			assertEquals( 1, list.size() );
+			assertEquals( expected[ i ], list.getId( 0 ) );
+			assertEquals( 1, list.getCount( 0 ) );
+
+			/* each id has exactly one list */
+			final int offset = actual.getCurrentStorageArray()[ i ];
+			if ( offsets.containsKey( expected[ i ] ) )
+				assertEquals( offsets.get( expected[ i ] ), offset );
+			else
+				offsets.put( expected[ i ], offset );
+		}
+		assertEquals( offsets.size() * 16L, actual.getListDataUsedSizeInBytes() );
+	}
+
+	@Test
+	public void testLongs()
+	{
+		final Random rnd = new Random( 42 );
+		final LabelMultisetArrayBuilder builder = LabelMultisetArrayBuilder.get();
+
+		/* runs of few ids, then many ids that grow the table, repeated to reuse it */
+		for ( int n = 0; n < 3; ++n )
+		{
+			final long[] runs = new long[ 64 * 64 * 8 ];
+			for ( int i = 0; i < runs.length; ++i )
+				runs[ i ] = ( i / 100 ) % 7 - 3;
+			assertLabels( runs, builder.build( runs ) );
+
+			final long[] many = new long[ 64 * 64 * 8 ];
+			for ( int i = 0; i < many.length; ++i )
+				many[ i ] = rnd.nextInt( 10000 ) * 0x100000001L;
+			assertLabels( many, builder.build( many ) );
+		}
+	}
+
+	@Test
+	public void testUnsigned()
+	{
+		final LabelMultisetArrayBuilder builder = LabelMultisetArrayBuilder.get();
+
+		final int[] ints = { -1, 0, 1, -1 };
+		assertLabels( new long[] { 0xffffffffL, 0, 1, 0xffffffffL }, builder.build( ints, true ) );
+		assertLabels( new long[] { -1, 0, 1, -1 }, builder.build( ints, false ) );
+
+		final short[] shorts = { -1, 0, 1 };
+		assertLabels( new long[] { 0xffffL, 0, 1 }, builder.build( shorts, true ) );
+
+		final byte[] bytes = { -1, 0, 1 };
+		assertLabels( new long[] { 0xffL, 0, 1 }, builder.build( bytes, true ) );
+
+		final float[] floats = { 1.5f, -2.0f };
+		assertLabels(
+				new long[] { Float.floatToIntBits( 1.5f ) & 0xffffffffL, Float.floatToIntBits( -2.0f ) & 0xffffffffL },
+				builder.build( floats ) );
+	}
+
+	@Test
+	public void testRunBoundaries()
+	{
+		/* the previous id of the last build must not leak into the next */
+		final LabelMultisetArrayBuilder builder = LabelMultisetArrayBuilder.get();
+		builder.build( new long[] { 5, 5, 5 } );
+		final VolatileLabelMultisetArray array = builder.build( new long[] { 7, 5 } );
+		assertNotEquals( array.getCurrentStorageArray()[ 0 ], array.getCurrentStorageArray()[ 1 ] );
+		assertLabels( new long[] { 7, 5 }, array );
+
+		final VolatileLabelMultisetArray single = builder.build( new long[] { 5 } );
+		assertLabels( new long[] { 5 }, single );
+		assertEquals( 0, single.getCurrentStorageArray()[ 0 ] );
+	}
+}
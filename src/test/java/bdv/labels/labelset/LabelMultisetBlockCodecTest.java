@@ -0,0 +1,112 @@
+package bdv.labels.labelset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LabelMultisetBlockCodecTest
+{
+	final static private long[][] ids = {
+			{ 0 },
+			{ 1, 2, 3 },
+			{ 5, 0x7fffffffffffffffL },
+			{ Label.INVALID, Label.TRANSPARENT },
+			{ 42, 1000000, 1000001, 0x123456789aL } };
+
+	/**
+	 * Create a block of {@code numElements} pixels whose lists are referenced
+	 * in runs.
+	 */
+	static VolatileLabelMultisetArray createBlock( final int numElements )
+	{
+		final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( 32 );
+		final LabelMultisetEntryList list = new LabelMultisetEntryList( listData, 0 );
+		final LabelMultisetEntry entry = new LabelMultisetEntry( 0, 1 );
+		final int[] listOffsets = new int[ ids.length ];
+		int nextListOffset = 0;
+		for ( int l = 0; l < ids.length; ++l )
+		{
+			list.createListAt( listData, nextListOffset );
+			for ( int i = 0; i < ids[ l ].length; ++i )
+			{
+				entry.setId( ids[ l ][ i ] );
+				entry.setCount( 1 + i * 1000 + l );
+				list.add( entry );
+			}
+			listOffsets[ l ] = nextListOffset;
+			nextListOffset += list.getSizeInBytes();
+		}
+
+		final int[] data = new int[ numElements ];
+		for ( int i = 0; i < numElements; ++i )
+			data[ i ] = listOffsets[ ( i / 5 + i / 17 ) % ids.length ];
+		return new VolatileLabelMultisetArray( data, listData, nextListOffset, true );
+	}
+
+	static void assertSameLists( final VolatileLabelMultisetArray expected, final VolatileLabelMultisetArray actual )
+	{
+		final LabelMultisetEntryList expectedList = new LabelMultisetEntryList();
+		final LabelMultisetEntryList actualList = new LabelMultisetEntryList();
+		assertEquals( expected.getCurrentStorageArray().length, actual.getCurrentStorageArray().length );
+		for ( int i = 0; i < expected.getCurrentStorageArray().length; ++i )
+		{
+			expected.getValue( i, expectedList );
+			actual.getValue( i, actualList );
+			assertEquals( expectedList.size(), actualList.size() );
+			for ( int j = 0; j < expectedList.size(); ++j )
+			{
+				assertEquals( expectedList.getId( j ), actualList.getId( j ) );
+				assertEquals( expectedList.getCount( j ), actualList.getCount( j ) );
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		final VolatileLabelMultisetArray block = createBlock( 32 * 32 * 8 );
+		for ( final boolean deflate : new boolean[] { false, true } )
+		{
+			final byte[] bytes = LabelMultisetBlockCodec.encode( block, deflate );
+			final VolatileLabelMultisetArray decoded = LabelMultisetBlockCodec.decode( bytes );
+			assertSameLists( block, decoded );
+			assertEquals( block.getListDataUsedSizeInBytes(), decoded.getListDataUsedSizeInBytes() );
+
+			/* smaller than the legacy offsets and lists */
+			assertTrue( bytes.length < 4 * block.getCurrentStorageArray().length + block.getListDataUsedSizeInBytes() );
+		}
+	}
+
+	@Test
+	public void testOffHeapRoundTrip()
+	{
+		final VolatileLabelMultisetArray block = createBlock( 1000 );
+		final OffHeapLongMappedAccessData listData = OffHeapLongMappedAccessData.factory.createStorage( block.getListDataUsedSizeInBytes() );
+		listData.createAccess().copyFrom( block.getListData().createAccess(), ( int ) block.getListDataUsedSizeInBytes() );
+		final VolatileLabelMultisetArray offHeap = new VolatileLabelMultisetArray(
+				block.getCurrentStorageArray(),
+				listData,
+				block.getListDataUsedSizeInBytes(),
+				true );
+
+		assertSameLists( block, LabelMultisetBlockCodec.decode( LabelMultisetBlockCodec.encode( offHeap, true ) ) );
+	}
+
+	@Test
+	public void testListDataFromInts()
+	{
+		final VolatileLabelMultisetArray block = createBlock( 100 );
+		final LongMappedAccess access = block.getListData().createAccess();
+		final int[] lists = new int[ ( int ) ( block.getListDataUsedSizeInBytes() / 4 ) ];
+		for ( int i = 0; i < lists.length; ++i )
+			lists[ i ] = access.getInt( i * 4 );
+
+		final VolatileLabelMultisetArray legacy = new VolatileLabelMultisetArray(
+				block.getCurrentStorageArray(),
+				LabelMultisetBlockCodec.listDataFromInts( lists ),
+				4L * lists.length,
+				true );
+		assertSameLists( block, legacy );
+	}
+}
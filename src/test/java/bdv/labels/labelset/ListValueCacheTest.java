@@ -0,0 +1,54 @@
+package bdv.labels.labelset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ListValueCacheTest
+{
+	@Test
+	public void testPutGet()
+	{
+		final ListValueCache cache = new ListValueCache( this, 3, 1000 );
+		assertEquals( ListValueCache.MISSING, cache.get( 0 ) );
+		assertEquals( ListValueCache.MISSING, cache.get( 16 ) );
+
+		/* zero and negative values (all bits set) are valid values */
+		cache.put( 0, 0 );
+		cache.put( 16, 0xff00ff00 );
+		assertEquals( 0, cache.get( 0 ) );
+		assertEquals( 0xff00ff00L, cache.get( 16 ) );
+		assertEquals( 0xff00ff00, ( int ) cache.get( 16 ) );
+
+		/* any offset either hits its own value or misses */
+		for ( int offset = 0; offset < 100000; offset += 4 )
+			cache.put( offset, offset * 7 );
+		for ( int offset = 0; offset < 100000; offset += 4 )
+		{
+			final long value = cache.get( offset );
+			assertTrue( value == ListValueCache.MISSING || value == offset * 7 );
+		}
+	}
+
+	@Test
+	public void testArrayCache()
+	{
+		final VolatileLabelMultisetArray array = new VolatileLabelMultisetArray( 64, true );
+		final Object owner = new Object();
+		final ListValueCache cache = array.getListValueCache( owner, 1 );
+		cache.put( 0, 42 );
+
+		assertSame( cache, array.getListValueCache( owner, 1 ) );
+		assertTrue( cache.isValidFor( owner, 1 ) );
+		assertFalse( cache.isValidFor( owner, 2 ) );
+		assertFalse( cache.isValidFor( new Object(), 1 ) );
+
+		final ListValueCache newCache = array.getListValueCache( owner, 2 );
+		assertNotSame( cache, newCache );
+		assertEquals( ListValueCache.MISSING, newCache.get( 0 ) );
+	}
+}
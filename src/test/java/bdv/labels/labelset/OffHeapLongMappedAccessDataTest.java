@@ -0,0 +1,144 @@
+package bdv.labels.labelset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapLongMappedAccessDataTest
+{
+	@Test
+	public void testPrimitivesAcrossPages()
+	{
+		final OffHeapLongMappedAccessData data = OffHeapLongMappedAccessData.factory.createStorage( 16 );
+		final LongMappedAccess access = data.createAccess();
+		final Random rnd = new Random( 0 );
+		final int n = 10000;
+		final long[] longs = new long[ n ];
+		final int[] ints = new int[ n ];
+
+		/* 12 byte records make longs and ints straddle page boundaries */
+		data.resize( n * 12 );
+		for ( int i = 0; i < n; ++i )
+		{
+			longs[ i ] = rnd.nextLong();
+			ints[ i ] = rnd.nextInt();
+			access.putLong( longs[ i ], i * 12 );
+			access.putInt( ints[ i ], i * 12 + 8 );
+		}
+		for ( int i = 0; i < n; ++i )
+		{
+			Assert.assertEquals( longs[ i ], access.getLong( i * 12 ) );
+			Assert.assertEquals( ints[ i ], access.getInt( i * 12 + 8 ) );
+		}
+
+		access.putDouble( Math.PI, 124 );
+		Assert.assertEquals( Math.PI, access.getDouble( 124 ), 0 );
+		access.putFloat( 1.5f, 62 );
+		Assert.assertEquals( 1.5f, access.getFloat( 62 ), 0 );
+	}
+
+	@Test
+	public void testSameListsAsHeap()
+	{
+		final LongMappedAccessData heap = LongMappedAccessData.factory.createStorage( 32 );
+		final OffHeapLongMappedAccessData offHeap = OffHeapLongMappedAccessData.factory.createStorage( 32 );
+		final LabelMultisetEntryList heapList = new LabelMultisetEntryList( heap, 0 );
+		final LabelMultisetEntryList offHeapList = new LabelMultisetEntryList( offHeap, 0 );
+		final Random rnd = new Random( 1 );
+		for ( int i = 0; i < 1000; ++i )
+		{
+			final LabelMultisetEntry entry = new LabelMultisetEntry( rnd.nextLong(), rnd.nextInt( 100 ) );
+			final int index = rnd.nextInt( heapList.size() + 1 );
+			heapList.add( index, entry );
+			offHeapList.add( index, entry );
+		}
+		heapList.sortById();
+		offHeapList.sortById();
+
+		Assert.assertEquals( heapList.size(), offHeapList.size() );
+		Assert.assertEquals( heapList, offHeapList );
+		for ( int i = 0; i < heapList.size(); ++i )
+			Assert.assertEquals( heapList.get( i ).getId(), offHeapList.get( i ).getId() );
+	}
+
+	@Test
+	public void testGrowFirstPage()
+	{
+		/* 100 bytes are rounded up to 104, growing replaces page 0 */
+		Assert.assertEquals( 104, OffHeapLongMappedAccessData.sizeClass( 100 ) );
+		Assert.assertEquals( 1 << 20, OffHeapLongMappedAccessData.sizeClass( 1 << 20 ) );
+		final OffHeapLongMappedAccessData data = OffHeapLongMappedAccessData.factory.createStorage( 100 );
+		final LongMappedAccess access = data.createAccess();
+		for ( int i = 0; i < 12; ++i )
+			access.putLong( i, 8 * i );
+		data.resize( 1000 );
+		for ( int i = 12; i < 125; ++i )
+			access.putLong( i, 8 * i );
+		for ( int i = 0; i < 125; ++i )
+			Assert.assertEquals( i, access.getLong( 8 * i ) );
+		data.release();
+	}
+
+	@Test
+	public void testReleasedPagesAreReused()
+	{
+		final OffHeapLongMappedAccessData.PagePool pool = OffHeapLongMappedAccessData.pool;
+		final OffHeapLongMappedAccessData data = OffHeapLongMappedAccessData.factory.createStorage( 4096 );
+		data.createAccess().putLong( 42, 8 );
+		final long allocated = pool.getAllocatedBytes();
+		data.release();
+		Assert.assertTrue( pool.getPooledBytes() >= 4096 );
+
+		/* reused pages are zeroed */
+		final OffHeapLongMappedAccessData reused = OffHeapLongMappedAccessData.factory.createStorage( 4096 );
+		Assert.assertEquals( allocated, pool.getAllocatedBytes() );
+		Assert.assertEquals( 0, reused.createAccess().getLong( 8 ) );
+		reused.release();
+	}
+
+	@Test
+	public void testCopyFromBuffer()
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( 4 * 1000 ).order( ByteOrder.nativeOrder() );
+		for ( int i = 0; i < 1000; ++i )
+			buffer.putInt( i );
+		buffer.flip();
+
+		final LongMappedAccessData heap = LongMappedAccessData.factory.createStorage( 4 * 1000 );
+		final OffHeapLongMappedAccessData offHeap = OffHeapLongMappedAccessData.factory.createStorage( 16 );
+		offHeap.resize( 4 * 1000 );
+		heap.copyFrom( buffer, 0 );
+		offHeap.copyFrom( buffer, 0 );
+		Assert.assertEquals( 0, buffer.position() );
+		final LongMappedAccess heapAccess = heap.createAccess();
+		final LongMappedAccess offHeapAccess = offHeap.createAccess();
+		for ( int i = 0; i < 1000; ++i )
+		{
+			Assert.assertEquals( i, heapAccess.getInt( 4 * i ) );
+			Assert.assertEquals( i, offHeapAccess.getInt( 4 * i ) );
+		}
+		offHeap.release();
+	}
+
+	@Test
+	public void testCacheFactoryFallsBackToHeap()
+	{
+		final long maxCacheBytes = OffHeapLongMappedAccessData.getMaxCacheBytes();
+		try
+		{
+			OffHeapLongMappedAccessData.setMaxCacheBytes( 0 );
+			Assert.assertFalse( OffHeapLongMappedAccessData.cacheFactory.createStorage( 64 ) instanceof OffHeapLongMappedAccessData );
+			OffHeapLongMappedAccessData.setMaxCacheBytes( Long.MAX_VALUE );
+			final LongMappedAccessData data = OffHeapLongMappedAccessData.cacheFactory.createStorage( 64 );
+			Assert.assertTrue( data instanceof OffHeapLongMappedAccessData );
+			( ( OffHeapLongMappedAccessData ) data ).release();
+		}
+		finally
+		{
+			OffHeapLongMappedAccessData.setMaxCacheBytes( maxCacheBytes );
+		}
+	}
+}
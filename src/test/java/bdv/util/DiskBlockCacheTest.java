@@ -0,0 +1,115 @@
+package bdv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskBlockCacheTest
+{
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory( "disk-block-cache" );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.walk( directory ).sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+	}
+
+	static byte[] block( final int value, final int size )
+	{
+		final byte[] data = new byte[ size ];
+		for ( int i = 0; i < size; ++i )
+			data[ i ] = ( byte ) ( value + i );
+		return data;
+	}
+
+	static byte[] bytes( final ByteBuffer buffer )
+	{
+		final byte[] data = new byte[ buffer.remaining() ];
+		buffer.get( data );
+		return data;
+	}
+
+	@Test
+	public void testPersistentLru() throws IOException
+	{
+		final String prefix = DiskBlockCache.dvidNodeKey( "http://localhost/api", "abc" );
+		final DiskBlockCache cache = new DiskBlockCache( directory.toString(), 3 * 1100 );
+		for ( int i = 0; i < 3; ++i )
+			cache.put( prefix + "grayscale/blocks/" + i, block( i, 1000 ) );
+		assertEquals( 3, cache.getNumBlocks() );
+
+		/* touch 0 such that 1 is evicted first */
+		assertArrayEquals( block( 0, 1000 ), bytes( cache.get( prefix + "grayscale/blocks/0" ) ) );
+		cache.put( prefix + "grayscale/blocks/3", block( 3, 1000 ) );
+		assertNull( cache.get( prefix + "grayscale/blocks/1" ) );
+		assertNotNull( cache.get( prefix + "grayscale/blocks/0" ) );
+		assertEquals( 3, cache.getNumBlocks() );
+
+		/* survives a restart */
+		final DiskBlockCache reopened = new DiskBlockCache( directory.toString(), 3 * 1100 );
+		assertEquals( 3, reopened.getNumBlocks() );
+		assertEquals( cache.getSizeInBytes(), reopened.getSizeInBytes() );
+		for ( final int i : new int[] { 0, 2, 3 } )
+			assertArrayEquals( block( i, 1000 ), bytes( reopened.get( prefix + "grayscale/blocks/" + i ) ) );
+	}
+
+	@Test
+	public void testFetchAndInvalidate() throws IOException
+	{
+		final DiskBlockCache cache = new DiskBlockCache( directory.toString(), 1 << 20 );
+		final String node1 = DiskBlockCache.dvidNodeKey( "http://localhost/api", "n1" );
+		final String node2 = DiskBlockCache.dvidNodeKey( "http://localhost/api", "n2" );
+
+		final AtomicInteger fetches = new AtomicInteger();
+		final DiskBlockCache.Fetcher fetcher = key -> {
+			fetches.incrementAndGet();
+			return key.getBytes();
+		};
+		for ( int n = 0; n < 2; ++n )
+			for ( final String node : new String[] { node1, node2 } )
+				assertArrayEquals( ( node + "labels/0" ).getBytes(), bytes( cache.get( node + "labels/0", ( node + "labels/0" ).length(), fetcher ) ) );
+		assertEquals( 2, fetches.get() );
+		assertEquals( 2, cache.getHits() );
+
+		cache.invalidate( node1 );
+		assertNull( cache.get( node1 + "labels/0" ) );
+		assertNotNull( cache.get( node2 + "labels/0" ) );
+
+		/* failed fetches are not cached */
+		try
+		{
+			cache.get( node1 + "labels/1", 16, key -> {
+				throw new IOException();
+			} );
+		}
+		catch ( final IOException e )
+		{}
+		assertNull( cache.get( node1 + "labels/1" ) );
+
+		/* incomplete blocks are returned but not cached */
+		assertArrayEquals( block( 1, 8 ), bytes( cache.get( node1 + "labels/2", 16, key -> block( 1, 8 ) ) ) );
+		assertNull( cache.get( node1 + "labels/2" ) );
+
+		cache.invalidateAll();
+		assertEquals( 0, cache.getNumBlocks() );
+		assertEquals( 0, cache.getSizeInBytes() );
+	}
+}
@@ -0,0 +1,115 @@
+package bdv.util;
+
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class RemoteIdServiceTest
+{
+	final static String url = "inproc://remote-id-service-test";
+
+	private ZContext ctx;
+
+	private Thread server;
+
+	/**
+	 * Stand-in for the remote id service that hands out consecutive ranges
+	 * starting at 1.
+	 */
+	@Before
+	public void startServer()
+	{
+		ctx = new ZContext();
+		final Socket socket = ctx.createSocket( ZMQ.REP );
+		socket.bind( url );
+
+		server = new Thread( () -> {
+			long next = 1;
+			try
+			{
+				while ( !Thread.currentThread().isInterrupted() )
+				{
+					final String msg = socket.recvStr();
+					if ( msg == null )
+						break;
+					final int count = new JsonParser().parse( msg ).getAsJsonObject().get( "count" ).getAsInt();
+					final JsonObject response = new JsonObject();
+					response.addProperty( "begin", next );
+					response.addProperty( "end", next + count );
+					next += count;
+					socket.send( response.toString() );
+				}
+			}
+			catch ( final Exception e )
+			{
+				/* context terminated */
+			}
+		} );
+		server.setDaemon( true );
+		server.start();
+	}
+
+	@After
+	public void stopServer()
+	{
+		ctx.destroy();
+	}
+
+	@Test
+	public void testUnique()
+	{
+		final RemoteIdService service = new RemoteIdService( ctx, url, 10, 5 );
+
+		/* the server hands out increasing ranges, so ids increase too */
+		final HashSet< Long > ids = new HashSet<>();
+		long last = 0;
+		for ( int i = 0; i < 100; ++i )
+		{
+			final long id = service.next();
+			Assert.assertTrue( id > last );
+			Assert.assertTrue( ids.add( id ) );
+			last = id;
+		}
+		for ( final long id : service.next( 95 ) )
+		{
+			Assert.assertTrue( id > last );
+			Assert.assertTrue( ids.add( id ) );
+			last = id;
+		}
+
+		Assert.assertEquals( 195, ids.size() );
+
+		service.close();
+	}
+
+	@Test
+	public void testInvalidate()
+	{
+		final RemoteIdService service = new RemoteIdService( ctx, url, 10, 5 );
+
+		final long first = service.next();
+		service.invalidate( first + 3 );
+		Assert.assertEquals( first + 4, service.next() );
+
+		service.invalidate( 50 );
+		final long[] ids = service.next( 20 );
+		for ( final long id : ids )
+			Assert.assertTrue( id > 50 );
+
+		/* invalidating an id below next has no effect */
+		final long next = service.next();
+		service.invalidate( 1 );
+		Assert.assertEquals( next + 1, service.next() );
+
+		service.close();
+	}
+}
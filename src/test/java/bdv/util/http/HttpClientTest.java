@@ -0,0 +1,200 @@
+package bdv.util.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests against a local stub server that serves DVID like
+ * <code>raw/0_1_2/dx_dy_dz/x_y_z</code> subvolumes of one byte per pixel
+ * whose value is a function of the pixel position.
+ */
+public class HttpClientTest
+{
+	private HttpServer server;
+
+	private String url;
+
+	final private AtomicInteger requests = new AtomicInteger();
+
+	final private Set< Integer > clientPorts = Collections.synchronizedSet( new HashSet<>() );
+
+	static byte value( final long x, final long y, final long z )
+	{
+		return ( byte ) ( x + 3 * y + 7 * z );
+	}
+
+	static long[] parse( final String s )
+	{
+		final String[] parts = s.split( "_" );
+		return new long[] { Long.parseLong( parts[ 0 ] ), Long.parseLong( parts[ 1 ] ), Long.parseLong( parts[ 2 ] ) };
+	}
+
+	private void handleRaw( final HttpExchange exchange ) throws IOException
+	{
+		requests.incrementAndGet();
+		clientPorts.add( exchange.getRemoteAddress().getPort() );
+
+		final String[] path = exchange.getRequestURI().getPath().split( "/" );
+		final long[] size = parse( path[ path.length - 2 ] );
+		final long[] offset = parse( path[ path.length - 1 ] );
+		final byte[] data = new byte[ ( int ) ( size[ 0 ] * size[ 1 ] * size[ 2 ] ) ];
+		for ( int z = 0, i = 0; z < size[ 2 ]; ++z )
+			for ( int y = 0; y < size[ 1 ]; ++y )
+				for ( int x = 0; x < size[ 0 ]; ++x, ++i )
+					data[ i ] = value( offset[ 0 ] + x, offset[ 1 ] + y, offset[ 2 ] + z );
+
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+		final byte[] body;
+		if ( acceptEncoding != null && acceptEncoding.contains( "gzip" ) )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try ( final GZIPOutputStream gzip = new GZIPOutputStream( bytes ) )
+			{
+				gzip.write( data );
+			}
+			body = bytes.toByteArray();
+			exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+		}
+		else
+			body = data;
+
+		exchange.sendResponseHeaders( 200, body.length );
+		try ( final OutputStream out = exchange.getResponseBody() )
+		{
+			out.write( body );
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		server.createContext( "/raw/", this::handleRaw );
+		server.createContext( "/missing", exchange -> {
+			final byte[] message = "not found".getBytes();
+			exchange.sendResponseHeaders( 404, message.length );
+			try ( final OutputStream out = exchange.getResponseBody() )
+			{
+				out.write( message );
+			}
+		} );
+		server.setExecutor( Executors.newFixedThreadPool( 4 ) );
+		server.start();
+		url = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop( 0 );
+	}
+
+	static byte[] expected( final long[] min, final int[] size )
+	{
+		final byte[] data = new byte[ size[ 0 ] * size[ 1 ] * size[ 2 ] ];
+		for ( int z = 0, i = 0; z < size[ 2 ]; ++z )
+			for ( int y = 0; y < size[ 1 ]; ++y )
+				for ( int x = 0; x < size[ 0 ]; ++x, ++i )
+					data[ i ] = value( min[ 0 ] + x, min[ 1 ] + y, min[ 2 ] + z );
+		return data;
+	}
+
+	@Test
+	public void testKeepAliveAndGzip() throws IOException
+	{
+		final HttpClient client = new HttpClient( 4, 1000, 1000 );
+		for ( int i = 0; i < 10; ++i )
+			assertArrayEquals(
+					expected( new long[] { i, 1, 2 }, new int[] { 8, 4, 2 } ),
+					client.get( url + "/raw/0_1_2/8_4_2/" + i + "_1_2" ) );
+
+		/* padded and truncated */
+		final byte[] padded = client.get( url + "/raw/0_1_2/2_1_1/0_0_0", 4 );
+		assertArrayEquals( new byte[] { value( 0, 0, 0 ), value( 1, 0, 0 ), 0, 0 }, padded );
+		assertArrayEquals( new byte[] { value( 0, 0, 0 ) }, client.get( url + "/raw/0_1_2/2_1_1/0_0_0", 1 ) );
+
+		try
+		{
+			client.get( url + "/missing" );
+			fail();
+		}
+		catch ( final IOException e )
+		{}
+
+		assertArrayEquals( expected( new long[] { 0, 0, 0 }, new int[] { 1, 1, 1 } ), client.get( url + "/raw/0_1_2/1_1_1/0_0_0" ) );
+
+		/* all sequential requests used the same connection */
+		assertEquals( 1, clientPorts.size() );
+	}
+
+	@Test
+	public void testBatchedFetch() throws Exception
+	{
+		final int[] blockSize = { 4, 3, 2 };
+		final int batchSize = 4;
+		final BatchedBlockFetcher fetcher = new BatchedBlockFetcher(
+				new HttpClient( 4, 1000, 1000 ),
+				blockSize,
+				1,
+				batchSize,
+				BatchedBlockFetcher.Layout.SUBVOLUME,
+				( gridPosition, numBlocks ) -> url + "/raw/0_1_2/" +
+						numBlocks * blockSize[ 0 ] + "_" + blockSize[ 1 ] + "_" + blockSize[ 2 ] + "/" +
+						gridPosition[ 0 ] * blockSize[ 0 ] + "_" + gridPosition[ 1 ] * blockSize[ 1 ] + "_" + gridPosition[ 2 ] * blockSize[ 2 ] );
+
+		final List< long[] > positions = new ArrayList<>();
+		for ( long z = 0; z < 2; ++z )
+			for ( long y = 0; y < 2; ++y )
+				for ( long x = -4; x < 8; ++x )
+					positions.add( new long[] { x, y, z } );
+		Collections.shuffle( positions, new Random( 1 ) );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 8 );
+		final List< Future< byte[] > > futures = new ArrayList<>();
+		for ( final long[] position : positions )
+			futures.add( exec.submit( () -> fetcher.fetch( position ) ) );
+		for ( int i = 0; i < positions.size(); ++i )
+		{
+			final long[] p = positions.get( i );
+			assertArrayEquals(
+					expected( new long[] { p[ 0 ] * blockSize[ 0 ], p[ 1 ] * blockSize[ 1 ], p[ 2 ] * blockSize[ 2 ] }, blockSize ),
+					futures.get( i ).get() );
+		}
+		exec.shutdown();
+
+		/* one request per batch */
+		assertEquals( positions.size() / batchSize, requests.get() );
+
+		/* blocks of a short response are truncated to their complete rows */
+		final byte[] batch = new byte[ batchSize * blockSize[ 0 ] * ( blockSize[ 1 ] * blockSize[ 2 ] - 1 ) + 2 * blockSize[ 0 ] ];
+		final byte[][] blocks = fetcher.split( batch );
+		assertEquals( blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ], blocks[ 0 ].length );
+		assertEquals( blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ], blocks[ 1 ].length );
+		assertEquals( blockSize[ 0 ] * ( blockSize[ 1 ] * blockSize[ 2 ] - 1 ), blocks[ 2 ].length );
+		assertEquals( blockSize[ 0 ] * ( blockSize[ 1 ] * blockSize[ 2 ] - 1 ), blocks[ 3 ].length );
+	}
+}